@@ -0,0 +1,62 @@
+// Licensed to Cloudera, Inc. under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  Cloudera, Inc. licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.api;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.jaxrs.json.JacksonJsonProvider;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.util.Set;
+
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+
+/**
+ * JSON provider of the clients, reading the responses of streamed calls (see
+ * {@link ApiListStreaming}) incrementally, and only the requested properties
+ * of the responses of calls with fields (see {@link FieldsProjection}).
+ */
+class ApiJsonProvider extends JacksonJsonProvider {
+
+  ApiJsonProvider(ObjectMapper mapper) {
+    super(mapper);
+  }
+
+  @Override
+  public Object readFrom(Class<Object> type, Type genericType,
+                         Annotation[] annotations, MediaType mediaType,
+                         MultivaluedMap<String, String> httpHeaders,
+                         InputStream entityStream) throws IOException {
+    Set<String> fields = FieldsProjection.take();
+    if (ApiListStreaming.isActive()) {
+      return ApiListStreaming.read(locateMapper(type, mediaType), type,
+          entityStream);
+    }
+    if (fields != null) {
+      ObjectMapper mapper = locateMapper(type, mediaType);
+      JsonParser parser = FieldsProjection.project(
+          mapper.getFactory().createParser(entityStream), type, fields);
+      return mapper.readValue(parser, mapper.constructType(genericType));
+    }
+    return super.readFrom(type, genericType, annotations, mediaType,
+        httpHeaders, entityStream);
+  }
+}
@@ -0,0 +1,144 @@
+// Licensed to Cloudera, Inc. under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  Cloudera, Inc. licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.api;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the items of a JSON API list (e.g. an {@link
+ * com.cloudera.api.model.ApiHostList}) one at a time, as they are parsed from
+ * a stream, instead of materializing the whole list. Only the item being read
+ * is kept in memory.
+ * <p>
+ * The other properties of the list, such as the total number of results of an
+ * {@link com.cloudera.api.model.ApiEventQueryResult}, are available from
+ * {@link #getEnvelope(Class)} once all the items have been read.
+ * <p>
+ * I/O and parse errors are thrown from {@link #hasNext()} as unchecked
+ * exceptions.
+ *
+ * @param <T> The type of the items.
+ * @see ApiListStreaming
+ */
+public class ApiListIterator<T> extends AbstractIterator<T>
+    implements Closeable {
+
+  /** Property holding the items of API lists. */
+  static final String ITEMS_ATTR = "items";
+
+  private final ObjectMapper mapper;
+  private final ObjectReader itemReader;
+  private final JsonParser parser;
+  private final ObjectNode envelope;
+  private boolean inItems;
+
+  /**
+   * @param mapper The mapper used to read the items.
+   * @param in The JSON of the list.
+   * @param itemType The type of the items.
+   */
+  public ApiListIterator(ObjectMapper mapper, InputStream in,
+                         Class<T> itemType) throws IOException {
+    this.mapper = Preconditions.checkNotNull(mapper);
+    this.itemReader = mapper.reader(itemType);
+    this.parser = mapper.getFactory().createParser(in);
+    this.envelope = mapper.createObjectNode();
+
+    JsonToken token = parser.nextToken();
+    if (token == JsonToken.START_ARRAY) {
+      // A bare array of items.
+      inItems = true;
+    } else if (token == JsonToken.START_OBJECT) {
+      inItems = readEnvelope();
+    } else if (token != null) {
+      throw new JsonMappingException("Expected a list, got " + token,
+          parser.getCurrentLocation());
+    }
+  }
+
+  /**
+   * Reads the properties of the list up to its items, or to its end.
+   *
+   * @return Whether the items were reached.
+   */
+  private boolean readEnvelope() throws IOException {
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.getCurrentName();
+      JsonToken value = parser.nextToken();
+      if (name.equals(ITEMS_ATTR) &&
+          value == JsonToken.START_ARRAY) {
+        return true;
+      }
+      envelope.put(name, mapper.<JsonNode>readTree(parser));
+    }
+    return false;
+  }
+
+  /**
+   * @return The next item, or null once all have been read.
+   */
+  T readNext() throws IOException {
+    if (!inItems) {
+      return null;
+    }
+    if (parser.nextToken() == JsonToken.END_ARRAY) {
+      inItems = false;
+      readEnvelope();
+      return null;
+    }
+    return itemReader.readValue(parser);
+  }
+
+  @Override
+  protected T computeNext() {
+    try {
+      T next = readNext();
+      return next != null ? next : endOfData();
+    } catch (IOException e) {
+      throw Throwables.propagate(e);
+    }
+  }
+
+  /**
+   * Builds the list object around the items, without them.
+   *
+   * @param listType The type of the list.
+   * @return The list, holding all its properties other than its items.
+   */
+  public <L> L getEnvelope(Class<L> listType) throws IOException {
+    Preconditions.checkState(!inItems, "Items have not all been read.");
+    return mapper.treeToValue(envelope, listType);
+  }
+
+  @Override
+  public void close() throws IOException {
+    parser.close();
+  }
+}
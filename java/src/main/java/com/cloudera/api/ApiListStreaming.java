@@ -0,0 +1,151 @@
+// Licensed to Cloudera, Inc. under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  Cloudera, Inc. licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.api;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Streams the items of large list responses (e.g. <tt>readHosts(FULL)</tt>,
+ * audits or events) to a handler as they are parsed, instead of materializing
+ * the whole list first. Only the item being handled is kept in memory.
+ * For example:
+ * <pre>
+ *   ApiListStreaming.forEach(ApiHost.class,
+ *       new ApiListStreaming.ItemHandler&lt;ApiHost&gt;() {
+ *         public void handle(ApiHost host) {
+ *           ...
+ *         }
+ *       },
+ *       new Supplier&lt;ApiHostList&gt;() {
+ *         public ApiHostList get() {
+ *           return hosts.readHosts(DataView.FULL);
+ *         }
+ *       });
+ * </pre>
+ * The call is made on the calling thread, with any client built by {@link
+ * ClouderaManagerClientBuilder}, and returns the list without its items, but
+ * with its other properties. Streamed calls bypass the response cache and
+ * request coalescing.
+ *
+ * @see ApiListIterator
+ */
+public final class ApiListStreaming {
+
+  /** Receives the items of a list, in order. */
+  public interface ItemHandler<T> {
+    void handle(T item);
+  }
+
+  private static final ThreadLocal<ResponseReader> REQUEST =
+      new ThreadLocal<ResponseReader>();
+
+  private ApiListStreaming() {
+  }
+
+  /**
+   * Makes a call returning a list, streaming the items of the list to a
+   * handler.
+   *
+   * @param itemType The type of the items of the list.
+   * @param handler Receives the items, as they are read.
+   * @param call Makes the call.
+   * @return The list returned by the call, without its items.
+   */
+  public static <T, L> L forEach(Class<T> itemType,
+                                 ItemHandler<? super T> handler,
+                                 Supplier<L> call) {
+    return call(new ItemsReader<T>(Preconditions.checkNotNull(itemType),
+        Preconditions.checkNotNull(handler)), call);
+  }
+
+  /**
+   * Makes a call whose response is read by the given reader rather than
+   * materialized by the mapper.
+   */
+  static <L> L call(ResponseReader reader, Supplier<L> call) {
+    Preconditions.checkState(REQUEST.get() == null,
+        "Streaming calls cannot be nested.");
+    REQUEST.set(reader);
+    try {
+      return call.get();
+    } finally {
+      REQUEST.remove();
+    }
+  }
+
+  /**
+   * @return Whether the calling thread makes a call whose response is to be
+   *         streamed.
+   */
+  static boolean isActive() {
+    ResponseReader request = REQUEST.get();
+    return request != null && !request.done;
+  }
+
+  /**
+   * Reads a response with the reader of the call of the calling thread.
+   *
+   * @return The object to return from the call.
+   */
+  static Object read(ObjectMapper mapper, Class<?> listType, InputStream in)
+      throws IOException {
+    ResponseReader request = REQUEST.get();
+    // Only the response of the call is streamed.
+    request.done = true;
+    return request.read(mapper, listType, in);
+  }
+
+  /** Reads the response of a streamed call. */
+  abstract static class ResponseReader {
+    private boolean done;
+
+    /**
+     * @return The object to return from the call.
+     */
+    abstract Object read(ObjectMapper mapper, Class<?> type, InputStream in)
+        throws IOException;
+  }
+
+  private static class ItemsReader<T> extends ResponseReader {
+    private final Class<T> itemType;
+    private final ItemHandler<? super T> handler;
+
+    ItemsReader(Class<T> itemType, ItemHandler<? super T> handler) {
+      this.itemType = itemType;
+      this.handler = handler;
+    }
+
+    @Override
+    Object read(ObjectMapper mapper, Class<?> listType, InputStream in)
+        throws IOException {
+      ApiListIterator<T> items = new ApiListIterator<T>(mapper, in, itemType);
+      try {
+        for (T item = items.readNext(); item != null; item = items.readNext()) {
+          handler.handle(item);
+        }
+        return items.getEnvelope(listType);
+      } finally {
+        items.close();
+      }
+    }
+  }
+}
@@ -17,11 +17,13 @@
 package com.cloudera.api;
 
 import com.fasterxml.jackson.databind.AnnotationIntrospector;
+import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.MapperFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.module.jaxb.JaxbAnnotationIntrospector;
 
+import java.lang.reflect.Type;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
@@ -32,9 +34,18 @@ import java.util.SimpleTimeZone;
  */
 public class ApiObjectMapper extends ObjectMapper {
 
+  private final DateFormat iso8601;
+
   public ApiObjectMapper() {
-    // Print the JSON with indentation (ie. pretty print)
-    configure(SerializationFeature.INDENT_OUTPUT, true);
+    this(true);
+  }
+
+  /**
+   * @param indentOutput Whether to pretty print the JSON. Compact output is
+   *                     smaller and faster to write, and meant for the wire.
+   */
+  public ApiObjectMapper(boolean indentOutput) {
+    configure(SerializationFeature.INDENT_OUTPUT, indentOutput);
 
     // Allow JAX-B annotations.
     setAnnotationIntrospector(
@@ -46,7 +57,48 @@ public class ApiObjectMapper extends ObjectMapper {
     enable(MapperFeature.USE_WRAPPER_NAME_AS_PROPERTY_NAME);
 
     // Print all dates in ISO8601 format
-    setDateFormat(makeISODateFormat());
+    iso8601 = makeISODateFormat();
+    setDateFormat(iso8601);
+    registerModule(new Iso8601DateModule(iso8601));
+  }
+
+  /**
+   * @return Whether the mapper still reads dates with its own ISO-8601
+   *         format, rather than with one it was given since.
+   */
+  boolean hasIso8601DateFormat() {
+    return getDeserializationConfig().getDateFormat() == iso8601;
+  }
+
+  /**
+   * Makes the mapper deduplicate the strings it reads, such as the metric,
+   * entity and service names repeated throughout time series, role lists or
+   * audits, through a bounded pool shared by all the objects it reads. This
+   * shrinks long-lived copies of those objects, at the cost of a lookup per
+   * string read.
+   * <p>
+   * Must be called before the mapper is first used.
+   *
+   * @param poolSize The number of strings the pool holds.
+   * @return This mapper.
+   */
+  public ApiObjectMapper enableStringDeduplication(int poolSize) {
+    registerModule(new StringDeduplicationModule(poolSize));
+    return this;
+  }
+
+  /**
+   * Resolves and caches the serializers and deserializers of the given
+   * types, so that the first calls using them do not pay for it.
+   *
+   * @param types The types to prepare.
+   */
+  public void warmUp(Type... types) {
+    for (Type type : types) {
+      JavaType javaType = constructType(type);
+      canSerialize(javaType.getRawClass());
+      canDeserialize(javaType);
+    }
   }
 
   public static DateFormat makeISODateFormat() {
@@ -23,6 +23,7 @@ import com.cloudera.api.v13.RootResourceV13;
 import com.cloudera.api.v14.RootResourceV14;
 import com.cloudera.api.v15.RootResourceV15;
 import com.cloudera.api.v16.RootResourceV16;
+import com.cloudera.api.v17.RootResourceV17;
 import com.cloudera.api.v2.RootResourceV2;
 import com.cloudera.api.v3.RootResourceV3;
 import com.cloudera.api.v4.RootResourceV4;
@@ -144,8 +145,14 @@ public interface ApiRootResource {
   RootResourceV16 getRootV16();
 
   /**
-   * Important: Update {@link ApiRootResourceExternal} interface as well
-   * on adding new CM API version.
+   * @return The v17 root resource.
+   */
+  @Path("/v17")
+  RootResourceV17 getRootV17();
+
+  /**
+   * Important: Update {@link ApiRootResourceExternal} interface and
+   * {@link ApiRootResourceDelegate} as well on adding new CM API version.
    */
 
   /**
@@ -0,0 +1,151 @@
+// Licensed to Cloudera, Inc. under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  Cloudera, Inc. licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.api;
+
+import com.cloudera.api.v1.RootResourceV1;
+import com.cloudera.api.v10.RootResourceV10;
+import com.cloudera.api.v11.RootResourceV11;
+import com.cloudera.api.v12.RootResourceV12;
+import com.cloudera.api.v13.RootResourceV13;
+import com.cloudera.api.v14.RootResourceV14;
+import com.cloudera.api.v15.RootResourceV15;
+import com.cloudera.api.v16.RootResourceV16;
+import com.cloudera.api.v17.RootResourceV17;
+import com.cloudera.api.v2.RootResourceV2;
+import com.cloudera.api.v3.RootResourceV3;
+import com.cloudera.api.v4.RootResourceV4;
+import com.cloudera.api.v5.RootResourceV5;
+import com.cloudera.api.v6.RootResourceV6;
+import com.cloudera.api.v7.RootResourceV7;
+import com.cloudera.api.v8.RootResourceV8;
+import com.cloudera.api.v9.RootResourceV9;
+
+/**
+ * ApiRootResourceDelegate allows delegation of
+ * call on API proxy from {@link ApiRootResource} interface to {@link ApiRootResourceExternal}.
+ *
+ * Generating stubs using {@link ApiRootResourceExternal} is more memory efficient and hence
+ * the need for delegation which allows us to redirect call without requiring
+ * changes for consumers of {@link ClouderaManagerClientBuilder}.
+ *
+ * Calls are forwarded directly, without any reflection, so that delegation
+ * costs no more than a virtual call. Since every RootResource version extends
+ * the previous one, each method can return the RootResourceV17 stub as is.
+ *
+ * Important: Update this class as well on adding new CM API version.
+ */
+class ApiRootResourceDelegate implements ApiRootResource {
+  final private ApiRootResourceExternal delegateRootResource;
+
+  ApiRootResourceDelegate(ApiRootResourceExternal rootResource) {
+    delegateRootResource = rootResource;
+  }
+
+  ApiRootResourceExternal getDelegateRootResource() {
+    return delegateRootResource;
+  }
+
+  @Override
+  public RootResourceV1 getRootV1() {
+    return delegateRootResource.getRootV1();
+  }
+
+  @Override
+  public RootResourceV2 getRootV2() {
+    return delegateRootResource.getRootV2();
+  }
+
+  @Override
+  public RootResourceV3 getRootV3() {
+    return delegateRootResource.getRootV3();
+  }
+
+  @Override
+  public RootResourceV4 getRootV4() {
+    return delegateRootResource.getRootV4();
+  }
+
+  @Override
+  public RootResourceV5 getRootV5() {
+    return delegateRootResource.getRootV5();
+  }
+
+  @Override
+  public RootResourceV6 getRootV6() {
+    return delegateRootResource.getRootV6();
+  }
+
+  @Override
+  public RootResourceV7 getRootV7() {
+    return delegateRootResource.getRootV7();
+  }
+
+  @Override
+  public RootResourceV8 getRootV8() {
+    return delegateRootResource.getRootV8();
+  }
+
+  @Override
+  public RootResourceV9 getRootV9() {
+    return delegateRootResource.getRootV9();
+  }
+
+  @Override
+  public RootResourceV10 getRootV10() {
+    return delegateRootResource.getRootV10();
+  }
+
+  @Override
+  public RootResourceV11 getRootV11() {
+    return delegateRootResource.getRootV11();
+  }
+
+  @Override
+  public RootResourceV12 getRootV12() {
+    return delegateRootResource.getRootV12();
+  }
+
+  @Override
+  public RootResourceV13 getRootV13() {
+    return delegateRootResource.getRootV13();
+  }
+
+  @Override
+  public RootResourceV14 getRootV14() {
+    return delegateRootResource.getRootV14();
+  }
+
+  @Override
+  public RootResourceV15 getRootV15() {
+    return delegateRootResource.getRootV15();
+  }
+
+  @Override
+  public RootResourceV16 getRootV16() {
+    return delegateRootResource.getRootV16();
+  }
+
+  @Override
+  public RootResourceV17 getRootV17() {
+    return delegateRootResource.getRootV17();
+  }
+
+  @Override
+  public String getCurrentVersion() {
+    return delegateRootResource.getCurrentVersion();
+  }
+}
@@ -16,7 +16,7 @@
 package com.cloudera.api;
 
 
-import com.cloudera.api.v16.RootResourceV16;
+import com.cloudera.api.v17.RootResourceV17;
 
 import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
@@ -37,6 +37,7 @@ import javax.ws.rs.core.MediaType;
  *  - add corresponding getRootV() method with newer version of RootResource as data type
  *  of return parameter
  *  - update return data type of all existing getRootV() methods as well
+ *  - add the new getRootV() method to {@link ApiRootResourceDelegate}
  */
 @Path("/")
 @Consumes({ MediaType.APPLICATION_JSON })
@@ -47,97 +48,103 @@ interface ApiRootResourceExternal {
    * @return The v1 root resource.
    */
   @Path("/v1")
-  RootResourceV16 getRootV1();
+  RootResourceV17 getRootV1();
 
   /**
    * @return The v2 root resource.
    */
   @Path("/v2")
-  RootResourceV16 getRootV2();
+  RootResourceV17 getRootV2();
 
   /**
    * @return The v3 root resource.
    */
   @Path("/v3")
-  RootResourceV16 getRootV3();
+  RootResourceV17 getRootV3();
 
   /**
    * @return The v4 root resource.
    */
   @Path("/v4")
-  RootResourceV16 getRootV4();
+  RootResourceV17 getRootV4();
 
   /**
    * @return The v5 root resource.
    */
   @Path("/v5")
-  RootResourceV16 getRootV5();
+  RootResourceV17 getRootV5();
 
   /**
    * @return The v6 root resource.
    */
   @Path("/v6")
-  RootResourceV16 getRootV6();
+  RootResourceV17 getRootV6();
 
   /**
    * @return The v7 root resource.
    */
   @Path("/v7")
-  RootResourceV16 getRootV7();
+  RootResourceV17 getRootV7();
 
   /**
    * @return The v8 root resource.
    */
   @Path("/v8")
-  RootResourceV16 getRootV8();
+  RootResourceV17 getRootV8();
 
   /**
    * @return The v9 root resource.
    */
   @Path("/v9")
-  RootResourceV16 getRootV9();
+  RootResourceV17 getRootV9();
 
   /**
    * @return The v10 root resource.
    */
   @Path("/v10")
-  RootResourceV16 getRootV10();
+  RootResourceV17 getRootV10();
 
   /**
    * @return The v11 root resource.
    */
   @Path("/v11")
-  RootResourceV16 getRootV11();
+  RootResourceV17 getRootV11();
 
   /**
    * @return The v12 root resource.
    */
   @Path("/v12")
-  RootResourceV16 getRootV12();
+  RootResourceV17 getRootV12();
 
   /**
    * @return The v13 root resource.
    */
   @Path("/v13")
-  RootResourceV16 getRootV13();
+  RootResourceV17 getRootV13();
 
   /**
    * @return The v14 root resource.
    */
   @Path("/v14")
-  RootResourceV16 getRootV14();
+  RootResourceV17 getRootV14();
 
   /**
    * @return The v15 root resource.
    */
   @Path("/v15")
-  RootResourceV16 getRootV15();
+  RootResourceV17 getRootV15();
 
   /**
    * @return The v15 root resource.
    */
   @Path("/v16")
-  RootResourceV16 getRootV16();
+  RootResourceV17 getRootV16();
+
+  /**
+   * @return The v17 root resource.
+   */
+  @Path("/v17")
+  RootResourceV17 getRootV17();
 
   /**
    * Fetch the current API version supported by the server.
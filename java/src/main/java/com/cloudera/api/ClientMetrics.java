@@ -0,0 +1,322 @@
+// Licensed to Cloudera, Inc. under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  Cloudera, Inc. licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.api;
+
+import com.google.common.collect.ImmutableSortedMap;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.Hashtable;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+
+import org.apache.cxf.interceptor.Interceptor;
+import org.apache.cxf.jaxrs.client.ClientConfiguration;
+import org.apache.cxf.message.Message;
+import org.apache.cxf.phase.AbstractPhaseInterceptor;
+import org.apache.cxf.phase.Phase;
+
+/**
+ * Client-side metrics of the API endpoints called by the clients built with
+ * {@link ClouderaManagerClientBuilder#enableMetrics(ClientMetrics)}: call
+ * counts, errors, calls in flight, body sizes and latencies, per resource
+ * interface and method.
+ * <p>
+ * Endpoints are named after the methods of the resource interfaces, as
+ * <i>package.ResourceInterface.method(ParameterTypes)</i> with the package
+ * relative to <tt>com.cloudera.api</tt>, e.g.
+ * <tt>v1.ClustersResource.readClusters(DataView)</tt>, so that overloaded
+ * methods and interfaces of different API versions are told apart.
+ * <p>
+ * Metrics can be pulled with {@link #getEndpoints()}, and are also published
+ * through JMX when a name is given, as one MXBean per endpoint named
+ * <tt>com.cloudera.api:type=ClientMetrics,name=&lt;name&gt;,endpoint="&lt;endpoint&gt;"</tt>.
+ * Latencies are measured from the call on the proxy until the response has
+ * been read; calls answered from a client-side cache are not counted.
+ * <p>
+ * A single instance can be shared by several clients, to aggregate their
+ * metrics.
+ */
+public class ClientMetrics {
+
+  public static final String JMX_DOMAIN = "com.cloudera.api";
+
+  private static final Logger LOG =
+      Logger.getLogger(ClientMetrics.class.getName());
+
+  private static final String PACKAGE_PREFIX =
+      ClientMetrics.class.getPackage().getName() + ".";
+
+  /** The endpoint called by the current thread, for the interceptors. */
+  private static final ThreadLocal<EndpointMetrics> CURRENT_ENDPOINT =
+      new ThreadLocal<EndpointMetrics>();
+
+  private static final Interceptor<Message> BYTES_SENT =
+      new AbstractPhaseInterceptor<Message>(Phase.PRE_STREAM) {
+        @Override
+        public void handleMessage(Message message) {
+          EndpointMetrics endpoint = CURRENT_ENDPOINT.get();
+          OutputStream out = message.getContent(OutputStream.class);
+          if (endpoint != null && out != null) {
+            message.setContent(OutputStream.class,
+                new CountingOutputStream(out, endpoint));
+          }
+        }
+      };
+
+  private static final Interceptor<Message> BYTES_RECEIVED =
+      new AbstractPhaseInterceptor<Message>(Phase.RECEIVE) {
+        @Override
+        public void handleMessage(Message message) {
+          EndpointMetrics endpoint = CURRENT_ENDPOINT.get();
+          InputStream in = message.getContent(InputStream.class);
+          if (endpoint != null && in != null) {
+            message.setContent(InputStream.class,
+                new CountingInputStream(in, endpoint));
+          }
+        }
+      };
+
+  private final String jmxName;
+  private final ConcurrentMap<Method, EndpointMetrics> endpointsByMethod =
+      new ConcurrentHashMap<Method, EndpointMetrics>();
+  private final ConcurrentMap<String, EndpointMetrics> endpoints =
+      new ConcurrentHashMap<String, EndpointMetrics>();
+
+  /**
+   * Creates metrics that are only available through {@link #getEndpoints()}.
+   */
+  public ClientMetrics() {
+    this(null);
+  }
+
+  /**
+   * Creates metrics that are also published through JMX.
+   *
+   * @param jmxName Name of the metrics in JMX, or null to not publish them.
+   */
+  public ClientMetrics(String jmxName) {
+    this.jmxName = jmxName;
+  }
+
+  /**
+   * @return The metrics of the endpoints called so far, by endpoint name.
+   */
+  public SortedMap<String, EndpointMetrics> getEndpoints() {
+    return ImmutableSortedMap.copyOf(endpoints);
+  }
+
+  /**
+   * @param name The name of the endpoint, as
+   *             <i>package.ResourceInterface.method(ParameterTypes)</i>.
+   * @return The metrics of the endpoint, or null if it was never called.
+   */
+  public EndpointMetrics getEndpoint(String name) {
+    return endpoints.get(name);
+  }
+
+  /**
+   * Removes the MXBeans published by these metrics from JMX.
+   */
+  public void unregisterMBeans() {
+    if (jmxName == null) {
+      return;
+    }
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    for (String name : endpoints.keySet()) {
+      try {
+        ObjectName objectName = getObjectName(name);
+        if (server.isRegistered(objectName)) {
+          server.unregisterMBean(objectName);
+        }
+      } catch (JMException e) {
+        LOG.log(Level.WARNING, "Failed to unregister metrics of " + name, e);
+      }
+    }
+  }
+
+  /**
+   * Adds the interceptors counting body sizes to a client.
+   */
+  void install(ClientConfiguration config) {
+    config.getOutInterceptors().add(BYTES_SENT);
+    config.getInInterceptors().add(BYTES_RECEIVED);
+  }
+
+  /**
+   * Returns an invocation handler recording the calls made through the given
+   * one.
+   */
+  InvocationHandler instrument(final InvocationHandler target) {
+    return new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args)
+          throws Throwable {
+        EndpointMetrics endpoint = getEndpoint(method);
+        EndpointMetrics previous = CURRENT_ENDPOINT.get();
+        CURRENT_ENDPOINT.set(endpoint);
+        endpoint.callStarted();
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+          Object result = target.invoke(proxy, method, args);
+          failed = false;
+          return result;
+        } catch (WebApplicationException e) {
+          // Redirects and "304 Not Modified" are not errors.
+          Response response = e.getResponse();
+          failed = response == null || response.getStatus() >= 400;
+          throw e;
+        } finally {
+          endpoint.callCompleted(System.nanoTime() - start, failed);
+          CURRENT_ENDPOINT.set(previous);
+        }
+      }
+    };
+  }
+
+  private EndpointMetrics getEndpoint(Method method) {
+    EndpointMetrics endpoint = endpointsByMethod.get(method);
+    if (endpoint == null) {
+      String name = getEndpointName(method);
+      endpoint = endpoints.get(name);
+      if (endpoint == null) {
+        EndpointMetrics created = new EndpointMetrics(name);
+        endpoint = endpoints.putIfAbsent(name, created);
+        if (endpoint == null) {
+          endpoint = created;
+          register(endpoint);
+        }
+      }
+      endpointsByMethod.put(method, endpoint);
+    }
+    return endpoint;
+  }
+
+  private static String getEndpointName(Method method) {
+    String type = method.getDeclaringClass().getName();
+    if (type.startsWith(PACKAGE_PREFIX)) {
+      type = type.substring(PACKAGE_PREFIX.length());
+    }
+    StringBuilder name = new StringBuilder(type)
+        .append('.').append(method.getName()).append('(');
+    Class<?>[] parameters = method.getParameterTypes();
+    for (int i = 0; i < parameters.length; i++) {
+      if (i > 0) {
+        name.append(", ");
+      }
+      name.append(parameters[i].getSimpleName());
+    }
+    return name.append(')').toString();
+  }
+
+  private void register(EndpointMetrics endpoint) {
+    if (jmxName == null) {
+      return;
+    }
+    try {
+      ManagementFactory.getPlatformMBeanServer().registerMBean(endpoint,
+          getObjectName(endpoint.getName()));
+    } catch (JMException e) {
+      LOG.log(Level.WARNING,
+          "Failed to register metrics of " + endpoint.getName(), e);
+    }
+  }
+
+  private ObjectName getObjectName(String endpoint) throws JMException {
+    Hashtable<String, String> properties = new Hashtable<String, String>();
+    properties.put("type", "ClientMetrics");
+    properties.put("name", ObjectName.quote(jmxName));
+    properties.put("endpoint", ObjectName.quote(endpoint));
+    return new ObjectName(JMX_DOMAIN, properties);
+  }
+
+  private static class CountingOutputStream extends FilterOutputStream {
+    private final EndpointMetrics endpoint;
+
+    CountingOutputStream(OutputStream out, EndpointMetrics endpoint) {
+      super(out);
+      this.endpoint = endpoint;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      endpoint.addBytesSent(1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      endpoint.addBytesSent(len);
+    }
+  }
+
+  private static class CountingInputStream extends FilterInputStream {
+    private final EndpointMetrics endpoint;
+
+    CountingInputStream(InputStream in, EndpointMetrics endpoint) {
+      super(in);
+      this.endpoint = endpoint;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = in.read();
+      if (b != -1) {
+        endpoint.addBytesReceived(1);
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int read = in.read(b, off, len);
+      if (read > 0) {
+        endpoint.addBytesReceived(read);
+      }
+      return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = in.skip(n);
+      endpoint.addBytesReceived(skipped);
+      return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+  }
+}
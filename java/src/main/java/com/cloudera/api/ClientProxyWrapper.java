@@ -0,0 +1,277 @@
+// Licensed to Cloudera, Inc. under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  Cloudera, Inc. licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.api;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.io.InputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.Path;
+import javax.ws.rs.core.Response;
+
+import org.apache.cxf.jaxrs.client.Client;
+import org.apache.cxf.jaxrs.client.InvocationHandlerAware;
+
+/**
+ * Wraps the CXF client proxies of a client, to cache the sub-resource proxies
+ * created by its resource locators, e.g. <tt>getRootV16()</tt> or
+ * <tt>getServicesResource(cluster)</tt>, and the responses of its GET
+ * methods, and to record the metrics of its calls.
+ * <p>
+ * CXF creates a new proxy every time a locator is called. The proxies wrapped
+ * by this class remember the sub-resources they returned, keyed by locator
+ * method and arguments, so navigating the same path of the resource tree again
+ * returns the same proxies. Wrapped proxies remain CXF clients, so
+ * {@link org.apache.cxf.jaxrs.client.WebClient#client(Object)} and
+ * {@link org.apache.cxf.jaxrs.client.WebClient#getConfig(Object)} keep working
+ * on them.
+ * <p>
+ * Sub-resource proxies capture the request headers of their parent when they
+ * are created; a cached sub-resource does not see headers set on its parent
+ * afterwards. GET responses are cached as described in {@link ResponseCache},
+ * and identical concurrent GET calls coalesced by {@link RequestCoalescer}.
+ * Calls are identified by the URI of the resource, the method and the
+ * arguments. Calls sent to the server are recorded in {@link ClientMetrics}.
+ */
+class ClientProxyWrapper {
+
+  /** How calls to each method are handled. */
+  private enum Kind {
+    LOCATOR,
+    /** GET methods whose result can be cached and shared. */
+    GET,
+    OTHER
+  }
+
+  private static final ConcurrentMap<Method, Kind> KINDS =
+      new ConcurrentHashMap<Method, Kind>();
+
+  private final Cache<Key, Object> subResources;
+  private final ResponseCache responses;
+  private final RequestCoalescer requests;
+  private final ClientMetrics metrics;
+
+  /**
+   * @param subResourceCacheSize Maximum number of sub-resources cached, or 0
+   *                             to not cache them.
+   * @param responses The cache for GET responses, or null to not cache them.
+   * @param requests Coalesces identical concurrent GET calls, or null to not
+   *                 coalesce them.
+   * @param metrics Records the calls sent to the server, or null to not
+   *                record them.
+   */
+  ClientProxyWrapper(long subResourceCacheSize, ResponseCache responses,
+                     RequestCoalescer requests, ClientMetrics metrics) {
+    Preconditions.checkArgument(subResourceCacheSize >= 0,
+        "Sub-resource cache size should not be negative.");
+    this.subResources = subResourceCacheSize == 0 ? null :
+        CacheBuilder.newBuilder()
+        .maximumSize(subResourceCacheSize)
+        .<Key, Object>build();
+    this.responses = responses;
+    this.requests = requests;
+    this.metrics = metrics;
+  }
+
+  /**
+   * Wraps a CXF client proxy, so that its sub-resources and responses are
+   * cached, and its calls recorded.
+   *
+   * @param proxy The proxy to wrap.
+   * @param proxyType The resource interface implemented by the proxy.
+   * @return A proxy for the same resource.
+   */
+  <T> T wrap(T proxy, Class<T> proxyType) {
+    InvocationHandler target = Proxy.getInvocationHandler(proxy);
+    return proxyType.cast(Proxy.newProxyInstance(
+        proxyType.getClassLoader(),
+        new Class[] { Client.class, InvocationHandlerAware.class, proxyType },
+        new WrappingInvocationHandler(proxy, target)));
+  }
+
+  @SuppressWarnings("unchecked")
+  private Object wrapSubResource(Object proxy, Class<?> proxyType) {
+    return wrap(proxy, (Class<Object>) proxyType);
+  }
+
+  private static Kind getKind(Method method) {
+    Kind kind = KINDS.get(method);
+    if (kind == null) {
+      kind = Kind.OTHER;
+      Method annotated = getAnnotatedMethod(method);
+      if (annotated != null) {
+        Class<?> returnType = method.getReturnType();
+        if (annotated.isAnnotationPresent(GET.class)) {
+          if (returnType != Void.TYPE &&
+              !Response.class.isAssignableFrom(returnType) &&
+              !InputStream.class.isAssignableFrom(returnType)) {
+            kind = Kind.GET;
+          }
+        } else if (annotated.isAnnotationPresent(Path.class) &&
+            !hasHttpMethod(annotated) &&
+            returnType.isInterface()) {
+          kind = Kind.LOCATOR;
+        }
+      }
+      KINDS.put(method, kind);
+    }
+    return kind;
+  }
+
+  /**
+   * Returns the method holding the JAX-RS annotations of the given method.
+   * Overriding methods without annotations of their own inherit those of the
+   * overridden method.
+   */
+  private static Method getAnnotatedMethod(Method method) {
+    if (method.isAnnotationPresent(Path.class) || hasHttpMethod(method)) {
+      return method;
+    }
+    for (Class<?> parent : method.getDeclaringClass().getInterfaces()) {
+      try {
+        Method annotated = getAnnotatedMethod(
+            parent.getMethod(method.getName(), method.getParameterTypes()));
+        if (annotated != null) {
+          return annotated;
+        }
+      } catch (NoSuchMethodException e) {
+        // Not declared by this parent.
+      }
+    }
+    return null;
+  }
+
+  private static boolean hasHttpMethod(Method method) {
+    for (Annotation annotation : method.getAnnotations()) {
+      if (annotation.annotationType().isAnnotationPresent(HttpMethod.class)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Forwards calls straight to the CXF invocation handler of the wrapped
+   * proxy, short-circuiting the calls whose result is already cached.
+   */
+  private class WrappingInvocationHandler implements InvocationHandler {
+    private final Object proxy;
+    /** Creates the sub-resource proxies. */
+    private final InvocationHandler locator;
+    /** Sends requests to the server. */
+    private final InvocationHandler target;
+    private final URI baseUri;
+
+    WrappingInvocationHandler(Object proxy, InvocationHandler target) {
+      this.proxy = proxy;
+      this.locator = target;
+      this.target = metrics != null ? metrics.instrument(target) : target;
+      this.baseUri = ((Client) proxy).getBaseURI();
+    }
+
+    @Override
+    public Object invoke(Object wrapper, final Method method,
+                         final Object[] args) throws Throwable {
+      switch (getKind(method)) {
+        case LOCATOR:
+          if (subResources == null) {
+            return wrapSubResource(locator.invoke(proxy, method, args),
+                method.getReturnType());
+          }
+          Key key = new Key(baseUri, method, args);
+          Object subResource = subResources.getIfPresent(key);
+          if (subResource == null) {
+            subResource = wrapSubResource(locator.invoke(proxy, method, args),
+                method.getReturnType());
+            subResources.put(key, subResource);
+          }
+          return subResource;
+        case GET:
+          if (ApiListStreaming.isActive()) {
+            // Streamed results are not complete lists.
+            return target.invoke(proxy, method, args);
+          }
+          final Key getKey = new Key(baseUri, method, args);
+          if (requests == null) {
+            return get(getKey, method, args);
+          }
+          return requests.invoke(getKey, new RequestCoalescer.Call() {
+            @Override
+            public Object call() throws Throwable {
+              return get(getKey, method, args);
+            }
+          });
+        default:
+          return target.invoke(proxy, method, args);
+      }
+    }
+
+    private Object get(Key key, Method method, Object[] args)
+        throws Throwable {
+      if (responses != null) {
+        return responses.invoke(key, (Client) proxy, target, method, args);
+      }
+      return target.invoke(proxy, method, args);
+    }
+  }
+
+  /** A call on the resource at a given URI. */
+  private static class Key {
+    private final URI resource;
+    private final Method method;
+    private final List<Object> args;
+
+    Key(URI resource, Method method, Object[] args) {
+      this.resource = resource;
+      this.method = method;
+      this.args = args == null ?
+          Collections.<Object>emptyList() :
+          Collections.unmodifiableList(Arrays.asList(args.clone()));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return resource.equals(other.resource) &&
+          method.equals(other.method) &&
+          args.equals(other.args);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(resource, method, args);
+    }
+  }
+}
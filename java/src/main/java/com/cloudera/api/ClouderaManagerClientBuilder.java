@@ -16,26 +16,35 @@
 
 package com.cloudera.api;
 
+import com.cloudera.api.model.ApiHostList;
 import com.fasterxml.jackson.jaxrs.json.JacksonJsonProvider;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 
-import java.lang.reflect.Proxy;
+import java.lang.reflect.Method;
+import java.lang.reflect.Type;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.security.cert.X509Certificate;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
 
+import org.apache.cxf.BusFactory;
 import org.apache.cxf.configuration.jsse.TLSClientParameters;
 import org.apache.cxf.feature.AbstractFeature;
 import org.apache.cxf.feature.LoggingFeature;
+import org.apache.cxf.jaxrs.JAXRSServiceFactoryBean;
 import org.apache.cxf.jaxrs.client.Client;
 import org.apache.cxf.jaxrs.client.ClientConfiguration;
 import org.apache.cxf.jaxrs.client.JAXRSClientFactoryBean;
@@ -72,14 +81,35 @@ public class ClouderaManagerClientBuilder {
   private boolean streamAutoClosure;
   private TrustManager[] trustManagers;
   private String acceptLanguage;
+  private SharedSocketFactory sharedSocketFactory;
+  private long subResourceCacheSize;
+  private long responseCacheSize;
+  private long responseCacheTtl;
+  private TimeUnit responseCacheTtlUnits = TimeUnit.SECONDS;
+  private boolean coalesceRequests;
+  private ClientMetrics metrics;
+  private HttpCompression compression;
+  private boolean compactJson;
+  private ApiObjectMapper mapper;
+
+  private static final String API_PACKAGE =
+      ApiRootResource.class.getPackage().getName() + ".";
+  private static final String MODEL_PACKAGE =
+      ApiHostList.class.getPackage().getName() + ".";
 
   /**
-   * Cache JAXRSClientFactoryBean per proxyType.
+   * Shared by all clients that skip certificate validation, so that clients
+   * sharing a socket factory end up with the same TLS configuration.
+   */
+  private static final TrustManager[] ACCEPT_ALL_TRUST_MANAGERS =
+      new TrustManager[] { new AcceptAllTrustManager() };
+
+  /**
+   * Cache JAXRSServiceFactoryBean per proxyType.
    *
    * We need a cache because CXF stores stubs
    * ({@link org.apache.cxf.jaxrs.model.ClassResourceInfo} objects) as a reference
-   * inside JAXRSServiceFactoryBean, which is composed within instances of
-   * {@link JAXRSClientFactoryBean}.
+   * inside JAXRSServiceFactoryBean.
    *
    * This avoids:
    * - creating a lot of temporaries generated during the proxy creation for
@@ -89,22 +119,45 @@ public class ClouderaManagerClientBuilder {
    * ClassResourceInfo, thus reducing aggregate usage
    *
    * Also, as a useful side effect, generates proxies with cached proxy types faster.
+   *
+   * The service factories are fully initialized when loaded, and only read
+   * afterwards. All per-client state (address, credentials, features) lives
+   * in a JAXRSClientFactoryBean created for each build, so that clients can
+   * be built concurrently.
    */
-  private static final LoadingCache<Class<?>, JAXRSClientFactoryBean>
+  private static final LoadingCache<Class<?>, JAXRSServiceFactoryBean>
     clientStaticResources =
       CacheBuilder.newBuilder()
       .softValues()
       .build(
-        new CacheLoader<Class<?>, JAXRSClientFactoryBean>(){
+        new CacheLoader<Class<?>, JAXRSServiceFactoryBean>(){
           @Override
-          public JAXRSClientFactoryBean load(Class<?> proxyType) throws Exception {
-            JAXRSClientFactoryBean clientFactoryBean = new JAXRSClientFactoryBean();
-            clientFactoryBean.setResourceClass(proxyType);
-            clientFactoryBean.setProvider(new JacksonJsonProvider(new ApiObjectMapper()));
-            return clientFactoryBean;
+          public JAXRSServiceFactoryBean load(Class<?> proxyType) throws Exception {
+            JAXRSServiceFactoryBean serviceFactoryBean = new JAXRSServiceFactoryBean();
+            serviceFactoryBean.setEnableStaticResolution(true);
+            serviceFactoryBean.setBus(BusFactory.getDefaultBus());
+            serviceFactoryBean.setResourceClass(proxyType);
+            serviceFactoryBean.create();
+            return serviceFactoryBean;
           }
         });
 
+  /** JSON provider shared by all clients; the object mapper is thread safe. */
+  private static final JacksonJsonProvider JSON_PROVIDER =
+      new ApiJsonProvider(new ApiObjectMapper());
+
+  /**
+   * Mapper of the clients built with {@link #withCompactJson()}. Its
+   * serializer caches are warmed up with the model classes of each resource
+   * tree the first time a client for it is built.
+   */
+  private static final ApiObjectMapper COMPACT_MAPPER =
+      new ApiObjectMapper(false);
+  private static final JacksonJsonProvider COMPACT_JSON_PROVIDER =
+      new ApiJsonProvider(COMPACT_MAPPER);
+  private static final Set<Class<?>> warmedUpResources =
+      Collections.newSetFromMap(new ConcurrentHashMap<Class<?>, Boolean>());
+
   public ClouderaManagerClientBuilder withAcceptLanguage(
       String acceptLaunguage) {
     this.acceptLanguage = acceptLaunguage;
@@ -203,6 +256,141 @@ public class ClouderaManagerClientBuilder {
     return this;
   }
 
+  /**
+   * Makes the built clients open HTTPS connections with the given shared
+   * socket factory, so that they reuse the idle keep-alive connections and
+   * TLS sessions of all the other clients built with the same factory,
+   * instead of negotiating their own.
+   * @param sharedSocketFactory the factory shared by the clients
+   * @return ClouderaManagerClientBuilder
+   */
+  public ClouderaManagerClientBuilder withSharedSocketFactory(
+      SharedSocketFactory sharedSocketFactory) {
+    this.sharedSocketFactory = sharedSocketFactory;
+    return this;
+  }
+
+  /**
+   * Makes the built clients cache the sub-resource proxies returned by
+   * resource locators (e.g. <tt>getRootV16()</tt> or
+   * <tt>getServicesResource(clusterName)</tt>), so that navigating the same
+   * path of the resource tree again returns the same proxies instead of
+   * creating new ones. Sub-resources capture the headers of their parent
+   * when first created.
+   * @param maximumSize the maximum number of sub-resources cached per client
+   * @return ClouderaManagerClientBuilder
+   */
+  public ClouderaManagerClientBuilder enableSubResourceCache(
+      long maximumSize) {
+    Preconditions.checkArgument(maximumSize > 0,
+        "Sub-resource cache size should be greater than 0.");
+    this.subResourceCacheSize = maximumSize;
+    return this;
+  }
+
+  /**
+   * Makes the built clients cache the objects read by GET methods. Responses
+   * with an ETag are revalidated with conditional requests, and the cached
+   * object is reused when the server answers "304 Not Modified". Responses
+   * stay fresh for their Cache-Control max-age, or for the given default TTL
+   * when the server does not specify one. Cached objects are shared by all
+   * callers, and must not be modified.
+   * @param maximumBytes the maximum total size of the cached responses, per
+   *                     client
+   * @param defaultTtl how long responses are fresh when the server does not
+   *                   say; 0 to always revalidate them
+   * @param defaultTtlUnits units of defaultTtl
+   * @return ClouderaManagerClientBuilder
+   */
+  public ClouderaManagerClientBuilder enableResponseCache(long maximumBytes,
+      long defaultTtl, TimeUnit defaultTtlUnits) {
+    Preconditions.checkArgument(maximumBytes > 0,
+        "Response cache size should be greater than 0.");
+    Preconditions.checkArgument(defaultTtl >= 0,
+        "Response cache TTL should not be negative.");
+    this.responseCacheSize = maximumBytes;
+    this.responseCacheTtl = defaultTtl;
+    this.responseCacheTtlUnits = defaultTtlUnits;
+    return this;
+  }
+
+  /**
+   * Makes the built clients coalesce identical concurrent GET calls: while a
+   * call is in flight, threads making the same call on the same client wait
+   * for it and share its result, instead of sending their own request.
+   * Shared results must not be modified.
+   * @return ClouderaManagerClientBuilder
+   */
+  public ClouderaManagerClientBuilder enableRequestCoalescing() {
+    this.coalesceRequests = true;
+    return this;
+  }
+
+  /**
+   * Makes the built clients record the calls they send to the server:
+   * number of calls and errors, request and response body sizes and
+   * latencies, per endpoint. Calls answered from the response cache are not
+   * recorded.
+   * @param metrics where to record the calls; can be shared by several
+   *                clients
+   * @return ClouderaManagerClientBuilder
+   */
+  public ClouderaManagerClientBuilder enableMetrics(ClientMetrics metrics) {
+    this.metrics = metrics;
+    return this;
+  }
+
+  /**
+   * Makes the built clients accept gzip and deflate compressed responses.
+   * Request bodies are sent uncompressed.
+   * @return ClouderaManagerClientBuilder
+   */
+  public ClouderaManagerClientBuilder enableCompression() {
+    this.compression =
+        new HttpCompression(HttpCompression.NO_REQUEST_COMPRESSION);
+    return this;
+  }
+
+  /**
+   * Makes the built clients accept gzip and deflate compressed responses, and
+   * gzip the request bodies of at least the given size (e.g. large
+   * deployment updates or batch requests). The server must accept compressed
+   * requests.
+   * @param minimumRequestSize the size, in bytes, from which request bodies
+   *                           are compressed
+   * @return ClouderaManagerClientBuilder
+   */
+  public ClouderaManagerClientBuilder enableCompression(
+      int minimumRequestSize) {
+    Preconditions.checkArgument(minimumRequestSize >= 0,
+        "Compression threshold should not be negative.");
+    this.compression = new HttpCompression(minimumRequestSize);
+    return this;
+  }
+
+  /**
+   * Makes the built clients send compact JSON instead of pretty-printed JSON.
+   * The object mapper is shared by all such clients, and warmed up with the
+   * model classes of the API when the first client is built.
+   * @return ClouderaManagerClientBuilder
+   */
+  public ClouderaManagerClientBuilder withCompactJson() {
+    this.compactJson = true;
+    return this;
+  }
+
+  /**
+   * Makes the built clients read and write JSON with the given mapper, e.g.
+   * one with {@link ApiObjectMapper#enableStringDeduplication(int)}, instead
+   * of the default ones. Takes precedence over {@link #withCompactJson()}.
+   * @param mapper the object mapper, which may be shared by several clients
+   * @return ClouderaManagerClientBuilder
+   */
+  public ClouderaManagerClientBuilder withObjectMapper(ApiObjectMapper mapper) {
+    this.mapper = Preconditions.checkNotNull(mapper);
+    return this;
+  }
+
   @VisibleForTesting
   String generateAddress() {
     final String apiRootPath = "api/";
@@ -244,14 +432,11 @@ public class ClouderaManagerClientBuilder {
    */
   public ApiRootResource build() {
     // Generating stubs on ApiRootResource consumes more memory.
-    // Hence we generate stubs using ApiRootResourceExternal and then use dynamic proxy mechanism
-    // to delegate call on ApiRootResource to ApiRootResourceExternal generated stub.
+    // Hence we generate stubs using ApiRootResourceExternal and then delegate
+    // call on ApiRootResource to ApiRootResourceExternal generated stub.
     ApiRootResourceExternal apiRootResourceExternal = build(ApiRootResourceExternal.class);
 
-    return (ApiRootResource) Proxy.newProxyInstance(
-      ClouderaManagerClientBuilder.class.getClassLoader(),
-      new Class[]{ApiRootResource.class},
-      new ApiRootResourceInvocationHandler(apiRootResourceExternal));
+    return new ApiRootResourceDelegate(apiRootResourceExternal);
   }
 
   /**
@@ -261,24 +446,29 @@ public class ClouderaManagerClientBuilder {
    */
   protected <T> T build(Class<T> proxyType) {
     String address = generateAddress();
-    T rootResource;
-    // Synchronized on the class to correlate with the scope of clientStaticResources
-    // We want to ensure that the shared bean isn't set concurrently in multiple callers
-    synchronized (ClouderaManagerClientBuilder.class) {
-      JAXRSClientFactoryBean bean =
-          cleanFactory(clientStaticResources.getUnchecked(proxyType));
-      bean.setAddress(address);
-      if (username != null) {
-        bean.setUsername(username);
-        bean.setPassword(password);
+    JAXRSClientFactoryBean bean =
+        new JAXRSClientFactoryBean(clientStaticResources.getUnchecked(proxyType));
+    if (mapper != null) {
+      bean.setProvider(new ApiJsonProvider(mapper));
+    } else if (compactJson) {
+      if (warmedUpResources.add(proxyType)) {
+        warmUp(COMPACT_MAPPER, proxyType, new HashSet<Class<?>>());
       }
+      bean.setProvider(COMPACT_JSON_PROVIDER);
+    } else {
+      bean.setProvider(JSON_PROVIDER);
+    }
+    bean.setAddress(address);
+    if (username != null) {
+      bean.setUsername(username);
+      bean.setPassword(password);
+    }
 
-      if (enableLogging) {
-        bean.setFeatures(Arrays.<AbstractFeature>asList(new LoggingFeature()));
-      }
-      bean.setThreadSafe(threadSafe);
-      rootResource = bean.create(proxyType);
+    if (enableLogging) {
+      bean.setFeatures(Arrays.<AbstractFeature>asList(new LoggingFeature()));
     }
+    bean.setThreadSafe(threadSafe);
+    T rootResource = bean.create(proxyType);
 
     boolean isTlsEnabled = address.startsWith("https://");
     ClientConfiguration config = WebClient.getConfig(rootResource);
@@ -294,11 +484,14 @@ public class ClouderaManagerClientBuilder {
     HTTPConduit conduit = (HTTPConduit) config.getConduit();
     if (isTlsEnabled) {
       TLSClientParameters tlsParams = new TLSClientParameters();
-      if (!validateCerts) {
-        tlsParams.setTrustManagers(new TrustManager[] { new AcceptAllTrustManager() });
+      TrustManager[] managers = validateCerts ?
+          trustManagers : ACCEPT_ALL_TRUST_MANAGERS;
+      if (managers != null) {
+        tlsParams.setTrustManagers(managers);
       }
-      else if (trustManagers != null) {
-        tlsParams.setTrustManagers(trustManagers);
+      if (sharedSocketFactory != null) {
+        tlsParams.setSSLSocketFactory(
+            sharedSocketFactory.getSocketFactory(managers));
       }
       tlsParams.setDisableCNCheck(!validateCn);
       conduit.setTlsClientParameters(tlsParams);
@@ -312,17 +505,28 @@ public class ClouderaManagerClientBuilder {
         connectionTimeoutUnits.toMillis(connectionTimeout));
     policy.setReceiveTimeout(
         receiveTimeoutUnits.toMillis(receiveTimeout));
+    FieldsProjection.install(config);
+    if (metrics != null) {
+      metrics.install(config);
+    }
+    if (compression != null) {
+      compression.install(config);
+    }
+    if (subResourceCacheSize > 0 || responseCacheSize > 0 ||
+        coalesceRequests || metrics != null) {
+      ResponseCache responses = null;
+      if (responseCacheSize > 0) {
+        responses = new ResponseCache(responseCacheSize, responseCacheTtl,
+            responseCacheTtlUnits);
+        responses.install(config);
+      }
+      rootResource = new ClientProxyWrapper(subResourceCacheSize, responses,
+          coalesceRequests ? new RequestCoalescer() : null, metrics)
+          .wrap(rootResource, proxyType);
+    }
     return rootResource;
   }
 
-  private static JAXRSClientFactoryBean cleanFactory(JAXRSClientFactoryBean bean) {
-    bean.setUsername(null);
-    bean.setPassword(null);
-    bean.setInitialState(null);
-    bean.setFeatures(Arrays.<AbstractFeature>asList());
-    return bean;
-  }
-
   /**
    * Releases the internal state and configuration associated with this client.
    * Reopening a new connection requires creating a new client object using the
@@ -332,12 +536,42 @@ public class ClouderaManagerClientBuilder {
    *             builder class
    */
   public static void closeClient(Object root) {
+    if (root instanceof ApiRootResourceDelegate) {
+      root = ((ApiRootResourceDelegate) root).getDelegateRootResource();
+    }
     Client client = WebClient.client(root);
     if (client != null) {
       client.close();
     }
   }
 
+  /**
+   * Warms up a mapper with the model classes read and written by a resource
+   * and its sub-resources.
+   */
+  private static void warmUp(ApiObjectMapper mapper, Class<?> resource,
+                             Set<Class<?>> visited) {
+    if (!visited.add(resource)) {
+      return;
+    }
+    for (Method method : resource.getMethods()) {
+      Class<?> returnType = method.getReturnType();
+      if (returnType.isInterface() &&
+          returnType.getName().startsWith(API_PACKAGE)) {
+        warmUp(mapper, returnType, visited);
+      } else if (returnType.getName().startsWith(MODEL_PACKAGE)) {
+        mapper.warmUp(method.getGenericReturnType());
+      }
+      Type[] parameterTypes = method.getGenericParameterTypes();
+      for (int i = 0; i < parameterTypes.length; i++) {
+        if (method.getParameterTypes()[i].getName()
+            .startsWith(MODEL_PACKAGE)) {
+          mapper.warmUp(parameterTypes[i]);
+        }
+      }
+    }
+  }
+
   /**
    * Clears any cached resources shared during build operations
    * across instances of this class.
@@ -0,0 +1,476 @@
+// Licensed to Cloudera, Inc. under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  Cloudera, Inc. licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.api;
+
+import com.cloudera.api.model.ApiTimeSeries;
+import com.cloudera.api.model.ApiTimeSeriesAggregateStatistics;
+import com.cloudera.api.model.ApiTimeSeriesCrossEntityMetadata;
+import com.cloudera.api.model.ApiTimeSeriesData;
+import com.cloudera.api.model.ApiTimeSeriesMetadata;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A time series held in columns of primitives, one array per property of its
+ * data points, instead of one {@link ApiTimeSeriesData} object, one date and
+ * possibly one {@link ApiTimeSeriesAggregateStatistics} object per point.
+ * <p>
+ * Times are in milliseconds since the epoch, {@link #NO_TIME} standing for
+ * missing ones. The statistics columns are null when no point has
+ * statistics. The arrays returned by the getters are those of the series,
+ * and are not to be modified.
+ *
+ * @see ColumnarTimeSeriesResponse
+ */
+public final class ColumnarTimeSeries {
+
+  /** Time of the points, or of their statistics, without one. */
+  public static final long NO_TIME = Long.MIN_VALUE;
+
+  private final ApiTimeSeriesMetadata metadata;
+  private final int size;
+  private final long[] timestamps;
+  private final double[] values;
+  private final String[] types;
+  private final BitSet hasStatistics;
+  private final long[] sampleTimes;
+  private final double[] sampleValues;
+  private final long[] counts;
+  private final double[] mins;
+  private final long[] minTimes;
+  private final double[] maxs;
+  private final long[] maxTimes;
+  private final double[] means;
+  private final double[] stdDevs;
+  private final ApiTimeSeriesCrossEntityMetadata[] crossEntityMetadata;
+
+  private ColumnarTimeSeries(Builder builder) {
+    int n = builder.size;
+    metadata = builder.metadata;
+    size = n;
+    timestamps = trim(builder.timestamps, n);
+    values = trim(builder.values, n);
+    types = trim(builder.types, n);
+    if (builder.hasStatistics != null) {
+      hasStatistics = builder.hasStatistics;
+      sampleTimes = trim(builder.sampleTimes, n);
+      sampleValues = trim(builder.sampleValues, n);
+      counts = trim(builder.counts, n);
+      mins = trim(builder.mins, n);
+      minTimes = trim(builder.minTimes, n);
+      maxs = trim(builder.maxs, n);
+      maxTimes = trim(builder.maxTimes, n);
+      means = trim(builder.means, n);
+      stdDevs = trim(builder.stdDevs, n);
+      crossEntityMetadata = trim(builder.crossEntityMetadata, n);
+    } else {
+      hasStatistics = null;
+      sampleTimes = null;
+      sampleValues = null;
+      counts = null;
+      mins = null;
+      minTimes = null;
+      maxs = null;
+      maxTimes = null;
+      means = null;
+      stdDevs = null;
+      crossEntityMetadata = null;
+    }
+  }
+
+  private static long[] trim(long[] column, int size) {
+    return column.length == size ? column : Arrays.copyOf(column, size);
+  }
+
+  private static double[] trim(double[] column, int size) {
+    return column.length == size ? column : Arrays.copyOf(column, size);
+  }
+
+  private static <T> T[] trim(T[] column, int size) {
+    return column.length == size ? column : Arrays.copyOf(column, size);
+  }
+
+  /**
+   * Converts a time series of the API model.
+   */
+  public static ColumnarTimeSeries of(ApiTimeSeries series) {
+    List<ApiTimeSeriesData> data = series.getData();
+    int n = data != null ? data.size() : 0;
+    Builder builder = new Builder(series.getMetadata(), n);
+    for (int i = 0; i < n; i++) {
+      ApiTimeSeriesData point = data.get(i);
+      builder.add(toTime(point.getTimestamp()), point.getValue(),
+          point.getType());
+      ApiTimeSeriesAggregateStatistics stats = point.getAggregateStatistics();
+      if (stats != null) {
+        builder.setStatistics(toTime(stats.getSampleTime()),
+            stats.getSampleValue(), stats.getCount(), stats.getMin(),
+            toTime(stats.getMinTime()), stats.getMax(),
+            toTime(stats.getMaxTime()), stats.getMean(), stats.getStdDev(),
+            stats.getCrossEntityMetadata());
+      }
+    }
+    return builder.build();
+  }
+
+  /**
+   * Converts the series back to the API model.
+   */
+  public ApiTimeSeries toApiTimeSeries() {
+    List<ApiTimeSeriesData> data = Lists.newArrayListWithCapacity(size);
+    for (int i = 0; i < size; i++) {
+      ApiTimeSeriesData point = new ApiTimeSeriesData();
+      point.setTimestamp(toDate(timestamps[i]));
+      point.setValue(values[i]);
+      point.setType(types[i]);
+      point.setAggregateStatistics(getAggregateStatistics(i));
+      data.add(point);
+    }
+    return new ApiTimeSeries(metadata, data);
+  }
+
+  private static long toTime(Date date) {
+    return date != null ? date.getTime() : NO_TIME;
+  }
+
+  private static Date toDate(long time) {
+    return time != NO_TIME ? new Date(time) : null;
+  }
+
+  public ApiTimeSeriesMetadata getMetadata() {
+    return metadata;
+  }
+
+  /** The number of data points. */
+  public int size() {
+    return size;
+  }
+
+  public long[] getTimestamps() {
+    return timestamps;
+  }
+
+  public double[] getValues() {
+    return values;
+  }
+
+  public String[] getTypes() {
+    return types;
+  }
+
+  public long getTimestamp(int index) {
+    return timestamps[index];
+  }
+
+  public double getValue(int index) {
+    return values[index];
+  }
+
+  public String getType(int index) {
+    return types[index];
+  }
+
+  /**
+   * @return The index of the first point at or after the given time, or the
+   *         size of the series if there is none. The points are expected to
+   *         be in time order, as returned by the API.
+   */
+  public int ceilingIndex(long timestamp) {
+    int low = 0;
+    int high = size;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (timestamps[middle] < timestamp) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * @param fromIndex The index of the first point, inclusive.
+   * @param toIndex The index of the last point, exclusive.
+   * @return A series with a copy of the given points, and the same metadata.
+   */
+  public ColumnarTimeSeries slice(int fromIndex, int toIndex) {
+    return new Builder(metadata, toIndex - fromIndex)
+        .addAll(this, fromIndex, toIndex)
+        .build();
+  }
+
+  public boolean hasAggregateStatistics(int index) {
+    return hasStatistics != null && hasStatistics.get(index);
+  }
+
+  /**
+   * @return The statistics of a point as an object of the API model, or null
+   *         if the point has none.
+   */
+  public ApiTimeSeriesAggregateStatistics getAggregateStatistics(int index) {
+    if (!hasAggregateStatistics(index)) {
+      return null;
+    }
+    ApiTimeSeriesAggregateStatistics stats =
+        new ApiTimeSeriesAggregateStatistics();
+    stats.setSampleTime(toDate(sampleTimes[index]));
+    stats.setSampleValue(sampleValues[index]);
+    stats.setCount(counts[index]);
+    stats.setMin(mins[index]);
+    stats.setMinTime(toDate(minTimes[index]));
+    stats.setMax(maxs[index]);
+    stats.setMaxTime(toDate(maxTimes[index]));
+    stats.setMean(means[index]);
+    stats.setStdDev(stdDevs[index]);
+    stats.setCrossEntityMetadata(crossEntityMetadata[index]);
+    return stats;
+  }
+
+  public long[] getSampleTimes() {
+    return sampleTimes;
+  }
+
+  public double[] getSampleValues() {
+    return sampleValues;
+  }
+
+  public long[] getCounts() {
+    return counts;
+  }
+
+  public double[] getMins() {
+    return mins;
+  }
+
+  public long[] getMinTimes() {
+    return minTimes;
+  }
+
+  public double[] getMaxs() {
+    return maxs;
+  }
+
+  public long[] getMaxTimes() {
+    return maxTimes;
+  }
+
+  public double[] getMeans() {
+    return means;
+  }
+
+  public double[] getStdDevs() {
+    return stdDevs;
+  }
+
+  public ApiTimeSeriesCrossEntityMetadata[] getCrossEntityMetadata() {
+    return crossEntityMetadata;
+  }
+
+  /**
+   * Builds a series point by point, growing its columns as needed.
+   */
+  public static final class Builder {
+
+    private ApiTimeSeriesMetadata metadata;
+    private int size;
+    private long[] timestamps;
+    private double[] values;
+    private String[] types;
+    private BitSet hasStatistics;
+    private long[] sampleTimes;
+    private double[] sampleValues;
+    private long[] counts;
+    private double[] mins;
+    private long[] minTimes;
+    private double[] maxs;
+    private long[] maxTimes;
+    private double[] means;
+    private double[] stdDevs;
+    private ApiTimeSeriesCrossEntityMetadata[] crossEntityMetadata;
+    private boolean built;
+
+    /**
+     * @param metadata The metadata of the series.
+     * @param expectedSize The expected number of points.
+     */
+    public Builder(ApiTimeSeriesMetadata metadata, int expectedSize) {
+      Preconditions.checkArgument(expectedSize >= 0,
+          "Expected size should not be negative.");
+      this.metadata = metadata;
+      this.timestamps = new long[expectedSize];
+      this.values = new double[expectedSize];
+      this.types = new String[expectedSize];
+    }
+
+    /**
+     * @param metadata The metadata of the series.
+     * @return This builder.
+     */
+    public Builder setMetadata(ApiTimeSeriesMetadata metadata) {
+      this.metadata = metadata;
+      return this;
+    }
+
+    /**
+     * Adds a point, without statistics.
+     *
+     * @param timestamp The time of the point, or {@link #NO_TIME}.
+     * @param value The value of the point.
+     * @param type The type of the point.
+     * @return This builder.
+     */
+    public Builder add(long timestamp, double value, String type) {
+      Preconditions.checkState(!built, "The series was already built.");
+      if (size == timestamps.length) {
+        grow(Math.max(16, size + (size >> 1)));
+      }
+      timestamps[size] = timestamp;
+      values[size] = value;
+      types[size] = type;
+      size++;
+      return this;
+    }
+
+    /**
+     * Sets the statistics of the last point added. Times are in milliseconds
+     * since the epoch, or {@link #NO_TIME}.
+     *
+     * @return This builder.
+     */
+    public Builder setStatistics(long sampleTime, double sampleValue,
+        long count, double min, long minTime, double max, long maxTime,
+        double mean, double stdDev,
+        ApiTimeSeriesCrossEntityMetadata crossEntityMetadata) {
+      Preconditions.checkState(!built, "The series was already built.");
+      Preconditions.checkState(size > 0, "No point was added.");
+      if (hasStatistics == null) {
+        allocateStatistics();
+      }
+      int i = size - 1;
+      hasStatistics.set(i);
+      sampleTimes[i] = sampleTime;
+      sampleValues[i] = sampleValue;
+      counts[i] = count;
+      mins[i] = min;
+      minTimes[i] = minTime;
+      maxs[i] = max;
+      maxTimes[i] = maxTime;
+      means[i] = mean;
+      stdDevs[i] = stdDev;
+      this.crossEntityMetadata[i] = crossEntityMetadata;
+      return this;
+    }
+
+    /**
+     * Appends points of another series, with their statistics.
+     *
+     * @param series The series.
+     * @param fromIndex The index of the first point, inclusive.
+     * @param toIndex The index of the last point, exclusive.
+     * @return This builder.
+     */
+    public Builder addAll(ColumnarTimeSeries series, int fromIndex,
+                          int toIndex) {
+      Preconditions.checkState(!built, "The series was already built.");
+      Preconditions.checkPositionIndexes(fromIndex, toIndex, series.size);
+      int n = toIndex - fromIndex;
+      if (size + n > timestamps.length) {
+        grow(Math.max(size + n, size + (size >> 1)));
+      }
+      System.arraycopy(series.timestamps, fromIndex, timestamps, size, n);
+      System.arraycopy(series.values, fromIndex, values, size, n);
+      System.arraycopy(series.types, fromIndex, types, size, n);
+      if (series.hasStatistics != null) {
+        BitSet source = series.hasStatistics;
+        for (int i = source.nextSetBit(fromIndex); i >= 0 && i < toIndex;
+             i = source.nextSetBit(i + 1)) {
+          if (hasStatistics == null) {
+            allocateStatistics();
+          }
+          int j = size + i - fromIndex;
+          hasStatistics.set(j);
+          sampleTimes[j] = series.sampleTimes[i];
+          sampleValues[j] = series.sampleValues[i];
+          counts[j] = series.counts[i];
+          mins[j] = series.mins[i];
+          minTimes[j] = series.minTimes[i];
+          maxs[j] = series.maxs[i];
+          maxTimes[j] = series.maxTimes[i];
+          means[j] = series.means[i];
+          stdDevs[j] = series.stdDevs[i];
+          crossEntityMetadata[j] = series.crossEntityMetadata[i];
+        }
+      }
+      size += n;
+      return this;
+    }
+
+    private void allocateStatistics() {
+      int capacity = timestamps.length;
+      hasStatistics = new BitSet(capacity);
+      sampleTimes = new long[capacity];
+      sampleValues = new double[capacity];
+      counts = new long[capacity];
+      mins = new double[capacity];
+      minTimes = new long[capacity];
+      maxs = new double[capacity];
+      maxTimes = new long[capacity];
+      means = new double[capacity];
+      stdDevs = new double[capacity];
+      crossEntityMetadata = new ApiTimeSeriesCrossEntityMetadata[capacity];
+    }
+
+    private void grow(int capacity) {
+      timestamps = Arrays.copyOf(timestamps, capacity);
+      values = Arrays.copyOf(values, capacity);
+      types = Arrays.copyOf(types, capacity);
+      if (hasStatistics != null) {
+        sampleTimes = Arrays.copyOf(sampleTimes, capacity);
+        sampleValues = Arrays.copyOf(sampleValues, capacity);
+        counts = Arrays.copyOf(counts, capacity);
+        mins = Arrays.copyOf(mins, capacity);
+        minTimes = Arrays.copyOf(minTimes, capacity);
+        maxs = Arrays.copyOf(maxs, capacity);
+        maxTimes = Arrays.copyOf(maxTimes, capacity);
+        means = Arrays.copyOf(means, capacity);
+        stdDevs = Arrays.copyOf(stdDevs, capacity);
+        crossEntityMetadata = Arrays.copyOf(crossEntityMetadata, capacity);
+      }
+    }
+
+    /** The number of points added so far. */
+    public int size() {
+      return size;
+    }
+
+    /**
+     * Builds the series, with its columns trimmed to its points. The builder
+     * cannot be used afterwards, as the series may take over its columns.
+     */
+    public ColumnarTimeSeries build() {
+      Preconditions.checkState(!built, "The series was already built.");
+      built = true;
+      return new ColumnarTimeSeries(this);
+    }
+  }
+}
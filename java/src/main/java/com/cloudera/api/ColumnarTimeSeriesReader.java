@@ -0,0 +1,337 @@
+// Licensed to Cloudera, Inc. under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  Cloudera, Inc. licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.api;
+
+import com.cloudera.api.model.ApiTimeSeriesCrossEntityMetadata;
+import com.cloudera.api.model.ApiTimeSeriesMetadata;
+import com.cloudera.api.model.ApiTimeSeriesResponseList;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.google.common.collect.Lists;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Decodes the JSON of an {@link ApiTimeSeriesResponseList} into columns, one
+ * token at a time, without creating objects for the data points.
+ */
+class ColumnarTimeSeriesReader extends ApiListStreaming.ResponseReader {
+
+  private static final String ITEMS = "items";
+  private static final String TIME_SERIES = "timeSeries";
+  private static final String WARNINGS = "warnings";
+  private static final String TIME_SERIES_QUERY = "timeSeriesQuery";
+  private static final String METADATA = "metadata";
+  private static final String DATA = "data";
+  private static final String TIMESTAMP = "timestamp";
+  private static final String VALUE = "value";
+  private static final String TYPE = "type";
+  private static final String AGGREGATE_STATISTICS = "aggregateStatistics";
+  private static final String SAMPLE_TIME = "sampleTime";
+  private static final String SAMPLE_VALUE = "sampleValue";
+  private static final String COUNT = "count";
+  private static final String MIN = "min";
+  private static final String MIN_TIME = "minTime";
+  private static final String MAX = "max";
+  private static final String MAX_TIME = "maxTime";
+  private static final String MEAN = "mean";
+  private static final String STD_DEV = "stdDev";
+  private static final String CROSS_ENTITY_METADATA = "crossEntityMetadata";
+
+  private static final TypeReference<List<String>> STRING_LIST =
+      new TypeReference<List<String>>() { };
+
+  private List<ColumnarTimeSeriesResponse> responses;
+
+  @Override
+  Object read(ObjectMapper mapper, Class<?> type, InputStream in)
+      throws IOException {
+    responses = read(mapper, in);
+    return new ApiTimeSeriesResponseList();
+  }
+
+  /**
+   * @return The responses read, or null if there was no response to read.
+   */
+  List<ColumnarTimeSeriesResponse> getResponses() {
+    return responses;
+  }
+
+  static List<ColumnarTimeSeriesResponse> read(ObjectMapper mapper,
+      InputStream in) throws IOException {
+    JsonParser parser = mapper.getFactory().createParser(in);
+    try {
+      return new Decoder(mapper, parser).readList();
+    } finally {
+      parser.close();
+    }
+  }
+
+  private static class Decoder {
+    private final ObjectMapper mapper;
+    private final JsonParser parser;
+    private final ObjectReader metadataReader;
+    private final ObjectReader crossEntityReader;
+    /** Whether dates can be parsed without the date format of the mapper. */
+    private final boolean fastDates;
+
+    /** Statistics of the point being read. */
+    private boolean hasStatistics;
+    private long sampleTime;
+    private double sampleValue;
+    private long count;
+    private double min;
+    private long minTime;
+    private double max;
+    private long maxTime;
+    private double mean;
+    private double stdDev;
+    private ApiTimeSeriesCrossEntityMetadata crossEntityMetadata;
+
+    Decoder(ObjectMapper mapper, JsonParser parser) {
+      this.mapper = mapper;
+      this.parser = parser;
+      this.metadataReader = mapper.reader(ApiTimeSeriesMetadata.class);
+      this.crossEntityReader =
+          mapper.reader(ApiTimeSeriesCrossEntityMetadata.class);
+      this.fastDates = mapper instanceof ApiObjectMapper &&
+          ((ApiObjectMapper) mapper).hasIso8601DateFormat();
+    }
+
+    List<ColumnarTimeSeriesResponse> readList() throws IOException {
+      List<ColumnarTimeSeriesResponse> responses = Lists.newArrayList();
+      JsonToken token = parser.nextToken();
+      if (token == JsonToken.START_ARRAY) {
+        readResponses(responses);
+      } else if (token == JsonToken.START_OBJECT) {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+          String name = parser.getCurrentName();
+          if (parser.nextToken() == JsonToken.START_ARRAY &&
+              name.equals(ITEMS)) {
+            readResponses(responses);
+          } else {
+            parser.skipChildren();
+          }
+        }
+      } else if (token != null) {
+        throw unexpected(token);
+      }
+      return responses;
+    }
+
+    private void readResponses(List<ColumnarTimeSeriesResponse> responses)
+        throws IOException {
+      for (JsonToken token = parser.nextToken();
+           token != JsonToken.END_ARRAY; token = parser.nextToken()) {
+        expect(token, JsonToken.START_OBJECT);
+        responses.add(readResponse());
+      }
+    }
+
+    private ColumnarTimeSeriesResponse readResponse() throws IOException {
+      List<ColumnarTimeSeries> timeSeries = null;
+      List<String> warnings = null;
+      String query = null;
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String name = parser.getCurrentName();
+        JsonToken token = parser.nextToken();
+        if (token == JsonToken.VALUE_NULL) {
+          continue;
+        }
+        if (name.equals(TIME_SERIES)) {
+          expect(token, JsonToken.START_ARRAY);
+          timeSeries = Lists.newArrayList();
+          for (token = parser.nextToken(); token != JsonToken.END_ARRAY;
+               token = parser.nextToken()) {
+            expect(token, JsonToken.START_OBJECT);
+            timeSeries.add(readSeries());
+          }
+        } else if (name.equals(WARNINGS)) {
+          warnings = mapper.readValue(parser, STRING_LIST);
+        } else if (name.equals(TIME_SERIES_QUERY)) {
+          query = parser.getText();
+        } else {
+          parser.skipChildren();
+        }
+      }
+      return new ColumnarTimeSeriesResponse(timeSeries, warnings, query);
+    }
+
+    private ColumnarTimeSeries readSeries() throws IOException {
+      ColumnarTimeSeries.Builder builder =
+          new ColumnarTimeSeries.Builder(null, 0);
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String name = parser.getCurrentName();
+        JsonToken token = parser.nextToken();
+        if (token == JsonToken.VALUE_NULL) {
+          continue;
+        }
+        if (name.equals(METADATA)) {
+          builder.setMetadata(
+              metadataReader.<ApiTimeSeriesMetadata>readValue(parser));
+        } else if (name.equals(DATA)) {
+          expect(token, JsonToken.START_ARRAY);
+          String type = null;
+          for (token = parser.nextToken(); token != JsonToken.END_ARRAY;
+               token = parser.nextToken()) {
+            expect(token, JsonToken.START_OBJECT);
+            type = readPoint(builder, type);
+          }
+        } else {
+          parser.skipChildren();
+        }
+      }
+      return builder.build();
+    }
+
+    /**
+     * Reads a data point into the builder.
+     *
+     * @param lastType The type of the previous point, reused when the same,
+     *                 as all the points of a series usually are.
+     * @return The type of the point.
+     */
+    private String readPoint(ColumnarTimeSeries.Builder builder,
+                             String lastType) throws IOException {
+      long timestamp = ColumnarTimeSeries.NO_TIME;
+      double value = 0;
+      String type = null;
+      hasStatistics = false;
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String name = parser.getCurrentName();
+        JsonToken token = parser.nextToken();
+        if (token == JsonToken.VALUE_NULL) {
+          continue;
+        }
+        if (name.equals(TIMESTAMP)) {
+          timestamp = readTime(token);
+        } else if (name.equals(VALUE)) {
+          value = parser.getValueAsDouble();
+        } else if (name.equals(TYPE)) {
+          type = textEquals(lastType) ? lastType : parser.getText();
+        } else if (name.equals(AGGREGATE_STATISTICS)) {
+          expect(token, JsonToken.START_OBJECT);
+          readStatistics();
+        } else {
+          parser.skipChildren();
+        }
+      }
+      builder.add(timestamp, value, type);
+      if (hasStatistics) {
+        builder.setStatistics(sampleTime, sampleValue, count, min, minTime,
+            max, maxTime, mean, stdDev, crossEntityMetadata);
+      }
+      return type;
+    }
+
+    private void readStatistics() throws IOException {
+      hasStatistics = true;
+      sampleTime = ColumnarTimeSeries.NO_TIME;
+      sampleValue = 0;
+      count = 0;
+      min = 0;
+      minTime = ColumnarTimeSeries.NO_TIME;
+      max = 0;
+      maxTime = ColumnarTimeSeries.NO_TIME;
+      mean = 0;
+      stdDev = 0;
+      crossEntityMetadata = null;
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String name = parser.getCurrentName();
+        JsonToken token = parser.nextToken();
+        if (token == JsonToken.VALUE_NULL) {
+          continue;
+        }
+        if (name.equals(SAMPLE_TIME)) {
+          sampleTime = readTime(token);
+        } else if (name.equals(SAMPLE_VALUE)) {
+          sampleValue = parser.getValueAsDouble();
+        } else if (name.equals(COUNT)) {
+          count = parser.getValueAsLong();
+        } else if (name.equals(MIN)) {
+          min = parser.getValueAsDouble();
+        } else if (name.equals(MIN_TIME)) {
+          minTime = readTime(token);
+        } else if (name.equals(MAX)) {
+          max = parser.getValueAsDouble();
+        } else if (name.equals(MAX_TIME)) {
+          maxTime = readTime(token);
+        } else if (name.equals(MEAN)) {
+          mean = parser.getValueAsDouble();
+        } else if (name.equals(STD_DEV)) {
+          stdDev = parser.getValueAsDouble();
+        } else if (name.equals(CROSS_ENTITY_METADATA)) {
+          crossEntityMetadata = crossEntityReader.readValue(parser);
+        } else {
+          parser.skipChildren();
+        }
+      }
+    }
+
+    /**
+     * Reads a date, in the ISO-8601 format of the API without creating a
+     * {@link Date}, or else through the mapper.
+     */
+    private long readTime(JsonToken token) throws IOException {
+      if (fastDates && token == JsonToken.VALUE_STRING &&
+          parser.getTextLength() == Iso8601DateModule.LENGTH) {
+        long time = Iso8601DateModule.parse(parser.getTextCharacters(),
+            parser.getTextOffset());
+        if (time != Long.MIN_VALUE) {
+          return time;
+        }
+      }
+      return mapper.readValue(parser, Date.class).getTime();
+    }
+
+    /**
+     * @return Whether the current string value is the given text.
+     */
+    private boolean textEquals(String text) throws IOException {
+      if (text == null || parser.getTextLength() != text.length()) {
+        return false;
+      }
+      char[] chars = parser.getTextCharacters();
+      int offset = parser.getTextOffset();
+      for (int i = 0; i < text.length(); i++) {
+        if (chars[offset + i] != text.charAt(i)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private void expect(JsonToken token, JsonToken expected)
+        throws JsonMappingException {
+      if (token != expected) {
+        throw unexpected(token);
+      }
+    }
+
+    private JsonMappingException unexpected(JsonToken token) {
+      return new JsonMappingException("Unexpected token " + token,
+          parser.getCurrentLocation());
+    }
+  }
+}
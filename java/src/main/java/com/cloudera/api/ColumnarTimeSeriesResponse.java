@@ -0,0 +1,160 @@
+// Licensed to Cloudera, Inc. under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  Cloudera, Inc. licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.api;
+
+import com.cloudera.api.model.ApiTimeSeries;
+import com.cloudera.api.model.ApiTimeSeriesResponse;
+import com.cloudera.api.model.ApiTimeSeriesResponseList;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import javax.ws.rs.core.Response;
+
+/**
+ * The response to one time series query, with its series held in columns
+ * (see {@link ColumnarTimeSeries}).
+ * <p>
+ * Responses are decoded straight into columns, without going through the
+ * objects of the API model. For the time series queries of API v6 and
+ * later, which return a {@link Response}:
+ * <pre>
+ *   List&lt;ColumnarTimeSeriesResponse&gt; responses =
+ *       ColumnarTimeSeriesResponse.read(
+ *           timeSeries.queryTimeSeries(request));
+ * </pre>
+ * and for the one of API v4, {@link #query(Supplier)}.
+ */
+public final class ColumnarTimeSeriesResponse {
+
+  private static final ObjectMapper MAPPER = new ApiObjectMapper();
+
+  private final List<ColumnarTimeSeries> timeSeries;
+  private final List<String> warnings;
+  private final String timeSeriesQuery;
+
+  public ColumnarTimeSeriesResponse(List<ColumnarTimeSeries> timeSeries,
+                                    List<String> warnings,
+                                    String timeSeriesQuery) {
+    this.timeSeries = timeSeries;
+    this.warnings = warnings;
+    this.timeSeriesQuery = timeSeriesQuery;
+  }
+
+  /**
+   * Converts a response of the API model.
+   */
+  public static ColumnarTimeSeriesResponse of(ApiTimeSeriesResponse response) {
+    List<ColumnarTimeSeries> timeSeries = null;
+    if (response.getTimeSeries() != null) {
+      timeSeries = Lists.newArrayListWithCapacity(
+          response.getTimeSeries().size());
+      for (ApiTimeSeries series : response.getTimeSeries()) {
+        timeSeries.add(ColumnarTimeSeries.of(series));
+      }
+    }
+    return new ColumnarTimeSeriesResponse(timeSeries, response.getWarnings(),
+        response.getTimeSeriesQuery());
+  }
+
+  /**
+   * Converts the response back to the API model.
+   */
+  public ApiTimeSeriesResponse toApiTimeSeriesResponse() {
+    List<ApiTimeSeries> apiTimeSeries = null;
+    if (timeSeries != null) {
+      apiTimeSeries = Lists.newArrayListWithCapacity(timeSeries.size());
+      for (ColumnarTimeSeries series : timeSeries) {
+        apiTimeSeries.add(series.toApiTimeSeries());
+      }
+    }
+    return new ApiTimeSeriesResponse(apiTimeSeries, warnings,
+        timeSeriesQuery);
+  }
+
+  /** The time series of the query. */
+  public List<ColumnarTimeSeries> getTimeSeries() {
+    return timeSeries;
+  }
+
+  /** The warnings of the query. */
+  public List<String> getWarnings() {
+    return warnings;
+  }
+
+  /** The query. */
+  public String getTimeSeriesQuery() {
+    return timeSeriesQuery;
+  }
+
+  /**
+   * Decodes the JSON of an {@link ApiTimeSeriesResponseList}.
+   *
+   * @param mapper The mapper reading the metadata of the series.
+   * @param in The JSON.
+   * @return The responses of the list.
+   */
+  public static List<ColumnarTimeSeriesResponse> read(ObjectMapper mapper,
+      InputStream in) throws IOException {
+    return ColumnarTimeSeriesReader.read(mapper, in);
+  }
+
+  /**
+   * Decodes the JSON response of a time series query, e.g. of
+   * {@link com.cloudera.api.v11.TimeSeriesResourceV11#queryTimeSeries(
+   * com.cloudera.api.model.ApiTimeSeriesRequest)}, and closes it.
+   *
+   * @return The responses of the list.
+   */
+  public static List<ColumnarTimeSeriesResponse> read(Response response)
+      throws IOException {
+    Object entity = response.getEntity();
+    Preconditions.checkArgument(entity instanceof InputStream,
+        "Response should have a stream as entity.");
+    InputStream in = (InputStream) entity;
+    try {
+      return read(MAPPER, in);
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Makes a call returning an {@link ApiTimeSeriesResponseList}, e.g. to
+   * {@link com.cloudera.api.v4.TimeSeriesResource#queryTimeSeries(String,
+   * String, String)}, decoding its response into columns. The call is made
+   * on the calling thread, with any client built by {@link
+   * ClouderaManagerClientBuilder}, and bypasses the response cache and
+   * request coalescing.
+   *
+   * @return The responses of the list.
+   */
+  public static List<ColumnarTimeSeriesResponse> query(
+      Supplier<? extends ApiTimeSeriesResponseList> call) {
+    ColumnarTimeSeriesReader reader = new ColumnarTimeSeriesReader();
+    ApiListStreaming.call(reader, call);
+    List<ColumnarTimeSeriesResponse> responses = reader.getResponses();
+    return responses != null ? responses :
+        ImmutableList.<ColumnarTimeSeriesResponse>of();
+  }
+}
@@ -0,0 +1,583 @@
+// Licensed to Cloudera, Inc. under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  Cloudera, Inc. licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.api;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Decodes the CSV output of the API, e.g. time series queried with a
+ * <tt>text/csv</tt> content type, as described by the {@link
+ * CsvElementWrapper} of the list type: each line after the header is a row
+ * of its {@link CsvElementWrapper#rowtype()}, whose columns are named after
+ * the properties of the row, with dates in its {@link
+ * CsvElementWrapper#dateTimeFormat()}.
+ * <p>
+ * The stream is decoded as it is read, a record at a time, into a buffer:
+ * fields are handed out as views of the buffer, numbers and dates are parsed
+ * from its bytes, and only the string fields of typed rows become strings.
+ * Rows are either read as objects of the row type, with {@link #read(
+ * InputStream, RowHandler)} or {@link #readAll(InputStream)}, or field by
+ * field into primitive columns, with {@link #readFields(InputStream,
+ * FieldHandler)}:
+ * <pre>
+ *   CsvDecoder&lt;ApiTimeSeriesRow&gt; decoder = CsvDecoder.of(
+ *       ApiTimeSeriesResponseList.class, ApiTimeSeriesRow.class);
+ *   Response response = timeSeries.queryTimeSeries(query, from, to,
+ *       "text/csv", "RAW", false);
+ *   List&lt;ApiTimeSeriesRow&gt; rows =
+ *       decoder.readAll((InputStream) response.getEntity());
+ * </pre>
+ * Quoted fields (RFC 4180) are supported. Columns without a matching
+ * property are skipped, and empty fields leave their property unset.
+ * Decoders are thread-safe.
+ *
+ * @param <T> The type of the rows.
+ */
+public class CsvDecoder<T> {
+
+  private static final String ISO8601 = "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'";
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  /** Powers of ten exactly represented as doubles. */
+  private static final double[] POWERS_OF_TEN = new double[23];
+  static {
+    POWERS_OF_TEN[0] = 1;
+    for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+      POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+    }
+  }
+
+  /** Receives the rows of the CSV. */
+  public interface RowHandler<T> {
+    void row(T row);
+  }
+
+  /** Receives the fields of the CSV. */
+  public interface FieldHandler {
+    /**
+     * Receives the names of the columns, from the header.
+     */
+    void header(List<String> columns);
+
+    /**
+     * Receives a field of the current row. The field is only valid for the
+     * duration of the call.
+     */
+    void field(int column, Field field);
+
+    /**
+     * Ends the current row.
+     */
+    void endRow();
+  }
+
+  private final Class<T> rowType;
+  private final String dateTimeFormat;
+  /** Setters of the row type, by lower case property name. */
+  private final Map<String, Method> setters = Maps.newHashMap();
+
+  /**
+   * @param rowType The type of the rows.
+   * @param dateTimeFormat The format of the dates, as a {@link
+   *                       java.text.SimpleDateFormat} pattern, in UTC.
+   */
+  public CsvDecoder(Class<T> rowType, String dateTimeFormat) {
+    this.rowType = Preconditions.checkNotNull(rowType);
+    this.dateTimeFormat = Preconditions.checkNotNull(dateTimeFormat);
+    for (Method method : rowType.getMethods()) {
+      if (method.getName().startsWith("set") &&
+          method.getName().length() > 3 &&
+          method.getParameterTypes().length == 1 &&
+          Setter.kind(method.getParameterTypes()[0]) != null) {
+        setters.put(method.getName().substring(3).toLowerCase(Locale.ENGLISH),
+            method);
+      }
+    }
+  }
+
+  /**
+   * Makes a decoder for the CSV of a list type of the API.
+   *
+   * @param listType The list type, with a getter annotated with {@link
+   *                 CsvElementWrapper}.
+   * @param rowType The row type of the annotation.
+   */
+  public static <T> CsvDecoder<T> of(Class<?> listType, Class<T> rowType) {
+    for (Method method : listType.getMethods()) {
+      CsvElementWrapper wrapper =
+          method.getAnnotation(CsvElementWrapper.class);
+      if (wrapper != null) {
+        Preconditions.checkArgument(wrapper.rowtype() == rowType,
+            "The rows of %s are of %s.", listType.getName(),
+            wrapper.rowtype().getName());
+        return new CsvDecoder<T>(rowType, wrapper.dateTimeFormat());
+      }
+    }
+    throw new IllegalArgumentException(
+        listType.getName() + " has no CSV representation.");
+  }
+
+  /**
+   * Reads all the rows of a CSV, and closes the stream.
+   */
+  public List<T> readAll(InputStream in) throws IOException {
+    final List<T> rows = Lists.newArrayList();
+    read(in, new RowHandler<T>() {
+      @Override
+      public void row(T row) {
+        rows.add(row);
+      }
+    });
+    return rows;
+  }
+
+  /**
+   * Reads the rows of a CSV one at a time, and closes the stream.
+   */
+  public void read(InputStream in, final RowHandler<? super T> handler)
+      throws IOException {
+    readFields(in, new FieldHandler() {
+      private Setter[] columns;
+      private T row;
+
+      @Override
+      public void header(List<String> names) {
+        columns = new Setter[names.size()];
+        for (int i = 0; i < columns.length; i++) {
+          Method method = setters.get(
+              names.get(i).trim().toLowerCase(Locale.ENGLISH));
+          if (method != null) {
+            columns[i] = new Setter(method);
+          }
+        }
+      }
+
+      @Override
+      public void field(int column, Field field) {
+        if (row == null) {
+          row = newRow();
+        }
+        if (column < columns.length && columns[column] != null &&
+            !field.isEmpty()) {
+          columns[column].set(row, field);
+        }
+      }
+
+      @Override
+      public void endRow() {
+        handler.row(row != null ? row : newRow());
+        row = null;
+      }
+    });
+  }
+
+  private T newRow() {
+    try {
+      return rowType.newInstance();
+    } catch (InstantiationException e) {
+      throw Throwables.propagate(e);
+    } catch (IllegalAccessException e) {
+      throw Throwables.propagate(e);
+    }
+  }
+
+  /**
+   * Reads the fields of a CSV, and closes the stream.
+   */
+  public void readFields(InputStream in, FieldHandler handler)
+      throws IOException {
+    try {
+      Parser parser = new Parser(in, dateTimeFormat);
+      if (!parser.next()) {
+        return;
+      }
+      List<String> columns = Lists.newArrayList();
+      for (int i = 0; i < parser.count; i++) {
+        columns.add(parser.field(i).toString());
+      }
+      handler.header(columns);
+      while (parser.next()) {
+        for (int i = 0; i < parser.count; i++) {
+          handler.field(i, parser.field(i));
+        }
+        handler.endRow();
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * A field of the current row, as a view of the buffer of the decoder.
+   */
+  public static final class Field {
+    private final Parser parser;
+    private int start;
+    private int end;
+
+    private Field(Parser parser) {
+      this.parser = parser;
+    }
+
+    public boolean isEmpty() {
+      return start == end;
+    }
+
+    public int length() {
+      return end - start;
+    }
+
+    /**
+     * @return The field as a whole number.
+     * @throws NumberFormatException If the field is not one.
+     */
+    public long getLong() {
+      byte[] buffer = parser.buffer;
+      int i = start;
+      boolean negative = i < end && buffer[i] == '-';
+      if (negative || (i < end && buffer[i] == '+')) {
+        i++;
+      }
+      // Up to 18 digits cannot overflow.
+      if (i == end || end - i > 18) {
+        return Long.parseLong(toString());
+      }
+      long value = 0;
+      for (; i < end; i++) {
+        int digit = buffer[i] - '0';
+        if (digit < 0 || digit > 9) {
+          return Long.parseLong(toString());
+        }
+        value = value * 10 + digit;
+      }
+      return negative ? -value : value;
+    }
+
+    /**
+     * @return The field as a number.
+     * @throws NumberFormatException If the field is not one.
+     */
+    public double getDouble() {
+      byte[] buffer = parser.buffer;
+      int i = start;
+      boolean negative = i < end && buffer[i] == '-';
+      if (negative || (i < end && buffer[i] == '+')) {
+        i++;
+      }
+      // Decimals whose digits fit in 53 bits, divided by an exact power of
+      // ten, are correctly rounded. Others are left to the JDK.
+      long mantissa = 0;
+      int digits = 0;
+      int decimals = -1;
+      for (; i < end; i++) {
+        byte b = buffer[i];
+        if (b == '.' && decimals < 0) {
+          decimals = 0;
+          continue;
+        }
+        int digit = b - '0';
+        if (digit < 0 || digit > 9 || ++digits > 15) {
+          return Double.parseDouble(toString());
+        }
+        mantissa = mantissa * 10 + digit;
+        if (decimals >= 0) {
+          decimals++;
+        }
+      }
+      if (digits == 0) {
+        return Double.parseDouble(toString());
+      }
+      double value = decimals > 0 ?
+          mantissa / POWERS_OF_TEN[decimals] : mantissa;
+      return negative ? -value : value;
+    }
+
+    /**
+     * @return The field as a date, in milliseconds since the epoch.
+     * @throws IllegalArgumentException If the field is not a date in the
+     *                                   format of the decoder.
+     */
+    public long getTime() {
+      if (parser.iso8601 && end - start == Iso8601DateModule.LENGTH) {
+        char[] chars = parser.chars;
+        for (int i = 0; i < chars.length; i++) {
+          chars[i] = (char) parser.buffer[start + i];
+        }
+        long time = Iso8601DateModule.parse(chars, 0);
+        if (time != Long.MIN_VALUE) {
+          return time;
+        }
+      }
+      String text = toString();
+      try {
+        return parser.dateFormat().parse(text).getTime();
+      } catch (ParseException e) {
+        throw new IllegalArgumentException("Invalid date: " + text, e);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return new String(parser.buffer, start, end - start, Charsets.UTF_8);
+    }
+  }
+
+  /**
+   * Splits a stream into records and fields, in a buffer holding at least
+   * the current record.
+   */
+  private static final class Parser {
+    private final InputStream in;
+    private final String format;
+    final boolean iso8601;
+    final char[] chars = new char[Iso8601DateModule.LENGTH];
+    private DateFormat dateFormat;
+    byte[] buffer = new byte[BUFFER_SIZE];
+    private int start;
+    private int limit;
+    private boolean eof;
+    /** Bounds of the fields of the current record. */
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    int count;
+    private final Field field = new Field(this);
+
+    Parser(InputStream in, String format) {
+      this.in = in;
+      this.format = format;
+      this.iso8601 = format.equals(ISO8601);
+    }
+
+    DateFormat dateFormat() {
+      if (dateFormat == null) {
+        dateFormat = ApiObjectMapper.makeDateFormat(format);
+      }
+      return dateFormat;
+    }
+
+    Field field(int index) {
+      field.start = starts[index];
+      field.end = ends[index];
+      return field;
+    }
+
+    /**
+     * Reads the next non-blank record.
+     *
+     * @return Whether there was one.
+     */
+    boolean next() throws IOException {
+      while (true) {
+        int scan = start;
+        boolean quoted = false;
+        int recordEnd;
+        int nextStart;
+        while (true) {
+          if (scan == limit) {
+            int shift = start;
+            boolean more = fill();
+            scan -= shift;
+            if (!more) {
+              if (scan == start) {
+                return false;
+              }
+              recordEnd = limit;
+              nextStart = limit;
+              break;
+            }
+            continue;
+          }
+          byte b = buffer[scan];
+          if (b == '"') {
+            quoted = !quoted;
+          } else if (b == '\n' && !quoted) {
+            recordEnd = scan;
+            nextStart = scan + 1;
+            break;
+          }
+          scan++;
+        }
+        if (recordEnd > start && buffer[recordEnd - 1] == '\r') {
+          recordEnd--;
+        }
+        boolean blank = recordEnd == start;
+        if (!blank) {
+          split(start, recordEnd);
+        }
+        start = nextStart;
+        if (!blank) {
+          return true;
+        }
+      }
+    }
+
+    /**
+     * Moves the current record to the start of the buffer, growing it if
+     * full, and reads more of the stream.
+     *
+     * @return Whether anything was read.
+     */
+    private boolean fill() throws IOException {
+      if (start > 0) {
+        System.arraycopy(buffer, start, buffer, 0, limit - start);
+        limit -= start;
+        start = 0;
+      }
+      if (eof) {
+        return false;
+      }
+      if (limit == buffer.length) {
+        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+      }
+      int read = in.read(buffer, limit, buffer.length - limit);
+      if (read < 0) {
+        eof = true;
+        return false;
+      }
+      limit += read;
+      return true;
+    }
+
+    /**
+     * Splits a record into fields, unquoting them in place.
+     */
+    private void split(int from, int to) {
+      count = 0;
+      int i = from;
+      while (true) {
+        int fieldStart = i;
+        int fieldEnd;
+        if (i < to && buffer[i] == '"') {
+          int write = i;
+          int read = i + 1;
+          while (read < to) {
+            if (buffer[read] == '"') {
+              if (read + 1 < to && buffer[read + 1] == '"') {
+                buffer[write++] = '"';
+                read += 2;
+                continue;
+              }
+              read++;
+              break;
+            }
+            buffer[write++] = buffer[read++];
+          }
+          fieldEnd = write;
+          while (read < to && buffer[read] != ',') {
+            read++;
+          }
+          i = read;
+        } else {
+          while (i < to && buffer[i] != ',') {
+            i++;
+          }
+          fieldEnd = i;
+        }
+        if (count == starts.length) {
+          starts = Arrays.copyOf(starts, count * 2);
+          ends = Arrays.copyOf(ends, count * 2);
+        }
+        starts[count] = fieldStart;
+        ends[count] = fieldEnd;
+        count++;
+        if (i >= to) {
+          return;
+        }
+        i++;
+      }
+    }
+  }
+
+  /**
+   * Sets a property of a row from a field.
+   */
+  private static final class Setter {
+    private enum Kind { STRING, LONG, INT, DOUBLE, BOOLEAN, DATE }
+
+    private final Method method;
+    private final Kind kind;
+
+    Setter(Method method) {
+      this.method = method;
+      this.kind = kind(method.getParameterTypes()[0]);
+    }
+
+    static Kind kind(Class<?> type) {
+      if (type == String.class) {
+        return Kind.STRING;
+      } else if (type == long.class || type == Long.class) {
+        return Kind.LONG;
+      } else if (type == int.class || type == Integer.class) {
+        return Kind.INT;
+      } else if (type == double.class || type == Double.class) {
+        return Kind.DOUBLE;
+      } else if (type == boolean.class || type == Boolean.class) {
+        return Kind.BOOLEAN;
+      } else if (type == Date.class) {
+        return Kind.DATE;
+      }
+      return null;
+    }
+
+    void set(Object row, Field field) {
+      Object value;
+      switch (kind) {
+        case STRING:
+          value = field.toString();
+          break;
+        case LONG:
+          value = field.getLong();
+          break;
+        case INT:
+          value = (int) field.getLong();
+          break;
+        case DOUBLE:
+          value = field.getDouble();
+          break;
+        case BOOLEAN:
+          value = Boolean.parseBoolean(field.toString());
+          break;
+        default:
+          value = new Date(field.getTime());
+          break;
+      }
+      try {
+        method.invoke(row, value);
+      } catch (IllegalAccessException e) {
+        throw Throwables.propagate(e);
+      } catch (InvocationTargetException e) {
+        throw Throwables.propagate(e.getCause());
+      }
+    }
+  }
+}
@@ -29,7 +29,9 @@ public enum DataView {
   FULL_WITH_HEALTH_CHECK_EXPLANATION,
   EXPORT,
   /** All passwords and other sensitive fields are marked as REDACTED. */
-  EXPORT_REDACTED;
+  EXPORT_REDACTED,
+  /** Only names, types and references; accepted by the v17 list methods. */
+  IDS_ONLY;
 
   // List of supported views
   private static String SUPPORTED_VIEWS =
@@ -0,0 +1,190 @@
+// Licensed to Cloudera, Inc. under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  Cloudera, Inc. licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.api;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Client-side metrics of an API endpoint, i.e. of a method of a resource
+ * interface. Recording a call only updates counters, so metrics can be left
+ * enabled at all times.
+ *
+ * @see ClientMetrics
+ */
+public class EndpointMetrics implements EndpointMetricsMXBean {
+
+  /** Number of buckets of the latency histogram. */
+  public static final int LATENCY_BUCKETS = 32;
+
+  private final String name;
+  private final AtomicLong calls = new AtomicLong();
+  private final AtomicLong errors = new AtomicLong();
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final AtomicLong bytesSent = new AtomicLong();
+  private final AtomicLong bytesReceived = new AtomicLong();
+  private final AtomicLong totalLatencyNanos = new AtomicLong();
+  private final AtomicLong maxLatencyNanos = new AtomicLong();
+  private final AtomicLongArray latencies = new AtomicLongArray(LATENCY_BUCKETS);
+
+  EndpointMetrics(String name) {
+    this.name = name;
+  }
+
+  void callStarted() {
+    inFlight.incrementAndGet();
+  }
+
+  void callCompleted(long latencyNanos, boolean failed) {
+    inFlight.decrementAndGet();
+    calls.incrementAndGet();
+    if (failed) {
+      errors.incrementAndGet();
+    }
+    totalLatencyNanos.addAndGet(latencyNanos);
+    long max = maxLatencyNanos.get();
+    while (latencyNanos > max &&
+        !maxLatencyNanos.compareAndSet(max, latencyNanos)) {
+      max = maxLatencyNanos.get();
+    }
+    long micros = TimeUnit.NANOSECONDS.toMicros(latencyNanos);
+    latencies.incrementAndGet(Math.min(LATENCY_BUCKETS - 1,
+        64 - Long.numberOfLeadingZeros(micros)));
+  }
+
+  void addBytesSent(long bytes) {
+    bytesSent.addAndGet(bytes);
+  }
+
+  void addBytesReceived(long bytes) {
+    bytesReceived.addAndGet(bytes);
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public long getCalls() {
+    return calls.get();
+  }
+
+  @Override
+  public long getErrors() {
+    return errors.get();
+  }
+
+  @Override
+  public double getErrorRate() {
+    long completed = calls.get();
+    return completed == 0 ? 0 : (double) errors.get() / completed;
+  }
+
+  @Override
+  public int getInFlight() {
+    return inFlight.get();
+  }
+
+  @Override
+  public long getBytesSent() {
+    return bytesSent.get();
+  }
+
+  @Override
+  public long getBytesReceived() {
+    return bytesReceived.get();
+  }
+
+  @Override
+  public double getMeanLatencyMillis() {
+    long completed = calls.get();
+    return completed == 0 ? 0 : toMillis(totalLatencyNanos.get()) / completed;
+  }
+
+  @Override
+  public double getMaxLatencyMillis() {
+    return toMillis(maxLatencyNanos.get());
+  }
+
+  @Override
+  public double getMedianLatencyMillis() {
+    return getLatencyPercentileMillis(0.5);
+  }
+
+  @Override
+  public double get95thPercentileLatencyMillis() {
+    return getLatencyPercentileMillis(0.95);
+  }
+
+  @Override
+  public double get99thPercentileLatencyMillis() {
+    return getLatencyPercentileMillis(0.99);
+  }
+
+  /**
+   * Estimates a latency percentile from the latency histogram.
+   *
+   * @param quantile The percentile, between 0 and 1.
+   * @return The upper bound of the histogram bucket holding the percentile,
+   *         capped by the maximum latency.
+   */
+  public double getLatencyPercentileMillis(double quantile) {
+    long[] histogram = getLatencyHistogram();
+    long total = 0;
+    for (long count : histogram) {
+      total += count;
+    }
+    if (total == 0) {
+      return 0;
+    }
+    long rank = (long) Math.ceil(quantile * total);
+    long seen = 0;
+    for (int i = 0; i < histogram.length - 1; i++) {
+      seen += histogram[i];
+      if (seen >= rank) {
+        return Math.min(getMaxLatencyMillis(), (1L << i) / 1000.0);
+      }
+    }
+    return getMaxLatencyMillis();
+  }
+
+  @Override
+  public long[] getLatencyHistogram() {
+    long[] histogram = new long[LATENCY_BUCKETS];
+    for (int i = 0; i < histogram.length; i++) {
+      histogram[i] = latencies.get(i);
+    }
+    return histogram;
+  }
+
+  private static double toMillis(long nanos) {
+    return nanos / 1e6;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "%s: calls=%d errors=%d inFlight=%d sent=%d received=%d " +
+        "mean=%.3fms p99=%.3fms max=%.3fms",
+        name, getCalls(), getErrors(), getInFlight(), getBytesSent(),
+        getBytesReceived(), getMeanLatencyMillis(),
+        get99thPercentileLatencyMillis(), getMaxLatencyMillis());
+  }
+}
@@ -0,0 +1,78 @@
+// Licensed to Cloudera, Inc. under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  Cloudera, Inc. licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.api;
+
+/**
+ * JMX view of the client-side metrics of an API endpoint.
+ *
+ * @see ClientMetrics
+ */
+public interface EndpointMetricsMXBean {
+
+  /**
+   * @return The endpoint, as
+   *         <i>package.ResourceInterface.method(ParameterTypes)</i>.
+   */
+  String getName();
+
+  /**
+   * @return Number of completed calls, successful or not.
+   */
+  long getCalls();
+
+  /**
+   * @return Number of calls that failed.
+   */
+  long getErrors();
+
+  /**
+   * @return Fraction of the completed calls that failed.
+   */
+  double getErrorRate();
+
+  /**
+   * @return Number of calls in progress.
+   */
+  int getInFlight();
+
+  /**
+   * @return Total size of the request bodies sent.
+   */
+  long getBytesSent();
+
+  /**
+   * @return Total size of the response bodies received.
+   */
+  long getBytesReceived();
+
+  double getMeanLatencyMillis();
+
+  double getMaxLatencyMillis();
+
+  double getMedianLatencyMillis();
+
+  double get95thPercentileLatencyMillis();
+
+  double get99thPercentileLatencyMillis();
+
+  /**
+   * @return Latency histogram of the completed calls. Bucket <i>i</i> counts
+   *         the calls that took less than 2<sup>i</sup> microseconds, and at
+   *         least 2<sup>i-1</sup>; the last bucket counts all longer calls.
+   */
+  long[] getLatencyHistogram();
+}
@@ -0,0 +1,176 @@
+// Licensed to Cloudera, Inc. under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  Cloudera, Inc. licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.api;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.util.JsonParserDelegate;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableSet;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.util.Set;
+
+import org.apache.cxf.interceptor.Interceptor;
+import org.apache.cxf.jaxrs.client.ClientConfiguration;
+import org.apache.cxf.message.Message;
+import org.apache.cxf.phase.AbstractPhaseInterceptor;
+import org.apache.cxf.phase.Phase;
+
+/**
+ * Reads only the requested properties of the objects returned by the calls
+ * made with a <tt>fields</tt> parameter (see e.g. {@link
+ * com.cloudera.api.v17.HostsResourceV17}).
+ * <p>
+ * Servers supporting the parameter only serialize the requested properties;
+ * older servers ignore it and return the whole objects. Either way, the other
+ * properties of the returned objects, or of the items of the returned lists,
+ * are skipped by the parser instead of being materialized.
+ * <p>
+ * The fields of a call are read from its request by the interceptor added by
+ * {@link #install(ClientConfiguration)}, and applied when its response is read
+ * on the same thread (see {@link ApiJsonProvider}).
+ */
+final class FieldsProjection {
+
+  /** The fields of the call made by the current thread, if any. */
+  private static final ThreadLocal<Set<String>> CURRENT_FIELDS =
+      new ThreadLocal<Set<String>>();
+
+  private static final Interceptor<Message> READ_FIELDS =
+      new AbstractPhaseInterceptor<Message>(Phase.SETUP) {
+        @Override
+        public void handleMessage(Message message) {
+          Set<String> fields = parseFields(
+              (String) message.get(Message.ENDPOINT_ADDRESS));
+          if (fields == null) {
+            CURRENT_FIELDS.remove();
+          } else {
+            CURRENT_FIELDS.set(fields);
+          }
+        }
+      };
+
+  private static final String FIELDS_PARAM = Parameters.FIELDS + "=";
+
+  private FieldsProjection() {
+  }
+
+  /**
+   * Adds the interceptor reading the fields of the calls to the configuration
+   * of a client.
+   */
+  static void install(ClientConfiguration config) {
+    config.getOutInterceptors().add(READ_FIELDS);
+  }
+
+  /**
+   * Returns the fields of the call made by the calling thread, which then only
+   * apply to the first response read.
+   *
+   * @return The requested fields, or null if all of them are to be read.
+   */
+  static Set<String> take() {
+    Set<String> fields = CURRENT_FIELDS.get();
+    CURRENT_FIELDS.remove();
+    return fields;
+  }
+
+  /**
+   * Wraps a parser to skip the properties not in <i>fields</i>.
+   *
+   * @param parser The parser of the response.
+   * @param type The type read from the response; the properties of the items
+   *             are projected for lists, those of the object otherwise.
+   * @param fields The names of the properties to read.
+   */
+  static JsonParser project(JsonParser parser, Class<?> type,
+                            Set<String> fields) {
+    return new ProjectingParser(parser, Iterable.class.isAssignableFrom(type),
+        fields);
+  }
+
+  /**
+   * @return The fields of the query string of a request, or null if it does
+   *         not have any.
+   */
+  static Set<String> parseFields(String address) {
+    if (address == null || !address.contains(FIELDS_PARAM)) {
+      return null;
+    }
+    String query = URI.create(address).getRawQuery();
+    if (query == null) {
+      return null;
+    }
+    for (String param : Splitter.on('&').split(query)) {
+      if (param.startsWith(FIELDS_PARAM)) {
+        try {
+          return ImmutableSet.copyOf(Splitter.on(',').trimResults()
+              .omitEmptyStrings().split(URLDecoder.decode(
+                  param.substring(FIELDS_PARAM.length()), "UTF-8")));
+        } catch (UnsupportedEncodingException e) {
+          throw new IllegalStateException(e);
+        }
+      }
+    }
+    return null;
+  }
+
+  private static class ProjectingParser extends JsonParserDelegate {
+    private final boolean list;
+    private final Set<String> fields;
+
+    ProjectingParser(JsonParser parser, boolean list, Set<String> fields) {
+      super(parser);
+      this.list = list;
+      this.fields = fields;
+    }
+
+    @Override
+    public JsonToken nextToken() throws IOException {
+      JsonToken token = super.nextToken();
+      while (token == JsonToken.FIELD_NAME && isProjected() &&
+          !fields.contains(getCurrentName())) {
+        super.nextToken();
+        super.skipChildren();
+        token = super.nextToken();
+      }
+      return token;
+    }
+
+    /**
+     * @return Whether the parser is in one of the projected objects.
+     */
+    private boolean isProjected() {
+      JsonStreamContext context = getParsingContext().getParent();
+      if (!list) {
+        return context.inRoot();
+      }
+      // The items of a list, or of its "items" property.
+      if (!context.inArray()) {
+        return false;
+      }
+      context = context.getParent();
+      return context.inRoot() || (context.getParent().inRoot() &&
+          ApiListIterator.ITEMS_ATTR.equals(context.getCurrentName()));
+    }
+  }
+}
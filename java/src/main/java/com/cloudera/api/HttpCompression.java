@@ -0,0 +1,258 @@
+// Licensed to Cloudera, Inc. under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  Cloudera, Inc. licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.api;
+
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import javax.ws.rs.core.HttpHeaders;
+
+import org.apache.cxf.interceptor.Fault;
+import org.apache.cxf.io.AbstractThresholdOutputStream;
+import org.apache.cxf.jaxrs.client.ClientConfiguration;
+import org.apache.cxf.message.Message;
+import org.apache.cxf.phase.AbstractPhaseInterceptor;
+import org.apache.cxf.phase.Phase;
+import org.apache.cxf.transport.http.HTTPConduit;
+
+/**
+ * HTTP compression for the clients built with
+ * {@link ClouderaManagerClientBuilder#enableCompression(int)}.
+ * <p>
+ * Requests advertise <tt>Accept-Encoding: gzip, deflate</tt>, and responses
+ * are transparently decoded according to their <tt>Content-Encoding</tt>.
+ * Request bodies larger than a threshold are sent gzip-compressed; smaller
+ * bodies, which would barely shrink, are sent as is.
+ * <p>
+ * The interceptors run right after those of {@link ClientMetrics}, so that
+ * metrics count the compressed bytes actually transferred.
+ */
+class HttpCompression {
+
+  static final String ACCEPT_ENCODING = "gzip, deflate";
+
+  /** Request compression disabled. */
+  static final int NO_REQUEST_COMPRESSION = -1;
+
+  private final int requestThreshold;
+
+  /**
+   * @param requestThreshold Minimum size of the request bodies to compress,
+   *                         or NO_REQUEST_COMPRESSION.
+   */
+  HttpCompression(int requestThreshold) {
+    Preconditions.checkArgument(requestThreshold >= NO_REQUEST_COMPRESSION,
+        "Compression threshold should not be negative.");
+    this.requestThreshold = requestThreshold;
+  }
+
+  /**
+   * Sets up compression on a client.
+   */
+  void install(ClientConfiguration config) {
+    HTTPConduit conduit = (HTTPConduit) config.getConduit();
+    conduit.getClient().setAcceptEncoding(ACCEPT_ENCODING);
+    config.getInInterceptors().add(DECODE_RESPONSE);
+    if (requestThreshold != NO_REQUEST_COMPRESSION) {
+      config.getOutInterceptors().add(new EncodeRequest(requestThreshold));
+    }
+  }
+
+  /**
+   * Decodes compressed responses. Runs in the phase following the one where
+   * the response stream is received.
+   */
+  private static final AbstractPhaseInterceptor<Message> DECODE_RESPONSE =
+      new AbstractPhaseInterceptor<Message>(Phase.PRE_STREAM) {
+        @Override
+        public void handleMessage(Message message) {
+          InputStream in = message.getContent(InputStream.class);
+          String encoding = removeContentEncoding(message);
+          if (in == null || encoding == null) {
+            return;
+          }
+          try {
+            message.setContent(InputStream.class, decode(in, encoding));
+          } catch (IOException e) {
+            throw new Fault(e);
+          }
+        }
+      };
+
+  /**
+   * Removes the <tt>Content-Encoding</tt> header of a response, since its
+   * body is decoded.
+   *
+   * @return The encoding of the response, or null if it is not compressed.
+   */
+  private static String removeContentEncoding(Message message) {
+    @SuppressWarnings("unchecked")
+    Map<String, List<String>> headers =
+        (Map<String, List<String>>) message.get(Message.PROTOCOL_HEADERS);
+    if (headers == null) {
+      return null;
+    }
+    Iterator<Map.Entry<String, List<String>>> it =
+        headers.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<String, List<String>> header = it.next();
+      if (header.getKey() != null &&
+          header.getKey().equalsIgnoreCase(HttpHeaders.CONTENT_ENCODING)) {
+        List<String> values = header.getValue();
+        if (values == null || values.isEmpty()) {
+          return null;
+        }
+        String encoding = values.get(0).trim().toLowerCase();
+        if (encoding.equals("gzip") || encoding.equals("x-gzip") ||
+            encoding.equals("deflate")) {
+          it.remove();
+          return encoding;
+        }
+        return null;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Wraps a compressed stream in a decoding stream. Empty bodies are left
+   * alone, since they carry no compression header to read.
+   */
+  static InputStream decode(InputStream in, String encoding)
+      throws IOException {
+    PushbackInputStream pushback = new PushbackInputStream(in, 2);
+    byte[] header = new byte[2];
+    int read = 0;
+    while (read < header.length) {
+      int n = pushback.read(header, read, header.length - read);
+      if (n < 0) {
+        break;
+      }
+      read += n;
+    }
+    if (read == 0) {
+      return pushback;
+    }
+    pushback.unread(header, 0, read);
+
+    if (!encoding.equals("deflate")) {
+      return new GZIPInputStream(pushback);
+    }
+    // "deflate" is meant to be zlib-wrapped, but some servers send raw
+    // deflate data; tell them apart with the zlib header check.
+    boolean zlib = read == 2 && (header[0] & 0x0f) == 8 &&
+        (((header[0] & 0xff) << 8) | (header[1] & 0xff)) % 31 == 0;
+    final Inflater inflater = new Inflater(!zlib);
+    return new InflaterInputStream(pushback, inflater) {
+      private boolean closed;
+
+      @Override
+      public void close() throws IOException {
+        if (!closed) {
+          closed = true;
+          inflater.end();
+          super.close();
+        }
+      }
+    };
+  }
+
+  /**
+   * Compresses request bodies reaching the threshold. Runs after the stream
+   * to the server is opened, and before the body is written.
+   */
+  private static class EncodeRequest extends AbstractPhaseInterceptor<Message> {
+    private final int threshold;
+
+    EncodeRequest(int threshold) {
+      super(Phase.PRE_PROTOCOL);
+      this.threshold = threshold;
+    }
+
+    @Override
+    public void handleMessage(Message message) {
+      OutputStream out = message.getContent(OutputStream.class);
+      if (out != null) {
+        message.setContent(OutputStream.class,
+            new GzipThresholdOutputStream(out, threshold, message));
+      }
+    }
+  }
+
+  /**
+   * Buffers the start of the body, and switches to gzip once it reaches the
+   * threshold. Nothing reaches the server before the decision is made, so the
+   * <tt>Content-Encoding</tt> header can still be added.
+   */
+  private static class GzipThresholdOutputStream
+      extends AbstractThresholdOutputStream {
+    private final Message message;
+
+    GzipThresholdOutputStream(OutputStream out, int threshold,
+                              Message message) {
+      super(threshold);
+      this.wrappedStream = out;
+      this.message = message;
+    }
+
+    @Override
+    public void thresholdReached() throws IOException {
+      addContentEncoding(message);
+      wrappedStream = new GZIPOutputStream(wrappedStream);
+    }
+
+    @Override
+    public void thresholdNotReached() {
+      // Sent as is.
+    }
+
+    @Override
+    public void flush() throws IOException {
+      // Flushing before the threshold is reached would commit the headers.
+      if (buffer == null) {
+        super.flush();
+      }
+    }
+  }
+
+  private static void addContentEncoding(Message message) {
+    @SuppressWarnings("unchecked")
+    Map<String, List<String>> headers =
+        (Map<String, List<String>>) message.get(Message.PROTOCOL_HEADERS);
+    if (headers == null) {
+      headers = new TreeMap<String, List<String>>(
+          String.CASE_INSENSITIVE_ORDER);
+      message.put(Message.PROTOCOL_HEADERS, headers);
+    }
+    List<String> values = new ArrayList<String>(1);
+    values.add("gzip");
+    headers.put(HttpHeaders.CONTENT_ENCODING, values);
+  }
+}
@@ -0,0 +1,227 @@
+// Licensed to Cloudera, Inc. under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  Cloudera, Inc. licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.api;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.Version;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.deser.std.StdScalarDeserializer;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.std.StdScalarSerializer;
+
+import java.io.IOException;
+import java.text.DateFormat;
+import java.util.Date;
+
+/**
+ * Reads and writes dates in the ISO-8601 format of the API,
+ * <tt>yyyy-MM-dd'T'HH:mm:ss.SSS'Z'</tt> in UTC, without going through a
+ * {@link java.text.SimpleDateFormat}, which Jackson clones for every call and
+ * which allocates for every date.
+ * <p>
+ * The output is identical to the one of {@link
+ * ApiObjectMapper#makeISODateFormat()}. Dates outside of the years 1583 to
+ * 9999, where the Julian calendar or longer years come into play, and strings
+ * not in the exact format (e.g. with other separators, or out of range
+ * fields that the lenient date format accepts), are handled by that date
+ * format. So are all dates once the mapper is configured with another date
+ * format.
+ */
+class Iso8601DateModule extends SimpleModule {
+
+  private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+  /** 1583-01-01T00:00:00.000Z. */
+  private static final long MIN_MILLIS = -12212553600000L;
+  /** 10000-01-01T00:00:00.000Z. */
+  private static final long MAX_MILLIS = 253402300800000L;
+  static final int LENGTH = "yyyy-MM-ddTHH:mm:ss.SSSZ".length();
+
+  private static final ThreadLocal<char[]> BUFFER = new ThreadLocal<char[]>() {
+    @Override
+    protected char[] initialValue() {
+      return new char[LENGTH];
+    }
+  };
+
+  /**
+   * @param format The ISO-8601 date format of the mapper; the codec steps
+   *               aside when the mapper is given another one.
+   */
+  Iso8601DateModule(final DateFormat format) {
+    super("Iso8601DateModule", Version.unknownVersion());
+    addSerializer(Date.class, new StdScalarSerializer<Date>(Date.class) {
+      @Override
+      public void serialize(Date value, JsonGenerator jgen,
+                            SerializerProvider provider) throws IOException {
+        long millis = value.getTime();
+        if (provider.isEnabled(
+                SerializationFeature.WRITE_DATES_AS_TIMESTAMPS) ||
+            provider.getConfig().getDateFormat() != format ||
+            millis < MIN_MILLIS || millis >= MAX_MILLIS) {
+          provider.defaultSerializeDateValue(value, jgen);
+          return;
+        }
+        char[] buffer = BUFFER.get();
+        format(millis, buffer);
+        jgen.writeString(buffer, 0, LENGTH);
+      }
+    });
+    addDeserializer(Date.class, new StdScalarDeserializer<Date>(Date.class) {
+      @Override
+      public Date deserialize(JsonParser jp, DeserializationContext ctxt)
+          throws IOException {
+        if (jp.getCurrentToken() == JsonToken.VALUE_STRING &&
+            jp.getTextLength() == LENGTH &&
+            ctxt.getConfig().getDateFormat() == format) {
+          long millis = parse(jp.getTextCharacters(), jp.getTextOffset());
+          if (millis != Long.MIN_VALUE) {
+            return new Date(millis);
+          }
+        }
+        return _parseDate(jp, ctxt);
+      }
+    });
+  }
+
+  /**
+   * Formats a date of the years 1583 to 9999.
+   */
+  static void format(long millis, char[] out) {
+    long days = millis / MILLIS_PER_DAY;
+    int millisOfDay = (int) (millis % MILLIS_PER_DAY);
+    if (millisOfDay < 0) {
+      days--;
+      millisOfDay += MILLIS_PER_DAY;
+    }
+
+    // Civil date from days since the epoch, in the proleptic Gregorian
+    // calendar (H. Hinnant, "chrono-Compatible Low-Level Date Algorithms").
+    long z = days + 719468;
+    long era = z / 146097;
+    int dayOfEra = (int) (z - era * 146097);
+    int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 -
+        dayOfEra / 146096) / 365;
+    int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 -
+        yearOfEra / 100);
+    int mp = (5 * dayOfYear + 2) / 153;
+    int day = dayOfYear - (153 * mp + 2) / 5 + 1;
+    int month = mp < 10 ? mp + 3 : mp - 9;
+    int year = (int) (yearOfEra + era * 400) + (month <= 2 ? 1 : 0);
+
+    int hour = millisOfDay / 3600000;
+    int minute = millisOfDay / 60000 % 60;
+    int second = millisOfDay / 1000 % 60;
+    int milli = millisOfDay % 1000;
+
+    put(out, 0, year, 4);
+    out[4] = '-';
+    put(out, 5, month, 2);
+    out[7] = '-';
+    put(out, 8, day, 2);
+    out[10] = 'T';
+    put(out, 11, hour, 2);
+    out[13] = ':';
+    put(out, 14, minute, 2);
+    out[16] = ':';
+    put(out, 17, second, 2);
+    out[19] = '.';
+    put(out, 20, milli, 3);
+    out[23] = 'Z';
+  }
+
+  private static void put(char[] out, int offset, int value, int digits) {
+    for (int i = offset + digits - 1; i >= offset; i--) {
+      out[i] = (char) ('0' + value % 10);
+      value /= 10;
+    }
+  }
+
+  /**
+   * Parses a date of the years 1583 to 9999 in the exact format of the API.
+   *
+   * @return The date, in milliseconds since the epoch, or Long.MIN_VALUE if
+   *         the text is not in the exact format or is out of range.
+   */
+  static long parse(char[] text, int offset) {
+    if (text[offset + 4] != '-' || text[offset + 7] != '-' ||
+        text[offset + 10] != 'T' || text[offset + 13] != ':' ||
+        text[offset + 16] != ':' || text[offset + 19] != '.' ||
+        text[offset + 23] != 'Z') {
+      return Long.MIN_VALUE;
+    }
+    int year = get(text, offset, 4);
+    int month = get(text, offset + 5, 2);
+    int day = get(text, offset + 8, 2);
+    int hour = get(text, offset + 11, 2);
+    int minute = get(text, offset + 14, 2);
+    int second = get(text, offset + 17, 2);
+    int milli = get(text, offset + 20, 3);
+    if ((month | day | hour | minute | second | milli) < 0 ||
+        year < 1583 || month < 1 || month > 12 || day < 1 ||
+        day > daysInMonth(year, month) || hour > 23 || minute > 59 ||
+        second > 59) {
+      return Long.MIN_VALUE;
+    }
+
+    // Days since the epoch from the civil date; see format().
+    int y = month <= 2 ? year - 1 : year;
+    int era = y / 400;
+    int yearOfEra = y - era * 400;
+    int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 +
+        day - 1;
+    int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 +
+        dayOfYear;
+    long days = era * 146097L + dayOfEra - 719468;
+    return days * MILLIS_PER_DAY + hour * 3600000L + minute * 60000L +
+        second * 1000L + milli;
+  }
+
+  /**
+   * @return The number made of the given digits, or a negative number if
+   *         they are not all digits.
+   */
+  private static int get(char[] text, int offset, int digits) {
+    int value = 0;
+    for (int i = offset; i < offset + digits; i++) {
+      int digit = text[i] - '0';
+      if (digit < 0 || digit > 9) {
+        return Integer.MIN_VALUE;
+      }
+      value = value * 10 + digit;
+    }
+    return value;
+  }
+
+  private static int daysInMonth(int year, int month) {
+    switch (month) {
+      case 2:
+        boolean leap = year % 4 == 0 && (year % 100 != 0 || year % 400 == 0);
+        return leap ? 29 : 28;
+      case 4:
+      case 6:
+      case 9:
+      case 11:
+        return 30;
+      default:
+        return 31;
+    }
+  }
+}
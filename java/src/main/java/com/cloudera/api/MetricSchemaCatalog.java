@@ -0,0 +1,302 @@
+// Licensed to Cloudera, Inc. under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  Cloudera, Inc. licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.api;
+
+import com.cloudera.api.model.ApiMetricSchema;
+import com.cloudera.api.model.ApiMetricSchemaList;
+import com.cloudera.api.model.ApiTimeSeriesEntityAttribute;
+import com.cloudera.api.model.ApiTimeSeriesEntityAttributeList;
+import com.cloudera.api.model.ApiTimeSeriesEntityType;
+import com.cloudera.api.model.ApiTimeSeriesEntityTypeList;
+import com.cloudera.api.v11.TimeSeriesResourceV11;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the metric schema of the time series store, and its entity types
+ * and attributes, in memory, indexed for lookups in constant time: metrics
+ * by name, alias, source and unit, entity types and attributes by name.
+ * <p>
+ * The schema is loaded on the first lookup, or by {@link #refresh()}, and
+ * can be refreshed in the background with {@link
+ * #startRefresh(ScheduledExecutorService, long, TimeUnit)}. A refresh
+ * replaces all the indexes at once, so that lookups never see part of a
+ * refresh; a failed background refresh keeps the previous schema.
+ */
+public class MetricSchemaCatalog {
+
+  private static final Logger LOG =
+      Logger.getLogger(MetricSchemaCatalog.class.getName());
+
+  private final TimeSeriesResourceV11 resource;
+  private volatile Snapshot snapshot;
+  private ScheduledFuture<?> refresh;
+
+  /**
+   * @param resource The resource serving the schema.
+   */
+  public MetricSchemaCatalog(TimeSeriesResourceV11 resource) {
+    this.resource = Preconditions.checkNotNull(resource);
+  }
+
+  /**
+   * Loads the schema, replacing the current one.
+   */
+  public void refresh() {
+    Snapshot loaded = new Snapshot(resource.getMetricSchema(),
+        resource.getEntityTypes(), resource.getEntityTypeAttributes());
+    synchronized (this) {
+      snapshot = loaded;
+    }
+  }
+
+  /**
+   * Refreshes the schema periodically, replacing any previous schedule.
+   *
+   * @param executor Runs the refreshes.
+   * @param period The period between refreshes, the first one included.
+   * @param unit The unit of the period.
+   * @return This catalog.
+   */
+  public synchronized MetricSchemaCatalog startRefresh(
+      ScheduledExecutorService executor, long period, TimeUnit unit) {
+    Preconditions.checkArgument(period > 0,
+        "Refresh period should be greater than 0.");
+    stopRefresh();
+    refresh = executor.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          refresh();
+        } catch (RuntimeException e) {
+          LOG.log(Level.WARNING, "Failed to refresh the metric schema", e);
+        }
+      }
+    }, period, period, unit);
+    return this;
+  }
+
+  public synchronized void stopRefresh() {
+    if (refresh != null) {
+      refresh.cancel(false);
+      refresh = null;
+    }
+  }
+
+  private Snapshot snapshot() {
+    Snapshot current = snapshot;
+    if (current == null) {
+      synchronized (this) {
+        if (snapshot == null) {
+          refresh();
+        }
+        current = snapshot;
+      }
+    }
+    return current;
+  }
+
+  /**
+   * @return The time of the last refresh, in milliseconds since the epoch,
+   *         or 0 if the schema was not loaded yet.
+   */
+  public long getLastRefreshTime() {
+    Snapshot current = snapshot;
+    return current == null ? 0 : current.time;
+  }
+
+  /** All the metrics, in the order of the API. */
+  public List<ApiMetricSchema> getMetrics() {
+    return snapshot().metrics;
+  }
+
+  /**
+   * @return The metric of the given name, or null if there is none.
+   */
+  public ApiMetricSchema getMetric(String name) {
+    return snapshot().byName.get(name);
+  }
+
+  /**
+   * @return The metrics with the given alias. Aliases, usually former names
+   *         of metrics, are not unique.
+   */
+  public List<ApiMetricSchema> getMetricsByAlias(String alias) {
+    return snapshot().byAlias.get(alias);
+  }
+
+  /**
+   * @return The metric of the given name, or else the first one with the
+   *         given alias, or null if there is none, e.g. to validate the
+   *         metrics of a tsquery.
+   */
+  public ApiMetricSchema resolve(String nameOrAlias) {
+    Snapshot current = snapshot();
+    ApiMetricSchema metric = current.byName.get(nameOrAlias);
+    if (metric == null) {
+      List<ApiMetricSchema> aliased = current.byAlias.get(nameOrAlias);
+      metric = aliased.isEmpty() ? null : aliased.get(0);
+    }
+    return metric;
+  }
+
+  /**
+   * @return The metrics collected from the given source, i.e. one of the
+   *         keys of {@link ApiMetricSchema#getSources()}.
+   */
+  public List<ApiMetricSchema> getMetricsBySource(String source) {
+    return snapshot().bySource.get(source);
+  }
+
+  /**
+   * @param numerator The numerator of the unit.
+   * @param denominator The denominator of the unit, or null for none.
+   * @return The metrics of the given unit.
+   */
+  public List<ApiMetricSchema> getMetricsByUnit(String numerator,
+                                                String denominator) {
+    return snapshot().byUnit.get(Unit.of(numerator, denominator));
+  }
+
+  /** All the entity types, in the order of the API. */
+  public List<ApiTimeSeriesEntityType> getEntityTypes() {
+    return snapshot().entityTypes;
+  }
+
+  /**
+   * @return The entity type of the given name, or null if there is none.
+   */
+  public ApiTimeSeriesEntityType getEntityType(String name) {
+    return snapshot().entityTypesByName.get(name);
+  }
+
+  /** All the entity type attributes, in the order of the API. */
+  public List<ApiTimeSeriesEntityAttribute> getEntityTypeAttributes() {
+    return snapshot().attributes;
+  }
+
+  /**
+   * @return The entity type attribute of the given name, or null if there
+   *         is none.
+   */
+  public ApiTimeSeriesEntityAttribute getEntityTypeAttribute(String name) {
+    return snapshot().attributesByName.get(name);
+  }
+
+  /** The key of a unit in the index. */
+  private static final class Unit {
+    static List<String> of(String numerator, String denominator) {
+      return ImmutableList.of(numerator == null ? "" : numerator,
+          denominator == null ? "" : denominator);
+    }
+  }
+
+  /** The schema and its indexes, as of a refresh. */
+  private static final class Snapshot {
+    final long time = System.currentTimeMillis();
+    final List<ApiMetricSchema> metrics;
+    final Map<String, ApiMetricSchema> byName;
+    final ImmutableListMultimap<String, ApiMetricSchema> byAlias;
+    final ImmutableListMultimap<String, ApiMetricSchema> bySource;
+    final ImmutableListMultimap<List<String>, ApiMetricSchema> byUnit;
+    final List<ApiTimeSeriesEntityType> entityTypes;
+    final Map<String, ApiTimeSeriesEntityType> entityTypesByName;
+    final List<ApiTimeSeriesEntityAttribute> attributes;
+    final Map<String, ApiTimeSeriesEntityAttribute> attributesByName;
+
+    Snapshot(ApiMetricSchemaList schema,
+             ApiTimeSeriesEntityTypeList types,
+             ApiTimeSeriesEntityAttributeList attributeList) {
+      metrics = schema == null || schema.getSchemas() == null ?
+          ImmutableList.<ApiMetricSchema>of() :
+          ImmutableList.copyOf(Iterables.filter(schema.getSchemas(),
+              Predicates.notNull()));
+      Map<String, ApiMetricSchema> names = Maps.newHashMap();
+      ImmutableListMultimap.Builder<String, ApiMetricSchema> aliases =
+          ImmutableListMultimap.builder();
+      ImmutableListMultimap.Builder<String, ApiMetricSchema> sources =
+          ImmutableListMultimap.builder();
+      ImmutableListMultimap.Builder<List<String>, ApiMetricSchema> units =
+          ImmutableListMultimap.builder();
+      for (ApiMetricSchema metric : metrics) {
+        if (metric.getName() != null) {
+          names.put(metric.getName(), metric);
+        }
+        if (metric.getAliases() != null) {
+          for (String alias : metric.getAliases()) {
+            if (alias != null) {
+              aliases.put(alias, metric);
+            }
+          }
+        }
+        if (metric.getSources() != null) {
+          for (String source : metric.getSources().keySet()) {
+            if (source != null) {
+              sources.put(source, metric);
+            }
+          }
+        }
+        units.put(Unit.of(metric.getUnitNumerator(),
+            metric.getUnitDenominator()), metric);
+      }
+      byName = ImmutableMap.copyOf(names);
+      byAlias = aliases.build();
+      bySource = sources.build();
+      byUnit = units.build();
+
+      entityTypes = types == null || types.getMetricEntityTypes() == null ?
+          ImmutableList.<ApiTimeSeriesEntityType>of() :
+          ImmutableList.copyOf(Iterables.filter(
+              types.getMetricEntityTypes(), Predicates.notNull()));
+      Map<String, ApiTimeSeriesEntityType> typeNames = Maps.newHashMap();
+      for (ApiTimeSeriesEntityType type : entityTypes) {
+        if (type.getName() != null) {
+          typeNames.put(type.getName(), type);
+        }
+      }
+      entityTypesByName = ImmutableMap.copyOf(typeNames);
+
+      attributes = attributeList == null ||
+          attributeList.getMetricEntityTypeAttributes() == null ?
+          ImmutableList.<ApiTimeSeriesEntityAttribute>of() :
+          ImmutableList.copyOf(Iterables.filter(
+              attributeList.getMetricEntityTypeAttributes(),
+              Predicates.notNull()));
+      Map<String, ApiTimeSeriesEntityAttribute> attributeNames =
+          Maps.newHashMap();
+      for (ApiTimeSeriesEntityAttribute attribute : attributes) {
+        if (attribute.getName() != null) {
+          attributeNames.put(attribute.getName(), attribute);
+        }
+      }
+      attributesByName = ImmutableMap.copyOf(attributeNames);
+    }
+  }
+}
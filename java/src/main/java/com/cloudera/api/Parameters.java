@@ -59,6 +59,7 @@ public final class Parameters {
   static public final String LIMIT = "limit";
   static public final String METRICS = "metrics";
   static public final String QUERY = "query";
+  static public final String FIELDS = "fields";
 
   /* Default values. */
   static public final String DATA_VIEW_DEFAULT = "summary";
@@ -0,0 +1,73 @@
+// Licensed to Cloudera, Inc. under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  Cloudera, Inc. licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.api;
+
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Coalesces identical concurrent calls: while a call is in flight, callers
+ * making the same call wait for it to complete and share its result (or
+ * exception), instead of sending their own request.
+ * <p>
+ * Calls are only coalesced while in flight; nothing is kept once they
+ * complete.
+ */
+class RequestCoalescer {
+
+  /** A call that can be coalesced. */
+  interface Call {
+    Object call() throws Throwable;
+  }
+
+  private final ConcurrentMap<Object, SettableFuture<Object>> inFlight =
+      new ConcurrentHashMap<Object, SettableFuture<Object>>();
+
+  /**
+   * Makes a call, or waits for the identical call already in flight.
+   *
+   * @param key Identifies the call; identical calls have equal keys.
+   * @param call The call to make.
+   * @return The result of the call.
+   */
+  Object invoke(Object key, Call call) throws Throwable {
+    SettableFuture<Object> result = SettableFuture.create();
+    SettableFuture<Object> pending = inFlight.putIfAbsent(key, result);
+    if (pending != null) {
+      try {
+        return Uninterruptibles.getUninterruptibly(pending);
+      } catch (ExecutionException e) {
+        throw e.getCause();
+      }
+    }
+
+    try {
+      Object value = call.call();
+      result.set(value);
+      return value;
+    } catch (Throwable t) {
+      result.setException(t);
+      throw t;
+    } finally {
+      inFlight.remove(key, result);
+    }
+  }
+}
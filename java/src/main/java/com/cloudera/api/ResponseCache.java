@@ -0,0 +1,287 @@
+// Licensed to Cloudera, Inc. under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  Cloudera, Inc. licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.api;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+
+import org.apache.cxf.interceptor.Interceptor;
+import org.apache.cxf.jaxrs.client.Client;
+import org.apache.cxf.jaxrs.client.ClientConfiguration;
+import org.apache.cxf.message.Message;
+import org.apache.cxf.phase.AbstractPhaseInterceptor;
+import org.apache.cxf.phase.Phase;
+
+/**
+ * Caches the objects read by the GET methods of a client.
+ * <p>
+ * Responses carrying an <tt>ETag</tt> are revalidated with a conditional
+ * request (<tt>If-None-Match</tt>) once they are stale; when the server answers
+ * "304 Not Modified", the previously read object is returned again, without
+ * transferring or parsing the response body. Responses are fresh for the
+ * <tt>max-age</tt> of their <tt>Cache-Control</tt> header, or for the default
+ * TTL of the cache when the server does not specify one. Responses without
+ * validators are only cached while fresh, and <tt>no-store</tt> responses are
+ * never cached.
+ * <p>
+ * The cache is bounded by the total size of the cached response bodies, as
+ * announced by their <tt>Content-Length</tt>. Cached objects are shared by all
+ * the callers reading them, and must not be modified.
+ * <p>
+ * The conditional header is added to, and the caching headers are read from,
+ * the message of each call, through the interceptors added by
+ * {@link #install(ClientConfiguration)}, never through the client, whose
+ * headers and last response are shared by the threads using it.
+ */
+class ResponseCache {
+
+  /** Weight of responses whose size is not known. */
+  private static final int UNKNOWN_SIZE_WEIGHT = 16 * 1024;
+
+  private static final long NO_STORE = -1;
+
+  /** The call made by the current thread, for the interceptors. */
+  private static final ThreadLocal<Call> CURRENT_CALL = new ThreadLocal<Call>();
+
+  private static final Interceptor<Message> ADD_CONDITION =
+      new AbstractPhaseInterceptor<Message>(Phase.SETUP) {
+        @Override
+        public void handleMessage(Message message) {
+          Call call = CURRENT_CALL.get();
+          if (call == null || call.etag == null) {
+            return;
+          }
+          @SuppressWarnings("unchecked")
+          Map<String, List<String>> headers =
+              (Map<String, List<String>>) message.get(Message.PROTOCOL_HEADERS);
+          if (headers == null) {
+            headers = new TreeMap<String, List<String>>(
+                String.CASE_INSENSITIVE_ORDER);
+            message.put(Message.PROTOCOL_HEADERS, headers);
+          }
+          headers.put(HttpHeaders.IF_NONE_MATCH,
+              Collections.singletonList(call.etag));
+        }
+      };
+
+  private static final Interceptor<Message> READ_HEADERS =
+      new AbstractPhaseInterceptor<Message>(Phase.RECEIVE) {
+        @Override
+        @SuppressWarnings("unchecked")
+        public void handleMessage(Message message) {
+          Call call = CURRENT_CALL.get();
+          if (call != null) {
+            call.responseHeaders = (Map<String, List<String>>)
+                message.get(Message.PROTOCOL_HEADERS);
+          }
+        }
+      };
+
+  private final Cache<Object, Entry> entries;
+  private final long defaultTtlNanos;
+  private final Ticker ticker;
+
+  /**
+   * @param maximumBytes Maximum total size of the cached responses.
+   * @param defaultTtl How long responses are fresh when the server does not
+   *                   say; 0 to always revalidate them.
+   * @param defaultTtlUnits Units of <i>defaultTtl</i>.
+   */
+  ResponseCache(long maximumBytes, long defaultTtl, TimeUnit defaultTtlUnits) {
+    Preconditions.checkArgument(maximumBytes > 0,
+        "Response cache size should be greater than 0.");
+    Preconditions.checkArgument(defaultTtl >= 0,
+        "Response cache TTL should not be negative.");
+    this.entries = CacheBuilder.newBuilder()
+        .maximumWeight(maximumBytes)
+        .weigher(new Weigher<Object, Entry>() {
+          @Override
+          public int weigh(Object key, Entry entry) {
+            return entry.weight;
+          }
+        })
+        .build();
+    this.defaultTtlNanos = defaultTtlUnits.toNanos(defaultTtl);
+    this.ticker = Ticker.systemTicker();
+  }
+
+  /**
+   * Adds the interceptors of the cache to the configuration of a client.
+   */
+  void install(ClientConfiguration config) {
+    config.getOutInterceptors().add(ADD_CONDITION);
+    config.getInInterceptors().add(READ_HEADERS);
+  }
+
+  /**
+   * Invokes a GET method on a client proxy, going through the cache.
+   *
+   * @param key The key of the call in the cache.
+   * @param client The client proxy.
+   * @param target The CXF invocation handler of the proxy.
+   * @param method The GET method.
+   * @param args The arguments of the method.
+   * @return The object read from the response, or from the cache.
+   */
+  Object invoke(Object key, Client client, InvocationHandler target,
+                Method method, Object[] args) throws Throwable {
+    long now = ticker.read();
+    Entry entry = entries.getIfPresent(key);
+    if (entry != null) {
+      if (now - entry.expires < 0) {
+        return entry.value;
+      }
+      if (entry.etag == null) {
+        entry = null;
+      }
+    }
+
+    Call call = new Call(entry != null ? entry.etag : null);
+    Call previous = CURRENT_CALL.get();
+    CURRENT_CALL.set(call);
+    try {
+      Object value = target.invoke(client, method, args);
+      store(key, value, call.responseHeaders, now);
+      return value;
+    } catch (WebApplicationException e) {
+      Response response = e.getResponse();
+      if (entry == null || response == null ||
+          response.getStatus() !=
+              Response.Status.NOT_MODIFIED.getStatusCode()) {
+        throw e;
+      }
+      long ttl = getTtl(response.getMetadata());
+      if (ttl == NO_STORE) {
+        entries.invalidate(key);
+      } else {
+        entries.put(key, new Entry(entry.value, entry.etag, now + ttl,
+            entry.weight));
+      }
+      return entry.value;
+    } finally {
+      CURRENT_CALL.set(previous);
+    }
+  }
+
+  private void store(Object key, Object value,
+                     Map<String, ? extends List<?>> headers, long now) {
+    if (headers == null) {
+      return;
+    }
+    long ttl = getTtl(headers);
+    String etag = getHeader(headers, HttpHeaders.ETAG);
+    if (ttl == NO_STORE || (ttl == 0 && etag == null)) {
+      entries.invalidate(key);
+      return;
+    }
+    entries.put(key, new Entry(value, etag, now + ttl, getWeight(headers)));
+  }
+
+  /**
+   * @return How long, in nanoseconds, the response can be used without
+   *         revalidating it, or NO_STORE if it must not be cached.
+   */
+  private long getTtl(Map<String, ? extends List<?>> headers) {
+    String cacheControl = getHeader(headers, HttpHeaders.CACHE_CONTROL);
+    if (cacheControl != null) {
+      for (String directive : cacheControl.split(",")) {
+        directive = directive.trim().toLowerCase();
+        if (directive.equals("no-store")) {
+          return NO_STORE;
+        } else if (directive.equals("no-cache")) {
+          return 0;
+        } else if (directive.startsWith("max-age=")) {
+          try {
+            return TimeUnit.SECONDS.toNanos(Math.max(0,
+                Long.parseLong(directive.substring("max-age=".length()))));
+          } catch (NumberFormatException e) {
+            return 0;
+          }
+        }
+      }
+    }
+    return defaultTtlNanos;
+  }
+
+  private static int getWeight(Map<String, ? extends List<?>> headers) {
+    String length = getHeader(headers, HttpHeaders.CONTENT_LENGTH);
+    if (length != null) {
+      try {
+        return (int) Math.min(Math.max(Long.parseLong(length), 1),
+            Integer.MAX_VALUE);
+      } catch (NumberFormatException e) {
+        // Fall through.
+      }
+    }
+    return UNKNOWN_SIZE_WEIGHT;
+  }
+
+  private static String getHeader(Map<String, ? extends List<?>> headers,
+                                  String name) {
+    List<?> values = headers.get(name);
+    if (values == null) {
+      for (Map.Entry<String, ? extends List<?>> header : headers.entrySet()) {
+        if (name.equalsIgnoreCase(header.getKey())) {
+          values = header.getValue();
+          break;
+        }
+      }
+    }
+    return values == null || values.isEmpty() || values.get(0) == null ?
+        null : values.get(0).toString();
+  }
+
+  /** A call through the cache, seen by the interceptors. */
+  private static class Call {
+    /** The ETag of the cached response to revalidate, if any. */
+    private final String etag;
+    private Map<String, List<String>> responseHeaders;
+
+    Call(String etag) {
+      this.etag = etag;
+    }
+  }
+
+  private static class Entry {
+    private final Object value;
+    private final String etag;
+    private final long expires;
+    private final int weight;
+
+    Entry(Object value, String etag, long expires, int weight) {
+      this.value = value;
+      this.etag = etag;
+      this.expires = expires;
+      this.weight = weight;
+    }
+  }
+}
@@ -0,0 +1,122 @@
+// Licensed to Cloudera, Inc. under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  Cloudera, Inc. licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.api;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+
+/**
+ * SSL socket factories shared by all the clients built with
+ * {@link ClouderaManagerClientBuilder#withSharedSocketFactory}, one per
+ * trust configuration.
+ * <p>
+ * Client proxies talk HTTP through the JDK, which keeps idle connections in a
+ * JVM-wide cache keyed by host, port and, for HTTPS, by the SSL socket factory
+ * that opened them. Since CXF creates a socket factory per proxy, HTTPS
+ * connections are never reused across proxies and every new client pays a full
+ * TCP and TLS handshake. Clients built with the same shared factory pick up
+ * each other's idle connections instead, and resume each other's TLS sessions
+ * when a new connection is needed.
+ * <p>
+ * This is not a connection pool: the number of idle connections kept per host
+ * and how long they are kept are those of the JDK keep-alive cache, i.e. the
+ * JVM-wide <tt>http.maxConnections</tt> system property and the Keep-Alive
+ * header sent by the server. Only the TLS session cache is configured here.
+ */
+public class SharedSocketFactory {
+
+  public static final int DEFAULT_TLS_SESSION_CACHE_SIZE = 1000;
+  public static final long DEFAULT_TLS_SESSION_TIMEOUT = 1;
+  public static final TimeUnit DEFAULT_TLS_SESSION_TIMEOUT_UNITS =
+      TimeUnit.HOURS;
+
+  /** Key used for clients relying on the JVM's default trust store. */
+  private static final TrustManager[] DEFAULT_TRUST = new TrustManager[0];
+
+  private final int tlsSessionCacheSize;
+  private final int tlsSessionTimeoutSeconds;
+
+  /**
+   * One socket factory per trust configuration. Keys are compared by
+   * identity, and released along with the trust managers they belong to.
+   */
+  private final LoadingCache<TrustManager[], SSLSocketFactory> socketFactories =
+      CacheBuilder.newBuilder()
+      .weakKeys()
+      .build(
+        new CacheLoader<TrustManager[], SSLSocketFactory>() {
+          @Override
+          public SSLSocketFactory load(TrustManager[] trustManagers)
+              throws Exception {
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(null,
+                trustManagers == DEFAULT_TRUST ? null : trustManagers,
+                null);
+            SSLSessionContext sessions = context.getClientSessionContext();
+            sessions.setSessionCacheSize(tlsSessionCacheSize);
+            sessions.setSessionTimeout(tlsSessionTimeoutSeconds);
+            return context.getSocketFactory();
+          }
+        });
+
+  public SharedSocketFactory() {
+    this(DEFAULT_TLS_SESSION_CACHE_SIZE, DEFAULT_TLS_SESSION_TIMEOUT,
+         DEFAULT_TLS_SESSION_TIMEOUT_UNITS);
+  }
+
+  /**
+   * @param tlsSessionCacheSize Maximum number of TLS sessions kept for
+   *                            resumption, per trust configuration.
+   * @param tlsSessionTimeout How long a TLS session can be resumed after it
+   *                          was negotiated.
+   * @param tlsSessionTimeoutUnits Units of <i>tlsSessionTimeout</i>.
+   */
+  public SharedSocketFactory(int tlsSessionCacheSize,
+                             long tlsSessionTimeout,
+                             TimeUnit tlsSessionTimeoutUnits) {
+    Preconditions.checkArgument(tlsSessionCacheSize > 0,
+        "TLS session cache size should be greater than 0.");
+    Preconditions.checkArgument(tlsSessionTimeout > 0,
+        "TLS session timeout should be greater than 0.");
+    this.tlsSessionCacheSize = tlsSessionCacheSize;
+    this.tlsSessionTimeoutSeconds = (int) Math.max(1, Math.min(
+        tlsSessionTimeoutUnits.toSeconds(tlsSessionTimeout),
+        Integer.MAX_VALUE));
+  }
+
+  /**
+   * Returns the socket factory shared by the clients trusting the given
+   * certificates.
+   *
+   * @param trustManagers The trust managers of the client, or null to use the
+   *                      JVM's default trust store.
+   * @return A socket factory for HTTPS connections.
+   */
+  SSLSocketFactory getSocketFactory(TrustManager[] trustManagers) {
+    return socketFactories.getUnchecked(
+        trustManagers != null ? trustManagers : DEFAULT_TRUST);
+  }
+}
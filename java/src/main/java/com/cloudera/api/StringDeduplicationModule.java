@@ -0,0 +1,140 @@
+// Licensed to Cloudera, Inc. under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  Cloudera, Inc. licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.api;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.Version;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.deser.std.StdScalarDeserializer;
+import com.fasterxml.jackson.databind.deser.std.StringDeserializer;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Deduplicates the strings read by a mapper through a bounded pool, so that
+ * the metric, entity, host and service names repeated throughout a response
+ * share a single instance, as long as the objects holding them live.
+ * <p>
+ * Strings are looked up straight from the parser's buffer, so that the
+ * pooled ones are not even allocated. Property names, and thus the keys of
+ * maps such as {@link com.cloudera.api.model.ApiTimeSeriesMetadata}
+ * attributes, are already canonicalized by Jackson.
+ */
+class StringDeduplicationModule extends SimpleModule {
+
+  /** Longer strings, e.g. messages, rarely repeat and are not pooled. */
+  static final int MAX_LENGTH = 128;
+
+  /** Reads the strings made of other tokens, e.g. numbers. */
+  private static final StringDeserializer OTHER_TOKENS =
+      new StringDeserializer();
+
+  /**
+   * @param poolSize The number of strings the pool holds.
+   */
+  StringDeduplicationModule(int poolSize) {
+    super("StringDeduplicationModule", Version.unknownVersion());
+    final StringPool pool = new StringPool(poolSize);
+    addDeserializer(String.class,
+        new StdScalarDeserializer<String>(String.class) {
+      @Override
+      public String deserialize(JsonParser jp, DeserializationContext ctxt)
+          throws IOException {
+        if (jp.getCurrentToken() == JsonToken.VALUE_STRING) {
+          return pool.get(jp.getTextCharacters(), jp.getTextOffset(),
+              jp.getTextLength());
+        }
+        return OTHER_TOKENS.deserialize(jp, ctxt);
+      }
+    });
+  }
+
+  /**
+   * A lossy, concurrent pool of strings. Each string hashes to a pair of
+   * slots: the first holds the string that was last found in the pool, the
+   * second the one that was last added. Strings seen once thus only evict
+   * other strings seen once, and recurring ones stay in the pool.
+   * <p>
+   * Slots are read and replaced without locking. A race at worst adds a
+   * duplicate, which is harmless.
+   */
+  static final class StringPool {
+
+    private final AtomicReferenceArray<String> slots;
+    private final int mask;
+
+    /**
+     * @param size The number of strings the pool holds, rounded up to a
+     *             power of two.
+     */
+    StringPool(int size) {
+      Preconditions.checkArgument(size > 1, "Size should be greater than 1.");
+      int capacity = Integer.highestOneBit(size - 1) << 1;
+      this.slots = new AtomicReferenceArray<String>(capacity);
+      this.mask = capacity - 2;
+    }
+
+    /**
+     * @return The pooled string with the given characters, or a new one.
+     */
+    String get(char[] chars, int offset, int length) {
+      if (length > MAX_LENGTH) {
+        return new String(chars, offset, length);
+      }
+      int hash = 0;
+      for (int i = offset; i < offset + length; i++) {
+        hash = 31 * hash + chars[i];
+      }
+      // Spread the high bits, as the low ones of similar names often match.
+      hash ^= (hash >>> 20) ^ (hash >>> 12);
+      hash ^= (hash >>> 7) ^ (hash >>> 4);
+      int slot = hash & mask;
+
+      String found = slots.get(slot);
+      if (matches(found, chars, offset, length)) {
+        return found;
+      }
+      String added = slots.get(slot + 1);
+      if (matches(added, chars, offset, length)) {
+        // Seen twice: promote it, leaving the previous one a last chance.
+        slots.lazySet(slot, added);
+        slots.lazySet(slot + 1, found);
+        return added;
+      }
+      String string = new String(chars, offset, length);
+      slots.lazySet(slot + 1, string);
+      return string;
+    }
+
+    private static boolean matches(String string, char[] chars, int offset,
+                                   int length) {
+      if (string == null || string.length() != length) {
+        return false;
+      }
+      for (int i = 0; i < length; i++) {
+        if (string.charAt(i) != chars[offset + i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
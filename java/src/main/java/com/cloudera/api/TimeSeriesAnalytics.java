@@ -0,0 +1,651 @@
+// Licensed to Cloudera, Inc. under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  Cloudera, Inc. licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.api;
+
+import com.cloudera.api.model.ApiTimeSeries;
+import com.cloudera.api.model.ApiTimeSeriesData;
+import com.cloudera.api.model.ApiTimeSeriesMetadata;
+import com.cloudera.api.model.ApiTimeSeriesResponse;
+import com.cloudera.api.model.ApiTimeSeriesResponseList;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Summarizes the points of time series in a single pass and bounded memory,
+ * for reports over large query results:
+ * <ul>
+ *   <li>a {@link Digest} estimates the quantiles of the values, e.g. the
+ *       95th and 99th percentiles;</li>
+ *   <li>a {@link TopK} ranks the series by their largest (or smallest)
+ *       value, e.g. the 20 hosts with the highest CPU usage;</li>
+ *   <li>a {@link Histogram} counts the values in fixed buckets.</li>
+ * </ul>
+ * Summaries of disjoint parts of the data merge into the summary of the
+ * whole, so that each chunk of a query run by {@link
+ * TimeSeriesQueryPlanner#analyze} is summarized on its own, as soon as it is
+ * returned, and the summaries of the chunks are merged.
+ * <p>
+ * Summaries are not thread safe.
+ */
+public class TimeSeriesAnalytics {
+
+  private final Digest digest;
+  private final TopK topK;
+  private final Histogram histogram;
+
+  /**
+   * @param digest Estimates the quantiles of the values, or null.
+   * @param topK Ranks the series, or null.
+   * @param histogram Counts the values, or null.
+   */
+  public TimeSeriesAnalytics(Digest digest, TopK topK, Histogram histogram) {
+    this.digest = digest;
+    this.topK = topK;
+    this.histogram = histogram;
+  }
+
+  /** @return An empty summary of the same kind as this one. */
+  public TimeSeriesAnalytics emptyCopy() {
+    return new TimeSeriesAnalytics(
+        digest == null ? null : digest.emptyCopy(),
+        topK == null ? null : topK.emptyCopy(),
+        histogram == null ? null : histogram.emptyCopy());
+  }
+
+  public Digest getDigest() {
+    return digest;
+  }
+
+  public TopK getTopK() {
+    return topK;
+  }
+
+  public Histogram getHistogram() {
+    return histogram;
+  }
+
+  /** Adds the points of all the series of a query result. */
+  public TimeSeriesAnalytics add(ApiTimeSeriesResponseList result) {
+    return add(result, Long.MIN_VALUE, Long.MAX_VALUE);
+  }
+
+  /**
+   * Adds the points of all the series of a query result, within a period.
+   * Points without a timestamp are always added.
+   *
+   * @param from The start of the period, inclusive, in milliseconds.
+   * @param to The end of the period, exclusive, in milliseconds.
+   */
+  TimeSeriesAnalytics add(ApiTimeSeriesResponseList result, long from,
+                          long to) {
+    if (result.getResponses() == null) {
+      return this;
+    }
+    for (ApiTimeSeriesResponse response : result.getResponses()) {
+      if (response.getTimeSeries() == null) {
+        continue;
+      }
+      for (ApiTimeSeries series : response.getTimeSeries()) {
+        add(series, from, to);
+      }
+    }
+    return this;
+  }
+
+  /** Adds the points of a series. */
+  public TimeSeriesAnalytics add(ApiTimeSeries series) {
+    return add(series, Long.MIN_VALUE, Long.MAX_VALUE);
+  }
+
+  private TimeSeriesAnalytics add(ApiTimeSeries series, long from, long to) {
+    if (series.getData() == null) {
+      return this;
+    }
+    String key = key(series.getMetadata());
+    for (ApiTimeSeriesData point : series.getData()) {
+      if (point.getTimestamp() != null) {
+        long time = point.getTimestamp().getTime();
+        if (time < from || time >= to) {
+          continue;
+        }
+      }
+      add(key, point.getValue());
+    }
+    return this;
+  }
+
+  /** Adds the points of a series. */
+  public TimeSeriesAnalytics add(ColumnarTimeSeries series) {
+    String key = key(series.getMetadata());
+    double[] values = series.getValues();
+    for (int i = 0; i < series.size(); i++) {
+      add(key, values[i]);
+    }
+    return this;
+  }
+
+  /**
+   * Adds a value.
+   *
+   * @param key The key of the value in the ranking, e.g. the name of the
+   *            entity of its series.
+   * @param value The value. NaN is ignored.
+   */
+  public TimeSeriesAnalytics add(String key, double value) {
+    if (Double.isNaN(value)) {
+      return this;
+    }
+    if (digest != null) {
+      digest.add(value);
+    }
+    if (topK != null) {
+      topK.add(key, value);
+    }
+    if (histogram != null) {
+      histogram.add(value);
+    }
+    return this;
+  }
+
+  /**
+   * Merges the summary of another part of the data into this one.
+   *
+   * @param other A summary of the same kind, from {@link #emptyCopy()}.
+   */
+  public TimeSeriesAnalytics merge(TimeSeriesAnalytics other) {
+    Preconditions.checkArgument((digest == null) == (other.digest == null) &&
+        (topK == null) == (other.topK == null) &&
+        (histogram == null) == (other.histogram == null),
+        "Summaries should be of the same kind.");
+    if (digest != null) {
+      digest.merge(other.digest);
+    }
+    if (topK != null) {
+      topK.merge(other.topK);
+    }
+    if (histogram != null) {
+      histogram.merge(other.histogram);
+    }
+    return this;
+  }
+
+  /**
+   * @return The key of the points of a series in rankings: the name of its
+   *         entity, or else its expression.
+   */
+  static String key(ApiTimeSeriesMetadata metadata) {
+    if (metadata == null) {
+      return null;
+    }
+    return metadata.getEntityName() != null ?
+        metadata.getEntityName() : metadata.getExpression();
+  }
+
+  /**
+   * Estimates quantiles with a merging t-digest (T. Dunning, O. Ertl,
+   * "Computing Extremely Accurate Quantiles Using t-Digests", 2019).
+   * <p>
+   * Values are buffered, then sorted and merged with the centroids of the
+   * previous values, each centroid being the mean and weight of adjacent
+   * values. Centroids are kept small near the tails of the distribution,
+   * where the error on quantiles is then lowest, and larger near the median.
+   * Memory is proportional to the compression, whatever the number of
+   * values, and the extreme values are kept exactly.
+   */
+  public static final class Digest {
+
+    private final double compression;
+    /** Centroids, in order, followed by the buffered values. */
+    private final double[] means;
+    private final double[] weights;
+    private int centroids;
+    private int size;
+    private boolean descending;
+    private double totalWeight;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    /**
+     * @param compression Bounds the number of centroids to about half of
+     *                    it. With 100, quantiles are estimated within
+     *                    about 0.1% of their rank, e.g. between the 98.9th
+     *                    and the 99.1st percentile for the 99th.
+     */
+    public Digest(double compression) {
+      Preconditions.checkArgument(compression >= 10,
+          "Compression should be at least 10.");
+      this.compression = compression;
+      int capacity = (int) Math.ceil(compression) * 7 + 10;
+      this.means = new double[capacity];
+      this.weights = new double[capacity];
+    }
+
+    public Digest emptyCopy() {
+      return new Digest(compression);
+    }
+
+    public void add(double value) {
+      add(value, 1);
+    }
+
+    private void add(double mean, double weight) {
+      if (size == means.length) {
+        compress();
+      }
+      means[size] = mean;
+      weights[size] = weight;
+      size++;
+      totalWeight += weight;
+    }
+
+    /** Merges the values of another digest into this one. */
+    public void merge(Digest other) {
+      other.compress();
+      for (int i = 0; i < other.centroids; i++) {
+        add(other.means[i], other.weights[i]);
+      }
+      min = Math.min(min, other.min);
+      max = Math.max(max, other.max);
+    }
+
+    /** @return The number of values. */
+    public long getCount() {
+      return (long) totalWeight;
+    }
+
+    /** @return The smallest value, or NaN if there is none. */
+    public double getMin() {
+      compress();
+      return centroids == 0 ? Double.NaN : min;
+    }
+
+    /** @return The largest value, or NaN if there is none. */
+    public double getMax() {
+      compress();
+      return centroids == 0 ? Double.NaN : max;
+    }
+
+    /**
+     * @param quantile The quantile, between 0 and 1, e.g. 0.95 for the 95th
+     *                 percentile.
+     * @return An estimate of the quantile, or NaN if there is no value.
+     */
+    public double quantile(double quantile) {
+      Preconditions.checkArgument(quantile >= 0 && quantile <= 1,
+          "Quantile should be between 0 and 1.");
+      compress();
+      if (centroids == 0) {
+        return Double.NaN;
+      }
+      if (centroids == 1) {
+        return means[0];
+      }
+      // Interpolates between the centers of centroids, and from the extreme
+      // values to the centers of the first and last ones.
+      double index = quantile * totalWeight;
+      if (index < weights[0] / 2) {
+        return min + (means[0] - min) * index / (weights[0] / 2);
+      }
+      double center = weights[0] / 2;
+      for (int i = 0; i < centroids - 1; i++) {
+        double next = center + (weights[i] + weights[i + 1]) / 2;
+        if (index <= next) {
+          return means[i] +
+              (means[i + 1] - means[i]) * (index - center) / (next - center);
+        }
+        center = next;
+      }
+      double last = weights[centroids - 1] / 2;
+      return means[centroids - 1] + (max - means[centroids - 1]) *
+          Math.min(1, (index - center) / last);
+    }
+
+    /** @return The number of centroids, for tests. */
+    int getCentroidCount() {
+      compress();
+      return centroids;
+    }
+
+    /**
+     * Merges the buffered values with the centroids. Adjacent values join
+     * a centroid as long as it spans at most 1 on the scale
+     * {@code k(q) = compression / (2 pi) * asin(2q - 1)} of quantiles. The
+     * values are merged in increasing and decreasing order in turn, not to
+     * bias centroids towards either end.
+     */
+    private void compress() {
+      if (size == centroids) {
+        return;
+      }
+      for (int i = centroids; i < size; i++) {
+        min = Math.min(min, means[i]);
+        max = Math.max(max, means[i]);
+      }
+      sort(means, weights, 0, size);
+      if (descending) {
+        reverse(means, weights, size);
+      }
+      int merged = 0;
+      double before = 0;
+      double limit = limit(0);
+      for (int i = 1; i < size; i++) {
+        double weight = weights[merged] + weights[i];
+        if (before + weight <= limit) {
+          means[merged] += (means[i] - means[merged]) * weights[i] / weight;
+          weights[merged] = weight;
+        } else {
+          before += weights[merged];
+          limit = limit(before);
+          merged++;
+          means[merged] = means[i];
+          weights[merged] = weights[i];
+        }
+      }
+      centroids = size = merged + 1;
+      if (descending) {
+        reverse(means, weights, size);
+      }
+      descending = !descending;
+    }
+
+    /**
+     * @return The largest weight of the values up to the end of a centroid
+     *         starting after the given weight, i.e. {@code q(k + 1)} times
+     *         the total weight, q being the inverse of the scale k. The scale
+     *         being symmetric, this holds in both orders.
+     */
+    private double limit(double before) {
+      double q = before / totalWeight;
+      double k = Math.asin(Math.max(-1, Math.min(1, 2 * q - 1))) +
+          2 * Math.PI / compression;
+      if (k >= Math.PI / 2) {
+        return Double.POSITIVE_INFINITY;
+      }
+      return (Math.sin(k) + 1) / 2 * totalWeight;
+    }
+
+    private static void reverse(double[] keys, double[] values, int size) {
+      for (int i = 0, j = size - 1; i < j; i++, j--) {
+        swap(keys, values, i, j);
+      }
+    }
+
+    /** Sorts values by key, in place. */
+    private static void sort(double[] keys, double[] values, int from,
+                             int to) {
+      while (to - from > 16) {
+        double pivot = median(keys[from], keys[(from + to) >>> 1],
+            keys[to - 1]);
+        int i = from;
+        int j = to - 1;
+        while (i <= j) {
+          while (keys[i] < pivot) {
+            i++;
+          }
+          while (keys[j] > pivot) {
+            j--;
+          }
+          if (i <= j) {
+            swap(keys, values, i++, j--);
+          }
+        }
+        // Recurses into the smaller side, loops on the larger one.
+        if (j - from < to - i) {
+          sort(keys, values, from, j + 1);
+          from = i;
+        } else {
+          sort(keys, values, i, to);
+          to = j + 1;
+        }
+      }
+      for (int i = from + 1; i < to; i++) {
+        for (int j = i; j > from && keys[j - 1] > keys[j]; j--) {
+          swap(keys, values, j - 1, j);
+        }
+      }
+    }
+
+    private static double median(double a, double b, double c) {
+      return Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+    }
+
+    private static void swap(double[] keys, double[] values, int i, int j) {
+      double key = keys[i];
+      keys[i] = keys[j];
+      keys[j] = key;
+      double value = values[i];
+      values[i] = values[j];
+      values[j] = value;
+    }
+  }
+
+  /**
+   * Ranks keys, e.g. the entities of series, by their largest value, or by
+   * their smallest one. Only the current top k keys are kept: a key which
+   * drops out of the top k is added back by its next value to rank in it,
+   * so that the ranking is exact, and so is that of merged rankings, since
+   * the largest value of a key ranks it in the top k of the part where it
+   * is found.
+   */
+  public static final class TopK {
+
+    private final int k;
+    private final boolean largest;
+    private final Map<String, Integer> index;
+    private final String[] keys;
+    private final double[] scores;
+    private int size;
+    /** Index of the lowest ranked key, when there are k. */
+    private int last = -1;
+
+    /**
+     * @param k The number of keys ranked.
+     * @param largest Whether to rank keys by their largest value, in
+     *                descending order, or by their smallest one, in
+     *                ascending order.
+     */
+    public TopK(int k, boolean largest) {
+      Preconditions.checkArgument(k > 0, "K should be greater than 0.");
+      this.k = k;
+      this.largest = largest;
+      this.index = Maps.newHashMapWithExpectedSize(k);
+      this.keys = new String[k];
+      this.scores = new double[k];
+    }
+
+    public TopK emptyCopy() {
+      return new TopK(k, largest);
+    }
+
+    public void add(String key, double value) {
+      if (Double.isNaN(value)) {
+        return;
+      }
+      double score = largest ? value : -value;
+      Integer i = index.get(key);
+      if (i != null) {
+        if (score > scores[i]) {
+          scores[i] = score;
+          if (i == last) {
+            last = lowest();
+          }
+        }
+      } else if (size < k) {
+        index.put(key, size);
+        keys[size] = key;
+        scores[size] = score;
+        if (++size == k) {
+          last = lowest();
+        }
+      } else if (score > scores[last]) {
+        index.remove(keys[last]);
+        index.put(key, last);
+        keys[last] = key;
+        scores[last] = score;
+        last = lowest();
+      }
+    }
+
+    /** Merges the ranking of another part of the data into this one. */
+    public void merge(TopK other) {
+      Preconditions.checkArgument(k == other.k && largest == other.largest,
+          "Rankings should be of the same kind.");
+      for (int i = 0; i < other.size; i++) {
+        add(other.keys[i], other.largest ? other.scores[i] : -other.scores[i]);
+      }
+    }
+
+    /**
+     * @return The top keys, with their largest (or smallest) value, best
+     *         ranked first.
+     */
+    public List<Map.Entry<String, Double>> getTop() {
+      List<Map.Entry<String, Double>> top = Lists.newArrayList();
+      for (int i = 0; i < size; i++) {
+        top.add(Maps.immutableEntry(keys[i],
+            largest ? scores[i] : -scores[i]));
+      }
+      Collections.sort(top, new Comparator<Map.Entry<String, Double>>() {
+        @Override
+        public int compare(Map.Entry<String, Double> a,
+                           Map.Entry<String, Double> b) {
+          return largest ? Double.compare(b.getValue(), a.getValue()) :
+              Double.compare(a.getValue(), b.getValue());
+        }
+      });
+      return top;
+    }
+
+    private int lowest() {
+      int lowest = 0;
+      for (int i = 1; i < size; i++) {
+        if (scores[i] < scores[lowest]) {
+          lowest = i;
+        }
+      }
+      return lowest;
+    }
+  }
+
+  /**
+   * Counts values in buckets of fixed bounds: bucket {@code i} counts the
+   * values from bound {@code i - 1}, inclusive, to bound {@code i},
+   * exclusive. The first bucket counts the values below the first bound,
+   * and the last one the values from the last bound.
+   */
+  public static final class Histogram {
+
+    private final double[] bounds;
+    private final long[] counts;
+
+    /**
+     * @param bounds The bounds of the buckets, in increasing order.
+     */
+    public Histogram(double... bounds) {
+      Preconditions.checkArgument(bounds.length > 0,
+          "Bounds should not be empty.");
+      for (int i = 1; i < bounds.length; i++) {
+        Preconditions.checkArgument(bounds[i - 1] < bounds[i],
+            "Bounds should be in increasing order.");
+      }
+      this.bounds = bounds.clone();
+      this.counts = new long[bounds.length + 1];
+    }
+
+    /**
+     * @return A histogram of buckets of the same width, from start to start
+     *         plus count times the width.
+     */
+    public static Histogram linear(double start, double width, int count) {
+      Preconditions.checkArgument(width > 0,
+          "Width should be greater than 0.");
+      Preconditions.checkArgument(count > 0,
+          "Count should be greater than 0.");
+      double[] bounds = new double[count + 1];
+      for (int i = 0; i <= count; i++) {
+        bounds[i] = start + i * width;
+      }
+      return new Histogram(bounds);
+    }
+
+    /**
+     * @return A histogram of buckets growing by a factor, from start to
+     *         start times the factor to the power of count.
+     */
+    public static Histogram exponential(double start, double factor,
+                                        int count) {
+      Preconditions.checkArgument(start > 0,
+          "Start should be greater than 0.");
+      Preconditions.checkArgument(factor > 1,
+          "Factor should be greater than 1.");
+      Preconditions.checkArgument(count > 0,
+          "Count should be greater than 0.");
+      double[] bounds = new double[count + 1];
+      bounds[0] = start;
+      for (int i = 1; i <= count; i++) {
+        bounds[i] = bounds[i - 1] * factor;
+      }
+      return new Histogram(bounds);
+    }
+
+    public Histogram emptyCopy() {
+      return new Histogram(bounds);
+    }
+
+    public void add(double value) {
+      if (Double.isNaN(value)) {
+        return;
+      }
+      int i = Arrays.binarySearch(bounds, value);
+      counts[i >= 0 ? i + 1 : -i - 1]++;
+    }
+
+    /** Merges the counts of another histogram of the same bounds. */
+    public void merge(Histogram other) {
+      Preconditions.checkArgument(Arrays.equals(bounds, other.bounds),
+          "Histograms should have the same bounds.");
+      for (int i = 0; i < counts.length; i++) {
+        counts[i] += other.counts[i];
+      }
+    }
+
+    public double[] getBounds() {
+      return bounds.clone();
+    }
+
+    /** @return The counts of the buckets, one more than the bounds. */
+    public long[] getCounts() {
+      return counts.clone();
+    }
+
+    /** @return The number of values. */
+    public long getTotalCount() {
+      long total = 0;
+      for (long count : counts) {
+        total += count;
+      }
+      return total;
+    }
+  }
+}
@@ -0,0 +1,375 @@
+// Licensed to Cloudera, Inc. under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  Cloudera, Inc. licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.api;
+
+import com.cloudera.api.model.ApiTimeSeriesRequest;
+import com.cloudera.api.model.ApiTimeSeriesResponse;
+import com.cloudera.api.model.ApiTimeSeriesResponseList;
+import com.cloudera.api.v11.TimeSeriesResourceV11;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Joiner;
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+/**
+ * Batches time series queries over the same period into single requests.
+ * <p>
+ * A tsquery may hold several statements separated by semicolons, for which
+ * the API returns one response each, in order. Queries submitted with the
+ * same period and rollup are split into their statements, which are
+ * deduplicated and sent as a single query; the responses are then handed
+ * back to each query. This way, the tiles of a dashboard refreshed together
+ * make one request, and statements shared by tiles are run once.
+ * <p>
+ * Queries are either run at once with {@link #queryAll(List)}, or submitted
+ * from any thread with {@link #submit(ApiTimeSeriesRequest)}, to be sent
+ * together once the oldest has waited for the maximum delay, or once there
+ * are enough of them.
+ * <p>
+ * Should a batch fail with a client error, e.g. because of a malformed
+ * statement, or return an unexpected number of responses, its queries are
+ * run one by one, so that only the faulty ones fail.
+ */
+public class TimeSeriesBatcher {
+
+  private final TimeSeriesResourceV11 resource;
+  private final ObjectMapper mapper;
+  private final ScheduledExecutorService executor;
+  private volatile long maxDelayMillis = 20;
+  private volatile int maxStatements = 100;
+
+  /** Queries waiting to be sent, by period and rollup. */
+  private final Map<List<Object>, Batch> pending = Maps.newHashMap();
+
+  /**
+   * @param resource The resource running the queries.
+   * @param mapper Reads the results, e.g. the mapper the client of the
+   *               resource was built with.
+   * @param executor Sends the batches of submitted queries.
+   */
+  public TimeSeriesBatcher(TimeSeriesResourceV11 resource, ObjectMapper mapper,
+                           ScheduledExecutorService executor) {
+    this.resource = Preconditions.checkNotNull(resource);
+    this.mapper = Preconditions.checkNotNull(mapper);
+    this.executor = Preconditions.checkNotNull(executor);
+  }
+
+  /**
+   * Sets how long a submitted query waits for others to be batched with.
+   * Defaults to 20 milliseconds.
+   *
+   * @return This batcher.
+   */
+  public TimeSeriesBatcher setMaxDelay(long delay, TimeUnit unit) {
+    Preconditions.checkArgument(delay >= 0,
+        "Max delay should not be negative.");
+    this.maxDelayMillis = unit.toMillis(delay);
+    return this;
+  }
+
+  /**
+   * Sets the number of distinct statements from which a batch is sent
+   * without waiting. Defaults to 100.
+   *
+   * @return This batcher.
+   */
+  public TimeSeriesBatcher setMaxStatements(int maxStatements) {
+    Preconditions.checkArgument(maxStatements > 0,
+        "Max statements should be greater than 0.");
+    this.maxStatements = maxStatements;
+    return this;
+  }
+
+  /**
+   * Submits a query, to be sent with the others over the same period.
+   *
+   * @param request The query. Its content type must be JSON.
+   * @return The responses to the statements of the query.
+   */
+  public ListenableFuture<ApiTimeSeriesResponseList> submit(
+      ApiTimeSeriesRequest request) {
+    List<Object> key = key(request);
+    final Batch batch;
+    boolean first = false;
+    boolean full;
+    Query query = new Query(request);
+    synchronized (pending) {
+      Batch current = pending.get(key);
+      if (current == null) {
+        current = new Batch(request);
+        pending.put(key, current);
+        first = true;
+      }
+      batch = current;
+      batch.add(query);
+      full = batch.statements.size() >= maxStatements;
+      if (full) {
+        pending.remove(key);
+      }
+    }
+    Runnable send = new Runnable() {
+      @Override
+      public void run() {
+        synchronized (pending) {
+          if (!batch.sent) {
+            pending.values().remove(batch);
+          }
+        }
+        send(batch);
+      }
+    };
+    if (full) {
+      executor.execute(send);
+    } else if (first) {
+      executor.schedule(send, maxDelayMillis, TimeUnit.MILLISECONDS);
+    }
+    return query.result;
+  }
+
+  /**
+   * Runs queries, with one request per period and rollup.
+   *
+   * @param requests The queries. Their content type must be JSON.
+   * @return The responses to the statements of each query.
+   */
+  public List<ApiTimeSeriesResponseList> queryAll(
+      List<ApiTimeSeriesRequest> requests) {
+    List<ApiTimeSeriesResponseList> results = Lists.newArrayList();
+    try {
+      for (ListenableFuture<ApiTimeSeriesResponseList> result :
+           sendAll(requests)) {
+        results.add(result.get());
+      }
+    } catch (InterruptedException e) {
+      // Not waiting: all results are set.
+      throw Throwables.propagate(e);
+    } catch (ExecutionException e) {
+      throw Throwables.propagate(e.getCause());
+    }
+    return results;
+  }
+
+  /**
+   * Runs queries, with one request per period and rollup, in the calling
+   * thread.
+   *
+   * @return The results of the queries, all done.
+   */
+  List<ListenableFuture<ApiTimeSeriesResponseList>> sendAll(
+      List<ApiTimeSeriesRequest> requests) {
+    Map<List<Object>, Batch> batches = Maps.newLinkedHashMap();
+    List<ListenableFuture<ApiTimeSeriesResponseList>> results =
+        Lists.newArrayList();
+    for (ApiTimeSeriesRequest request : requests) {
+      List<Object> key = key(request);
+      Batch batch = batches.get(key);
+      if (batch == null) {
+        batch = new Batch(request);
+        batches.put(key, batch);
+      }
+      Query query = new Query(request);
+      batch.add(query);
+      results.add(query.result);
+    }
+    for (Batch batch : batches.values()) {
+      send(batch);
+    }
+    return results;
+  }
+
+  private static List<Object> key(ApiTimeSeriesRequest request) {
+    Preconditions.checkArgument(request.getContentType() == null ||
+        MediaType.APPLICATION_JSON.equals(request.getContentType()),
+        "Only JSON responses can be batched.");
+    return Arrays.<Object>asList(request.getFrom(), request.getTo(),
+        Objects.firstNonNull(request.getDesiredRollup(),
+            Parameters.ROLLUP_DEFAULT).toUpperCase(),
+        Objects.firstNonNull(request.getMustUseDesiredRollup(), false));
+  }
+
+  /**
+   * Sends a batch, falling back to sending its queries one by one.
+   */
+  private void send(Batch batch) {
+    synchronized (pending) {
+      if (batch.sent) {
+        return;
+      }
+      batch.sent = true;
+    }
+    List<ApiTimeSeriesResponse> responses = null;
+    try {
+      responses = run(batch.request(batch.statements));
+    } catch (WebApplicationException e) {
+      int status = e.getResponse().getStatus();
+      if (status < 400 || status >= 500 || batch.queries.size() == 1) {
+        batch.fail(e);
+        return;
+      }
+    } catch (RuntimeException e) {
+      batch.fail(e);
+      return;
+    }
+
+    if (responses != null && responses.size() == batch.statements.size()) {
+      for (Query query : batch.queries) {
+        List<ApiTimeSeriesResponse> own = Lists.newArrayList();
+        for (int index : query.indices) {
+          own.add(responses.get(index));
+        }
+        query.result.set(new ApiTimeSeriesResponseList(own, null));
+      }
+      return;
+    }
+    if (responses != null && batch.queries.size() == 1) {
+      batch.queries.get(0).result.set(
+          new ApiTimeSeriesResponseList(responses, null));
+      return;
+    }
+    for (Query query : batch.queries) {
+      try {
+        query.result.set(new ApiTimeSeriesResponseList(
+            run(batch.request(query.statements)), null));
+      } catch (RuntimeException e) {
+        query.result.setException(e);
+      }
+    }
+  }
+
+  private List<ApiTimeSeriesResponse> run(ApiTimeSeriesRequest request) {
+    Response response = resource.queryTimeSeries(request);
+    if (response.getStatus() >= 400) {
+      // Releases the connection; the status is all the caller gets.
+      response.close();
+      throw new WebApplicationException(response);
+    }
+    InputStream in = (InputStream) response.getEntity();
+    try {
+      try {
+        List<ApiTimeSeriesResponse> responses = mapper.readValue(in,
+            ApiTimeSeriesResponseList.class).getResponses();
+        return responses != null ? responses :
+            Lists.<ApiTimeSeriesResponse>newArrayList();
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      throw Throwables.propagate(e);
+    }
+  }
+
+  /**
+   * Splits a tsquery into its statements, at the semicolons outside of
+   * quotes.
+   */
+  static List<String> split(String query) {
+    List<String> statements = Lists.newArrayList();
+    char quote = 0;
+    int start = 0;
+    for (int i = 0; i < query.length(); i++) {
+      char c = query.charAt(i);
+      if (quote != 0) {
+        if (c == quote) {
+          quote = 0;
+        }
+      } else if (c == '"' || c == '\'') {
+        quote = c;
+      } else if (c == ';') {
+        addStatement(statements, query.substring(start, i));
+        start = i + 1;
+      }
+    }
+    addStatement(statements, query.substring(start));
+    return statements;
+  }
+
+  private static void addStatement(List<String> statements, String statement) {
+    statement = statement.trim();
+    if (!statement.isEmpty()) {
+      statements.add(statement);
+    }
+  }
+
+  /** A submitted query. */
+  private static final class Query {
+    final List<String> statements;
+    /** The indices of the statements in their batch. */
+    final List<Integer> indices = Lists.newArrayList();
+    final SettableFuture<ApiTimeSeriesResponseList> result =
+        SettableFuture.create();
+
+    Query(ApiTimeSeriesRequest request) {
+      this.statements = split(Preconditions.checkNotNull(request.getQuery()));
+    }
+  }
+
+  /** The queries over a period, sent together. */
+  private static final class Batch {
+    final ApiTimeSeriesRequest template;
+    final List<Query> queries = Lists.newArrayList();
+    final List<String> statements = Lists.newArrayList();
+    final Map<String, Integer> indices = Maps.newHashMap();
+    boolean sent;
+
+    Batch(ApiTimeSeriesRequest template) {
+      this.template = template;
+    }
+
+    void add(Query query) {
+      for (String statement : query.statements) {
+        Integer index = indices.get(statement);
+        if (index == null) {
+          index = statements.size();
+          statements.add(statement);
+          indices.put(statement, index);
+        }
+        query.indices.add(index);
+      }
+      queries.add(query);
+    }
+
+    ApiTimeSeriesRequest request(List<String> statements) {
+      return new ApiTimeSeriesRequest(Joiner.on("; ").join(statements),
+          template.getFrom(), template.getTo(), MediaType.APPLICATION_JSON,
+          template.getDesiredRollup(), template.getMustUseDesiredRollup());
+    }
+
+    void fail(Throwable t) {
+      for (Query query : queries) {
+        query.result.setException(t);
+      }
+    }
+  }
+}
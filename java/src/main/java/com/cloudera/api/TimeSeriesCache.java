@@ -0,0 +1,445 @@
+// Licensed to Cloudera, Inc. under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  Cloudera, Inc. licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.api;
+
+import com.cloudera.api.model.ApiTimeSeries;
+import com.cloudera.api.model.ApiTimeSeriesMetadata;
+import com.cloudera.api.model.ApiTimeSeriesResponse;
+import com.cloudera.api.model.ApiTimeSeriesResponseList;
+import com.cloudera.api.v6.TimeSeriesResourceV6;
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import org.joda.time.Duration;
+
+/**
+ * Caches the results of time series queries, so that a query repeated over
+ * a sliding window, e.g. the last hour every minute, only fetches what is not
+ * cached yet: the part of its period before the cached one, and the part
+ * after.
+ * <p>
+ * The cache holds one period per query and rollup, with its series in
+ * columns (see {@link ColumnarTimeSeries}). A query whose period does not
+ * overlap the cached one replaces it. The most recent points of a fetch,
+ * which the server may not have all received yet, are returned but not
+ * cached, so that the next query fetches them again (see {@link
+ * #setRefetchPeriod(long, TimeUnit)}). Queries are made with
+ * <tt>mustUseDesiredRollup</tt>, so that all the points of a period are of
+ * the same rollup.
+ * <p>
+ * The least recently used periods are evicted to keep the estimated size of
+ * the cache within a budget. The cache can be saved to a file, and loaded
+ * back, to survive restarts.
+ */
+public class TimeSeriesCache {
+
+  /** Period queried when the query has no start. */
+  private static final Duration DEFAULT_WINDOW = Duration.standardMinutes(5);
+
+  /** Estimated sizes, in bytes, of a series and of its points. */
+  private static final long SERIES_BYTES = 512;
+  private static final long POINT_BYTES = 20;
+  private static final long STATISTICS_BYTES = 80;
+
+  private final TimeSeriesResourceV6 resource;
+  private final long maxBytes;
+  private volatile long refetchMillis = TimeUnit.MINUTES.toMillis(1);
+
+  /** Cached periods by query and rollup, in access order. */
+  private final LinkedHashMap<List<String>, Window> windows =
+      new LinkedHashMap<List<String>, Window>(16, 0.75f, true);
+  private long bytes;
+
+  /**
+   * @param resource The resource running the queries.
+   * @param maxBytes The budget of the cache, in bytes.
+   */
+  public TimeSeriesCache(TimeSeriesResourceV6 resource, long maxBytes) {
+    Preconditions.checkArgument(maxBytes >= 0,
+        "Max bytes should not be negative.");
+    this.resource = Preconditions.checkNotNull(resource);
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Sets how far back from the time of a query its points are fetched again
+   * by the next query. Defaults to a minute.
+   *
+   * @return This cache.
+   */
+  public TimeSeriesCache setRefetchPeriod(long duration, TimeUnit unit) {
+    Preconditions.checkArgument(duration >= 0,
+        "Refetch period should not be negative.");
+    this.refetchMillis = unit.toMillis(duration);
+    return this;
+  }
+
+  /**
+   * Runs a query, serving what it can from the cache.
+   *
+   * @param query The tsquery.
+   * @param from Start of the period to query in ISO 8601 format (defaults to
+   *             5 minutes before the end of the period).
+   * @param to End of the period to query in ISO 8601 format, or "now"
+   *           (defaults to "now").
+   * @param desiredRollup The rollup of the data (defaults to RAW).
+   * @return The result of the query, as the resource would return it.
+   */
+  public ApiTimeSeriesResponseList query(String query, String from, String to,
+                                         String desiredRollup) {
+    Date toDate = ApiUtils.newDateFromString(
+        Objects.firstNonNull(to, Parameters.DATE_TIME_NOW));
+    Date fromDate = ApiUtils.getFromDate(from, toDate, DEFAULT_WINDOW);
+    String rollup = Objects.firstNonNull(desiredRollup,
+        Parameters.ROLLUP_DEFAULT).toUpperCase();
+    List<String> key = Arrays.asList(query, rollup);
+
+    Window window;
+    synchronized (this) {
+      window = windows.get(key);
+      if (window == null) {
+        window = new Window();
+        windows.put(key, window);
+      }
+    }
+    ApiTimeSeriesResponseList result;
+    long windowBytes;
+    synchronized (window) {
+      result = query(window, query, rollup, fromDate.getTime(),
+          toDate.getTime());
+      windowBytes = window.bytes;
+    }
+    account(key, window, windowBytes);
+    return result;
+  }
+
+  /**
+   * @return The estimated size of the cache, in bytes.
+   */
+  public synchronized long getSizeInBytes() {
+    return bytes;
+  }
+
+  public synchronized void clear() {
+    windows.clear();
+    bytes = 0;
+  }
+
+  /**
+   * Saves the cache to a file, replacing it once the new one is written.
+   */
+  public void save(File file) throws IOException {
+    Map<List<String>, Window> snapshot;
+    synchronized (this) {
+      snapshot = Maps.newLinkedHashMap(windows);
+    }
+    TimeSeriesCacheFile.write(file, snapshot);
+  }
+
+  /**
+   * Loads the periods saved to a file, replacing those of the same queries.
+   *
+   * @throws IOException If the file could not be read, or is incomplete or
+   *                     corrupt, e.g. after a crash while saving it; the cache
+   *                     is then left as is.
+   */
+  public void load(File file) throws IOException {
+    for (Map.Entry<List<String>, Window> e :
+         TimeSeriesCacheFile.read(file).entrySet()) {
+      Window window = e.getValue();
+      window.bytes = estimateBytes(window.responses);
+      synchronized (this) {
+        Window previous = windows.put(e.getKey(), window);
+        if (previous != null) {
+          bytes -= previous.accountedBytes;
+        }
+      }
+      account(e.getKey(), window, window.bytes);
+    }
+  }
+
+  /**
+   * Updates the size of a period, evicting the least recently used ones
+   * while over budget.
+   */
+  private synchronized void account(List<String> key, Window window,
+                                    long windowBytes) {
+    if (windows.get(key) != window) {
+      // Evicted or replaced meanwhile.
+      return;
+    }
+    bytes += windowBytes - window.accountedBytes;
+    window.accountedBytes = windowBytes;
+    Iterator<Window> eldest = windows.values().iterator();
+    while (bytes > maxBytes && eldest.hasNext()) {
+      bytes -= eldest.next().accountedBytes;
+      eldest.remove();
+    }
+  }
+
+  /**
+   * Runs a query over the cached period of a window, fetching the parts of
+   * the period of the query outside of it, and caches the result.
+   */
+  private ApiTimeSeriesResponseList query(Window window, String query,
+      String rollup, long start, long end) {
+    long settled = System.currentTimeMillis() - refetchMillis;
+    Merger merger = new Merger();
+    long coveredFrom;
+    long coveredTo;
+    if (window.isEmpty() || start > window.to || end < window.from) {
+      merger.add(fetch(query, rollup, start, end), start, end);
+      coveredFrom = start;
+      coveredTo = Math.min(end, settled);
+    } else {
+      if (start < window.from) {
+        merger.add(fetch(query, rollup, start, window.from),
+            start, window.from - 1);
+      }
+      merger.add(window.responses);
+      if (end > window.to) {
+        merger.add(fetch(query, rollup, window.to, end),
+            window.to + 1, end);
+      }
+      coveredFrom = Math.min(start, window.from);
+      coveredTo = Math.max(window.to, Math.min(end, settled));
+    }
+
+    List<CachedResponse> merged = merger.build();
+    List<ApiTimeSeriesResponse> result = Lists.newArrayList();
+    List<CachedResponse> cached = Lists.newArrayList();
+    for (CachedResponse response : merged) {
+      List<ApiTimeSeries> timeSeries = Lists.newArrayList();
+      CachedResponse kept = new CachedResponse(response.query,
+          response.warnings);
+      for (Map.Entry<List<String>, ColumnarTimeSeries> e :
+           response.series.entrySet()) {
+        ColumnarTimeSeries series = e.getValue();
+        ApiTimeSeries slice = series.slice(series.ceilingIndex(start),
+            endIndex(series, end)).toApiTimeSeries();
+        slice.setMetadata(copy(slice.getMetadata(), start, end));
+        timeSeries.add(slice);
+        int last = endIndex(series, coveredTo);
+        kept.series.put(e.getKey(),
+            last == series.size() ? series : series.slice(0, last));
+      }
+      result.add(new ApiTimeSeriesResponse(timeSeries, response.warnings,
+          response.query));
+      cached.add(kept);
+    }
+
+    if (coveredFrom <= coveredTo) {
+      window.from = coveredFrom;
+      window.to = coveredTo;
+      window.responses = cached;
+    } else {
+      // Nothing settled yet.
+      window.from = 0;
+      window.to = -1;
+      window.responses = Lists.newArrayList();
+    }
+    window.bytes = estimateBytes(window.responses);
+    ApiTimeSeriesResponseList list = new ApiTimeSeriesResponseList();
+    list.setResponses(result);
+    return list;
+  }
+
+  /**
+   * @return The index after the last point at or before the given time.
+   */
+  private static int endIndex(ColumnarTimeSeries series, long time) {
+    return time == Long.MAX_VALUE ? series.size() :
+        series.ceilingIndex(time + 1);
+  }
+
+  private List<ColumnarTimeSeriesResponse> fetch(String query, String rollup,
+                                                 long from, long to) {
+    Response response = resource.queryTimeSeries(query,
+        ApiUtils.printDate(new Date(from)), ApiUtils.printDate(new Date(to)),
+        MediaType.APPLICATION_JSON, rollup, true);
+    if (response.getStatus() >= 400) {
+      // Releases the connection; the status is all the caller gets.
+      response.close();
+      throw new WebApplicationException(response);
+    }
+    try {
+      return ColumnarTimeSeriesResponse.read(response);
+    } catch (IOException e) {
+      throw Throwables.propagate(e);
+    }
+  }
+
+  /**
+   * @return A copy of the metadata of a series, over the given period.
+   */
+  private static ApiTimeSeriesMetadata copy(ApiTimeSeriesMetadata metadata,
+                                            long start, long end) {
+    if (metadata == null) {
+      return null;
+    }
+    ApiTimeSeriesMetadata copy = new ApiTimeSeriesMetadata();
+    copy.setMetricName(metadata.getMetricName());
+    copy.setEntityName(metadata.getEntityName());
+    copy.setStartTime(new Date(start));
+    copy.setEndTime(new Date(end));
+    copy.setAttributes(metadata.getAttributes());
+    copy.setUnitNumerators(metadata.getUnitNumerators());
+    copy.setUnitDenominators(metadata.getUnitDenominators());
+    copy.setExpression(metadata.getExpression());
+    copy.setAlias(metadata.getAlias());
+    copy.setMetricCollectionFrequencyMs(
+        metadata.getMetricCollectionFrequencyMs());
+    copy.setRollupUsed(metadata.getRollupUsed());
+    return copy;
+  }
+
+  private static long estimateBytes(List<CachedResponse> responses) {
+    long total = 0;
+    for (CachedResponse response : responses) {
+      for (ColumnarTimeSeries series : response.series.values()) {
+        total += SERIES_BYTES + POINT_BYTES * series.size();
+        if (series.getSampleTimes() != null) {
+          for (int i = 0; i < series.size(); i++) {
+            if (series.hasAggregateStatistics(i)) {
+              total += STATISTICS_BYTES;
+            }
+          }
+        }
+      }
+    }
+    return total;
+  }
+
+  /** The cached period of a query. */
+  static final class Window {
+    /** The period covered, inclusive; none if from is after to. */
+    long from = 0;
+    long to = -1;
+    List<CachedResponse> responses = Lists.newArrayList();
+    /** Estimated size of the period. */
+    long bytes;
+    /** Size of the period, as last accounted for by the cache. */
+    long accountedBytes;
+
+    boolean isEmpty() {
+      return from > to;
+    }
+  }
+
+  /** The series of one query of a period. */
+  static final class CachedResponse {
+    final String query;
+    final List<String> warnings;
+    final LinkedHashMap<List<String>, ColumnarTimeSeries> series =
+        Maps.newLinkedHashMap();
+
+    CachedResponse(String query, List<String> warnings) {
+      this.query = query;
+      this.warnings = warnings;
+    }
+  }
+
+  /**
+   * Appends the points of consecutive periods to the same series.
+   */
+  private static final class Merger {
+    private final List<String> queries = Lists.newArrayList();
+    private final List<List<String>> warnings = Lists.newArrayList();
+    private final List<LinkedHashMap<List<String>, ColumnarTimeSeries.Builder>>
+        builders = Lists.newArrayList();
+
+    /** Adds the points of fetched series, within the given period. */
+    void add(List<ColumnarTimeSeriesResponse> responses, long from, long to) {
+      for (int i = 0; i < responses.size(); i++) {
+        ColumnarTimeSeriesResponse response = responses.get(i);
+        response(i, response.getTimeSeriesQuery(), response.getWarnings());
+        if (response.getTimeSeries() == null) {
+          continue;
+        }
+        for (ColumnarTimeSeries series : response.getTimeSeries()) {
+          add(i, TimeSeriesQueryPlanner.identity(series.getMetadata()),
+              series, series.ceilingIndex(from), endIndex(series, to));
+        }
+      }
+    }
+
+    /** Adds the points of cached series. */
+    void add(List<CachedResponse> responses) {
+      for (int i = 0; i < responses.size(); i++) {
+        CachedResponse response = responses.get(i);
+        response(i, response.query, response.warnings);
+        for (Map.Entry<List<String>, ColumnarTimeSeries> e :
+             response.series.entrySet()) {
+          add(i, e.getKey(), e.getValue(), 0, e.getValue().size());
+        }
+      }
+    }
+
+    private void response(int index, String query, List<String> warning) {
+      if (index == queries.size()) {
+        queries.add(query);
+        warnings.add(warning);
+        builders.add(
+            Maps.<List<String>, ColumnarTimeSeries.Builder>newLinkedHashMap());
+      } else if (warning != null && !warning.isEmpty()) {
+        warnings.set(index, warning);
+      }
+    }
+
+    private void add(int index, List<String> key, ColumnarTimeSeries series,
+                     int fromIndex, int toIndex) {
+      ColumnarTimeSeries.Builder builder = builders.get(index).get(key);
+      if (builder == null) {
+        builder = new ColumnarTimeSeries.Builder(series.getMetadata(),
+            toIndex - fromIndex);
+        builders.get(index).put(key, builder);
+      }
+      builder.addAll(series, fromIndex, toIndex);
+    }
+
+    List<CachedResponse> build() {
+      List<CachedResponse> responses = Lists.newArrayList();
+      for (int i = 0; i < queries.size(); i++) {
+        CachedResponse response = new CachedResponse(queries.get(i),
+            warnings.get(i));
+        for (Map.Entry<List<String>, ColumnarTimeSeries.Builder> e :
+             builders.get(i).entrySet()) {
+          response.series.put(e.getKey(), e.getValue().build());
+        }
+        responses.add(response);
+      }
+      return responses;
+    }
+  }
+}
@@ -0,0 +1,294 @@
+// Licensed to Cloudera, Inc. under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  Cloudera, Inc. licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.api;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Checksum;
+
+/**
+ * Reads and writes the periods of a {@link TimeSeriesCache} from and to a
+ * file.
+ * <p>
+ * The series are written as a segment (see {@link TimeSeriesSegment}), one
+ * block per series, with the statistics of their points. The segment is
+ * followed by the periods: for each, its query, rollup and bounds, then its
+ * responses, each with its query, warnings and number of series, whose
+ * blocks follow those of the previous response. A trailer ends the file:
+ * the length of the file, the length of the periods, the CRC-32 of what
+ * precedes the trailer, the version and a magic number. A file which is not
+ * whole, e.g. left by a crash, is rejected rather than partly loaded.
+ * <p>
+ * A file is written next to the one it replaces, then renamed over it, so
+ * that readers see either the previous file or the new one. On platforms
+ * which do not rename over an existing file, the previous file is deleted
+ * first; a crash in between leaves no file, i.e. an empty cache.
+ */
+final class TimeSeriesCacheFile {
+
+  private static final int MAGIC = 0x434d5453;
+  private static final int VERSION = 2;
+  private static final int TRAILER_LENGTH = 8 + 4 + 8 + 4 + 4;
+
+  private TimeSeriesCacheFile() {
+  }
+
+  static void write(File file,
+      Map<List<String>, TimeSeriesCache.Window> windows) throws IOException {
+    // Snapshot the periods, as they are replaced rather than modified.
+    Map<List<String>, TimeSeriesCache.Window> snapshot =
+        Maps.newLinkedHashMap();
+    for (Map.Entry<List<String>, TimeSeriesCache.Window> e :
+         windows.entrySet()) {
+      TimeSeriesCache.Window window = e.getValue();
+      TimeSeriesCache.Window copy = new TimeSeriesCache.Window();
+      synchronized (window) {
+        copy.from = window.from;
+        copy.to = window.to;
+        copy.responses = window.responses;
+      }
+      if (!copy.isEmpty()) {
+        snapshot.put(e.getKey(), copy);
+      }
+    }
+
+    File temp = File.createTempFile(file.getName(), ".tmp",
+        file.getAbsoluteFile().getParentFile());
+    boolean replaced = false;
+    try {
+      CRC32 checksum = new CRC32();
+      byte[] periods = writeSegment(temp, snapshot, checksum);
+      FileOutputStream out = new FileOutputStream(temp, true);
+      try {
+        new CheckedOutputStream(out, checksum).write(periods);
+        DataOutputStream trailer = new DataOutputStream(out);
+        trailer.writeLong(temp.length() + TRAILER_LENGTH);
+        trailer.writeInt(periods.length);
+        trailer.writeLong(checksum.getValue());
+        trailer.writeInt(VERSION);
+        trailer.writeInt(MAGIC);
+        trailer.flush();
+        out.getFD().sync();
+      } finally {
+        out.close();
+      }
+      // Some platforms do not rename over an existing file.
+      replaced = temp.renameTo(file) || (file.delete() && temp.renameTo(file));
+      if (!replaced) {
+        throw new IOException("Could not replace " + file + " with " + temp);
+      }
+    } finally {
+      if (!replaced) {
+        temp.delete();
+      }
+    }
+  }
+
+  /**
+   * Writes the series of the periods as a segment.
+   *
+   * @param checksum Updated with the bytes of the segment.
+   * @return The periods, encoded.
+   */
+  private static byte[] writeSegment(File file,
+      Map<List<String>, TimeSeriesCache.Window> windows, Checksum checksum)
+      throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    TimeSeriesSegmentWriter segment =
+        new TimeSeriesSegmentWriter(file, checksum);
+    try {
+      out.writeInt(windows.size());
+      for (Map.Entry<List<String>, TimeSeriesCache.Window> e :
+           windows.entrySet()) {
+        TimeSeriesCache.Window window = e.getValue();
+        putString(out, e.getKey().get(0));
+        putString(out, e.getKey().get(1));
+        out.writeLong(window.from);
+        out.writeLong(window.to);
+        out.writeInt(window.responses.size());
+        for (TimeSeriesCache.CachedResponse response : window.responses) {
+          putString(out, response.query);
+          putStrings(out, response.warnings);
+          out.writeInt(response.series.size());
+          for (ColumnarTimeSeries series : response.series.values()) {
+            segment.appendWhole(series);
+          }
+        }
+      }
+    } finally {
+      segment.close();
+    }
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Reads the periods of a file.
+   *
+   * @throws IOException If the file could not be read, or is not a whole
+   *                     cache file.
+   */
+  static Map<List<String>, TimeSeriesCache.Window> read(File file)
+      throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    ByteBuffer in;
+    try {
+      long length = raf.length();
+      if (length < TRAILER_LENGTH || length > Integer.MAX_VALUE) {
+        throw new IOException("Not a time series cache file: " + file);
+      }
+      in = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+    } finally {
+      raf.close();
+    }
+    int trailer = in.limit() - TRAILER_LENGTH;
+    if (in.getInt(trailer + 24) != MAGIC) {
+      throw new IOException("Not a time series cache file: " + file);
+    }
+    int version = in.getInt(trailer + 20);
+    if (version != VERSION) {
+      throw new IOException("Unsupported time series cache version " +
+          version + ": " + file);
+    }
+    int periodsLength = in.getInt(trailer + 8);
+    if (in.getLong(trailer) != in.limit() || periodsLength < 0 ||
+        periodsLength > trailer) {
+      throw new IOException("Incomplete time series cache file: " + file);
+    }
+    if (checksum(in, trailer) != in.getLong(trailer + 12)) {
+      throw new IOException("Corrupt time series cache file: " + file);
+    }
+
+    try {
+      ByteBuffer segment = in.duplicate();
+      segment.limit(trailer - periodsLength);
+      ByteBuffer periods = in.duplicate();
+      periods.limit(trailer);
+      periods.position(trailer - periodsLength);
+      return read(TimeSeriesSegment.open(segment.slice()), periods, file);
+    } catch (RuntimeException e) {
+      // E.g. a BufferUnderflowException.
+      throw new IOException("Corrupt time series cache file: " + file, e);
+    }
+  }
+
+  private static Map<List<String>, TimeSeriesCache.Window> read(
+      TimeSeriesSegment segment, ByteBuffer in, File file) throws IOException {
+    Map<List<String>, TimeSeriesCache.Window> windows =
+        Maps.newLinkedHashMap();
+    int block = 0;
+    for (int w = in.getInt(); w > 0; w--) {
+      List<String> key = Arrays.asList(getString(in), getString(in));
+      TimeSeriesCache.Window window = new TimeSeriesCache.Window();
+      window.from = in.getLong();
+      window.to = in.getLong();
+      for (int r = in.getInt(); r > 0; r--) {
+        TimeSeriesCache.CachedResponse response =
+            new TimeSeriesCache.CachedResponse(getString(in), getStrings(in));
+        for (int s = in.getInt(); s > 0; s--) {
+          ColumnarTimeSeries series = segment.readBlock(block++);
+          response.series.put(
+              TimeSeriesQueryPlanner.identity(series.getMetadata()), series);
+        }
+        window.responses.add(response);
+      }
+      windows.put(key, window);
+    }
+    if (in.hasRemaining() || block != segment.getBlockCount()) {
+      throw new IOException("Corrupt time series cache file: " + file);
+    }
+    return windows;
+  }
+
+  private static long checksum(ByteBuffer in, int length) {
+    CRC32 crc = new CRC32();
+    ByteBuffer data = in.duplicate();
+    data.position(0);
+    byte[] chunk = new byte[8192];
+    for (int position = 0; position < length; position += chunk.length) {
+      int count = Math.min(chunk.length, length - position);
+      data.get(chunk, 0, count);
+      crc.update(chunk, 0, count);
+    }
+    return crc.getValue();
+  }
+
+  private static void putString(DataOutputStream out, String value)
+      throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+    } else {
+      byte[] bytes = value.getBytes(Charsets.UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+  }
+
+  private static void putStrings(DataOutputStream out, List<String> values)
+      throws IOException {
+    if (values == null) {
+      out.writeInt(-1);
+      return;
+    }
+    out.writeInt(values.size());
+    for (String value : values) {
+      putString(out, value);
+    }
+  }
+
+  private static String getString(ByteBuffer in) {
+    int length = in.getInt();
+    if (length < 0) {
+      return null;
+    }
+    if (length > in.remaining()) {
+      throw new BufferUnderflowException();
+    }
+    byte[] bytes = new byte[length];
+    in.get(bytes);
+    return new String(bytes, Charsets.UTF_8);
+  }
+
+  private static List<String> getStrings(ByteBuffer in) {
+    int size = in.getInt();
+    if (size < 0) {
+      return null;
+    }
+    List<String> strings = Lists.newArrayList();
+    for (int i = 0; i < size; i++) {
+      strings.add(getString(in));
+    }
+    return strings;
+  }
+}
@@ -0,0 +1,234 @@
+// Licensed to Cloudera, Inc. under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  Cloudera, Inc. licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.api;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Compresses the points of a series, as described in "Gorilla: A Fast,
+ * Scalable, In-Memory Time Series Database" (Pelkonen et al., VLDB 2015):
+ * timestamps as deltas of their deltas, which are 0 for regular series and
+ * take a single bit, and values as the XOR with the previous one, which
+ * shares most of its bits with it for slowly changing values.
+ * <p>
+ * Timestamps are in milliseconds; deltas of deltas which do not fit the
+ * smaller encodings are written in full, so any sequence of timestamps,
+ * including {@link ColumnarTimeSeries#NO_TIME}, is encoded exactly.
+ */
+final class TimeSeriesCompression {
+
+  private TimeSeriesCompression() {
+  }
+
+  /**
+   * Encodes the given points.
+   */
+  static void encode(long[] timestamps, double[] values, int size,
+                     BitOutput out) {
+    if (size == 0) {
+      return;
+    }
+    long previous = timestamps[0];
+    long previousDelta = 0;
+    long previousBits = Double.doubleToRawLongBits(values[0]);
+    int previousLeading = -1;
+    int previousTrailing = 0;
+    out.write(previous, 64);
+    out.write(previousBits, 64);
+    for (int i = 1; i < size; i++) {
+      long delta = timestamps[i] - previous;
+      long dod = delta - previousDelta;
+      if (dod == 0) {
+        out.write(0, 1);
+      } else if (dod >= -63 && dod <= 64) {
+        out.write(0x2, 2);
+        out.write(dod, 7);
+      } else if (dod >= -255 && dod <= 256) {
+        out.write(0x6, 3);
+        out.write(dod, 9);
+      } else if (dod >= -2047 && dod <= 2048) {
+        out.write(0xe, 4);
+        out.write(dod, 12);
+      } else {
+        out.write(0xf, 4);
+        out.write(dod, 64);
+      }
+      previous = timestamps[i];
+      previousDelta = delta;
+
+      long bits = Double.doubleToRawLongBits(values[i]);
+      long xor = bits ^ previousBits;
+      if (xor == 0) {
+        out.write(0, 1);
+      } else {
+        int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+        int trailing = Long.numberOfTrailingZeros(xor);
+        if (previousLeading >= 0 && leading >= previousLeading &&
+            trailing >= previousTrailing) {
+          // Within the meaningful bits of the previous value.
+          out.write(0x2, 2);
+          out.write(xor >>> previousTrailing,
+              64 - previousLeading - previousTrailing);
+        } else {
+          int length = 64 - leading - trailing;
+          out.write(0x3, 2);
+          out.write(leading, 5);
+          out.write(length - 1, 6);
+          out.write(xor >>> trailing, length);
+          previousLeading = leading;
+          previousTrailing = trailing;
+        }
+      }
+      previousBits = bits;
+    }
+  }
+
+  /**
+   * Decodes points, handing them to a decoder one at a time.
+   */
+  static void decode(BitInput in, int size, Decoder decoder) {
+    if (size == 0) {
+      return;
+    }
+    long timestamp = in.read(64);
+    long delta = 0;
+    long bits = in.read(64);
+    int leading = 0;
+    int trailing = 0;
+    if (!decoder.point(0, timestamp, Double.longBitsToDouble(bits))) {
+      return;
+    }
+    for (int i = 1; i < size; i++) {
+      long dod;
+      if (in.read(1) == 0) {
+        dod = 0;
+      } else if (in.read(1) == 0) {
+        dod = signed(in.read(7), 7);
+      } else if (in.read(1) == 0) {
+        dod = signed(in.read(9), 9);
+      } else if (in.read(1) == 0) {
+        dod = signed(in.read(12), 12);
+      } else {
+        dod = in.read(64);
+      }
+      delta += dod;
+      timestamp += delta;
+
+      if (in.read(1) != 0) {
+        if (in.read(1) != 0) {
+          leading = (int) in.read(5);
+          trailing = 64 - leading - ((int) in.read(6) + 1);
+        }
+        bits ^= in.read(64 - leading - trailing) << trailing;
+      }
+      if (!decoder.point(i, timestamp, Double.longBitsToDouble(bits))) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * @return The two's complement value of the given lowest bits, which hold
+   *         values from -2^(n-1) + 1 to 2^(n-1), 2^(n-1) standing for itself
+   *         rather than for -2^(n-1).
+   */
+  private static long signed(long value, int bits) {
+    long half = 1L << (bits - 1);
+    return value > half ? value - (1L << bits) : value;
+  }
+
+  /** Receives decoded points. */
+  interface Decoder {
+    /**
+     * @return Whether to go on decoding.
+     */
+    boolean point(int index, long timestamp, double value);
+  }
+
+  /**
+   * Writes bits, most significant first, to a growing array.
+   */
+  static final class BitOutput {
+    private byte[] bytes = new byte[256];
+    private long bits;
+
+    /**
+     * Writes the lowest bits of a value.
+     */
+    void write(long value, int count) {
+      while (count > 0) {
+        int index = (int) (bits >>> 3);
+        if (index == bytes.length) {
+          bytes = Arrays.copyOf(bytes, bytes.length * 2);
+        }
+        int free = 8 - (int) (bits & 7);
+        int take = Math.min(free, count);
+        int chunk = (int) (value >>> (count - take)) & ((1 << take) - 1);
+        bytes[index] |= chunk << (free - take);
+        count -= take;
+        bits += take;
+      }
+    }
+
+    /** The number of bytes written, the last one possibly partly. */
+    int length() {
+      return (int) ((bits + 7) >>> 3);
+    }
+
+    byte[] bytes() {
+      return bytes;
+    }
+
+    void reset() {
+      Arrays.fill(bytes, 0, length(), (byte) 0);
+      bits = 0;
+    }
+  }
+
+  /**
+   * Reads bits, most significant first, from a region of a buffer, without
+   * copying it.
+   */
+  static final class BitInput {
+    private final ByteBuffer buffer;
+    private final int offset;
+    private long bits;
+
+    BitInput(ByteBuffer buffer, int offset) {
+      this.buffer = buffer;
+      this.offset = offset;
+    }
+
+    /**
+     * Reads 1 to 64 bits.
+     */
+    long read(int count) {
+      long value = 0;
+      while (count > 0) {
+        int used = (int) (bits & 7);
+        int free = 8 - used;
+        int take = Math.min(free, count);
+        int b = buffer.get(offset + (int) (bits >>> 3)) & 0xff;
+        value = (value << take) | ((b >>> (free - take)) & ((1 << take) - 1));
+        count -= take;
+        bits += take;
+      }
+      return value;
+    }
+  }
+}
@@ -0,0 +1,312 @@
+// Licensed to Cloudera, Inc. under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  Cloudera, Inc. licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.api;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Downsamples time series on the client, in two ways:
+ * <ul>
+ *   <li>{@link #aggregate(ColumnarTimeSeries, long, TimeUnit)} rolls points
+ *       up into periods of any length, with the statistics of a rollup
+ *       returned by the API: count, min, max, mean and standard deviation
+ *       (the sum being the mean times the count).</li>
+ *   <li>{@link #lttb(ColumnarTimeSeries, int)} keeps the points which best
+ *       preserve the shape of the series when charted, using the Largest
+ *       Triangle Three Buckets algorithm (S. Steinarsson, "Downsampling Time
+ *       Series for Visual Representation", 2013).</li>
+ * </ul>
+ * Both run in a single pass over the columns of a series. The instance
+ * methods downsample several series concurrently.
+ * <p>
+ * Series of {@link ColumnarTimeSeries} convert from and to those of the API
+ * model with {@link ColumnarTimeSeries#of} and {@link
+ * ColumnarTimeSeries#toApiTimeSeries()}.
+ */
+public class TimeSeriesDownsampler {
+
+  /** Type of the points of rolled up series. */
+  static final String CALCULATED = "CALCULATED";
+
+  private final ExecutorService executor;
+
+  /**
+   * @param executor Runs the downsampling of each series.
+   */
+  public TimeSeriesDownsampler(ExecutorService executor) {
+    this.executor = Preconditions.checkNotNull(executor);
+  }
+
+  /**
+   * Rolls up series concurrently.
+   *
+   * @see #aggregate(ColumnarTimeSeries, long, TimeUnit)
+   */
+  public List<ColumnarTimeSeries> aggregate(List<ColumnarTimeSeries> series,
+      final long interval, final TimeUnit unit) throws InterruptedException {
+    List<Callable<ColumnarTimeSeries>> tasks = Lists.newArrayList();
+    for (final ColumnarTimeSeries s : series) {
+      tasks.add(new Callable<ColumnarTimeSeries>() {
+        @Override
+        public ColumnarTimeSeries call() {
+          return aggregate(s, interval, unit);
+        }
+      });
+    }
+    return run(tasks);
+  }
+
+  /**
+   * Downsamples series concurrently.
+   *
+   * @see #lttb(ColumnarTimeSeries, int)
+   */
+  public List<ColumnarTimeSeries> lttb(List<ColumnarTimeSeries> series,
+      final int threshold) throws InterruptedException {
+    List<Callable<ColumnarTimeSeries>> tasks = Lists.newArrayList();
+    for (final ColumnarTimeSeries s : series) {
+      tasks.add(new Callable<ColumnarTimeSeries>() {
+        @Override
+        public ColumnarTimeSeries call() {
+          return lttb(s, threshold);
+        }
+      });
+    }
+    return run(tasks);
+  }
+
+  private List<ColumnarTimeSeries> run(
+      List<Callable<ColumnarTimeSeries>> tasks) throws InterruptedException {
+    List<ColumnarTimeSeries> results = Lists.newArrayList();
+    try {
+      for (Future<ColumnarTimeSeries> future : executor.invokeAll(tasks)) {
+        results.add(future.get());
+      }
+    } catch (ExecutionException e) {
+      throw Throwables.propagate(e.getCause());
+    }
+    return results;
+  }
+
+  /**
+   * Rolls a series up into periods of the given length, aligned on the
+   * epoch. Each period with points gives a point timestamped at its end, as
+   * the rollups of the API, of type CALCULATED, with the mean as value and
+   * the statistics of the points of the period. The sample of a period is
+   * its last point.
+   * <p>
+   * Points which already have statistics, e.g. from a finer rollup, count
+   * for the points they stand for. Points without time and raw points whose
+   * value is NaN are skipped.
+   *
+   * @param series The series, in time order.
+   * @param interval The length of the periods.
+   * @param unit The unit of the length.
+   * @return The rolled up series, with the same metadata.
+   */
+  public static ColumnarTimeSeries aggregate(ColumnarTimeSeries series,
+                                             long interval, TimeUnit unit) {
+    long millis = unit.toMillis(interval);
+    Preconditions.checkArgument(millis > 0,
+        "Interval should be greater than 0.");
+    int size = series.size();
+    long[] timestamps = series.getTimestamps();
+    double[] values = series.getValues();
+    ColumnarTimeSeries.Builder builder = new ColumnarTimeSeries.Builder(
+        series.getMetadata(), 16);
+
+    Bucket bucket = new Bucket();
+    for (int i = 0; i < size; i++) {
+      long timestamp = timestamps[i];
+      if (timestamp == ColumnarTimeSeries.NO_TIME) {
+        continue;
+      }
+      // Periods include their end: (end - millis, end].
+      long end = timestamp / millis * millis;
+      if (end < timestamp) {
+        end += millis;
+      }
+      if (end != bucket.end) {
+        bucket.flush(builder);
+        bucket.end = end;
+      }
+      if (series.hasAggregateStatistics(i)) {
+        long count = series.getCounts()[i];
+        if (count > 0) {
+          double stdDev = series.getStdDevs()[i];
+          long sampleTime = series.getSampleTimes()[i];
+          boolean hasSample = sampleTime != ColumnarTimeSeries.NO_TIME;
+          bucket.add(count, series.getMeans()[i], stdDev * stdDev * count,
+              series.getMins()[i], time(series.getMinTimes()[i], timestamp),
+              series.getMaxs()[i], time(series.getMaxTimes()[i], timestamp),
+              hasSample ? sampleTime : timestamp,
+              hasSample ? series.getSampleValues()[i] : values[i]);
+        }
+      } else if (!Double.isNaN(values[i])) {
+        double value = values[i];
+        bucket.add(1, value, 0, value, timestamp, value, timestamp,
+            timestamp, value);
+      }
+    }
+    bucket.flush(builder);
+    return builder.build();
+  }
+
+  private static long time(long time, long defaultTime) {
+    return time == ColumnarTimeSeries.NO_TIME ? defaultTime : time;
+  }
+
+  /**
+   * The statistics of the points of a period, combined as in Chan et al.,
+   * "Updating Formulae and a Pairwise Algorithm for Computing Sample
+   * Variances" (1979), to stay accurate for large counts.
+   */
+  private static final class Bucket {
+    long end = ColumnarTimeSeries.NO_TIME;
+    long count;
+    double mean;
+    /** Sum of the squared differences from the mean. */
+    double m2;
+    double min;
+    long minTime;
+    double max;
+    long maxTime;
+    long sampleTime;
+    double sampleValue;
+
+    void add(long n, double nMean, double nM2, double nMin, long nMinTime,
+             double nMax, long nMaxTime, long time, double value) {
+      if (count == 0) {
+        count = n;
+        mean = nMean;
+        m2 = nM2;
+        min = nMin;
+        minTime = nMinTime;
+        max = nMax;
+        maxTime = nMaxTime;
+      } else {
+        long total = count + n;
+        double delta = nMean - mean;
+        mean += delta * n / total;
+        m2 += nM2 + delta * delta * ((double) count * n / total);
+        count = total;
+        if (nMin < min) {
+          min = nMin;
+          minTime = nMinTime;
+        }
+        if (nMax > max) {
+          max = nMax;
+          maxTime = nMaxTime;
+        }
+      }
+      sampleTime = time;
+      sampleValue = value;
+    }
+
+    void flush(ColumnarTimeSeries.Builder builder) {
+      if (count == 0) {
+        return;
+      }
+      builder.add(end, mean, CALCULATED)
+          .setStatistics(sampleTime, sampleValue, count, min, minTime, max,
+              maxTime, mean, Math.sqrt(m2 / count), null);
+      count = 0;
+    }
+  }
+
+  /**
+   * Keeps the given number of points of a series, chosen to preserve its
+   * shape: the first and last points, and from each of the equal buckets of
+   * the others, the one forming the largest triangle with the point kept
+   * before it and the average of the next bucket.
+   *
+   * @param series The series, in time order, with the time of all points.
+   * @param threshold The number of points to keep, at least 3.
+   * @return The downsampled series, whose points are points of the series,
+   *         with their statistics; the series itself if it has no more
+   *         points than the threshold.
+   */
+  public static ColumnarTimeSeries lttb(ColumnarTimeSeries series,
+                                        int threshold) {
+    Preconditions.checkArgument(threshold >= 3,
+        "Threshold should be at least 3.");
+    int size = series.size();
+    if (size <= threshold) {
+      return series;
+    }
+    long[] timestamps = series.getTimestamps();
+    double[] values = series.getValues();
+    long origin = timestamps[0];
+    ColumnarTimeSeries.Builder builder = new ColumnarTimeSeries.Builder(
+        series.getMetadata(), threshold);
+    builder.addAll(series, 0, 1);
+
+    int kept = 0;
+    int bucketStart = 1;
+    for (int b = 0; b < threshold - 2; b++) {
+      int bucketEnd = bucketBound(b + 1, size, threshold);
+      int nextEnd = b + 2 <= threshold - 2 ?
+          bucketBound(b + 2, size, threshold) : size;
+
+      // Average of the next bucket, or the last point.
+      double avgX = 0;
+      double avgY = 0;
+      int nextStart = bucketEnd;
+      for (int i = nextStart; i < nextEnd; i++) {
+        avgX += timestamps[i] - origin;
+        avgY += values[i];
+      }
+      avgX /= nextEnd - nextStart;
+      avgY /= nextEnd - nextStart;
+
+      double keptX = timestamps[kept] - origin;
+      double keptY = values[kept];
+      double maxArea = -1;
+      int chosen = bucketStart;
+      for (int i = bucketStart; i < bucketEnd; i++) {
+        double area = Math.abs((keptX - avgX) * (values[i] - keptY) -
+            (keptX - (timestamps[i] - origin)) * (avgY - keptY));
+        if (area > maxArea) {
+          maxArea = area;
+          chosen = i;
+        }
+      }
+      builder.addAll(series, chosen, chosen + 1);
+      kept = chosen;
+      bucketStart = bucketEnd;
+    }
+    builder.addAll(series, size - 1, size);
+    return builder.build();
+  }
+
+  /**
+   * @return The start of a bucket of the points between the first and the
+   *         last ones, split into threshold - 2 buckets.
+   */
+  private static int bucketBound(int bucket, int size, int threshold) {
+    return 1 + (int) ((long) bucket * (size - 2) / (threshold - 2));
+  }
+}
@@ -0,0 +1,395 @@
+// Licensed to Cloudera, Inc. under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  Cloudera, Inc. licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.api;
+
+import com.cloudera.api.model.ApiTimeSeries;
+import com.cloudera.api.model.ApiTimeSeriesData;
+import com.cloudera.api.model.ApiTimeSeriesMetadata;
+import com.cloudera.api.model.ApiTimeSeriesRequest;
+import com.cloudera.api.model.ApiTimeSeriesResponse;
+import com.cloudera.api.model.ApiTimeSeriesResponseList;
+import com.cloudera.api.v11.TimeSeriesResourceV11;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import org.joda.time.Duration;
+
+/**
+ * Runs long time series queries as several shorter ones, each over a chunk
+ * of the queried period, concurrently. The chunks are merged back per time
+ * series, in time order, so that the result is the same as that of the
+ * single query, but no request takes long enough to time out.
+ * <p>
+ * Chunks are aligned to the periods of the desired rollup, so that no
+ * aggregate point straddles two chunks. Points at the boundary of two chunks,
+ * returned for both, are kept once.
+ */
+public class TimeSeriesQueryPlanner {
+
+  /** Default period covered by a chunk, per rollup. */
+  private static final Map<String, Long> CHUNK_MILLIS =
+      ImmutableMap.<String, Long>builder()
+          .put("RAW", TimeUnit.HOURS.toMillis(6))
+          .put("TEN_MINUTELY", TimeUnit.DAYS.toMillis(2))
+          .put("HOURLY", TimeUnit.DAYS.toMillis(14))
+          .put("SIX_HOURLY", TimeUnit.DAYS.toMillis(84))
+          .put("DAILY", TimeUnit.DAYS.toMillis(364))
+          .put("WEEKLY", TimeUnit.DAYS.toMillis(5 * 364))
+          .build();
+
+  /** Length of the periods of each rollup. */
+  private static final Map<String, Long> ROLLUP_MILLIS =
+      ImmutableMap.<String, Long>builder()
+          .put("RAW", 1L)
+          .put("TEN_MINUTELY", TimeUnit.MINUTES.toMillis(10))
+          .put("HOURLY", TimeUnit.HOURS.toMillis(1))
+          .put("SIX_HOURLY", TimeUnit.HOURS.toMillis(6))
+          .put("DAILY", TimeUnit.DAYS.toMillis(1))
+          .put("WEEKLY", TimeUnit.DAYS.toMillis(7))
+          .build();
+
+  /** Period queried when the request has no start. */
+  private static final Duration DEFAULT_WINDOW = Duration.standardMinutes(5);
+
+  private final TimeSeriesResourceV11 resource;
+  private final ObjectMapper mapper;
+  private final ExecutorService executor;
+  private final int parallelism;
+  private long chunkMillis;
+
+  /**
+   * @param resource The resource running the queries.
+   * @param mapper Reads the results, e.g. the mapper the client of the
+   *               resource was built with.
+   * @param executor Runs the queries of the chunks.
+   * @param parallelism The maximum number of chunks queried at once.
+   */
+  public TimeSeriesQueryPlanner(TimeSeriesResourceV11 resource,
+                                ObjectMapper mapper, ExecutorService executor,
+                                int parallelism) {
+    Preconditions.checkArgument(parallelism > 0,
+        "Parallelism should be greater than 0.");
+    this.resource = Preconditions.checkNotNull(resource);
+    this.mapper = Preconditions.checkNotNull(mapper);
+    this.executor = Preconditions.checkNotNull(executor);
+    this.parallelism = parallelism;
+  }
+
+  /**
+   * Sets the period covered by each chunk, rounded up to a whole number of
+   * periods of the desired rollup. By default, chunks cover from 6 hours of
+   * raw data to 5 years of weekly data.
+   *
+   * @param duration The period covered by a chunk.
+   * @param unit The unit of the duration.
+   * @return This planner.
+   */
+  public TimeSeriesQueryPlanner setChunkDuration(long duration,
+                                                 TimeUnit unit) {
+    Preconditions.checkArgument(duration > 0,
+        "Chunk duration should be greater than 0.");
+    this.chunkMillis = unit.toMillis(duration);
+    return this;
+  }
+
+  /**
+   * Runs a query, in chunks.
+   *
+   * @param request The query. Its content type must be JSON.
+   * @return The result of the query.
+   */
+  public ApiTimeSeriesResponseList query(ApiTimeSeriesRequest request)
+      throws InterruptedException {
+    Preconditions.checkArgument(request.getContentType() == null ||
+        MediaType.APPLICATION_JSON.equals(request.getContentType()),
+        "Only JSON responses can be merged.");
+    List<ApiTimeSeriesRequest> chunks = split(request);
+    if (chunks.size() == 1) {
+      return run(request);
+    }
+    return merge(runAll(chunks,
+        new ChunkHandler<ApiTimeSeriesResponseList>() {
+          @Override
+          public ApiTimeSeriesResponseList handle(ApiTimeSeriesRequest chunk,
+              boolean last, ApiTimeSeriesResponseList result) {
+            return result;
+          }
+        }));
+  }
+
+  /**
+   * Runs a query, in chunks, and summarizes its result. Each chunk is
+   * summarized as soon as it is returned, into an empty copy of the given
+   * summary, and only the summaries are kept, to be merged into the given
+   * summary once all the chunks are returned. Points at the boundary of two
+   * chunks are counted once.
+   *
+   * @param request The query. Its content type must be JSON.
+   * @param analytics The summary to update.
+   * @return The summary.
+   */
+  public TimeSeriesAnalytics analyze(ApiTimeSeriesRequest request,
+                                     final TimeSeriesAnalytics analytics)
+      throws InterruptedException {
+    Preconditions.checkArgument(request.getContentType() == null ||
+        MediaType.APPLICATION_JSON.equals(request.getContentType()),
+        "Only JSON responses can be summarized.");
+    List<TimeSeriesAnalytics> results = runAll(split(request),
+        new ChunkHandler<TimeSeriesAnalytics>() {
+          @Override
+          public TimeSeriesAnalytics handle(ApiTimeSeriesRequest chunk,
+              boolean last, ApiTimeSeriesResponseList result) {
+            // Requests which are not split have no period to restrict to.
+            long from = chunk.getFrom() == null ? Long.MIN_VALUE :
+                ApiUtils.newDateFromString(chunk.getFrom()).getTime();
+            long to = last ? Long.MAX_VALUE :
+                ApiUtils.newDateFromString(chunk.getTo()).getTime();
+            return analytics.emptyCopy().add(result, from, to);
+          }
+        });
+    for (TimeSeriesAnalytics result : results) {
+      analytics.merge(result);
+    }
+    return analytics;
+  }
+
+  /** Handles the result of a chunk, in the thread which ran it. */
+  private interface ChunkHandler<T> {
+    T handle(ApiTimeSeriesRequest chunk, boolean last,
+             ApiTimeSeriesResponseList result);
+  }
+
+  /**
+   * Runs the queries of chunks, at most {@code parallelism} at once.
+   *
+   * @return What the handler returned for each chunk, in chunk order.
+   */
+  private <T> List<T> runAll(List<ApiTimeSeriesRequest> chunks,
+                             ChunkHandler<T> handler)
+      throws InterruptedException {
+    List<T> results = Lists.newArrayList();
+    for (int i = 0; i < chunks.size(); i++) {
+      results.add(null);
+    }
+    CompletionService<Integer> completion =
+        new ExecutorCompletionService<Integer>(executor);
+    List<Future<Integer>> running = Lists.newArrayList();
+    try {
+      int next = 0;
+      for (; next < Math.min(parallelism, chunks.size()); next++) {
+        running.add(submit(completion, chunks, next, handler, results));
+      }
+      for (int done = 0; done < chunks.size(); done++) {
+        completion.take().get();
+        if (next < chunks.size()) {
+          running.add(submit(completion, chunks, next++, handler, results));
+        }
+      }
+    } catch (ExecutionException e) {
+      throw Throwables.propagate(e.getCause());
+    } finally {
+      for (Future<Integer> future : running) {
+        future.cancel(true);
+      }
+    }
+    return results;
+  }
+
+  private <T> Future<Integer> submit(CompletionService<Integer> completion,
+      final List<ApiTimeSeriesRequest> chunks, final int index,
+      final ChunkHandler<T> handler, final List<T> results) {
+    return completion.submit(new Callable<Integer>() {
+      @Override
+      public Integer call() {
+        ApiTimeSeriesRequest chunk = chunks.get(index);
+        T result = handler.handle(chunk, index == chunks.size() - 1,
+            run(chunk));
+        synchronized (results) {
+          results.set(index, result);
+        }
+        return index;
+      }
+    });
+  }
+
+  private ApiTimeSeriesResponseList run(ApiTimeSeriesRequest request) {
+    Response response = resource.queryTimeSeries(request);
+    if (response.getStatus() >= 400) {
+      // Releases the connection; the status is all the caller gets.
+      response.close();
+      throw new WebApplicationException(response);
+    }
+    InputStream in = (InputStream) response.getEntity();
+    try {
+      try {
+        return mapper.readValue(in, ApiTimeSeriesResponseList.class);
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      throw Throwables.propagate(e);
+    }
+  }
+
+  /**
+   * Splits a request into requests over consecutive chunks of its period.
+   * Inner chunk boundaries fall on multiples of the rollup period.
+   */
+  List<ApiTimeSeriesRequest> split(ApiTimeSeriesRequest request) {
+    String rollup = Objects.firstNonNull(request.getDesiredRollup(),
+        Parameters.ROLLUP_DEFAULT).toUpperCase();
+    Long rollupMillis = ROLLUP_MILLIS.get(rollup);
+    if (rollupMillis == null) {
+      return Lists.newArrayList(request);
+    }
+    long size = chunkMillis > 0 ? chunkMillis : CHUNK_MILLIS.get(rollup);
+    size = (size + rollupMillis - 1) / rollupMillis * rollupMillis;
+
+    Date to = ApiUtils.newDateFromString(Objects.firstNonNull(
+        request.getTo(), Parameters.DATE_TIME_NOW));
+    Date from = ApiUtils.getFromDate(request.getFrom(), to, DEFAULT_WINDOW);
+    List<ApiTimeSeriesRequest> chunks = Lists.newArrayList();
+    long start = from.getTime();
+    while (true) {
+      long end = (start / size + 1) * size;
+      if (end >= to.getTime()) {
+        chunks.add(chunk(request, start, to.getTime()));
+        return chunks;
+      }
+      chunks.add(chunk(request, start, end));
+      start = end;
+    }
+  }
+
+  private static ApiTimeSeriesRequest chunk(ApiTimeSeriesRequest request,
+                                            long from, long to) {
+    return new ApiTimeSeriesRequest(request.getQuery(),
+        ApiUtils.printDate(new Date(from)), ApiUtils.printDate(new Date(to)),
+        request.getContentType(), request.getDesiredRollup(),
+        request.getMustUseDesiredRollup());
+  }
+
+  /**
+   * Merges the results of consecutive chunks, per query and per series.
+   */
+  static ApiTimeSeriesResponseList merge(
+      List<ApiTimeSeriesResponseList> results) {
+    List<ApiTimeSeriesResponse> merged = Lists.newArrayList();
+    List<Map<List<String>, ApiTimeSeries>> series = Lists.newArrayList();
+    List<Set<String>> warnings = Lists.newArrayList();
+    for (ApiTimeSeriesResponseList result : results) {
+      List<ApiTimeSeriesResponse> responses = result.getResponses();
+      if (responses == null) {
+        continue;
+      }
+      for (int i = 0; i < responses.size(); i++) {
+        ApiTimeSeriesResponse response = responses.get(i);
+        if (i == merged.size()) {
+          merged.add(new ApiTimeSeriesResponse(null, null,
+              response.getTimeSeriesQuery()));
+          series.add(Maps.<List<String>, ApiTimeSeries>newLinkedHashMap());
+          warnings.add(Sets.<String>newLinkedHashSet());
+        }
+        if (response.getWarnings() != null) {
+          warnings.get(i).addAll(response.getWarnings());
+        }
+        if (response.getTimeSeries() != null) {
+          for (ApiTimeSeries s : response.getTimeSeries()) {
+            append(series.get(i), s);
+          }
+        }
+      }
+    }
+    for (int i = 0; i < merged.size(); i++) {
+      ApiTimeSeriesResponse response = merged.get(i);
+      response.setTimeSeries(Lists.newArrayList(series.get(i).values()));
+      response.setWarnings(Lists.newArrayList(warnings.get(i)));
+    }
+    ApiTimeSeriesResponseList list = new ApiTimeSeriesResponseList();
+    list.setResponses(merged);
+    return list;
+  }
+
+  /**
+   * Appends a series of a chunk to the same series of the previous chunks,
+   * skipping the points already there.
+   */
+  private static void append(Map<List<String>, ApiTimeSeries> series,
+                             ApiTimeSeries chunk) {
+    ApiTimeSeriesMetadata metadata = chunk.getMetadata();
+    List<String> key = identity(metadata);
+    ApiTimeSeries merged = series.get(key);
+    if (merged == null) {
+      List<ApiTimeSeriesData> data = Lists.newArrayList();
+      if (chunk.getData() != null) {
+        data.addAll(chunk.getData());
+      }
+      series.put(key, new ApiTimeSeries(metadata, data));
+      return;
+    }
+    if (chunk.getData() != null) {
+      List<ApiTimeSeriesData> data = merged.getData();
+      for (ApiTimeSeriesData point : chunk.getData()) {
+        if (data.isEmpty() || after(point, data.get(data.size() - 1))) {
+          data.add(point);
+        }
+      }
+    }
+    if (metadata != null && merged.getMetadata() != null) {
+      merged.getMetadata().setEndTime(metadata.getEndTime());
+    }
+  }
+
+  /**
+   * @return What identifies a series among those returned by a query.
+   */
+  static List<String> identity(ApiTimeSeriesMetadata metadata) {
+    return metadata == null ? null : Lists.newArrayList(
+        metadata.getMetricName(), metadata.getEntityName(),
+        metadata.getExpression(), metadata.getAlias());
+  }
+
+  private static boolean after(ApiTimeSeriesData point,
+                               ApiTimeSeriesData last) {
+    return point.getTimestamp() == null || last.getTimestamp() == null ||
+        point.getTimestamp().after(last.getTimestamp());
+  }
+}
@@ -0,0 +1,351 @@
+// Licensed to Cloudera, Inc. under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  Cloudera, Inc. licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.api;
+
+import com.cloudera.api.model.ApiTimeSeriesCrossEntityMetadata;
+import com.cloudera.api.model.ApiTimeSeriesMetadata;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads a segment file of time series, as written by {@link
+ * TimeSeriesSegmentWriter}. The file is memory-mapped, and the points of a
+ * series are decoded straight from it, so that scanning a long period costs
+ * no parsing and no copy of the file.
+ * <p>
+ * A segment holds a header (magic number and version) followed by blocks,
+ * each holding one series over a period: its entity and metric names, its
+ * metadata as JSON, the number of points and the times of the first and the
+ * last ones, the table of the point types, the type of each point if there
+ * are several, and the points, compressed (see {@link
+ * TimeSeriesCompression}), optionally followed by the aggregate statistics
+ * of the points which have some. Opening a segment indexes its blocks by entity
+ * and metric; reading a series over a period only decodes the blocks which
+ * overlap it. Blocks appended after the segment was opened are not seen, nor
+ * is an incomplete block at the end of the file.
+ * <p>
+ * Segments are thread-safe.
+ */
+public final class TimeSeriesSegment {
+
+  static final int MAGIC = 0x434d5347;
+  static final int VERSION = 1;
+
+  private static final ObjectMapper MAPPER = new ApiObjectMapper();
+
+  /** Receives the points of a series. */
+  public interface PointVisitor {
+    void visit(long timestamp, double value, String type);
+  }
+
+  private final ByteBuffer buffer;
+  /** Blocks in order. */
+  private final List<Block> blocks = Lists.newArrayList();
+  /** Blocks by entity name, then metric name, in order. */
+  private final Map<String, Map<String, List<Block>>> index =
+      Maps.newLinkedHashMap();
+
+  private TimeSeriesSegment(ByteBuffer buffer) throws IOException {
+    this.buffer = buffer;
+    if (buffer.limit() < 8 || buffer.getInt(0) != MAGIC) {
+      throw new IOException("Not a time series segment.");
+    }
+    if (buffer.getInt(4) != VERSION) {
+      throw new IOException("Unsupported time series segment version " +
+          buffer.getInt(4) + ".");
+    }
+    int position = 8;
+    while (position + 4 <= buffer.limit()) {
+      int length = buffer.getInt(position);
+      if (length <= 0 || length > buffer.limit() - position - 4) {
+        // Being written.
+        break;
+      }
+      Block block = new Block(buffer, position + 4, position + 4 + length);
+      this.blocks.add(block);
+      Map<String, List<Block>> metrics = index.get(block.entityName);
+      if (metrics == null) {
+        metrics = Maps.newLinkedHashMap();
+        index.put(block.entityName, metrics);
+      }
+      List<Block> blocks = metrics.get(block.metricName);
+      if (blocks == null) {
+        blocks = Lists.newArrayList();
+        metrics.put(block.metricName, blocks);
+      }
+      blocks.add(block);
+      position += 4 + length;
+    }
+  }
+
+  /**
+   * Opens a segment file, mapping it in memory.
+   */
+  public static TimeSeriesSegment open(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      return new TimeSeriesSegment(raf.getChannel().map(
+          FileChannel.MapMode.READ_ONLY, 0, raf.length()));
+    } catch (IOException e) {
+      throw new IOException(e.getMessage() + " " + file, e);
+    } finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * Opens a segment held in a buffer, e.g. a region of a mapped file.
+   */
+  static TimeSeriesSegment open(ByteBuffer buffer) throws IOException {
+    return new TimeSeriesSegment(buffer);
+  }
+
+  /** The names of the entities with series in the segment. */
+  public Set<String> getEntityNames() {
+    return Collections.unmodifiableSet(index.keySet());
+  }
+
+  /** The names of the metrics of an entity in the segment. */
+  public Set<String> getMetricNames(String entityName) {
+    Map<String, List<Block>> metrics = index.get(entityName);
+    return metrics == null ? Collections.<String>emptySet() :
+        Collections.unmodifiableSet(metrics.keySet());
+  }
+
+  /**
+   * Visits the points of a series over a period, in time order. Points which
+   * are not after the last one visited, e.g. from an overlapping period
+   * appended twice, are skipped.
+   *
+   * @param entityName The entity of the series.
+   * @param metricName The metric of the series.
+   * @param from The start of the period, inclusive, in milliseconds since
+   *             the epoch.
+   * @param to The end of the period, inclusive.
+   * @param visitor Receives the points.
+   * @return The number of points visited.
+   */
+  public int scan(String entityName, String metricName, final long from,
+                  final long to, final PointVisitor visitor) {
+    List<Block> blocks = blocks(entityName, metricName);
+    final long[] last = { Long.MIN_VALUE };
+    final int[] count = { 0 };
+    for (final Block block : blocks) {
+      if (block.last < from || block.first > to) {
+        continue;
+      }
+      TimeSeriesCompression.decode(
+          new TimeSeriesCompression.BitInput(buffer, block.points),
+          block.size, new TimeSeriesCompression.Decoder() {
+            @Override
+            public boolean point(int index, long timestamp, double value) {
+              if (timestamp > to) {
+                return false;
+              }
+              if (timestamp >= from &&
+                  (count[0] == 0 || timestamp > last[0])) {
+                visitor.visit(timestamp, value, block.type(buffer, index));
+                last[0] = timestamp;
+                count[0]++;
+              }
+              return true;
+            }
+          });
+    }
+    return count[0];
+  }
+
+  /**
+   * Reads a series over a period.
+   *
+   * @return The series, with the metadata of its last block over the period,
+   *         or null if the segment has no point of it over the period.
+   * @see #scan(String, String, long, long, PointVisitor)
+   */
+  public ColumnarTimeSeries read(String entityName, String metricName,
+                                 long from, long to) throws IOException {
+    Block lastBlock = null;
+    int expectedSize = 0;
+    for (Block block : blocks(entityName, metricName)) {
+      if (block.last >= from && block.first <= to) {
+        lastBlock = block;
+        expectedSize += block.size;
+      }
+    }
+    if (lastBlock == null) {
+      return null;
+    }
+    final ColumnarTimeSeries.Builder builder = new ColumnarTimeSeries.Builder(
+        lastBlock.metadata(buffer), expectedSize);
+    int count = scan(entityName, metricName, from, to, new PointVisitor() {
+      @Override
+      public void visit(long timestamp, double value, String type) {
+        builder.add(timestamp, value, type);
+      }
+    });
+    return count == 0 ? null : builder.build();
+  }
+
+  /** The number of blocks in the segment. */
+  int getBlockCount() {
+    return blocks.size();
+  }
+
+  /**
+   * Reads the series of a block, with the statistics of its points if they
+   * were kept (see {@link TimeSeriesSegmentWriter#appendWhole}).
+   */
+  ColumnarTimeSeries readBlock(int index) throws IOException {
+    Block block = blocks.get(index);
+    final long[] timestamps = new long[block.size];
+    final double[] values = new double[block.size];
+    TimeSeriesCompression.decode(
+        new TimeSeriesCompression.BitInput(buffer, block.points),
+        block.size, new TimeSeriesCompression.Decoder() {
+          @Override
+          public boolean point(int i, long timestamp, double value) {
+            timestamps[i] = timestamp;
+            values[i] = value;
+            return true;
+          }
+        });
+
+    int position = block.statistics;
+    int statistics = position < 0 ? 0 : buffer.getInt(position);
+    position += 4;
+    int next = statistics > 0 ? buffer.getInt(position) : -1;
+    ColumnarTimeSeries.Builder builder = new ColumnarTimeSeries.Builder(
+        block.metadata(buffer), block.size);
+    for (int i = 0; i < block.size; i++) {
+      builder.add(timestamps[i], values[i], block.type(buffer, i));
+      if (i != next) {
+        continue;
+      }
+      byte[] crossEntityJson = getBytes(buffer, position + 76);
+      builder.setStatistics(buffer.getLong(position + 4),
+          buffer.getDouble(position + 12), buffer.getLong(position + 20),
+          buffer.getDouble(position + 28), buffer.getLong(position + 36),
+          buffer.getDouble(position + 44), buffer.getLong(position + 52),
+          buffer.getDouble(position + 60), buffer.getDouble(position + 68),
+          crossEntityJson == null ? null : MAPPER.readValue(crossEntityJson,
+              ApiTimeSeriesCrossEntityMetadata.class));
+      position = skip(buffer, position + 76);
+      next = --statistics > 0 ? buffer.getInt(position) : -1;
+    }
+    return builder.build();
+  }
+
+  private List<Block> blocks(String entityName, String metricName) {
+    Map<String, List<Block>> metrics = index.get(entityName);
+    List<Block> blocks = metrics == null ? null : metrics.get(metricName);
+    return blocks == null ? Collections.<Block>emptyList() : blocks;
+  }
+
+  private static byte[] getBytes(ByteBuffer buffer, int position) {
+    int length = buffer.getInt(position);
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++) {
+      bytes[i] = buffer.get(position + 4 + i);
+    }
+    return bytes;
+  }
+
+  private static String getString(ByteBuffer buffer, int position) {
+    byte[] bytes = getBytes(buffer, position);
+    return bytes == null ? null : new String(bytes, Charsets.UTF_8);
+  }
+
+  /** Skips a string or bytes. */
+  private static int skip(ByteBuffer buffer, int position) {
+    return position + 4 + Math.max(buffer.getInt(position), 0);
+  }
+
+  /**
+   * The header of a block, with the positions of its parts in the segment.
+   */
+  private static final class Block {
+    final String entityName;
+    final String metricName;
+    final int metadata;
+    final int size;
+    final long first;
+    final long last;
+    final String[] types;
+    /** The position of the type of each point, or -1 if of a single type. */
+    final int typeIndices;
+    final int points;
+    /** The position of the statistics of the points, or -1 if none. */
+    final int statistics;
+
+    Block(ByteBuffer buffer, int position, int end) {
+      entityName = getString(buffer, position);
+      position = skip(buffer, position);
+      metricName = getString(buffer, position);
+      position = skip(buffer, position);
+      metadata = position;
+      position = skip(buffer, position);
+      size = buffer.getInt(position);
+      first = buffer.getLong(position + 4);
+      last = buffer.getLong(position + 12);
+      position += 20;
+      types = new String[buffer.getInt(position)];
+      position += 4;
+      for (int i = 0; i < types.length; i++) {
+        types[i] = getString(buffer, position);
+        position = skip(buffer, position);
+      }
+      if (types.length > 1) {
+        typeIndices = position;
+        position += size;
+      } else {
+        typeIndices = -1;
+      }
+      // Skip the length of the points.
+      points = position + 4;
+      position = points + buffer.getInt(position);
+      statistics = position < end ? position : -1;
+    }
+
+    String type(ByteBuffer buffer, int index) {
+      if (typeIndices < 0) {
+        return types.length == 0 ? null : types[0];
+      }
+      return types[buffer.get(typeIndices + index) & 0xff];
+    }
+
+    ApiTimeSeriesMetadata metadata(ByteBuffer buffer) throws IOException {
+      byte[] json = getBytes(buffer, metadata);
+      return json == null ? null :
+          MAPPER.readValue(json, ApiTimeSeriesMetadata.class);
+    }
+  }
+}
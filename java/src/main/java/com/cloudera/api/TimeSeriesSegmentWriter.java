@@ -0,0 +1,387 @@
+// Licensed to Cloudera, Inc. under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  Cloudera, Inc. licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.api;
+
+import com.cloudera.api.model.ApiTimeSeries;
+import com.cloudera.api.model.ApiTimeSeriesResponse;
+import com.cloudera.api.model.ApiTimeSeriesResponseList;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.zip.Checksum;
+
+/**
+ * Appends time series to a segment file, in the format read by {@link
+ * TimeSeriesSegment}. Each series appended is written as one block, with its
+ * points compressed; series without points are skipped. A block is written
+ * with a single write, and is only visible to readers once whole. Should the
+ * process die in the middle of a write, what was written of the block is
+ * truncated when the segment is next opened for appending, so that the
+ * blocks appended then remain readable.
+ * <p>
+ * {@link TimeSeriesCache} saves its periods as a segment too, with the
+ * statistics of the points, through {@link #appendWhole(ColumnarTimeSeries)}.
+ * <p>
+ * The blocks of a series are expected to be appended in time order, e.g. by
+ * archiving the results of successive queries. Writers are not thread-safe.
+ */
+public class TimeSeriesSegmentWriter implements Closeable {
+
+  private static final Logger LOG =
+      Logger.getLogger(TimeSeriesSegmentWriter.class.getName());
+
+  private static final ObjectMapper MAPPER = new ApiObjectMapper();
+
+  private final FileChannel channel;
+  private final Checksum checksum;
+  private final TimeSeriesCompression.BitOutput bits =
+      new TimeSeriesCompression.BitOutput();
+  private ByteBuffer buffer = ByteBuffer.allocate(4096);
+
+  /**
+   * Opens a segment file for appending, creating it if needed.
+   */
+  public TimeSeriesSegmentWriter(File file) throws IOException {
+    this(file, null);
+  }
+
+  /**
+   * @param checksum If not null, updated with the bytes this writer writes.
+   */
+  TimeSeriesSegmentWriter(File file, Checksum checksum) throws IOException {
+    this.checksum = checksum;
+    this.channel = new RandomAccessFile(file, "rw").getChannel();
+    try {
+      open(file);
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Checks the header of the segment, or writes it if the segment is new,
+   * and positions the channel after the last complete block.
+   */
+  private void open(File file) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(8);
+    header.putInt(TimeSeriesSegment.MAGIC);
+    header.putInt(TimeSeriesSegment.VERSION);
+    header.flip();
+    long size = channel.size();
+    if (size < header.limit()) {
+      // New, or torn while its header was written.
+      ByteBuffer start = ByteBuffer.allocate((int) size);
+      read(start, 0);
+      start.flip();
+      header.limit((int) size);
+      if (!start.equals(header)) {
+        throw new IOException("Not a time series segment. " + file);
+      }
+      header.limit(header.capacity());
+      channel.truncate(0);
+      write(header);
+      return;
+    }
+    ByteBuffer start = ByteBuffer.allocate(8);
+    read(start, 0);
+    if (start.getInt(0) != TimeSeriesSegment.MAGIC) {
+      throw new IOException("Not a time series segment. " + file);
+    }
+    if (start.getInt(4) != TimeSeriesSegment.VERSION) {
+      throw new IOException("Unsupported time series segment version " +
+          start.getInt(4) + ". " + file);
+    }
+
+    // Same walk as the index of TimeSeriesSegment.
+    long end = 8;
+    ByteBuffer length = ByteBuffer.allocate(4);
+    while (end + 4 <= size) {
+      length.clear();
+      read(length, end);
+      int blockLength = length.getInt(0);
+      if (blockLength <= 0 || blockLength > size - end - 4) {
+        break;
+      }
+      end += 4 + blockLength;
+    }
+    if (end < size) {
+      LOG.warning("Truncating an incomplete block of " + (size - end) +
+          " bytes at the end of " + file);
+      channel.truncate(end);
+    }
+    channel.position(end);
+  }
+
+  /**
+   * Appends the series of the responses to a query.
+   */
+  public void append(ApiTimeSeriesResponseList responses) throws IOException {
+    if (responses.getResponses() == null) {
+      return;
+    }
+    for (ApiTimeSeriesResponse response :
+         responses.getResponses()) {
+      if (response.getTimeSeries() != null) {
+        for (ApiTimeSeries series : response.getTimeSeries()) {
+          append(ColumnarTimeSeries.of(series));
+        }
+      }
+    }
+  }
+
+  /**
+   * Appends the series of the responses to a query, as decoded by {@link
+   * ColumnarTimeSeriesResponse#read(javax.ws.rs.core.Response)}.
+   */
+  public void append(List<ColumnarTimeSeriesResponse> responses)
+      throws IOException {
+    for (ColumnarTimeSeriesResponse response : responses) {
+      if (response.getTimeSeries() != null) {
+        for (ColumnarTimeSeries series : response.getTimeSeries()) {
+          append(series);
+        }
+      }
+    }
+  }
+
+  /**
+   * Appends a series. Only the metadata and points are kept; the aggregate
+   * statistics of the points are not.
+   */
+  public void append(ColumnarTimeSeries series) throws IOException {
+    if (series.size() > 0) {
+      append(series, false);
+    }
+  }
+
+  /**
+   * Appends a series with the aggregate statistics of its points, even if it
+   * has no points, so that {@link TimeSeriesSegment#readBlock(int)} reads it
+   * back as is.
+   */
+  void appendWhole(ColumnarTimeSeries series) throws IOException {
+    append(series, true);
+  }
+
+  private void append(ColumnarTimeSeries series, boolean whole)
+      throws IOException {
+    int size = series.size();
+    List<String> typeTable = Lists.newArrayList();
+    Map<String, Integer> typeIndices = Maps.newHashMap();
+    byte[] types = new byte[size];
+    for (int i = 0; i < size; i++) {
+      String type = series.getType(i);
+      Integer index = typeIndices.get(type);
+      if (index == null) {
+        Preconditions.checkArgument(typeTable.size() < 256,
+            "Too many point types.");
+        index = typeTable.size();
+        typeTable.add(type);
+        typeIndices.put(type, index);
+      }
+      types[i] = (byte) (int) index;
+    }
+    bits.reset();
+    TimeSeriesCompression.encode(series.getTimestamps(), series.getValues(),
+        size, bits);
+
+    EncodedMetadata names = new EncodedMetadata(series);
+    EncodedStatistics statistics = whole ? new EncodedStatistics(series) : null;
+    int length = names.length() + 4 + 8 + 8 + 4 +
+        (typeTable.size() > 1 ? size : 0) + 4 + bits.length() +
+        (statistics != null ? statistics.length() : 0);
+    for (String type : typeTable) {
+      length += stringLength(type);
+    }
+    ensureCapacity(4 + length);
+    buffer.clear();
+    buffer.putInt(length);
+    names.put(buffer);
+    buffer.putInt(size);
+    // An empty series covers no period.
+    buffer.putLong(size > 0 ? series.getTimestamp(0) : Long.MAX_VALUE);
+    buffer.putLong(size > 0 ? series.getTimestamp(size - 1) : Long.MIN_VALUE);
+    buffer.putInt(typeTable.size());
+    for (String type : typeTable) {
+      putString(buffer, type);
+    }
+    if (typeTable.size() > 1) {
+      buffer.put(types);
+    }
+    buffer.putInt(bits.length());
+    buffer.put(bits.bytes(), 0, bits.length());
+    if (statistics != null) {
+      statistics.put(buffer);
+    }
+    buffer.flip();
+    write(buffer);
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (buffer.capacity() < capacity) {
+      buffer = ByteBuffer.allocate(Math.max(capacity, buffer.capacity() * 2));
+    }
+  }
+
+  private void read(ByteBuffer target, long position) throws IOException {
+    while (target.hasRemaining()) {
+      if (channel.read(target, position + target.position()) < 0) {
+        throw new EOFException();
+      }
+    }
+  }
+
+  private void write(ByteBuffer source) throws IOException {
+    if (checksum != null) {
+      checksum.update(source.array(), source.arrayOffset() + source.position(),
+          source.remaining());
+    }
+    while (source.hasRemaining()) {
+      channel.write(source);
+    }
+  }
+
+  /**
+   * Forces the blocks appended so far to disk.
+   */
+  public void flush() throws IOException {
+    channel.force(false);
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  private static byte[] bytes(String value) {
+    return value == null ? null : value.getBytes(Charsets.UTF_8);
+  }
+
+  private static int stringLength(String value) {
+    return 4 + (value == null ? 0 : bytes(value).length);
+  }
+
+  private static void putBytes(ByteBuffer out, byte[] bytes) {
+    if (bytes == null) {
+      out.putInt(-1);
+    } else {
+      out.putInt(bytes.length);
+      out.put(bytes);
+    }
+  }
+
+  private static void putString(ByteBuffer out, String value) {
+    putBytes(out, bytes(value));
+  }
+
+  /**
+   * The index fields and metadata of a series, encoded.
+   */
+  private static final class EncodedMetadata {
+    private final byte[] entityName;
+    private final byte[] metricName;
+    private final byte[] metadata;
+
+    EncodedMetadata(ColumnarTimeSeries series) throws IOException {
+      if (series.getMetadata() == null) {
+        entityName = null;
+        metricName = null;
+        metadata = null;
+      } else {
+        entityName = bytes(series.getMetadata().getEntityName());
+        metricName = bytes(series.getMetadata().getMetricName());
+        metadata = MAPPER.writeValueAsBytes(series.getMetadata());
+      }
+    }
+
+    int length() {
+      return 12 + size(entityName) + size(metricName) + size(metadata);
+    }
+
+    private static int size(byte[] bytes) {
+      return bytes == null ? 0 : bytes.length;
+    }
+
+    void put(ByteBuffer out) {
+      putBytes(out, entityName);
+      putBytes(out, metricName);
+      putBytes(out, metadata);
+    }
+  }
+
+  /**
+   * The aggregate statistics of the points of a series which have some,
+   * encoded.
+   */
+  private static final class EncodedStatistics {
+    private final ColumnarTimeSeries series;
+    private final List<Integer> indices = Lists.newArrayList();
+    private final List<byte[]> crossEntityMetadata = Lists.newArrayList();
+
+    EncodedStatistics(ColumnarTimeSeries series) throws IOException {
+      this.series = series;
+      for (int i = 0; i < series.size(); i++) {
+        if (series.hasAggregateStatistics(i)) {
+          indices.add(i);
+          crossEntityMetadata.add(series.getCrossEntityMetadata()[i] == null ?
+              null : MAPPER.writeValueAsBytes(
+                  series.getCrossEntityMetadata()[i]));
+        }
+      }
+    }
+
+    int length() {
+      int length = 4 + indices.size() * (4 + 9 * 8 + 4);
+      for (byte[] bytes : crossEntityMetadata) {
+        length += bytes == null ? 0 : bytes.length;
+      }
+      return length;
+    }
+
+    void put(ByteBuffer out) {
+      out.putInt(indices.size());
+      for (int j = 0; j < indices.size(); j++) {
+        int i = indices.get(j);
+        out.putInt(i);
+        out.putLong(series.getSampleTimes()[i]);
+        out.putDouble(series.getSampleValues()[i]);
+        out.putLong(series.getCounts()[i]);
+        out.putDouble(series.getMins()[i]);
+        out.putLong(series.getMinTimes()[i]);
+        out.putDouble(series.getMaxs()[i]);
+        out.putLong(series.getMaxTimes()[i]);
+        out.putDouble(series.getMeans()[i]);
+        out.putDouble(series.getStdDevs()[i]);
+        putBytes(out, crossEntityMetadata.get(j));
+      }
+    }
+  }
+}
@@ -0,0 +1,412 @@
+// Licensed to Cloudera, Inc. under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  Cloudera, Inc. licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.api;
+
+import com.cloudera.api.model.ApiTimeSeries;
+import com.cloudera.api.model.ApiTimeSeriesData;
+import com.cloudera.api.model.ApiTimeSeriesMetadata;
+import com.cloudera.api.model.ApiTimeSeriesRequest;
+import com.cloudera.api.model.ApiTimeSeriesResponse;
+import com.cloudera.api.model.ApiTimeSeriesResponseList;
+import com.cloudera.api.v11.TimeSeriesResourceV11;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.ws.rs.core.MediaType;
+
+/**
+ * Follows time series as their points come in, pushing the new points to
+ * listeners.
+ * <p>
+ * Each subscription remembers the time of the last point it saw of each of
+ * its series, and is polled for newer points only. It is polled at the
+ * collection frequency of its metrics (see {@link
+ * ApiTimeSeriesMetadata#getMetricCollectionFrequencyMs()}), within bounds,
+ * and half as often each time a poll brings nothing new.
+ * <p>
+ * Polls run on the scheduler, one at a time. The subscriptions due together
+ * are polled with a single request (see {@link TimeSeriesBatcher}) from the
+ * oldest point they need, so that a single thread follows thousands of
+ * subscriptions. Subscriptions due within a second of each other are polled
+ * together. Series without points over the longest period a poll goes back,
+ * i.e. the initial window or twice the maximum interval, are considered
+ * stopped, and do not hold the polls back.
+ */
+public class TimeSeriesTailer {
+
+  /** Receives the new points of a subscription. */
+  public interface Listener {
+    /**
+     * Receives the new points of the series of a subscription, in time
+     * order; series without new points are left out.
+     */
+    void onData(Subscription subscription, List<ApiTimeSeries> timeSeries);
+
+    /**
+     * Receives the failure of a poll. The subscription is polled again at
+     * its usual interval.
+     */
+    void onError(Subscription subscription, Throwable error);
+  }
+
+  private final TimeSeriesBatcher batcher;
+  private final ScheduledExecutorService scheduler;
+  private final AtomicLong ids = new AtomicLong();
+  private volatile long initialWindowMillis = TimeUnit.MINUTES.toMillis(5);
+  private volatile long minIntervalMillis = TimeUnit.SECONDS.toMillis(1);
+  private volatile long maxIntervalMillis = TimeUnit.MINUTES.toMillis(5);
+  private volatile long coalesceMillis = TimeUnit.SECONDS.toMillis(1);
+
+  /** Subscriptions waiting for their next poll, earliest first. */
+  private final PriorityQueue<Subscription> queue =
+      new PriorityQueue<Subscription>();
+  private ScheduledFuture<?> tick;
+  private long tickTime;
+
+  /**
+   * @param resource The resource running the queries.
+   * @param mapper Reads the results, e.g. the mapper the client of the
+   *               resource was built with.
+   * @param scheduler Runs the polls.
+   */
+  public TimeSeriesTailer(TimeSeriesResourceV11 resource, ObjectMapper mapper,
+                          ScheduledExecutorService scheduler) {
+    this.scheduler = Preconditions.checkNotNull(scheduler);
+    this.batcher = new TimeSeriesBatcher(resource, mapper, scheduler);
+  }
+
+  /**
+   * Sets how far back the first poll of a subscription goes. Defaults to 5
+   * minutes.
+   *
+   * @return This tailer.
+   */
+  public TimeSeriesTailer setInitialWindow(long duration, TimeUnit unit) {
+    Preconditions.checkArgument(duration >= 0,
+        "Initial window should not be negative.");
+    this.initialWindowMillis = unit.toMillis(duration);
+    return this;
+  }
+
+  /**
+   * Sets the bounds of the interval between the polls of a subscription.
+   * Defaults to 1 second and 5 minutes. Polls are coalesced within the
+   * minimum interval, up to a second.
+   *
+   * @return This tailer.
+   */
+  public TimeSeriesTailer setIntervalBounds(long min, long max,
+                                            TimeUnit unit) {
+    Preconditions.checkArgument(min > 0,
+        "Min interval should be greater than 0.");
+    Preconditions.checkArgument(max >= min,
+        "Max interval should not be less than the min interval.");
+    this.minIntervalMillis = unit.toMillis(min);
+    this.maxIntervalMillis = unit.toMillis(max);
+    this.coalesceMillis = Math.min(minIntervalMillis,
+        TimeUnit.SECONDS.toMillis(1));
+    return this;
+  }
+
+  /**
+   * Follows the series of a query, polling them right away.
+   *
+   * @param query The tsquery.
+   * @param listener Receives the new points.
+   * @return The subscription, to cancel.
+   */
+  public Subscription subscribe(String query, Listener listener) {
+    long now = System.currentTimeMillis();
+    Subscription subscription = new Subscription(ids.incrementAndGet(),
+        Preconditions.checkNotNull(query),
+        Preconditions.checkNotNull(listener), now - initialWindowMillis);
+    subscription.nextPoll = now;
+    subscription.interval = Math.min(Math.max(TimeUnit.SECONDS.toMillis(10),
+        minIntervalMillis), maxIntervalMillis);
+    synchronized (queue) {
+      queue.add(subscription);
+      schedule();
+    }
+    return subscription;
+  }
+
+  /**
+   * Schedules the next tick for the earliest subscription, unless one is
+   * scheduled for then or earlier. Called with the queue locked.
+   */
+  private void schedule() {
+    Subscription first = queue.peek();
+    if (first == null) {
+      return;
+    }
+    if (tick != null) {
+      if (tickTime <= first.nextPoll) {
+        return;
+      }
+      tick.cancel(false);
+    }
+    tickTime = first.nextPoll;
+    tick = scheduler.schedule(new Runnable() {
+      @Override
+      public void run() {
+        tick();
+      }
+    }, Math.max(0, tickTime - System.currentTimeMillis()),
+        TimeUnit.MILLISECONDS);
+  }
+
+  private void tick() {
+    long now = System.currentTimeMillis();
+    List<Subscription> due = Lists.newArrayList();
+    synchronized (queue) {
+      tick = null;
+      while (!queue.isEmpty() &&
+             queue.peek().nextPoll <= now + coalesceMillis) {
+        due.add(queue.poll());
+      }
+    }
+    try {
+      if (!due.isEmpty()) {
+        poll(due, now);
+      }
+    } finally {
+      synchronized (queue) {
+        for (Subscription subscription : due) {
+          if (!subscription.cancelled) {
+            queue.add(subscription);
+          }
+        }
+        schedule();
+      }
+    }
+  }
+
+  /**
+   * Polls subscriptions together, from the oldest point they need.
+   */
+  private void poll(List<Subscription> due, long now) {
+    long oldest = now - Math.max(initialWindowMillis, 2 * maxIntervalMillis);
+    long from = now;
+    for (Subscription subscription : due) {
+      from = Math.min(from, subscription.since(oldest));
+    }
+    // A listener too slow should not make the queried period grow forever.
+    from = Math.max(from, oldest);
+    String fromDate = ApiUtils.printDate(new Date(from));
+    String toDate = ApiUtils.printDate(new Date(now));
+    List<ApiTimeSeriesRequest> requests = Lists.newArrayList();
+    for (Subscription subscription : due) {
+      requests.add(new ApiTimeSeriesRequest(subscription.query, fromDate,
+          toDate, MediaType.APPLICATION_JSON, Parameters.ROLLUP_DEFAULT,
+          false));
+    }
+    List<ListenableFuture<ApiTimeSeriesResponseList>> results;
+    try {
+      results = batcher.sendAll(requests);
+    } catch (RuntimeException e) {
+      for (Subscription subscription : due) {
+        subscription.failed(e, now);
+      }
+      return;
+    }
+    for (int i = 0; i < due.size(); i++) {
+      Subscription subscription = due.get(i);
+      ApiTimeSeriesResponseList result;
+      try {
+        result = results.get(i).get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      } catch (ExecutionException e) {
+        subscription.failed(e.getCause(), now);
+        continue;
+      }
+      if (!subscription.cancelled) {
+        try {
+          subscription.update(result, now);
+        } catch (RuntimeException e) {
+          subscription.failed(e, now);
+        }
+      }
+    }
+  }
+
+  /**
+   * A query being followed.
+   */
+  public final class Subscription implements Comparable<Subscription> {
+    private final long id;
+    private final String query;
+    private final Listener listener;
+    /** Time of the oldest points of series not seen yet. */
+    private final long start;
+    /** Time of the last point of each series. */
+    private final Map<List<String>, Long> lastTimes = Maps.newHashMap();
+    /** Time up to which the last successful poll went. */
+    private long polled;
+    private volatile boolean cancelled;
+    private long nextPoll;
+    private long interval;
+
+    private Subscription(long id, String query, Listener listener,
+                         long start) {
+      this.id = id;
+      this.query = query;
+      this.listener = listener;
+      this.start = start;
+    }
+
+    public String getQuery() {
+      return query;
+    }
+
+    /**
+     * @return The interval until the next poll, in milliseconds.
+     */
+    public long getInterval() {
+      synchronized (queue) {
+        return interval;
+      }
+    }
+
+    /**
+     * Stops following the query. The listener may still receive the result
+     * of a poll under way.
+     */
+    public void cancel() {
+      cancelled = true;
+      synchronized (queue) {
+        queue.remove(this);
+      }
+    }
+
+    /**
+     * @param stopped The time before which series are considered stopped.
+     * @return The time after which points are new to the series of the
+     *         subscription which did not stop, or the time of the last poll
+     *         if they all did.
+     */
+    private long since(long stopped) {
+      if (lastTimes.isEmpty()) {
+        return start;
+      }
+      long since = polled;
+      for (long time : lastTimes.values()) {
+        if (time >= stopped) {
+          since = Math.min(since, time);
+        }
+      }
+      return since;
+    }
+
+    private void update(ApiTimeSeriesResponseList result, long now) {
+      List<ApiTimeSeries> delta = Lists.newArrayList();
+      long frequency = Long.MAX_VALUE;
+      if (result.getResponses() != null) {
+        for (ApiTimeSeriesResponse response : result.getResponses()) {
+          if (response.getTimeSeries() == null) {
+            continue;
+          }
+          for (ApiTimeSeries series : response.getTimeSeries()) {
+            ApiTimeSeriesMetadata metadata = series.getMetadata();
+            if (metadata != null &&
+                metadata.getMetricCollectionFrequencyMs() != null &&
+                metadata.getMetricCollectionFrequencyMs() > 0) {
+              frequency = Math.min(frequency,
+                  metadata.getMetricCollectionFrequencyMs());
+            }
+            ApiTimeSeries newPoints = newPoints(series);
+            if (newPoints != null) {
+              delta.add(newPoints);
+            }
+          }
+        }
+      }
+
+      polled = now;
+      long next;
+      if (!delta.isEmpty()) {
+        next = frequency != Long.MAX_VALUE ? frequency : interval;
+      } else {
+        next = interval * 2;
+      }
+      synchronized (queue) {
+        interval = Math.min(Math.max(next, minIntervalMillis),
+            maxIntervalMillis);
+        nextPoll = now + interval;
+      }
+      if (!delta.isEmpty()) {
+        listener.onData(this, delta);
+      }
+    }
+
+    /**
+     * @return The points of a series newer than the last one seen, or null
+     *         if there are none.
+     */
+    private ApiTimeSeries newPoints(ApiTimeSeries series) {
+      List<String> key = TimeSeriesQueryPlanner.identity(series.getMetadata());
+      Long lastTime = lastTimes.get(key);
+      long after = lastTime != null ? lastTime : start - 1;
+      List<ApiTimeSeriesData> data = Lists.newArrayList();
+      if (series.getData() != null) {
+        for (ApiTimeSeriesData point : series.getData()) {
+          if (point.getTimestamp() != null &&
+              point.getTimestamp().getTime() > after) {
+            data.add(point);
+            after = point.getTimestamp().getTime();
+          }
+        }
+      }
+      if (data.isEmpty()) {
+        return null;
+      }
+      lastTimes.put(key, after);
+      return new ApiTimeSeries(series.getMetadata(), data);
+    }
+
+    private void failed(Throwable error, long now) {
+      synchronized (queue) {
+        nextPoll = now + interval;
+      }
+      if (!cancelled) {
+        listener.onError(this, error);
+      }
+    }
+
+    @Override
+    public int compareTo(Subscription other) {
+      if (nextPoll != other.nextPoll) {
+        return nextPoll < other.nextPoll ? -1 : 1;
+      }
+      return id < other.id ? -1 : id == other.id ? 0 : 1;
+    }
+  }
+}
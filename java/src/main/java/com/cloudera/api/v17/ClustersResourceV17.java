@@ -0,0 +1,75 @@
+// Licensed to Cloudera, Inc. under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  Cloudera, Inc. licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.api.v17;
+
+import static com.cloudera.api.Parameters.*;
+
+import com.cloudera.api.DataView;
+import com.cloudera.api.model.ApiCluster;
+import com.cloudera.api.model.ApiClusterList;
+import com.cloudera.api.v16.ClustersResourceV16;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+
+@Consumes({ MediaType.APPLICATION_JSON })
+@Produces({ MediaType.APPLICATION_JSON })
+public interface ClustersResourceV17 extends ClustersResourceV16 {
+
+  /**
+   * Lists all known clusters, with only the requested properties.
+   *
+   * @param dataView The view to materialize.
+   * @param fields Comma-separated names of the properties to return, e.g.
+   *               "name,displayName,entityStatus". All the properties of the
+   *               view are returned when not given.
+   * @return List of known clusters.
+   */
+  @GET
+  @Path("/")
+  public ApiClusterList readClusters(
+      @DefaultValue(DATA_VIEW_DEFAULT) @QueryParam(DATA_VIEW) DataView dataView,
+      @QueryParam(FIELDS) String fields);
+
+  /**
+   * Reads information about a cluster, with only the requested properties.
+   *
+   * @param clusterName Name of cluster to look up.
+   * @param fields Comma-separated names of the properties to return. All
+   *               the properties are returned when not given.
+   * @return Details of requested cluster.
+   */
+  @GET
+  @Path("/{clusterName}")
+  public ApiCluster readCluster(
+      @PathParam(CLUSTER_NAME) String clusterName,
+      @QueryParam(FIELDS) String fields);
+
+  /**
+   * @return The services resource handler.
+   */
+  @Override
+  @Path("/{clusterName}/services")
+  public ServicesResourceV17 getServicesResource(
+      @PathParam(CLUSTER_NAME) String clusterName);
+}
@@ -0,0 +1,75 @@
+// Licensed to Cloudera, Inc. under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  Cloudera, Inc. licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.api.v17;
+
+import static com.cloudera.api.Parameters.*;
+
+import com.cloudera.api.DataView;
+import com.cloudera.api.model.ApiHost;
+import com.cloudera.api.model.ApiHostList;
+import com.cloudera.api.v11.HostsResourceV11;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+
+@Consumes({ MediaType.APPLICATION_JSON })
+@Produces({ MediaType.APPLICATION_JSON })
+public interface HostsResourceV17 extends HostsResourceV11 {
+
+  /**
+   * Returns the hosts in the system, with only the requested properties.
+   * <p>
+   * Servers supporting <i>fields</i> only serialize the requested
+   * properties, which makes for much smaller responses than the full view
+   * when a few of them are needed, e.g.
+   * "hostId,hostname,healthSummary,lastHeartbeat". The client only reads
+   * them in any case.
+   *
+   * @param dataView The view to materialize.
+   * @param fields Comma-separated names of the properties to return. All
+   *               the properties of the view are returned when not given.
+   * @return A list of hosts.
+   */
+  @GET
+  @Path("/")
+  public ApiHostList readHosts(
+      @DefaultValue(DATA_VIEW_DEFAULT) @QueryParam(DATA_VIEW) DataView dataView,
+      @QueryParam(FIELDS) String fields);
+
+  /**
+   * Returns a specific Host in the system, with only the requested
+   * properties.
+   *
+   * @param hostId The ID of the host to read.
+   * @param dataView The view to materialize. Defaults to 'full'.
+   * @param fields Comma-separated names of the properties to return. All
+   *               the properties of the view are returned when not given.
+   * @return The Host object with the specified hostId.
+   */
+  @GET
+  @Path("/{hostId}")
+  public ApiHost readHost(
+      @PathParam(HOST_ID) String hostId,
+      @DefaultValue(DATA_VIEW_FULL) @QueryParam(DATA_VIEW) DataView dataView,
+      @QueryParam(FIELDS) String fields);
+}
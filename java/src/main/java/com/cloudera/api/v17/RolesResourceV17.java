@@ -0,0 +1,73 @@
+// Licensed to Cloudera, Inc. under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  Cloudera, Inc. licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.api.v17;
+
+import static com.cloudera.api.Parameters.*;
+
+import com.cloudera.api.DataView;
+import com.cloudera.api.model.ApiRole;
+import com.cloudera.api.model.ApiRoleList;
+import com.cloudera.api.v11.RolesResourceV11;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+
+@Consumes({ MediaType.APPLICATION_JSON })
+@Produces({ MediaType.APPLICATION_JSON })
+public interface RolesResourceV17 extends RolesResourceV11 {
+
+  /**
+   * Lists all roles of a given service, with only the requested properties.
+   *
+   * @param filter Filter to apply to the roles, as in
+   *               {@link com.cloudera.api.v6.RolesResourceV6#readRoles(String)}.
+   * @param dataView The view to materialize.
+   * @param fields Comma-separated names of the properties to return, e.g.
+   *               "name,type,hostRef,roleState". All the properties of the
+   *               view are returned when not given.
+   * @return List of roles.
+   */
+  @GET
+  @Path("/")
+  public ApiRoleList readRoles(
+      @DefaultValue(FILTER_DEFAULT) @QueryParam(FILTER) String filter,
+      @DefaultValue(DATA_VIEW_DEFAULT) @QueryParam(DATA_VIEW) DataView dataView,
+      @QueryParam(FIELDS) String fields);
+
+  /**
+   * Retrieves detailed information about a role, with only the requested
+   * properties.
+   *
+   * @param roleName The role name.
+   * @param dataView The view to materialize. Defaults to 'full'.
+   * @param fields Comma-separated names of the properties to return. All
+   *               the properties of the view are returned when not given.
+   * @return The details of the role.
+   */
+  @GET
+  @Path("/{roleName}")
+  public ApiRole readRole(
+      @PathParam(ROLE_NAME) String roleName,
+      @DefaultValue(DATA_VIEW_FULL) @QueryParam(DATA_VIEW) DataView dataView,
+      @QueryParam(FIELDS) String fields);
+}
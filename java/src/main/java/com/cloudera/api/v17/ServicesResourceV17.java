@@ -0,0 +1,79 @@
+// Licensed to Cloudera, Inc. under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  Cloudera, Inc. licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.api.v17;
+
+import static com.cloudera.api.Parameters.*;
+
+import com.cloudera.api.DataView;
+import com.cloudera.api.model.ApiService;
+import com.cloudera.api.model.ApiServiceList;
+import com.cloudera.api.v16.ServicesResourceV16;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+
+@Consumes({ MediaType.APPLICATION_JSON })
+@Produces({ MediaType.APPLICATION_JSON })
+public interface ServicesResourceV17 extends ServicesResourceV16 {
+
+  /**
+   * @return The roles resource handler.
+   */
+  @Override
+  @Path("/{serviceName}/roles")
+  public RolesResourceV17 getRolesResource(
+      @PathParam(SERVICE_NAME) String serviceName);
+
+  /**
+   * Lists all services registered in the cluster, with only the requested
+   * properties.
+   *
+   * @param dataView The view to materialize.
+   * @param fields Comma-separated names of the properties to return, e.g.
+   *               "name,type,serviceState,healthSummary". All the properties
+   *               of the view are returned when not given.
+   * @return List of services.
+   */
+  @GET
+  @Path("/")
+  public ApiServiceList readServices(
+      @DefaultValue(DATA_VIEW_DEFAULT) @QueryParam(DATA_VIEW) DataView dataView,
+      @QueryParam(FIELDS) String fields);
+
+  /**
+   * Retrieves details information about a service, with only the requested
+   * properties.
+   *
+   * @param serviceName The service name.
+   * @param dataView DataView to materialize. Defaults to 'full'.
+   * @param fields Comma-separated names of the properties to return. All
+   *               the properties of the view are returned when not given.
+   * @return The details of the service.
+   */
+  @GET
+  @Path("/{serviceName}")
+  public ApiService readService(
+      @PathParam(SERVICE_NAME) String serviceName,
+      @DefaultValue(DATA_VIEW_FULL) @QueryParam(DATA_VIEW) DataView dataView,
+      @QueryParam(FIELDS) String fields);
+}
@@ -0,0 +1,143 @@
+// Licensed to Cloudera, Inc. under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  Cloudera, Inc. licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.api;
+
+import com.cloudera.api.model.ApiEvent;
+import com.cloudera.api.model.ApiEventQueryResult;
+import com.cloudera.api.model.ApiHost;
+import com.cloudera.api.model.ApiHostList;
+import com.cloudera.api.v1.EventsResource;
+import com.google.common.base.Supplier;
+import com.google.common.collect.Lists;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class ApiListStreamingTest {
+
+  private static final ApiObjectMapper MAPPER = new ApiObjectMapper();
+
+  private volatile byte[] body;
+
+  @Rule
+  public final TestApiServer server = new TestApiServer(new HttpHandler() {
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      exchange.getResponseHeaders().add("Content-Type", "application/json");
+      exchange.getResponseHeaders().add("ETag", "\"1\"");
+      exchange.sendResponseHeaders(200, body.length);
+      exchange.getResponseBody().write(body);
+      exchange.close();
+    }
+  });
+
+  private static ApiEventQueryResult newEvents(int size) {
+    List<ApiEvent> events = Lists.newArrayList();
+    for (int i = 0; i < size; i++) {
+      ApiEvent event = new ApiEvent();
+      event.setId("event" + i);
+      event.setTimeOccurred(new Date(i));
+      events.add(event);
+    }
+    return new ApiEventQueryResult(1000, events);
+  }
+
+  @Test
+  public void testIterator() throws IOException {
+    ApiEventQueryResult events = newEvents(10);
+    ApiListIterator<ApiEvent> it = new ApiListIterator<ApiEvent>(MAPPER,
+        new ByteArrayInputStream(MAPPER.writeValueAsBytes(events)),
+        ApiEvent.class);
+    List<ApiEvent> read = Lists.newArrayList(it);
+    assertEquals(events.getEvents(), read);
+    ApiEventQueryResult envelope = it.getEnvelope(ApiEventQueryResult.class);
+    assertEquals(1000, envelope.getTotalResults());
+    assertEquals(0, envelope.size());
+
+    // Items are not always the first property.
+    it = new ApiListIterator<ApiEvent>(MAPPER, new ByteArrayInputStream(
+        "{\"items\":[{\"id\":\"a\"}],\"totalResults\":5}".getBytes("UTF-8")),
+        ApiEvent.class);
+    assertEquals("a", it.next().getId());
+    assertFalse(it.hasNext());
+    assertEquals(5,
+        it.getEnvelope(ApiEventQueryResult.class).getTotalResults());
+
+    it = new ApiListIterator<ApiEvent>(MAPPER, new ByteArrayInputStream(
+        "{\"totalResults\":0}".getBytes("UTF-8")), ApiEvent.class);
+    assertFalse(it.hasNext());
+  }
+
+  @Test
+  public void testForEach() throws IOException {
+    ApiEventQueryResult events = newEvents(100);
+    body = MAPPER.writeValueAsBytes(events);
+    final EventsResource resource = server.newClientBuilder()
+        .enableResponseCache(1024 * 1024, 1, TimeUnit.HOURS)
+        .build()
+        .getRootV16()
+        .getEventsResource();
+
+    // Streamed calls are not cached, and normal calls are unaffected.
+    for (int i = 0; i < 2; i++) {
+      final List<ApiEvent> read = Lists.newArrayList();
+      ApiEventQueryResult result = ApiListStreaming.forEach(ApiEvent.class,
+          new ApiListStreaming.ItemHandler<ApiEvent>() {
+            @Override
+            public void handle(ApiEvent event) {
+              read.add(event);
+            }
+          },
+          new Supplier<ApiEventQueryResult>() {
+            @Override
+            public ApiEventQueryResult get() {
+              return resource.readEvents(100, 0, null);
+            }
+          });
+      assertEquals(events.getEvents(), read);
+      assertEquals(1000, result.getTotalResults());
+      assertEquals(0, result.size());
+      assertEquals(events.getEvents(),
+          resource.readEvents(100, 0, null).getEvents());
+    }
+  }
+
+  @Test
+  public void testHostList() throws IOException {
+    ApiHostList hosts = new ApiHostList();
+    for (int i = 0; i < 10; i++) {
+      ApiHost host = new ApiHost();
+      host.setHostId("host" + i);
+      hosts.add(host);
+    }
+    ApiListIterator<ApiHost> it = new ApiListIterator<ApiHost>(MAPPER,
+        new ByteArrayInputStream(MAPPER.writeValueAsBytes(hosts)),
+        ApiHost.class);
+    assertEquals(hosts.getHosts(), Lists.newArrayList(it));
+  }
+}
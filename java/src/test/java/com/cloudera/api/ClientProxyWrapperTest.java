@@ -0,0 +1,324 @@
+// Licensed to Cloudera, Inc. under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  Cloudera, Inc. licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.api;
+
+import com.cloudera.api.model.ApiCluster;
+import com.cloudera.api.model.ApiClusterList;
+import com.cloudera.api.v16.ClustersResourceV16;
+import com.cloudera.api.v17.HostsResourceV17;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.ObjectName;
+import javax.ws.rs.WebApplicationException;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ClientProxyWrapperTest {
+
+  private volatile String etag;
+  private volatile String cacheControl;
+  private volatile String clusterName = "cluster1";
+  private volatile CountDownLatch received;
+  private volatile CountDownLatch release;
+  private volatile boolean fail;
+  private final List<String> conditions = Lists.newArrayList();
+
+  @Rule
+  public final TestApiServer server = new TestApiServer(new HttpHandler() {
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      String condition =
+          exchange.getRequestHeaders().getFirst("If-None-Match");
+      synchronized (conditions) {
+        conditions.add(condition);
+      }
+      if (release != null) {
+        received.countDown();
+        Uninterruptibles.awaitUninterruptibly(release);
+      }
+      if (etag != null) {
+        exchange.getResponseHeaders().add("ETag", etag);
+      }
+      if (cacheControl != null) {
+        exchange.getResponseHeaders().add("Cache-Control", cacheControl);
+      }
+      if (fail) {
+        exchange.sendResponseHeaders(500, -1);
+      } else if (etag != null && etag.equals(condition)) {
+        exchange.sendResponseHeaders(304, -1);
+      } else {
+        String items = exchange.getRequestURI().getPath()
+            .endsWith("/hosts") ? "" : "{\"name\":\"" + clusterName + "\"}";
+        byte[] body = ("{\"items\":[" + items + "]}").getBytes("UTF-8");
+        exchange.getResponseHeaders().add("Content-Type",
+            "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        exchange.getResponseBody().write(body);
+      }
+      exchange.close();
+    }
+  });
+
+  private ClustersResourceV16 newClient(long defaultTtl) {
+    return server.newClientBuilder()
+        .enableResponseCache(1024 * 1024, defaultTtl, TimeUnit.HOURS)
+        .build()
+        .getRootV16()
+        .getClustersResource();
+  }
+
+  @Test
+  public void testConditionalGet() {
+    etag = "\"1\"";
+    ClustersResourceV16 clusters = newClient(0);
+    ApiClusterList first = clusters.readClusters(DataView.SUMMARY);
+    assertEquals("cluster1", first.get(0).getName());
+    assertSame(first, clusters.readClusters(DataView.SUMMARY));
+
+    // Other arguments are cached separately.
+    assertNotSame(first, clusters.readClusters(DataView.FULL));
+
+    etag = "\"2\"";
+    clusterName = "cluster2";
+    ApiClusterList second = clusters.readClusters(DataView.SUMMARY);
+    assertEquals("cluster2", second.get(0).getName());
+    assertSame(second, clusters.readClusters(DataView.SUMMARY));
+
+    synchronized (conditions) {
+      assertEquals(Lists.newArrayList(null, "\"1\"", null, "\"1\"", "\"2\""),
+          conditions);
+    }
+  }
+
+  @Test
+  public void testConditionOnlyOnItsRequest() throws Exception {
+    etag = "\"1\"";
+    final ClustersResourceV16 clusters = newClient(0);
+    clusters.readClusters(DataView.SUMMARY);
+
+    // The client is not thread safe, so its headers are shared: a request
+    // sent while a revalidation is in flight must not carry its condition.
+    received = new CountDownLatch(1);
+    release = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<ApiClusterList> read = executor.submit(
+          new Callable<ApiClusterList>() {
+            @Override
+            public ApiClusterList call() {
+              return clusters.readClusters(DataView.SUMMARY);
+            }
+          });
+      received.await();
+      Future<ApiClusterList> created = executor.submit(
+          new Callable<ApiClusterList>() {
+            @Override
+            public ApiClusterList call() {
+              return clusters.createClusters(new ApiClusterList());
+            }
+          });
+      Thread.sleep(200);
+      release.countDown();
+      read.get();
+      created.get();
+    } finally {
+      executor.shutdown();
+    }
+    synchronized (conditions) {
+      assertEquals(Lists.newArrayList(null, "\"1\"", null), conditions);
+    }
+  }
+
+  @Test
+  public void testTtl() {
+    ClustersResourceV16 clusters = newClient(1);
+    ApiClusterList first = clusters.readClusters(DataView.SUMMARY);
+    assertSame(first, clusters.readClusters(DataView.SUMMARY));
+
+    // The server has the final say.
+    cacheControl = "no-store";
+    clusters = newClient(1);
+    first = clusters.readClusters(DataView.SUMMARY);
+    assertNotSame(first, clusters.readClusters(DataView.SUMMARY));
+
+    synchronized (conditions) {
+      assertEquals(3, conditions.size());
+      assertNull(conditions.get(2));
+    }
+  }
+
+  @Test
+  public void testNoValidators() {
+    ClustersResourceV16 clusters = newClient(0);
+    ApiClusterList first = clusters.readClusters(DataView.SUMMARY);
+    assertNotSame(first, clusters.readClusters(DataView.SUMMARY));
+  }
+
+  @Test
+  public void testCacheAcrossSubResources() {
+    ApiRootResource root = server.newClientBuilder()
+        .enableResponseCache(1024 * 1024, 1, TimeUnit.HOURS)
+        .build();
+    ApiClusterList first =
+        root.getRootV16().getClustersResource().readClusters(DataView.SUMMARY);
+    assertSame(first,
+        root.getRootV16().getClustersResource().readClusters(DataView.SUMMARY));
+    assertNotSame(first,
+        root.getRootV15().getClustersResource().readClusters(DataView.SUMMARY));
+  }
+
+  @Test
+  public void testRequestCoalescing() throws Exception {
+    final ApiRootResource root = server.newClientBuilder()
+        .setThreadSafe(true)
+        .enableRequestCoalescing()
+        .build();
+    received = new CountDownLatch(1);
+    release = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<ApiClusterList>> results = Lists.newArrayList();
+      for (int i = 0; i < 4; i++) {
+        results.add(executor.submit(new Callable<ApiClusterList>() {
+          @Override
+          public ApiClusterList call() {
+            return root.getRootV16().getClustersResource()
+                .readClusters(DataView.SUMMARY);
+          }
+        }));
+      }
+      // Give the other threads time to join the call in flight.
+      received.await();
+      Thread.sleep(500);
+      release.countDown();
+      for (Future<ApiClusterList> result : results) {
+        assertSame(results.get(0).get(), result.get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+    synchronized (conditions) {
+      assertEquals(1, conditions.size());
+    }
+
+    // Calls are not shared once completed.
+    release = null;
+    assertNotSame(root.getRootV16().getClustersResource()
+        .readClusters(DataView.SUMMARY),
+        root.getRootV16().getClustersResource()
+        .readClusters(DataView.SUMMARY));
+  }
+
+  @Test
+  public void testMetrics() throws Exception {
+    etag = "\"1\"";
+    ClientMetrics metrics = new ClientMetrics("testMetrics");
+    ClustersResourceV16 clusters = server.newClientBuilder()
+        .enableResponseCache(1024 * 1024, 0, TimeUnit.SECONDS)
+        .enableMetrics(metrics)
+        .build()
+        .getRootV16()
+        .getClustersResource();
+
+    // The second call is revalidated, and is not an error.
+    clusters.readClusters(DataView.SUMMARY);
+    clusters.readClusters(DataView.SUMMARY);
+    ApiCluster cluster = new ApiCluster();
+    cluster.setName("cluster1");
+    ApiClusterList list = new ApiClusterList();
+    list.add(cluster);
+    clusters.createClusters(list);
+    fail = true;
+    try {
+      clusters.readCluster("cluster1");
+      fail("Expected a server error.");
+    } catch (WebApplicationException e) {
+      assertEquals(500, e.getResponse().getStatus());
+    }
+
+    EndpointMetrics read = metrics.getEndpoint(
+        "v1.ClustersResource.readClusters(DataView)");
+    assertEquals(2, read.getCalls());
+    assertEquals(0, read.getErrors());
+    assertEquals(0, read.getInFlight());
+    assertEquals(0, read.getBytesSent());
+    assertEquals("{\"items\":[{\"name\":\"cluster1\"}]}".length(),
+        read.getBytesReceived());
+    assertTrue(read.getMaxLatencyMillis() > 0);
+    assertTrue(read.getMedianLatencyMillis() <= read.getMaxLatencyMillis());
+
+    EndpointMetrics create = metrics.getEndpoint(
+        "v1.ClustersResource.createClusters(ApiClusterList)");
+    assertEquals(1, create.getCalls());
+    assertTrue(create.getBytesSent() > 0);
+
+    EndpointMetrics error = metrics.getEndpoint(
+        "v1.ClustersResource.readCluster(String)");
+    assertEquals(1, error.getErrors());
+    assertEquals(1.0, error.getErrorRate(), 0);
+
+    assertEquals(3, metrics.getEndpoints().size());
+    ObjectName name = new ObjectName("com.cloudera.api:type=ClientMetrics," +
+        "name=\"testMetrics\",endpoint=" +
+        ObjectName.quote("v1.ClustersResource.readClusters(DataView)"));
+    assertEquals(2L, ManagementFactory.getPlatformMBeanServer()
+        .getAttribute(name, "Calls"));
+    metrics.unregisterMBeans();
+    assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+  }
+
+  @Test
+  public void testMetricsPerOverload() {
+    ClientMetrics metrics = new ClientMetrics();
+    HostsResourceV17 hosts = server.newClientBuilder()
+        .enableMetrics(metrics)
+        .build()
+        .getRootV17()
+        .getHostsResource();
+    hosts.readHosts(DataView.SUMMARY);
+    hosts.readHosts(DataView.SUMMARY, "hostId");
+    hosts.readHosts(DataView.SUMMARY, "hostId");
+
+    assertEquals(2, metrics.getEndpoints().size());
+    assertEquals(1, metrics.getEndpoint(
+        "v1.HostsResource.readHosts(DataView)").getCalls());
+    assertEquals(2, metrics.getEndpoint(
+        "v17.HostsResourceV17.readHosts(DataView, String)").getCalls());
+  }
+}
@@ -16,38 +16,67 @@
 
 package com.cloudera.api;
 
+import com.cloudera.api.model.ApiCluster;
+import com.cloudera.api.model.ApiClusterList;
+import com.cloudera.api.v16.RootResourceV16;
+import com.cloudera.api.v16.ServicesResourceV16;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
 import org.apache.cxf.jaxrs.client.ClientConfiguration;
 import org.apache.cxf.jaxrs.client.WebClient;
 import org.apache.cxf.message.Message;
 import org.apache.cxf.transport.http.HTTPConduit;
 import org.apache.cxf.transports.http.configuration.HTTPClientPolicy;
+import org.junit.Rule;
 import org.junit.Test;
 
-import java.lang.reflect.InvocationHandler;
-import java.lang.reflect.Proxy;
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 public class ClouderaManagerClientBuilderTest {
 
+  private volatile String requestBody;
+
+  @Rule
+  public final TestApiServer server = new TestApiServer(new HttpHandler() {
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      requestBody = new String(ByteStreams.toByteArray(
+          exchange.getRequestBody()), Charsets.UTF_8);
+      TestApiServer.sendJson(exchange, 200, new ApiClusterList());
+    }
+  });
+
   /**
    * Replacement for WebClient.getConfig() on delegated proxy.
    *
-   * Because we use dynamic proxy mechanism to delegate call from {@link ApiRootResource}
-   * to {@link ApiRootResourceExternal}, instanceof operator doesn't work since they don't
-   * share any common interface. Hence need for this method.
+   * Because we delegate call from {@link ApiRootResource} to
+   * {@link ApiRootResourceExternal}, the built object is not a CXF client
+   * itself. Hence need for this method.
    */
   private ClientConfiguration getClientConfigFromProxy(ApiRootResource proxy) {
-    InvocationHandler invocationHandler = Proxy.getInvocationHandler(proxy);
-    assertTrue(invocationHandler instanceof ApiRootResourceInvocationHandler);
+    assertTrue(proxy instanceof ApiRootResourceDelegate);
     return WebClient.getConfig(
-      ((ApiRootResourceInvocationHandler)invocationHandler).getDelegateRootResource());
+      ((ApiRootResourceDelegate)proxy).getDelegateRootResource());
   }
 
   @Test
@@ -179,4 +208,78 @@ public class ClouderaManagerClientBuilderTest {
     autoClosure = (Boolean)cfg.getRequestContext().get("response.stream.auto.close");
     assertTrue(autoClosure);
   }
+
+  @Test
+  public void testConcurrentBuild() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Future<ApiRootResource>> proxies = Lists.newArrayList();
+      for (int i = 0; i < 32; i++) {
+        final int port = i + 1;
+        proxies.add(executor.submit(new Callable<ApiRootResource>() {
+          @Override
+          public ApiRootResource call() {
+            return new ClouderaManagerClientBuilder()
+                .withHost("localhost")
+                .withPort(port)
+                .withUsernamePassword("user" + port, "password")
+                .build();
+          }
+        }));
+      }
+      for (int i = 0; i < proxies.size(); i++) {
+        ApiRootResourceExternal delegate = ((ApiRootResourceDelegate)
+            proxies.get(i).get()).getDelegateRootResource();
+        assertEquals(i + 1, WebClient.client(delegate).getBaseURI().getPort());
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testSubResourceCache() {
+    ClouderaManagerClientBuilder builder = new ClouderaManagerClientBuilder()
+        .withHost("localhost")
+        .withPort(1);
+    ApiRootResource proxy = builder.build();
+    assertNotSame(proxy.getRootV16(), proxy.getRootV16());
+
+    proxy = builder.enableSubResourceCache(100).build();
+    assertNotNull(getClientConfigFromProxy(proxy));
+    RootResourceV16 v16 = proxy.getRootV16();
+    assertSame(v16, proxy.getRootV16());
+    ServicesResourceV16 services =
+        v16.getClustersResource().getServicesResource("cluster1");
+    assertSame(services, proxy.getRootV16().getClustersResource()
+        .getServicesResource("cluster1"));
+    assertNotSame(services, proxy.getRootV16().getClustersResource()
+        .getServicesResource("cluster2"));
+    // Locators inheriting their annotations from older API versions.
+    assertSame(services.getRolesResource("service1"),
+        services.getRolesResource("service1"));
+    assertNotNull(WebClient.client(services));
+
+    // Caches are per client.
+    assertNotSame(v16, builder.build().getRootV16());
+  }
+
+  @Test
+  public void testCompactJson() {
+    ApiCluster cluster = new ApiCluster();
+    cluster.setName("c1");
+    ApiClusterList clusters =
+        new ApiClusterList(Collections.singletonList(cluster));
+
+    server.newClientBuilder().build().getRootV16().getClustersResource()
+        .createClusters(clusters);
+    assertTrue(requestBody.contains("\n"));
+
+    ClouderaManagerClientBuilder builder = server.newClientBuilder()
+        .withCompactJson();
+    assertNotNull(getClientConfigFromProxy(builder.build()));
+    builder.build().getRootV16().getClustersResource()
+        .createClusters(clusters);
+    assertEquals("{\"items\":[{\"name\":\"c1\"}]}", requestBody);
+  }
 }
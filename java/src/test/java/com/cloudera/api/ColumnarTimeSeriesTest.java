@@ -0,0 +1,220 @@
+// Licensed to Cloudera, Inc. under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  Cloudera, Inc. licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.api;
+
+import com.cloudera.api.model.ApiTimeSeries;
+import com.cloudera.api.model.ApiTimeSeriesAggregateStatistics;
+import com.cloudera.api.model.ApiTimeSeriesCrossEntityMetadata;
+import com.cloudera.api.model.ApiTimeSeriesData;
+import com.cloudera.api.model.ApiTimeSeriesMetadata;
+import com.cloudera.api.model.ApiTimeSeriesRequest;
+import com.cloudera.api.model.ApiTimeSeriesResponse;
+import com.cloudera.api.model.ApiTimeSeriesResponseList;
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ColumnarTimeSeriesTest {
+
+  private static final ApiObjectMapper MAPPER = new ApiObjectMapper();
+
+  private volatile byte[] body;
+
+  @Rule
+  public final TestApiServer server = new TestApiServer(new HttpHandler() {
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      exchange.getResponseHeaders().add("Content-Type", "application/json");
+      exchange.sendResponseHeaders(200, body.length);
+      exchange.getResponseBody().write(body);
+      exchange.close();
+    }
+  });
+
+  @Test
+  public void testDecode() throws Exception {
+    ApiTimeSeriesResponseList list = newResponseList();
+    byte[] json = MAPPER.writeValueAsBytes(list);
+    List<ColumnarTimeSeriesResponse> responses =
+        ColumnarTimeSeriesResponse.read(MAPPER, new ByteArrayInputStream(json));
+
+    assertEquals(1, responses.size());
+    ColumnarTimeSeriesResponse response = responses.get(0);
+    assertEquals("select cpu_percent", response.getTimeSeriesQuery());
+    assertEquals(Lists.newArrayList("partial data"), response.getWarnings());
+    assertEquals(2, response.getTimeSeries().size());
+
+    ColumnarTimeSeries raw = response.getTimeSeries().get(0);
+    assertEquals("host1", raw.getMetadata().getEntityName());
+    assertEquals(100, raw.size());
+    assertArrayEquals(new long[] { 0, 60000, 120000 },
+        Arrays.copyOf(raw.getTimestamps(), 3));
+    assertEquals(99.5, raw.getValue(99), 0);
+    assertSame(raw.getType(0), raw.getType(99));
+    assertNull(raw.getCounts());
+    assertFalse(raw.hasAggregateStatistics(0));
+
+    ColumnarTimeSeries aggregate = response.getTimeSeries().get(1);
+    assertTrue(aggregate.hasAggregateStatistics(0));
+    assertFalse(aggregate.hasAggregateStatistics(1));
+    assertEquals(10, aggregate.getCounts()[0]);
+    assertEquals(ColumnarTimeSeries.NO_TIME, aggregate.getMinTimes()[0]);
+    assertEquals("dn1",
+        aggregate.getCrossEntityMetadata()[0].getMaxEntityName());
+
+    // Back to the model, and through the model.
+    assertEquals(new String(json, "UTF-8"), toJson(responses));
+    List<ColumnarTimeSeriesResponse> converted = Lists.newArrayList();
+    for (ApiTimeSeriesResponse r : list) {
+      converted.add(ColumnarTimeSeriesResponse.of(r));
+    }
+    assertEquals(new String(json, "UTF-8"), toJson(converted));
+  }
+
+  @Test
+  public void testDecodeEpochTimestamps() throws Exception {
+    String json = "{\"items\":[{\"timeSeries\":[{\"data\":[" +
+        "{\"timestamp\":1000,\"value\":1,\"other\":[1,{}]}," +
+        "{\"timestamp\":\"1970-01-01T00:00:02.000Z\",\"value\":\"2\"}]," +
+        "\"metadata\":{\"metricName\":\"m\"}}]}],\"extra\":{}}";
+    ColumnarTimeSeries series = ColumnarTimeSeriesResponse.read(MAPPER,
+        new ByteArrayInputStream(json.getBytes("UTF-8")))
+        .get(0).getTimeSeries().get(0);
+    assertEquals("m", series.getMetadata().getMetricName());
+    assertArrayEquals(new long[] { 1000, 2000 }, series.getTimestamps());
+    assertArrayEquals(new double[] { 1, 2 }, series.getValues(), 0);
+  }
+
+  @Test
+  public void testDecodeCustomDateFormat() throws Exception {
+    DateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+    format.setTimeZone(TimeZone.getTimeZone("GMT+01:00"));
+    ApiObjectMapper mapper = new ApiObjectMapper();
+    mapper.setDateFormat(format);
+    String json = "{\"items\":[{\"timeSeries\":[{\"data\":[" +
+        "{\"timestamp\":\"1970-01-01T01:00:02.000Z\",\"value\":1}]," +
+        "\"metadata\":{\"metricName\":\"m\"}}]}]}";
+    ColumnarTimeSeries series = ColumnarTimeSeriesResponse.read(mapper,
+        new ByteArrayInputStream(json.getBytes("UTF-8")))
+        .get(0).getTimeSeries().get(0);
+    assertArrayEquals(new long[] { 2000 }, series.getTimestamps());
+  }
+
+  @Test
+  public void testQuery() throws Exception {
+    final ApiTimeSeriesResponseList list = newResponseList();
+    body = MAPPER.writeValueAsBytes(list);
+    final ApiRootResource root = server.newClientBuilder().build();
+
+    List<ColumnarTimeSeriesResponse> responses =
+        ColumnarTimeSeriesResponse.query(
+            new Supplier<ApiTimeSeriesResponseList>() {
+              @Override
+              public ApiTimeSeriesResponseList get() {
+                return root.getRootV4().getTimeSeriesResource()
+                    .queryTimeSeries("select cpu_percent", null, null);
+              }
+            });
+    assertEquals(new String(body, "UTF-8"), toJson(responses));
+
+    responses = ColumnarTimeSeriesResponse.read(root.getRootV11()
+        .getTimeSeriesResource()
+        .queryTimeSeries(new ApiTimeSeriesRequest()));
+    assertEquals(new String(body, "UTF-8"), toJson(responses));
+  }
+
+  private static String toJson(List<ColumnarTimeSeriesResponse> responses)
+      throws IOException {
+    List<ApiTimeSeriesResponse> apiResponses = Lists.newArrayList();
+    for (ColumnarTimeSeriesResponse response : responses) {
+      apiResponses.add(response.toApiTimeSeriesResponse());
+    }
+    ApiTimeSeriesResponseList list = new ApiTimeSeriesResponseList();
+    list.setResponses(apiResponses);
+    return MAPPER.writeValueAsString(list);
+  }
+
+  private static ApiTimeSeriesResponseList newResponseList() {
+    ApiTimeSeriesMetadata metadata = new ApiTimeSeriesMetadata();
+    metadata.setMetricName("cpu_percent");
+    metadata.setEntityName("host1");
+    metadata.setAttributes(ImmutableMap.of("hostname", "host1"));
+    List<ApiTimeSeriesData> data = Lists.newArrayList();
+    for (int i = 0; i < 100; i++) {
+      data.add(newPoint(i * 60000L, i + 0.5, null));
+    }
+    ApiTimeSeries raw = new ApiTimeSeries(metadata, data);
+
+    ApiTimeSeriesMetadata aggregateMetadata = new ApiTimeSeriesMetadata();
+    aggregateMetadata.setMetricName("total_cpu_percent_across_hosts");
+    ApiTimeSeriesAggregateStatistics stats =
+        new ApiTimeSeriesAggregateStatistics();
+    stats.setSampleTime(new Date(1000));
+    stats.setSampleValue(1);
+    stats.setCount(10);
+    stats.setMin(0.5);
+    stats.setMax(2);
+    stats.setMaxTime(new Date(2000));
+    stats.setMean(1.25);
+    stats.setStdDev(0.1);
+    ApiTimeSeriesCrossEntityMetadata crossEntity =
+        new ApiTimeSeriesCrossEntityMetadata();
+    crossEntity.setMaxEntityName("dn1");
+    crossEntity.setNumEntities(3.0);
+    stats.setCrossEntityMetadata(crossEntity);
+    ApiTimeSeries aggregate = new ApiTimeSeries(aggregateMetadata,
+        Lists.newArrayList(newPoint(0, 1, stats), newPoint(60000, 2, null)));
+
+    ApiTimeSeriesResponse response = new ApiTimeSeriesResponse(
+        Lists.newArrayList(raw, aggregate),
+        Lists.newArrayList("partial data"), "select cpu_percent");
+    ApiTimeSeriesResponseList list = new ApiTimeSeriesResponseList();
+    list.setResponses(Lists.newArrayList(response));
+    return list;
+  }
+
+  private static ApiTimeSeriesData newPoint(long time, double value,
+      ApiTimeSeriesAggregateStatistics stats) {
+    ApiTimeSeriesData point = new ApiTimeSeriesData();
+    point.setTimestamp(new Date(time));
+    point.setValue(value);
+    point.setType("SAMPLE");
+    point.setAggregateStatistics(stats);
+    return point;
+  }
+}
@@ -0,0 +1,186 @@
+// Licensed to Cloudera, Inc. under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  Cloudera, Inc. licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.api;
+
+import com.cloudera.api.model.ApiHdfsUsageReport;
+import com.cloudera.api.model.ApiHdfsUsageReportRow;
+import com.cloudera.api.model.ApiMrUsageReport;
+import com.cloudera.api.model.ApiMrUsageReportRow;
+import com.cloudera.api.model.ApiTimeSeriesResponseList;
+import com.cloudera.api.model.ApiTimeSeriesRow;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class CsvDecoderTest {
+
+  private static InputStream stream(String csv) throws IOException {
+    return new ByteArrayInputStream(csv.getBytes("UTF-8"));
+  }
+
+  /** Returns a byte at a time, to cross the buffer at every position. */
+  private static InputStream trickle(String csv) throws IOException {
+    return new FilterInputStream(stream(csv)) {
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        return super.read(b, off, Math.min(len, 1));
+      }
+    };
+  }
+
+  @Test
+  public void testTimeSeriesRows() throws IOException {
+    String csv = "entityName,metricName,timestamp,value\r\n" +
+        "host1,cpu_percent,2017-01-01T00:00:00.000Z,12.5\r\n" +
+        "\r\n" +
+        "\"host \"\"2\"\", rack 1\",cpu_percent,2017-01-01T00:01:00.000Z," +
+        "-0.125\n" +
+        "host3,cpu_percent,2017-01-01T00:02:00.000Z,1e-3";
+    CsvDecoder<ApiTimeSeriesRow> decoder = CsvDecoder.of(
+        ApiTimeSeriesResponseList.class, ApiTimeSeriesRow.class);
+    for (InputStream in : new InputStream[] { stream(csv), trickle(csv) }) {
+      List<ApiTimeSeriesRow> rows = decoder.readAll(in);
+      assertEquals(3, rows.size());
+      assertEquals("host1", rows.get(0).getEntityName());
+      assertEquals("cpu_percent", rows.get(0).getMetricName());
+      assertEquals(new Date(1483228800000L), rows.get(0).getTimestamp());
+      assertEquals(12.5, rows.get(0).getValue(), 0);
+      assertEquals("host \"2\", rack 1", rows.get(1).getEntityName());
+      assertEquals(new Date(1483228860000L), rows.get(1).getTimestamp());
+      assertEquals(-0.125, rows.get(1).getValue(), 0);
+      assertEquals(0.001, rows.get(2).getValue(), 0);
+    }
+  }
+
+  @Test
+  public void testUsageReportRows() throws IOException {
+    List<ApiHdfsUsageReportRow> hdfs = CsvDecoder.of(
+        ApiHdfsUsageReport.class, ApiHdfsUsageReportRow.class).readAll(
+            stream("date,user,size,rawSize,numFiles\n" +
+                "2017-01-02T00:00:00.000Z,alice,100,300,3\n"));
+    assertEquals(Lists.newArrayList(new ApiHdfsUsageReportRow(
+        new Date(1483315200000L), "alice", 100, 300, 3)), hdfs);
+
+    // Columns in another order, an unknown one, and an empty one.
+    List<ApiMrUsageReportRow> mr = CsvDecoder.of(
+        ApiMrUsageReport.class, ApiMrUsageReportRow.class).readAll(
+            stream("user,timePeriod,unknown,cpuSec,memoryBytes\n" +
+                "bob,2017-01,x,12,\n"));
+    assertEquals(1, mr.size());
+    assertEquals("bob", mr.get(0).getUser());
+    assertEquals("2017-01", mr.get(0).getTimePeriod());
+    assertEquals(Long.valueOf(12), mr.get(0).getCpuSec());
+    assertNull(mr.get(0).getMemoryBytes());
+
+    try {
+      CsvDecoder.of(ApiMrUsageReport.class, ApiHdfsUsageReportRow.class);
+      fail();
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void testDateFormat() throws IOException {
+    List<ApiHdfsUsageReportRow> rows = new CsvDecoder<ApiHdfsUsageReportRow>(
+        ApiHdfsUsageReportRow.class, "yyyy-MM-dd HH:mm").readAll(
+            stream("date\n2017-01-02 01:30\n"));
+    assertEquals(new Date(1483320600000L), rows.get(0).getDate());
+  }
+
+  @Test
+  public void testFields() throws IOException {
+    // A record larger than the buffer.
+    String large = Strings.repeat("x", 200000);
+    final List<String> columns = Lists.newArrayList();
+    final List<Object> values = Lists.newArrayList();
+    new CsvDecoder<ApiTimeSeriesRow>(ApiTimeSeriesRow.class,
+        "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'").readFields(
+        stream("name,count,value,time\n" +
+            large + ",-42,3.25,1970-01-01T00:00:01.000Z\n" +
+            "y,9223372036854775807,123456789012345678,\n"),
+        new CsvDecoder.FieldHandler() {
+          @Override
+          public void header(List<String> names) {
+            columns.addAll(names);
+          }
+
+          @Override
+          public void field(int column, CsvDecoder.Field field) {
+            switch (column) {
+              case 0:
+                values.add(field.length());
+                break;
+              case 1:
+                values.add(field.getLong());
+                break;
+              case 2:
+                values.add(field.getDouble());
+                break;
+              default:
+                values.add(field.isEmpty() ? null : field.getTime());
+                break;
+            }
+          }
+
+          @Override
+          public void endRow() {
+            values.add("|");
+          }
+        });
+    assertEquals(Lists.newArrayList("name", "count", "value", "time"),
+        columns);
+    assertEquals(Lists.<Object>newArrayList(200000, -42L, 3.25, 1000L, "|",
+        1, Long.MAX_VALUE, 123456789012345678.0, null, "|"), values);
+  }
+
+  @Test
+  public void testDoubles() throws IOException {
+    Random random = new Random(7);
+    StringBuilder csv = new StringBuilder("value\n");
+    List<String> texts = Lists.newArrayList();
+    for (int i = 0; i < 10000; i++) {
+      double value = (random.nextDouble() - 0.5) *
+          Math.pow(10, random.nextInt(20) - 10);
+      String text = i % 2 == 0 ? Double.toString(value) :
+          String.format(Locale.ENGLISH, "%." + (i % 12) + "f", value);
+      texts.add(text);
+      csv.append(text).append('\n');
+    }
+    List<ApiTimeSeriesRow> rows = new CsvDecoder<ApiTimeSeriesRow>(
+        ApiTimeSeriesRow.class, "yyyy").readAll(stream(csv.toString()));
+    for (int i = 0; i < texts.size(); i++) {
+      assertEquals(texts.get(i),
+          Double.doubleToLongBits(Double.parseDouble(texts.get(i))),
+          Double.doubleToLongBits(rows.get(i).getValue()));
+    }
+  }
+}
@@ -20,6 +20,7 @@ import org.apache.cxf.common.util.StringUtils;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 public class DataViewTest {
@@ -46,4 +47,15 @@ public class DataViewTest {
       // expected
     }
   }
+
+  @Test
+  public void testIdsOnly() {
+    assertEquals(DataView.IDS_ONLY, DataView.fromString("ids_only"));
+    try {
+      DataView.fromString("ids");
+      fail("Illegal view did not throw an exception");
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().contains("ids_only"));
+    }
+  }
 }
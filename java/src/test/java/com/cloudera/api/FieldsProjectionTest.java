@@ -0,0 +1,103 @@
+// Licensed to Cloudera, Inc. under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  Cloudera, Inc. licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.api;
+
+import com.cloudera.api.model.ApiHost;
+import com.cloudera.api.model.ApiHostList;
+import com.cloudera.api.v17.HostsResourceV17;
+import com.google.common.collect.ImmutableSet;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class FieldsProjectionTest {
+
+  private volatile String path;
+  private volatile String query;
+
+  @Rule
+  public final TestApiServer server = new TestApiServer(new HttpHandler() {
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      path = exchange.getRequestURI().getPath();
+      query = exchange.getRequestURI().getQuery();
+      // Like the servers not supporting fields, returns all the properties.
+      String host = "{\"hostId\":\"h1\",\"hostname\":\"host1\"," +
+          "\"ipAddress\":\"10.0.0.1\",\"healthChecks\":[{\"name\":" +
+          "\"HOST_SCM_HEALTH\",\"summary\":\"GOOD\"}],\"rackId\":\"/r1\"}";
+      byte[] body = (path.endsWith("/hosts") ?
+          "{\"items\":[" + host + "]}" : host).getBytes("UTF-8");
+      exchange.getResponseHeaders().add("Content-Type", "application/json");
+      exchange.sendResponseHeaders(200, body.length);
+      exchange.getResponseBody().write(body);
+      exchange.close();
+    }
+  });
+
+  @Test
+  public void testFields() {
+    HostsResourceV17 hosts = server.newClientBuilder()
+        .build()
+        .getRootV17()
+        .getHostsResource();
+
+    ApiHostList list = hosts.readHosts(DataView.FULL, "hostId,hostname");
+    assertEquals("/api/v17/hosts", path);
+    assertEquals("view=FULL&fields=hostId,hostname", query);
+    assertEquals("h1", list.get(0).getHostId());
+    assertEquals("host1", list.get(0).getHostname());
+    assertNull(list.get(0).getIpAddress());
+    assertNull(list.get(0).getHealthChecks());
+    assertNull(list.get(0).getRackId());
+
+    ApiHost host = hosts.readHost("h1", DataView.SUMMARY, "hostname, rackId");
+    assertEquals("/api/v17/hosts/h1", path);
+    assertEquals("view=SUMMARY&fields=hostname,+rackId", query);
+    assertNull(host.getHostId());
+    assertEquals("host1", host.getHostname());
+    assertEquals("/r1", host.getRackId());
+    assertNull(host.getHealthChecks());
+
+    // Without fields, the request is the same as with the older overloads,
+    // and all the properties are read.
+    list = hosts.readHosts(DataView.SUMMARY, null);
+    assertEquals("view=SUMMARY", query);
+    assertEquals("10.0.0.1", list.get(0).getIpAddress());
+    assertEquals(1, list.get(0).getHealthChecks().size());
+
+    hosts.readHosts(DataView.IDS_ONLY, "hostId");
+    assertEquals("view=IDS_ONLY&fields=hostId", query);
+  }
+
+  @Test
+  public void testParseFields() {
+    assertEquals(ImmutableSet.of("hostId", "hostname"),
+        FieldsProjection.parseFields(
+            "http://h:7180/api/v17/hosts?view=FULL&fields=hostId,+hostname"));
+    assertNull(FieldsProjection.parseFields(
+        "http://h:7180/api/v17/hosts?view=FULL"));
+    assertNull(FieldsProjection.parseFields(
+        "http://h:7180/api/v17/hosts/fields=h1"));
+  }
+}
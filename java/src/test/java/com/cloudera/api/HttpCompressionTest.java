@@ -0,0 +1,156 @@
+// Licensed to Cloudera, Inc. under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  Cloudera, Inc. licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.api;
+
+import com.cloudera.api.model.ApiCluster;
+import com.cloudera.api.model.ApiClusterList;
+import com.cloudera.api.v16.ClustersResourceV16;
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class HttpCompressionTest {
+
+  /** Encoding of the responses: null, "gzip", "deflate" or "raw-deflate". */
+  private volatile String encoding;
+  private volatile String acceptEncoding;
+  private volatile String requestEncoding;
+  private volatile String requestBody;
+  private volatile int responseSize;
+
+  @Rule
+  public final TestApiServer server = new TestApiServer(new HttpHandler() {
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      acceptEncoding =
+          exchange.getRequestHeaders().getFirst("Accept-Encoding");
+      requestEncoding =
+          exchange.getRequestHeaders().getFirst("Content-Encoding");
+      InputStream in = exchange.getRequestBody();
+      if ("gzip".equals(requestEncoding)) {
+        in = new GZIPInputStream(in);
+      }
+      requestBody = new String(ByteStreams.toByteArray(in), "UTF-8");
+
+      byte[] body = encode(
+          "{\"items\":[{\"name\":\"cluster1\"}]}".getBytes("UTF-8"));
+      responseSize = body.length;
+      if (encoding != null) {
+        exchange.getResponseHeaders().add("Content-Encoding",
+            encoding.equals("raw-deflate") ? "deflate" : encoding);
+      }
+      exchange.getResponseHeaders().add("Content-Type", "application/json");
+      exchange.sendResponseHeaders(200, body.length);
+      exchange.getResponseBody().write(body);
+      exchange.close();
+    }
+  });
+
+  private byte[] encode(byte[] body) throws IOException {
+    if (encoding == null) {
+      return body;
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    OutputStream out;
+    if (encoding.equals("gzip")) {
+      out = new GZIPOutputStream(bytes);
+    } else {
+      out = new DeflaterOutputStream(bytes,
+          new Deflater(Deflater.DEFAULT_COMPRESSION,
+              encoding.equals("raw-deflate")));
+    }
+    out.write(body);
+    out.close();
+    return bytes.toByteArray();
+  }
+
+  private ClustersResourceV16 newClient(ClouderaManagerClientBuilder builder) {
+    return builder
+        .withHost("localhost")
+        .withPort(server.getPort())
+        .build()
+        .getRootV16()
+        .getClustersResource();
+  }
+
+  @Test
+  public void testResponseDecoding() {
+    ClustersResourceV16 clusters =
+        newClient(new ClouderaManagerClientBuilder().enableCompression());
+    for (String e : new String[] { null, "gzip", "deflate", "raw-deflate" }) {
+      encoding = e;
+      assertEquals(e, "cluster1",
+          clusters.readClusters(DataView.SUMMARY).get(0).getName());
+      assertEquals(HttpCompression.ACCEPT_ENCODING, acceptEncoding);
+    }
+  }
+
+  @Test
+  public void testRequestEncoding() {
+    ClustersResourceV16 clusters = newClient(
+        new ClouderaManagerClientBuilder().enableCompression(100));
+
+    ApiClusterList small = newClusterList(1);
+    clusters.createClusters(small);
+    assertNull(requestEncoding);
+    assertTrue(requestBody.contains("cluster0"));
+
+    ApiClusterList large = newClusterList(100);
+    clusters.createClusters(large);
+    assertEquals("gzip", requestEncoding);
+    assertTrue(requestBody.contains("cluster99"));
+  }
+
+  @Test
+  public void testMetricsCountCompressedBytes() {
+    encoding = "gzip";
+    ClientMetrics metrics = new ClientMetrics();
+    ClustersResourceV16 clusters = newClient(new ClouderaManagerClientBuilder()
+        .enableMetrics(metrics)
+        .enableCompression());
+    clusters.readClusters(DataView.SUMMARY);
+    assertEquals(responseSize,
+        metrics.getEndpoint("v1.ClustersResource.readClusters(DataView)")
+        .getBytesReceived());
+  }
+
+  private static ApiClusterList newClusterList(int size) {
+    ApiClusterList list = new ApiClusterList();
+    for (int i = 0; i < size; i++) {
+      ApiCluster cluster = new ApiCluster();
+      cluster.setName("cluster" + i);
+      list.add(cluster);
+    }
+    return list;
+  }
+}
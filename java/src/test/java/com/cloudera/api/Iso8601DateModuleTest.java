@@ -0,0 +1,86 @@
+// Licensed to Cloudera, Inc. under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  Cloudera, Inc. licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.api;
+
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.text.DateFormat;
+import java.util.Date;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class Iso8601DateModuleTest {
+
+  private static final long YEAR_MILLIS = 365L * 24 * 60 * 60 * 1000;
+
+  private final ApiObjectMapper mapper = new ApiObjectMapper();
+  private final DateFormat reference = ApiObjectMapper.makeISODateFormat();
+
+  private void check(long millis) throws Exception {
+    Date date = new Date(millis);
+    String expected = reference.format(date);
+    String json = mapper.writeValueAsString(date);
+    assertEquals("\"" + expected + "\"", json);
+    assertEquals(expected, date, mapper.readValue(json, Date.class));
+  }
+
+  @Test
+  public void testSameAsDateFormat() throws Exception {
+    long[] dates = {
+        0, -1, 1, 951782400000L /* 2000-02-29 */, 4107542400000L /* 2100-02-28 */,
+        -12212553600000L /* 1583-01-01 */, 253402300799999L /* 9999-12-31 */,
+        -12219292800001L /* Julian calendar */, -62135769600000L /* Year 0 */,
+        253402300800000L /* Year 10000 */, Long.MAX_VALUE / 1000,
+    };
+    for (long millis : dates) {
+      check(millis);
+    }
+    Random random = new Random(42);
+    for (int i = 0; i < 100000; i++) {
+      check((long) ((random.nextDouble() - 0.5) * 2200 * YEAR_MILLIS));
+    }
+  }
+
+  @Test
+  public void testLenientParsing() throws Exception {
+    // Strings outside the exact format go through the date format.
+    for (String text : new String[] {
+        "2014-02-30T00:00:00.000Z", "2014-01-01T24:00:00.000Z",
+        "2014-1-1T1:1:1.1Z", " 2014-01-01T00:00:00.000Z ",
+        "0999-01-01T00:00:00.000Z",
+    }) {
+      assertEquals(text, reference.parse(text.trim()),
+          mapper.readValue("\"" + text + "\"", Date.class));
+    }
+    assertEquals(new Date(1234), mapper.readValue("1234", Date.class));
+  }
+
+  @Test
+  public void testOtherConfigurations() throws Exception {
+    ApiObjectMapper timestamps = new ApiObjectMapper();
+    timestamps.enable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+    assertEquals("1234", timestamps.writeValueAsString(new Date(1234)));
+
+    ApiObjectMapper other = new ApiObjectMapper();
+    other.setDateFormat(ApiObjectMapper.makeDateFormat("yyyy-MM-dd"));
+    assertEquals("\"1970-01-01\"", other.writeValueAsString(new Date(1234)));
+    assertEquals(new Date(0), other.readValue("\"1970-01-01\"", Date.class));
+  }
+}
@@ -0,0 +1,189 @@
+// Licensed to Cloudera, Inc. under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  Cloudera, Inc. licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.api;
+
+import com.cloudera.api.model.ApiMetricSchema;
+import com.cloudera.api.model.ApiMetricSchemaList;
+import com.cloudera.api.model.ApiTimeSeriesEntityAttribute;
+import com.cloudera.api.model.ApiTimeSeriesEntityAttributeList;
+import com.cloudera.api.model.ApiTimeSeriesEntityType;
+import com.cloudera.api.model.ApiTimeSeriesEntityTypeList;
+import com.cloudera.api.v11.TimeSeriesResourceV11;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MetricSchemaCatalogTest {
+
+  private MetricSchemaCatalog catalog;
+  private final AtomicInteger requests = new AtomicInteger();
+  private volatile List<ApiMetricSchema> schemas = schemas("cpu_user_rate");
+  private volatile boolean failing;
+
+  @Rule
+  public final TestApiServer server = new TestApiServer(new HttpHandler() {
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      requests.incrementAndGet();
+      String path = exchange.getRequestURI().getPath();
+      Object entity;
+      if (path.endsWith("/schema")) {
+        entity = new ApiMetricSchemaList(schemas);
+      } else if (path.endsWith("/entityTypes")) {
+        ApiTimeSeriesEntityType type = new ApiTimeSeriesEntityType();
+        type.setName("HOST");
+        type.setCategory("HOST");
+        entity = new ApiTimeSeriesEntityTypeList(
+            Collections.singletonList(type));
+      } else {
+        entity = new ApiTimeSeriesEntityAttributeList(
+            Collections.singletonList(new ApiTimeSeriesEntityAttribute(
+                "hostname", "Host Name", "The host name.", false)));
+      }
+      TestApiServer.sendJson(exchange, failing ? 500 : 200, entity);
+    }
+  });
+
+  @Before
+  public void setUp() {
+    TimeSeriesResourceV11 timeSeries = server.newClientBuilder()
+        .build()
+        .getRootV11()
+        .getTimeSeriesResource();
+    catalog = new MetricSchemaCatalog(timeSeries);
+  }
+
+  @After
+  public void tearDown() {
+    catalog.stopRefresh();
+  }
+
+  @Test
+  public void testLookups() {
+    assertEquals(0, catalog.getLastRefreshTime());
+    assertEquals("cpu_user_rate",
+        catalog.getMetric("cpu_user_rate").getName());
+    assertEquals(3, requests.get());
+    assertTrue(catalog.getLastRefreshTime() > 0);
+
+    assertNull(catalog.getMetric("cpu_user"));
+    assertEquals("cpu_user_rate", catalog.resolve("cpu_user").getName());
+    assertNull(catalog.resolve("missing"));
+    assertEquals(2, catalog.getMetricsByAlias("legacy").size());
+    assertEquals(2, catalog.getMetricsBySource("CDH").size());
+    assertEquals(1, catalog.getMetricsBySource("HDFS").size());
+    assertTrue(catalog.getMetricsBySource("HBASE").isEmpty());
+    assertEquals(1,
+        catalog.getMetricsByUnit("seconds", "seconds").size());
+    assertEquals(1, catalog.getMetricsByUnit("bytes", null).size());
+    assertEquals(2, catalog.getMetrics().size());
+
+    assertEquals("HOST", catalog.getEntityType("HOST").getCategory());
+    assertNull(catalog.getEntityType("ROLE"));
+    assertEquals(1, catalog.getEntityTypes().size());
+    assertEquals("Host Name",
+        catalog.getEntityTypeAttribute("hostname").getDisplayName());
+    assertEquals(1, catalog.getEntityTypeAttributes().size());
+    // Lookups are served from memory.
+    assertEquals(3, requests.get());
+  }
+
+  @Test
+  public void testRefresh() {
+    assertNull(catalog.getMetric("mem_rss"));
+    schemas = schemas("mem_rss");
+    assertNull(catalog.getMetric("mem_rss"));
+    catalog.refresh();
+    assertEquals("mem_rss", catalog.getMetric("mem_rss").getName());
+    assertNull(catalog.getMetric("cpu_user_rate"));
+  }
+
+  @Test
+  public void testNullEntries() {
+    List<ApiMetricSchema> withNull = Lists.newArrayList(schemas("mem_rss"));
+    withNull.add(0, null);
+    schemas = withNull;
+    assertEquals("mem_rss", catalog.getMetric("mem_rss").getName());
+    assertEquals(2, catalog.getMetrics().size());
+  }
+
+  @Test
+  public void testBackgroundRefresh() throws Exception {
+    ScheduledExecutorService executor =
+        Executors.newSingleThreadScheduledExecutor();
+    try {
+      catalog.refresh();
+      failing = true;
+      catalog.startRefresh(executor, 10, TimeUnit.MILLISECONDS);
+      int before = requests.get();
+      while (requests.get() < before + 3) {
+        Thread.sleep(10);
+      }
+      // The failed refreshes kept the previous schema.
+      assertEquals("cpu_user_rate",
+          catalog.getMetric("cpu_user_rate").getName());
+
+      schemas = schemas("mem_rss");
+      failing = false;
+      long deadline = System.currentTimeMillis() + 10000;
+      while (catalog.getMetric("mem_rss") == null &&
+          System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      assertEquals("mem_rss", catalog.getMetric("mem_rss").getName());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static List<ApiMetricSchema> schemas(String name) {
+    ApiMetricSchema first = new ApiMetricSchema();
+    first.setName(name);
+    first.setUnitNumerator("seconds");
+    first.setUnitDenominator("seconds");
+    first.setAliases(ImmutableList.of("cpu_user", "legacy"));
+    first.setSources(ImmutableMap.<String, List<String>>of(
+        "CDH", ImmutableList.of("CDH4", "CDH5"),
+        "HDFS", ImmutableList.of("CDH5")));
+    ApiMetricSchema second = new ApiMetricSchema();
+    second.setName(name + "_bytes");
+    second.setUnitNumerator("bytes");
+    second.setAliases(ImmutableList.of("legacy"));
+    second.setSources(ImmutableMap.<String, List<String>>of(
+        "CDH", ImmutableList.of("CDH5")));
+    return Lists.newArrayList(first, second);
+  }
+}
@@ -0,0 +1,87 @@
+// Licensed to Cloudera, Inc. under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  Cloudera, Inc. licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.api;
+
+import com.cloudera.api.model.ApiClusterList;
+import com.cloudera.api.v16.ClustersResourceV16;
+import com.google.common.collect.Sets;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+
+import javax.net.ssl.TrustManager;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class SharedSocketFactoryTest {
+
+  /** Client ports of the connections the requests came from. */
+  private final Set<Integer> connections =
+      Collections.synchronizedSet(Sets.<Integer>newHashSet());
+
+  @Rule
+  public final TestApiServer server = new TestApiServer(new HttpHandler() {
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      connections.add(exchange.getRemoteAddress().getPort());
+      TestApiServer.sendJson(exchange, 200, new ApiClusterList());
+    }
+  }).enableTls();
+
+  private ClustersResourceV16 newClient(SharedSocketFactory factory) {
+    ClouderaManagerClientBuilder builder = server.newClientBuilder();
+    if (factory != null) {
+      builder.withSharedSocketFactory(factory);
+    }
+    return builder.build().getRootV16().getClustersResource();
+  }
+
+  @Test
+  public void testReusesConnections() {
+    for (int i = 0; i < 4; i++) {
+      newClient(null).readClusters(null);
+    }
+    assertEquals(4, connections.size());
+
+    connections.clear();
+    SharedSocketFactory factory = new SharedSocketFactory();
+    for (int i = 0; i < 4; i++) {
+      newClient(factory).readClusters(null);
+    }
+    assertEquals(1, connections.size());
+  }
+
+  @Test
+  public void testTrustConfigurations() {
+    SharedSocketFactory factory = new SharedSocketFactory();
+    TrustManager[] trust = new TrustManager[0];
+    assertSame(factory.getSocketFactory(null),
+        factory.getSocketFactory(null));
+    assertSame(factory.getSocketFactory(trust),
+        factory.getSocketFactory(trust));
+    assertNotSame(factory.getSocketFactory(null),
+        factory.getSocketFactory(trust));
+  }
+}
@@ -0,0 +1,159 @@
+// Licensed to Cloudera, Inc. under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  Cloudera, Inc. licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.api;
+
+import com.cloudera.api.model.ApiTimeSeries;
+import com.cloudera.api.model.ApiTimeSeriesData;
+import com.cloudera.api.model.ApiTimeSeriesMetadata;
+import com.cloudera.api.model.ApiTimeSeriesResponse;
+import com.cloudera.api.model.ApiTimeSeriesResponseList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Collection;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class StringDeduplicationModuleTest {
+
+  @Test
+  public void testPool() {
+    StringDeduplicationModule.StringPool pool =
+        new StringDeduplicationModule.StringPool(16);
+    char[] chars = "xxhdfs".toCharArray();
+    String first = pool.get(chars, 2, 4);
+    assertEquals("hdfs", first);
+    assertSame(first, pool.get("hdfs".toCharArray(), 0, 4));
+
+    // Strings seen once do not evict the ones that recur.
+    for (int i = 0; i < 1000; i++) {
+      pool.get(("host" + i).toCharArray(), 0, ("host" + i).length());
+    }
+    assertSame(first, pool.get("hdfs".toCharArray(), 0, 4));
+
+    char[] text = new char[StringDeduplicationModule.MAX_LENGTH + 1];
+    assertNotSame(pool.get(text, 0, text.length),
+        pool.get(text, 0, text.length));
+  }
+
+  @Test
+  public void testHeapFootprint() throws Exception {
+    byte[] json = new ApiObjectMapper(false).writeValueAsBytes(
+        newTimeSeries(20, 10, 50));
+
+    ApiTimeSeriesResponseList plain = new ApiObjectMapper()
+        .readValue(json, ApiTimeSeriesResponseList.class);
+    ApiTimeSeriesResponseList deduplicated = new ApiObjectMapper()
+        .enableStringDeduplication(1024)
+        .readValue(json, ApiTimeSeriesResponseList.class);
+    assertEquals(new String(json, "UTF-8"),
+        new ApiObjectMapper(false).writeValueAsString(deduplicated));
+
+    List<ApiTimeSeries> series =
+        deduplicated.getResponses().get(0).getTimeSeries();
+    assertSame(series.get(0).getMetadata().getEntityName(),
+        series.get(20).getMetadata().getEntityName());
+    assertSame(series.get(0).getData().get(0).getType(),
+        series.get(1).getData().get(1).getType());
+
+    long plainBytes = stringBytes(plain);
+    long deduplicatedBytes = stringBytes(deduplicated);
+    assertTrue(plainBytes + " -> " + deduplicatedBytes,
+        deduplicatedBytes * 10 < plainBytes);
+  }
+
+  private static ApiTimeSeriesResponseList newTimeSeries(int hosts,
+      int metrics, int points) {
+    List<ApiTimeSeries> series = Lists.newArrayList();
+    for (int m = 0; m < metrics; m++) {
+      for (int h = 0; h < hosts; h++) {
+        ApiTimeSeriesMetadata metadata = new ApiTimeSeriesMetadata();
+        metadata.setMetricName("metric" + m);
+        metadata.setEntityName("host" + h + ".example.com");
+        metadata.setAttributes(ImmutableMap.of(
+            "hostname", "host" + h + ".example.com",
+            "category", "HOST",
+            "rackId", "/default"));
+        metadata.setUnitNumerators(Lists.newArrayList("bytes"));
+        metadata.setRollupUsed("RAW");
+        List<ApiTimeSeriesData> data = Lists.newArrayList();
+        for (int p = 0; p < points; p++) {
+          ApiTimeSeriesData point = new ApiTimeSeriesData();
+          point.setTimestamp(new Date(p * 60000L));
+          point.setValue(p);
+          point.setType("SAMPLE");
+          data.add(point);
+        }
+        series.add(new ApiTimeSeries(metadata, data));
+      }
+    }
+    ApiTimeSeriesResponse response = new ApiTimeSeriesResponse();
+    response.setTimeSeries(series);
+    ApiTimeSeriesResponseList list = new ApiTimeSeriesResponseList();
+    list.setResponses(Lists.newArrayList(response));
+    return list;
+  }
+
+  /**
+   * @return An estimate of the heap taken by the distinct strings reachable
+   *         from the given model object.
+   */
+  private static long stringBytes(Object root) throws Exception {
+    IdentityHashMap<Object, Boolean> seen =
+        new IdentityHashMap<Object, Boolean>();
+    List<Object> pending = Lists.newArrayList(root);
+    long bytes = 0;
+    while (!pending.isEmpty()) {
+      Object o = pending.remove(pending.size() - 1);
+      if (o == null || seen.put(o, true) != null) {
+        continue;
+      }
+      if (o instanceof String) {
+        // Object and char array headers, fields and characters.
+        bytes += 40 + 2 * ((String) o).length();
+      } else if (o instanceof Collection) {
+        pending.addAll((Collection<?>) o);
+      } else if (o instanceof Map) {
+        pending.addAll(((Map<?, ?>) o).keySet());
+        pending.addAll(((Map<?, ?>) o).values());
+      } else if (o.getClass().getName().startsWith("com.cloudera.api.")) {
+        for (Class<?> c = o.getClass(); c != Object.class;
+             c = c.getSuperclass()) {
+          for (Field field : c.getDeclaredFields()) {
+            if (!Modifier.isStatic(field.getModifiers()) &&
+                !field.getType().isPrimitive()) {
+              field.setAccessible(true);
+              pending.add(field.get(o));
+            }
+          }
+        }
+      }
+    }
+    return bytes;
+  }
+}
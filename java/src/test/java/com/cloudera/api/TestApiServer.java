@@ -0,0 +1,149 @@
+// Licensed to Cloudera, Inc. under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  Cloudera, Inc. licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.api;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+
+import org.junit.rules.ExternalResource;
+
+/**
+ * An HTTP server on a free local port, serving the API context with a
+ * handler, around each test of a class:
+ * <pre>
+ *   &#64;Rule
+ *   public final TestApiServer server = new TestApiServer(handler);
+ * </pre>
+ * Requests are handled one at a time, unless {@link #handleConcurrently()}
+ * is called, over plain HTTP, unless {@link #enableTls()} is called.
+ */
+public class TestApiServer extends ExternalResource {
+
+  private static final ApiObjectMapper MAPPER = new ApiObjectMapper();
+
+  private final HttpHandler handler;
+  private boolean concurrent;
+  private boolean tls;
+  private HttpServer server;
+  private ExecutorService executor;
+
+  public TestApiServer(HttpHandler handler) {
+    this.handler = handler;
+  }
+
+  /** Handles requests concurrently, each in its own thread. */
+  public TestApiServer handleConcurrently() {
+    this.concurrent = true;
+    return this;
+  }
+
+  /**
+   * Serves HTTPS, with a self-signed certificate for localhost. Clients
+   * are built with certificate validation disabled.
+   */
+  public TestApiServer enableTls() {
+    this.tls = true;
+    return this;
+  }
+
+  @Override
+  protected void before() throws IOException {
+    InetSocketAddress address = new InetSocketAddress("localhost", 0);
+    if (tls) {
+      HttpsServer https = HttpsServer.create(address, 0);
+      https.setHttpsConfigurator(new HttpsConfigurator(newSslContext()));
+      server = https;
+    } else {
+      server = HttpServer.create(address, 0);
+    }
+    if (concurrent) {
+      executor = Executors.newCachedThreadPool();
+      server.setExecutor(executor);
+    }
+    server.createContext("/api", handler);
+    server.start();
+  }
+
+  @Override
+  protected void after() {
+    server.stop(0);
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  /** @return A builder of clients of this server. */
+  public ClouderaManagerClientBuilder newClientBuilder() {
+    ClouderaManagerClientBuilder builder = new ClouderaManagerClientBuilder()
+        .withHost("localhost")
+        .withPort(getPort());
+    if (tls) {
+      builder.enableTLS().disableTlsCertValidation();
+    }
+    return builder;
+  }
+
+  private static SSLContext newSslContext() throws IOException {
+    char[] password = "changeit".toCharArray();
+    InputStream in = TestApiServer.class.getResourceAsStream(
+        "/test-server.jks");
+    try {
+      KeyStore keys = KeyStore.getInstance("JKS");
+      keys.load(in, password);
+      KeyManagerFactory managers = KeyManagerFactory.getInstance(
+          KeyManagerFactory.getDefaultAlgorithm());
+      managers.init(keys, password);
+      SSLContext context = SSLContext.getInstance("TLS");
+      context.init(managers.getKeyManagers(), null, null);
+      return context;
+    } catch (GeneralSecurityException e) {
+      throw new IOException(e);
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Responds with an entity, as JSON, and ends the exchange.
+   */
+  public static void sendJson(HttpExchange exchange, int status,
+                              Object entity) throws IOException {
+    byte[] body = MAPPER.writeValueAsBytes(entity);
+    exchange.getResponseHeaders().add("Content-Type", "application/json");
+    exchange.sendResponseHeaders(status, body.length);
+    exchange.getResponseBody().write(body);
+    exchange.close();
+  }
+}
@@ -0,0 +1,215 @@
+// Licensed to Cloudera, Inc. under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  Cloudera, Inc. licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.api;
+
+import com.cloudera.api.model.ApiTimeSeries;
+import com.cloudera.api.model.ApiTimeSeriesData;
+import com.cloudera.api.model.ApiTimeSeriesMetadata;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TimeSeriesAnalyticsTest {
+
+  @Test
+  public void testDigestQuantiles() {
+    Random random = new Random(42);
+    TimeSeriesAnalytics.Digest digest = new TimeSeriesAnalytics.Digest(100);
+    double[] values = new double[200000];
+    for (int i = 0; i < values.length; i++) {
+      // Skewed, as latencies or loads usually are.
+      values[i] = Math.exp(random.nextGaussian());
+      digest.add(values[i]);
+    }
+    Arrays.sort(values);
+    assertEquals(values.length, digest.getCount());
+    assertEquals(values[0], digest.getMin(), 0);
+    assertEquals(values[values.length - 1], digest.getMax(), 0);
+    assertEquals(values[0], digest.quantile(0), 0);
+    assertEquals(values[values.length - 1], digest.quantile(1), 0);
+    for (double q : new double[] { 0.01, 0.5, 0.9, 0.95, 0.99, 0.999 }) {
+      assertRank(values, q, digest.quantile(q), 0.002);
+    }
+    assertTrue(digest.getCentroidCount() <= 100);
+  }
+
+  @Test
+  public void testDigestMerge() {
+    Random random = new Random(7);
+    TimeSeriesAnalytics.Digest whole = new TimeSeriesAnalytics.Digest(100);
+    List<TimeSeriesAnalytics.Digest> parts = Lists.newArrayList();
+    double[] values = new double[100000];
+    for (int i = 0; i < 10; i++) {
+      parts.add(whole.emptyCopy());
+    }
+    for (int i = 0; i < values.length; i++) {
+      values[i] = random.nextDouble() * 100;
+      // Each part covers a range of values, as chunks of a trend would.
+      parts.get((int) (values[i] / 10)).add(values[i]);
+    }
+    for (TimeSeriesAnalytics.Digest part : parts) {
+      whole.merge(part);
+    }
+    Arrays.sort(values);
+    assertEquals(values.length, whole.getCount());
+    assertEquals(values[0], whole.getMin(), 0);
+    for (double q : new double[] { 0.001, 0.05, 0.5, 0.95, 0.99 }) {
+      assertRank(values, q, whole.quantile(q), 0.002);
+    }
+    assertTrue(whole.getCentroidCount() <= 100);
+  }
+
+  /**
+   * Checks that the rank of an estimate is within an error of the quantile.
+   */
+  private static void assertRank(double[] sorted, double q, double estimate,
+                                 double error) {
+    int rank = Arrays.binarySearch(sorted, estimate);
+    rank = rank >= 0 ? rank : -rank - 1;
+    double actual = (double) rank / sorted.length;
+    assertTrue(q + ": " + actual, Math.abs(actual - q) <= error);
+  }
+
+  @Test
+  public void testTopK() {
+    Random random = new Random(3);
+    Map<String, Double> max = Maps.newHashMap();
+    Map<String, Double> min = Maps.newHashMap();
+    List<TimeSeriesAnalytics.TopK> largest = Lists.newArrayList();
+    List<TimeSeriesAnalytics.TopK> smallest = Lists.newArrayList();
+    for (int i = 0; i < 4; i++) {
+      largest.add(new TimeSeriesAnalytics.TopK(5, true));
+      smallest.add(new TimeSeriesAnalytics.TopK(5, false));
+    }
+    for (int i = 0; i < 10000; i++) {
+      String host = "host" + random.nextInt(200);
+      double value = random.nextDouble() * 1000;
+      largest.get(i % 4).add(host, value);
+      smallest.get(i % 4).add(host, value);
+      max.put(host, Math.max(value,
+          max.containsKey(host) ? max.get(host) : value));
+      min.put(host, Math.min(value,
+          min.containsKey(host) ? min.get(host) : value));
+    }
+    for (int i = 1; i < 4; i++) {
+      largest.get(0).merge(largest.get(i));
+      smallest.get(0).merge(smallest.get(i));
+    }
+    assertEquals(top(max, true), largest.get(0).getTop());
+    assertEquals(top(min, false), smallest.get(0).getTop());
+  }
+
+  private static List<Map.Entry<String, Double>> top(
+      Map<String, Double> scores, final boolean largest) {
+    List<Map.Entry<String, Double>> sorted =
+        Lists.newArrayList(scores.entrySet());
+    Collections.sort(sorted,
+        new Comparator<Map.Entry<String, Double>>() {
+          @Override
+          public int compare(Map.Entry<String, Double> a,
+                             Map.Entry<String, Double> b) {
+            return largest ? Double.compare(b.getValue(), a.getValue()) :
+                Double.compare(a.getValue(), b.getValue());
+          }
+        });
+    List<Map.Entry<String, Double>> top = Lists.newArrayList();
+    for (Map.Entry<String, Double> entry : sorted.subList(0, 5)) {
+      top.add(Maps.immutableEntry(entry.getKey(), entry.getValue()));
+    }
+    return top;
+  }
+
+  @Test
+  public void testHistogram() {
+    TimeSeriesAnalytics.Histogram histogram =
+        TimeSeriesAnalytics.Histogram.linear(0, 10, 3);
+    assertArrayEquals(new double[] { 0, 10, 20, 30 },
+        histogram.getBounds(), 0);
+    for (double value : new double[] { -1, 0, 9.9, 10, 25, 30, 1e9 }) {
+      histogram.add(value);
+    }
+    TimeSeriesAnalytics.Histogram other = histogram.emptyCopy();
+    other.add(15);
+    other.add(Double.NaN);
+    histogram.merge(other);
+    assertArrayEquals(new long[] { 1, 2, 2, 1, 2 }, histogram.getCounts());
+    assertEquals(8, histogram.getTotalCount());
+
+    assertArrayEquals(new double[] { 1, 2, 4, 8 },
+        TimeSeriesAnalytics.Histogram.exponential(1, 2, 3).getBounds(), 0);
+    try {
+      histogram.merge(TimeSeriesAnalytics.Histogram.linear(0, 5, 3));
+      fail();
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void testSeries() {
+    TimeSeriesAnalytics analytics = new TimeSeriesAnalytics(
+        new TimeSeriesAnalytics.Digest(100),
+        new TimeSeriesAnalytics.TopK(2, true),
+        new TimeSeriesAnalytics.Histogram(50));
+    for (int host = 1; host <= 3; host++) {
+      ApiTimeSeriesMetadata metadata = new ApiTimeSeriesMetadata();
+      metadata.setEntityName("host" + host);
+      List<ApiTimeSeriesData> data = Lists.newArrayList();
+      for (int i = 0; i < 10; i++) {
+        data.add(point(i * 1000L, host * 10 + i));
+      }
+      data.add(point(10000, Double.NaN));
+      ApiTimeSeries series = new ApiTimeSeries(metadata, data);
+      if (host == 3) {
+        analytics.add(ColumnarTimeSeries.of(series));
+      } else {
+        analytics.add(series);
+      }
+    }
+    assertEquals(30, analytics.getDigest().getCount());
+    assertEquals(10, analytics.getDigest().getMin(), 0);
+    assertEquals(39, analytics.getDigest().getMax(), 0);
+    List<Map.Entry<String, Double>> top = Lists.newArrayList();
+    top.add(Maps.immutableEntry("host3", 39.0));
+    top.add(Maps.immutableEntry("host2", 29.0));
+    assertEquals(top, analytics.getTopK().getTop());
+    assertArrayEquals(new long[] { 30, 0 },
+        analytics.getHistogram().getCounts());
+  }
+
+  private static ApiTimeSeriesData point(long time, double value) {
+    ApiTimeSeriesData point = new ApiTimeSeriesData();
+    point.setTimestamp(new Date(time));
+    point.setValue(value);
+    point.setType("SAMPLE");
+    return point;
+  }
+}
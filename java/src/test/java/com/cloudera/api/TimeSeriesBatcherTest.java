@@ -0,0 +1,196 @@
+// Licensed to Cloudera, Inc. under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  Cloudera, Inc. licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.api;
+
+import com.cloudera.api.model.ApiTimeSeries;
+import com.cloudera.api.model.ApiTimeSeriesMetadata;
+import com.cloudera.api.model.ApiTimeSeriesRequest;
+import com.cloudera.api.model.ApiTimeSeriesResponse;
+import com.cloudera.api.model.ApiTimeSeriesResponseList;
+import com.cloudera.api.v11.TimeSeriesResourceV11;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.WebApplicationException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TimeSeriesBatcherTest {
+
+  private static final ApiObjectMapper MAPPER = new ApiObjectMapper();
+
+  private ScheduledExecutorService executor;
+  private TimeSeriesResourceV11 timeSeries;
+  /** The queries received. */
+  private final List<String> queries =
+      Collections.synchronizedList(Lists.<String>newArrayList());
+
+  @Rule
+  public final TestApiServer server = new TestApiServer(new HttpHandler() {
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      ApiTimeSeriesRequest request = MAPPER.readValue(
+          exchange.getRequestBody(), ApiTimeSeriesRequest.class);
+      queries.add(request.getQuery());
+      List<ApiTimeSeriesResponse> responses = Lists.newArrayList();
+      int status = 200;
+      for (String statement : TimeSeriesBatcher.split(request.getQuery())) {
+        if (statement.equals("bad")) {
+          status = 400;
+        }
+        ApiTimeSeriesMetadata metadata = new ApiTimeSeriesMetadata();
+        metadata.setMetricName(statement + "/" + request.getDesiredRollup());
+        List<ApiTimeSeries> series = Lists.newArrayList(
+            new ApiTimeSeries(metadata, null));
+        responses.add(new ApiTimeSeriesResponse(series, null, statement));
+      }
+      byte[] body = MAPPER.writeValueAsBytes(
+          new ApiTimeSeriesResponseList(responses, null));
+      exchange.getResponseHeaders().add("Content-Type", "application/json");
+      exchange.sendResponseHeaders(status, body.length);
+      exchange.getResponseBody().write(body);
+      exchange.close();
+    }
+  });
+
+  @Before
+  public void setUp() {
+    executor = Executors.newSingleThreadScheduledExecutor();
+    timeSeries = server.newClientBuilder()
+        .build()
+        .getRootV11()
+        .getTimeSeriesResource();
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  private static ApiTimeSeriesRequest request(String query, String from,
+                                              String rollup) {
+    return new ApiTimeSeriesRequest(query, from, "now", null, rollup, null);
+  }
+
+  private static void assertResponses(ApiTimeSeriesResponseList list,
+                                      String rollup, String... statements) {
+    assertEquals(statements.length, list.getResponses().size());
+    for (int i = 0; i < statements.length; i++) {
+      ApiTimeSeriesResponse response = list.getResponses().get(i);
+      assertEquals(statements[i], response.getTimeSeriesQuery());
+      assertEquals(statements[i] + "/" + rollup,
+          response.getTimeSeries().get(0).getMetadata().getMetricName());
+    }
+  }
+
+  @Test
+  public void testSplit() {
+    assertEquals(Lists.newArrayList("select a", "select b where x = \"1;2\"",
+        "select c where y = ';'"), TimeSeriesBatcher.split(
+            " select a;select b where x = \"1;2\" ; ;select c where y = ';';"));
+  }
+
+  @Test
+  public void testQueryAll() {
+    TimeSeriesBatcher batcher =
+        new TimeSeriesBatcher(timeSeries, MAPPER, executor);
+    List<ApiTimeSeriesResponseList> results = batcher.queryAll(
+        Lists.newArrayList(
+            request("select a", "-1h", null),
+            request("select b; select a", "-1h", "RAW"),
+            request("select a", "-2h", null),
+            request("select a", "-1h", "HOURLY"),
+            request("select c;select b", "-1h", null)));
+    assertEquals(Lists.newArrayList("select a; select b; select c",
+        "select a", "select a"), queries);
+    assertResponses(results.get(0), "RAW", "select a");
+    assertResponses(results.get(1), "RAW", "select b", "select a");
+    assertResponses(results.get(2), "RAW", "select a");
+    assertResponses(results.get(3), "HOURLY", "select a");
+    assertResponses(results.get(4), "RAW", "select c", "select b");
+  }
+
+  @Test
+  public void testSubmit() throws Exception {
+    TimeSeriesBatcher batcher =
+        new TimeSeriesBatcher(timeSeries, MAPPER, executor)
+            .setMaxDelay(200, TimeUnit.MILLISECONDS);
+    List<ListenableFuture<ApiTimeSeriesResponseList>> futures =
+        Lists.newArrayList();
+    for (int i = 0; i < 10; i++) {
+      futures.add(batcher.submit(request("select m" + i % 5, null, null)));
+    }
+    for (int i = 0; i < 10; i++) {
+      assertResponses(futures.get(i).get(), "RAW", "select m" + i % 5);
+    }
+    assertEquals(1, queries.size());
+  }
+
+  @Test
+  public void testMaxStatements() throws Exception {
+    TimeSeriesBatcher batcher =
+        new TimeSeriesBatcher(timeSeries, MAPPER, executor)
+            .setMaxDelay(1, TimeUnit.HOURS)
+            .setMaxStatements(2);
+    ListenableFuture<ApiTimeSeriesResponseList> first =
+        batcher.submit(request("select a", null, null));
+    ListenableFuture<ApiTimeSeriesResponseList> second =
+        batcher.submit(request("select b", null, null));
+    assertResponses(first.get(10, TimeUnit.SECONDS), "RAW", "select a");
+    assertResponses(second.get(10, TimeUnit.SECONDS), "RAW", "select b");
+  }
+
+  @Test
+  public void testFallback() throws Exception {
+    TimeSeriesBatcher batcher =
+        new TimeSeriesBatcher(timeSeries, MAPPER, executor)
+            .setMaxDelay(100, TimeUnit.MILLISECONDS);
+    ListenableFuture<ApiTimeSeriesResponseList> good =
+        batcher.submit(request("select a", null, null));
+    ListenableFuture<ApiTimeSeriesResponseList> bad =
+        batcher.submit(request("bad", null, null));
+    assertResponses(good.get(), "RAW", "select a");
+    try {
+      bad.get();
+      fail();
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof WebApplicationException);
+      assertFalse(((WebApplicationException) e.getCause()).getResponse()
+          .hasEntity());
+    }
+    assertEquals(Lists.newArrayList("select a; bad", "select a", "bad"),
+        queries);
+  }
+}
@@ -0,0 +1,283 @@
+// Licensed to Cloudera, Inc. under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  Cloudera, Inc. licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.api;
+
+import com.cloudera.api.model.ApiTimeSeries;
+import com.cloudera.api.model.ApiTimeSeriesData;
+import com.cloudera.api.model.ApiTimeSeriesMetadata;
+import com.cloudera.api.model.ApiTimeSeriesResponse;
+import com.cloudera.api.model.ApiTimeSeriesResponseList;
+import com.cloudera.api.v6.TimeSeriesResourceV6;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TimeSeriesCacheTest {
+
+  private static final ApiObjectMapper MAPPER = new ApiObjectMapper();
+  private static final long MINUTE = 60000;
+  /** 2017-01-01T00:00:00.000Z. */
+  private static final long START = 1483228800000L;
+
+  private TimeSeriesResourceV6 timeSeries;
+  /** The periods fetched, as "from/to" in minutes since START. */
+  private final List<String> fetched =
+      Collections.synchronizedList(Lists.<String>newArrayList());
+  private volatile boolean failing;
+
+  @Rule
+  public final TestApiServer server = new TestApiServer(new HttpHandler() {
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      Map<String, String> params = Maps.newHashMap();
+      for (String param :
+           exchange.getRequestURI().getRawQuery().split("&")) {
+        String[] pair = param.split("=", 2);
+        params.put(pair[0], URLDecoder.decode(pair[1], "UTF-8"));
+      }
+      long from = ApiUtils.newDateFromString(params.get("from")).getTime();
+      long to = ApiUtils.newDateFromString(params.get("to")).getTime();
+      fetched.add((from - START) / MINUTE + "/" + (to - START) / MINUTE);
+      byte[] body = MAPPER.writeValueAsBytes(
+          query(params.get("query"), from, to));
+      exchange.getResponseHeaders().add("Content-Type", "application/json");
+      exchange.sendResponseHeaders(failing ? 500 : 200, body.length);
+      exchange.getResponseBody().write(body);
+      exchange.close();
+    }
+  });
+
+  @Before
+  public void setUp() {
+    timeSeries = server.newClientBuilder()
+        .build()
+        .getRootV6()
+        .getTimeSeriesResource();
+  }
+
+  /**
+   * Serves a point every minute over [from, to], for two hosts.
+   */
+  private static ApiTimeSeriesResponseList query(String query, long from,
+                                                 long to) {
+    List<ApiTimeSeries> series = Lists.newArrayList();
+    for (String host : new String[] { "host1", "host2" }) {
+      ApiTimeSeriesMetadata metadata = new ApiTimeSeriesMetadata();
+      metadata.setMetricName("cpu_percent");
+      metadata.setEntityName(host);
+      metadata.setStartTime(new Date(from));
+      metadata.setEndTime(new Date(to));
+      metadata.setRollupUsed("RAW");
+      List<ApiTimeSeriesData> data = Lists.newArrayList();
+      for (long t = (from + MINUTE - 1) / MINUTE * MINUTE; t <= to;
+           t += MINUTE) {
+        ApiTimeSeriesData point = new ApiTimeSeriesData();
+        point.setTimestamp(new Date(t));
+        point.setValue(t / MINUTE % 97);
+        point.setType("SAMPLE");
+        data.add(point);
+      }
+      series.add(new ApiTimeSeries(metadata, data));
+    }
+    ApiTimeSeriesResponse response = new ApiTimeSeriesResponse(series,
+        Lists.newArrayList("warning"), query);
+    ApiTimeSeriesResponseList list = new ApiTimeSeriesResponseList();
+    list.setResponses(Lists.newArrayList(response));
+    return list;
+  }
+
+  private static String date(long minutes) {
+    return ApiUtils.printDate(new Date(START + minutes * MINUTE));
+  }
+
+  private String direct(String query, long from, long to) throws IOException {
+    Response response = timeSeries.queryTimeSeries(query, date(from),
+        date(to), MediaType.APPLICATION_JSON, "RAW", true);
+    return MAPPER.writeValueAsString(MAPPER.readValue(
+        (InputStream) response.getEntity(), ApiTimeSeriesResponseList.class));
+  }
+
+  private void assertQuery(TimeSeriesCache cache, long from, long to,
+                           String... fetches) throws IOException {
+    fetched.clear();
+    ApiTimeSeriesResponseList result =
+        cache.query("q", date(from), date(to), null);
+    assertEquals(Lists.newArrayList(fetches), fetched);
+    assertEquals(direct("q", from, to), MAPPER.writeValueAsString(result));
+  }
+
+  @Test
+  public void testIncrementalFetch() throws IOException {
+    TimeSeriesCache cache = new TimeSeriesCache(timeSeries, 1 << 20);
+    assertQuery(cache, 0, 60, "0/60");
+    // Only the part after the cached period.
+    assertQuery(cache, 30, 90, "60/90");
+    // All from the cache.
+    assertQuery(cache, 10, 50);
+    // Only the part before.
+    assertQuery(cache, -30, 40, "-30/0");
+    // Both.
+    assertQuery(cache, -40, 100, "-40/-30", "90/100");
+    // Not overlapping: replaces the cached period.
+    assertQuery(cache, 200, 210, "200/210");
+    assertQuery(cache, 0, 10, "0/10");
+  }
+
+  @Test
+  public void testRecentPointsRefetched() throws IOException {
+    TimeSeriesCache cache = new TimeSeriesCache(timeSeries, 1 << 20)
+        .setRefetchPeriod(10, TimeUnit.MINUTES);
+    long now = (System.currentTimeMillis() - START) / MINUTE;
+    fetched.clear();
+    cache.query("q", date(now - 60), date(now), null);
+    cache.query("q", date(now - 60), date(now), null);
+    assertEquals(2, fetched.size());
+    String[] refetched = fetched.get(1).split("/");
+    assertTrue(fetched.get(1),
+        Long.parseLong(refetched[0]) >= now - 11 &&
+        Long.parseLong(refetched[0]) < now);
+  }
+
+  @Test
+  public void testEviction() throws IOException {
+    // Room for one period of 61 points for two hosts.
+    TimeSeriesCache cache = new TimeSeriesCache(timeSeries, 5000);
+    assertQuery(cache, 0, 60, "0/60");
+    assertTrue(cache.getSizeInBytes() > 0);
+    assertTrue(cache.getSizeInBytes() <= 5000);
+    fetched.clear();
+    cache.query("other", date(0), date(60), null);
+    assertTrue(cache.getSizeInBytes() <= 5000);
+    assertQuery(cache, 0, 60, "0/60");
+
+    cache.clear();
+    assertEquals(0, cache.getSizeInBytes());
+    assertQuery(cache, 0, 60, "0/60");
+  }
+
+  @Test
+  public void testFailure() throws IOException {
+    TimeSeriesCache cache = new TimeSeriesCache(timeSeries, 1 << 20);
+    failing = true;
+    try {
+      cache.query("q", date(0), date(60), null);
+      fail("Query should have failed.");
+    } catch (WebApplicationException e) {
+      assertEquals(500, e.getResponse().getStatus());
+      assertFalse(e.getResponse().hasEntity());
+    }
+    assertEquals(0, cache.getSizeInBytes());
+
+    failing = false;
+    assertQuery(cache, 0, 60, "0/60");
+  }
+
+  @Test
+  public void testSaveAndLoad() throws IOException {
+    TimeSeriesCache cache = new TimeSeriesCache(timeSeries, 1 << 20);
+    assertQuery(cache, 0, 60, "0/60");
+    File dir = Files.createTempDir();
+    File file = new File(dir, "timeseries.cache");
+    try {
+      cache.save(file);
+      // Replaces the previous file, leaving nothing else behind.
+      cache.save(file);
+      assertArrayEquals(new String[] { file.getName() }, dir.list());
+      TimeSeriesCache loaded = new TimeSeriesCache(timeSeries, 1 << 20);
+      loaded.load(file);
+      assertEquals(cache.getSizeInBytes(), loaded.getSizeInBytes());
+      assertQuery(loaded, 10, 50);
+      assertQuery(loaded, 30, 70, "60/70");
+    } finally {
+      file.delete();
+      dir.delete();
+    }
+  }
+
+  @Test
+  public void testLoadDamagedFile() throws IOException {
+    TimeSeriesCache cache = new TimeSeriesCache(timeSeries, 1 << 20);
+    assertQuery(cache, 0, 60, "0/60");
+    File file = File.createTempFile("timeseries", ".cache");
+    try {
+      cache.save(file);
+      byte[] saved = Files.toByteArray(file);
+
+      // Torn by a crash.
+      Files.write(Arrays.copyOf(saved, saved.length / 2), file);
+      assertNotLoaded(file);
+
+      // Corrupt.
+      byte[] corrupt = saved.clone();
+      corrupt[saved.length / 2] ^= 1;
+      Files.write(corrupt, file);
+      assertNotLoaded(file);
+
+      // Inconsistent, yet with a valid checksum.
+      ByteBuffer inconsistent = ByteBuffer.wrap(saved.clone());
+      int trailer = saved.length - 28;
+      inconsistent.putInt(trailer - inconsistent.getInt(trailer + 8), 1000);
+      CRC32 crc = new CRC32();
+      crc.update(inconsistent.array(), 0, trailer);
+      inconsistent.putLong(trailer + 12, crc.getValue());
+      Files.write(inconsistent.array(), file);
+      assertNotLoaded(file);
+    } finally {
+      file.delete();
+    }
+  }
+
+  private void assertNotLoaded(File file) {
+    TimeSeriesCache loaded = new TimeSeriesCache(timeSeries, 1 << 20);
+    try {
+      loaded.load(file);
+      fail("Loaded a damaged file.");
+    } catch (IOException e) {
+      // Expected.
+    }
+    assertEquals(0, loaded.getSizeInBytes());
+  }
+}
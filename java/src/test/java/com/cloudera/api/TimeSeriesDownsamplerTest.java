@@ -0,0 +1,169 @@
+// Licensed to Cloudera, Inc. under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  Cloudera, Inc. licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.api;
+
+import com.google.common.collect.Lists;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TimeSeriesDownsamplerTest {
+
+  private static final long MINUTE = 60000;
+
+  private static ColumnarTimeSeries raw(int minutes, long seed) {
+    Random random = new Random(seed);
+    ColumnarTimeSeries.Builder builder =
+        new ColumnarTimeSeries.Builder(null, minutes);
+    for (int i = 1; i <= minutes; i++) {
+      builder.add(i * MINUTE, random.nextGaussian() * 10 + 50, "SAMPLE");
+    }
+    return builder.build();
+  }
+
+  @Test
+  public void testAggregate() {
+    ColumnarTimeSeries series = raw(600, 1);
+    ColumnarTimeSeries rollup =
+        TimeSeriesDownsampler.aggregate(series, 10, TimeUnit.MINUTES);
+    assertEquals(60, rollup.size());
+    for (int b = 0; b < 60; b++) {
+      // Minutes 10b + 1 to 10b + 10, the end included.
+      double sum = 0;
+      double min = Double.MAX_VALUE;
+      double max = -Double.MAX_VALUE;
+      for (int i = 10 * b; i < 10 * b + 10; i++) {
+        double value = series.getValue(i);
+        sum += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+      }
+      double mean = sum / 10;
+      double squares = 0;
+      for (int i = 10 * b; i < 10 * b + 10; i++) {
+        squares += Math.pow(series.getValue(i) - mean, 2);
+      }
+      assertEquals((b + 1) * 10 * MINUTE, rollup.getTimestamp(b));
+      assertEquals(TimeSeriesDownsampler.CALCULATED, rollup.getType(b));
+      assertEquals(10, rollup.getCounts()[b]);
+      assertEquals(mean, rollup.getValue(b), 1e-9);
+      assertEquals(mean, rollup.getMeans()[b], 1e-9);
+      assertEquals(min, rollup.getMins()[b], 0);
+      assertEquals(max, rollup.getMaxs()[b], 0);
+      assertEquals(Math.sqrt(squares / 10), rollup.getStdDevs()[b], 1e-9);
+      assertEquals(series.getTimestamp(10 * b + 9),
+          rollup.getSampleTimes()[b]);
+      assertEquals(series.getValue(10 * b + 9), rollup.getSampleValues()[b],
+          0);
+    }
+  }
+
+  @Test
+  public void testAggregateOfAggregates() {
+    ColumnarTimeSeries series = raw(6000, 2);
+    ColumnarTimeSeries hourly =
+        TimeSeriesDownsampler.aggregate(series, 1, TimeUnit.HOURS);
+    ColumnarTimeSeries rerolled = TimeSeriesDownsampler.aggregate(
+        TimeSeriesDownsampler.aggregate(series, 10, TimeUnit.MINUTES),
+        1, TimeUnit.HOURS);
+    assertEquals(100, hourly.size());
+    assertArrayEquals(hourly.getTimestamps(), rerolled.getTimestamps());
+    assertArrayEquals(hourly.getCounts(), rerolled.getCounts());
+    assertArrayEquals(hourly.getMins(), rerolled.getMins(), 0);
+    assertArrayEquals(hourly.getMaxs(), rerolled.getMaxs(), 0);
+    assertArrayEquals(hourly.getMinTimes(), rerolled.getMinTimes());
+    assertArrayEquals(hourly.getMaxTimes(), rerolled.getMaxTimes());
+    assertArrayEquals(hourly.getSampleTimes(), rerolled.getSampleTimes());
+    assertArrayEquals(hourly.getSampleValues(), rerolled.getSampleValues(),
+        0);
+    assertArrayEquals(hourly.getMeans(), rerolled.getMeans(), 1e-9);
+    assertArrayEquals(hourly.getStdDevs(), rerolled.getStdDevs(), 1e-9);
+  }
+
+  @Test
+  public void testAggregateSkipsNaN() {
+    ColumnarTimeSeries series = new ColumnarTimeSeries.Builder(null, 4)
+        .add(MINUTE, 1, "SAMPLE")
+        .add(2 * MINUTE, Double.NaN, "SAMPLE")
+        .add(3 * MINUTE, 3, "SAMPLE")
+        .add(11 * MINUTE, Double.NaN, "SAMPLE")
+        .build();
+    ColumnarTimeSeries rollup =
+        TimeSeriesDownsampler.aggregate(series, 10, TimeUnit.MINUTES);
+    assertEquals(1, rollup.size());
+    assertEquals(2, rollup.getCounts()[0]);
+    assertEquals(2, rollup.getValue(0), 0);
+  }
+
+  @Test
+  public void testLttb() {
+    ColumnarTimeSeries.Builder builder =
+        new ColumnarTimeSeries.Builder(null, 1000);
+    for (int i = 0; i < 1000; i++) {
+      builder.add(i * MINUTE, i == 500 ? 1000 : i % 2, "SAMPLE");
+    }
+    ColumnarTimeSeries series = builder.build();
+    ColumnarTimeSeries sampled = TimeSeriesDownsampler.lttb(series, 50);
+    assertEquals(50, sampled.size());
+    assertEquals(0, sampled.getTimestamp(0));
+    assertEquals(999 * MINUTE, sampled.getTimestamp(49));
+    boolean spike = false;
+    for (int i = 0; i < sampled.size(); i++) {
+      if (i > 0) {
+        assertTrue(sampled.getTimestamp(i) > sampled.getTimestamp(i - 1));
+      }
+      spike |= sampled.getValue(i) == 1000;
+    }
+    assertTrue(spike);
+    assertSame(sampled, TimeSeriesDownsampler.lttb(sampled, 50));
+    assertFalse(series == TimeSeriesDownsampler.lttb(series, 999));
+  }
+
+  @Test
+  public void testConcurrent() throws Exception {
+    List<ColumnarTimeSeries> series = Lists.newArrayList();
+    for (int i = 0; i < 20; i++) {
+      series.add(raw(1000, i));
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      TimeSeriesDownsampler downsampler = new TimeSeriesDownsampler(executor);
+      List<ColumnarTimeSeries> rollups =
+          downsampler.aggregate(series, 1, TimeUnit.HOURS);
+      List<ColumnarTimeSeries> sampled = downsampler.lttb(series, 100);
+      for (int i = 0; i < series.size(); i++) {
+        assertArrayEquals(TimeSeriesDownsampler.aggregate(series.get(i), 1,
+            TimeUnit.HOURS).getMeans(), rollups.get(i).getMeans(), 0);
+        assertArrayEquals(TimeSeriesDownsampler.lttb(series.get(i), 100)
+            .getTimestamps(), sampled.get(i).getTimestamps());
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
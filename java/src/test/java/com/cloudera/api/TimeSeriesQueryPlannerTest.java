@@ -0,0 +1,241 @@
+// Licensed to Cloudera, Inc. under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  Cloudera, Inc. licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.api;
+
+import com.cloudera.api.model.ApiTimeSeries;
+import com.cloudera.api.model.ApiTimeSeriesData;
+import com.cloudera.api.model.ApiTimeSeriesMetadata;
+import com.cloudera.api.model.ApiTimeSeriesRequest;
+import com.cloudera.api.model.ApiTimeSeriesResponse;
+import com.cloudera.api.model.ApiTimeSeriesResponseList;
+import com.cloudera.api.v11.TimeSeriesResourceV11;
+import com.google.common.collect.Lists;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TimeSeriesQueryPlannerTest {
+
+  private static final ApiObjectMapper MAPPER = new ApiObjectMapper();
+  private static final long MINUTE = 60000;
+  private static final long TEN_MINUTES = 10 * MINUTE;
+
+  private ExecutorService executor;
+  private TimeSeriesResourceV11 timeSeries;
+  private final AtomicInteger requests = new AtomicInteger();
+  private final AtomicInteger running = new AtomicInteger();
+  private final AtomicInteger maxRunning = new AtomicInteger();
+  private volatile boolean fail;
+
+  @Rule
+  public final TestApiServer server = new TestApiServer(new HttpHandler() {
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      int now = running.incrementAndGet();
+      synchronized (maxRunning) {
+        maxRunning.set(Math.max(maxRunning.get(), now));
+      }
+      requests.incrementAndGet();
+      try {
+        Thread.sleep(20);
+        ApiTimeSeriesRequest request = MAPPER.readValue(
+            exchange.getRequestBody(), ApiTimeSeriesRequest.class);
+        byte[] body = MAPPER.writeValueAsBytes(query(request));
+        exchange.getResponseHeaders().add("Content-Type",
+            "application/json");
+        exchange.sendResponseHeaders(fail ? 500 : 200, body.length);
+        exchange.getResponseBody().write(body);
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      } finally {
+        running.decrementAndGet();
+        exchange.close();
+      }
+    }
+  }).handleConcurrently();
+
+  @Before
+  public void setUp() {
+    executor = Executors.newCachedThreadPool();
+    timeSeries = server.newClientBuilder()
+        .build()
+        .getRootV11()
+        .getTimeSeriesResource();
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * Serves raw points every minute, or ten-minutely points at the end of each
+   * period, over [from, to], for two hosts.
+   */
+  private static ApiTimeSeriesResponseList query(ApiTimeSeriesRequest request) {
+    long from = ApiUtils.newDateFromString(request.getFrom()).getTime();
+    long to = ApiUtils.newDateFromString(request.getTo()).getTime();
+    boolean raw = request.getDesiredRollup().equals("RAW");
+    long step = raw ? MINUTE : TEN_MINUTES;
+    List<ApiTimeSeries> series = Lists.newArrayList();
+    for (String host : new String[] { "host1", "host2" }) {
+      ApiTimeSeriesMetadata metadata = new ApiTimeSeriesMetadata();
+      metadata.setMetricName("cpu_percent");
+      metadata.setEntityName(host);
+      metadata.setStartTime(new Date(from));
+      metadata.setEndTime(new Date(to));
+      metadata.setRollupUsed(request.getDesiredRollup());
+      List<ApiTimeSeriesData> data = Lists.newArrayList();
+      long first = raw ?
+          (from + step - 1) / step * step : from / step * step + step;
+      for (long t = first; t <= to; t += step) {
+        ApiTimeSeriesData point = new ApiTimeSeriesData();
+        point.setTimestamp(new Date(t));
+        point.setValue(t / step % 97);
+        point.setType(raw ? "SAMPLE" : "CALCULATED");
+        data.add(point);
+      }
+      series.add(new ApiTimeSeries(metadata, data));
+    }
+    ApiTimeSeriesResponse response = new ApiTimeSeriesResponse(series,
+        Lists.newArrayList("warning"), request.getQuery());
+    ApiTimeSeriesResponseList list = new ApiTimeSeriesResponseList();
+    list.setResponses(Lists.newArrayList(response));
+    return list;
+  }
+
+  private String single(ApiTimeSeriesRequest request) throws IOException {
+    Response response = timeSeries.queryTimeSeries(request);
+    return MAPPER.writeValueAsString(MAPPER.readValue(
+        (InputStream) response.getEntity(), ApiTimeSeriesResponseList.class));
+  }
+
+  @Test
+  public void testSplit() {
+    TimeSeriesQueryPlanner planner =
+        new TimeSeriesQueryPlanner(timeSeries, MAPPER, executor, 2)
+            .setChunkDuration(25, TimeUnit.MINUTES);
+    ApiTimeSeriesRequest request = new ApiTimeSeriesRequest("q",
+        ApiUtils.printDate(new Date(5 * MINUTE)),
+        ApiUtils.printDate(new Date(65 * MINUTE)),
+        "application/json", "TEN_MINUTELY", false);
+    List<String> bounds = Lists.newArrayList();
+    for (ApiTimeSeriesRequest chunk : planner.split(request)) {
+      bounds.add(chunk.getFrom() + "/" + chunk.getTo());
+    }
+    // 25 minutes round up to 30, the chunks being aligned on them.
+    assertEquals(Lists.newArrayList(
+        "1970-01-01T00:05:00.000Z/1970-01-01T00:30:00.000Z",
+        "1970-01-01T00:30:00.000Z/1970-01-01T01:00:00.000Z",
+        "1970-01-01T01:00:00.000Z/1970-01-01T01:05:00.000Z"), bounds);
+  }
+
+  @Test
+  public void testMatchesSingleQuery() throws Exception {
+    for (String rollup : new String[] { "RAW", "TEN_MINUTELY" }) {
+      ApiTimeSeriesRequest request = new ApiTimeSeriesRequest(
+          "select cpu_percent",
+          ApiUtils.printDate(new Date(7 * MINUTE + 1234)),
+          ApiUtils.printDate(new Date(9 * 60 * MINUTE + 30000)),
+          "application/json", rollup, false);
+      String expected = single(request);
+
+      requests.set(0);
+      maxRunning.set(0);
+      TimeSeriesQueryPlanner planner =
+          new TimeSeriesQueryPlanner(timeSeries, MAPPER, executor, 3)
+              .setChunkDuration(1, TimeUnit.HOURS);
+      ApiTimeSeriesResponseList merged = planner.query(request);
+      assertEquals(rollup, expected, MAPPER.writeValueAsString(merged));
+      assertEquals(10, requests.get());
+      assertTrue(maxRunning.get() > 1);
+      assertTrue(maxRunning.get() <= 3);
+    }
+  }
+
+  @Test
+  public void testAnalyzeMatchesSingleQuery() throws Exception {
+    ApiTimeSeriesRequest request = new ApiTimeSeriesRequest(
+        "select cpu_percent",
+        ApiUtils.printDate(new Date(7 * MINUTE + 1234)),
+        ApiUtils.printDate(new Date(9 * 60 * MINUTE)),
+        "application/json", "RAW", false);
+    TimeSeriesAnalytics expected = analytics().add(
+        MAPPER.readValue(single(request), ApiTimeSeriesResponseList.class));
+
+    requests.set(0);
+    TimeSeriesQueryPlanner planner =
+        new TimeSeriesQueryPlanner(timeSeries, MAPPER, executor, 3)
+            .setChunkDuration(1, TimeUnit.HOURS);
+    TimeSeriesAnalytics analyzed = planner.analyze(request, analytics());
+    assertEquals(9, requests.get());
+    // Points at the boundaries of chunks are counted once.
+    assertEquals(2 * (9 * 60 - 7), analyzed.getDigest().getCount());
+    assertEquals(expected.getDigest().getCount(),
+        analyzed.getDigest().getCount());
+    assertEquals(expected.getDigest().getMax(),
+        analyzed.getDigest().getMax(), 0);
+    assertEquals(expected.getTopK().getTop(), analyzed.getTopK().getTop());
+    assertTrue(Arrays.equals(expected.getHistogram().getCounts(),
+        analyzed.getHistogram().getCounts()));
+  }
+
+  private static TimeSeriesAnalytics analytics() {
+    return new TimeSeriesAnalytics(new TimeSeriesAnalytics.Digest(100),
+        new TimeSeriesAnalytics.TopK(1, true),
+        TimeSeriesAnalytics.Histogram.linear(0, 10, 10));
+  }
+
+  @Test
+  public void testFailure() throws Exception {
+    fail = true;
+    TimeSeriesQueryPlanner planner =
+        new TimeSeriesQueryPlanner(timeSeries, MAPPER, executor, 2)
+            .setChunkDuration(1, TimeUnit.HOURS);
+    try {
+      planner.query(new ApiTimeSeriesRequest("q",
+          ApiUtils.printDate(new Date(0)),
+          ApiUtils.printDate(new Date(5 * 60 * MINUTE))));
+      fail();
+    } catch (WebApplicationException e) {
+      assertEquals(500, e.getResponse().getStatus());
+      assertFalse(e.getResponse().hasEntity());
+    }
+  }
+}
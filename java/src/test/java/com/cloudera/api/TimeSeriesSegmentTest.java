@@ -0,0 +1,323 @@
+// Licensed to Cloudera, Inc. under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  Cloudera, Inc. licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.api;
+
+import com.cloudera.api.model.ApiTimeSeries;
+import com.cloudera.api.model.ApiTimeSeriesData;
+import com.cloudera.api.model.ApiTimeSeriesMetadata;
+import com.cloudera.api.model.ApiTimeSeriesResponse;
+import com.cloudera.api.model.ApiTimeSeriesResponseList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TimeSeriesSegmentTest {
+
+  private static final long MINUTE = 60000;
+
+  private File file;
+
+  @Before
+  public void setUp() throws IOException {
+    file = File.createTempFile("timeseries", ".segment");
+    file.delete();
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+  }
+
+  private static ColumnarTimeSeries newSeries(String entity, String metric,
+      long[] timestamps, double[] values, String[] types) {
+    ApiTimeSeriesMetadata metadata = new ApiTimeSeriesMetadata();
+    metadata.setEntityName(entity);
+    metadata.setMetricName(metric);
+    ColumnarTimeSeries.Builder builder =
+        new ColumnarTimeSeries.Builder(metadata, timestamps.length);
+    for (int i = 0; i < timestamps.length; i++) {
+      builder.add(timestamps[i], values[i], types[i % types.length]);
+    }
+    return builder.build();
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    Random random = new Random(42);
+    int size = 5000;
+    long[] timestamps = new long[size];
+    double[] values = new double[size];
+    double[] specials = { 0.0, -0.0, Double.NaN, Double.POSITIVE_INFINITY,
+        Double.NEGATIVE_INFINITY, Double.MIN_VALUE, Double.MAX_VALUE };
+    long t = 1483228800000L;
+    for (int i = 0; i < size; i++) {
+      // Regular, jittered, and irregular gaps.
+      t += i % 3 == 0 ? MINUTE : i % 3 == 1 ? MINUTE + random.nextInt(500) :
+          random.nextInt(Integer.MAX_VALUE);
+      timestamps[i] = t;
+      values[i] = i % 10 == 0 ? specials[i / 10 % specials.length] :
+          i % 2 == 0 ? random.nextDouble() : values[i - 1] + 1;
+    }
+    timestamps[0] = ColumnarTimeSeries.NO_TIME;
+    ColumnarTimeSeries series = newSeries("host1", "cpu_percent", timestamps,
+        values, new String[] { "SAMPLE", "CALCULATED", null });
+
+    TimeSeriesSegmentWriter writer = new TimeSeriesSegmentWriter(file);
+    writer.append(series);
+    writer.close();
+
+    TimeSeriesSegment segment = TimeSeriesSegment.open(file);
+    ColumnarTimeSeries read = segment.read("host1", "cpu_percent",
+        Long.MIN_VALUE, Long.MAX_VALUE);
+    assertEquals(size, read.size());
+    assertArrayEquals(timestamps, read.getTimestamps());
+    for (int i = 0; i < size; i++) {
+      assertEquals(Double.doubleToRawLongBits(values[i]),
+          Double.doubleToRawLongBits(read.getValue(i)));
+      assertEquals(series.getType(i), read.getType(i));
+    }
+    assertEquals("host1", read.getMetadata().getEntityName());
+  }
+
+  @Test
+  public void testWholeBlocks() throws IOException {
+    ColumnarTimeSeries.Builder builder = new ColumnarTimeSeries.Builder(
+        newSeries("host1", "cpu_percent", new long[0], new double[0],
+            new String[0]).getMetadata(), 2);
+    builder.add(MINUTE, 1.5, "CALCULATED");
+    builder.setStatistics(MINUTE - 10, 2.0, 5, 1.0, MINUTE - 20, 3.0,
+        MINUTE - 30, 1.5, 0.25, null);
+    builder.add(2 * MINUTE, 2.5, "SAMPLE");
+    ColumnarTimeSeries series = builder.build();
+    ColumnarTimeSeries empty = newSeries("host2", "cpu_percent", new long[0],
+        new double[0], new String[0]);
+
+    TimeSeriesSegmentWriter writer = new TimeSeriesSegmentWriter(file);
+    writer.appendWhole(series);
+    writer.appendWhole(empty);
+    writer.append(series);
+    writer.close();
+
+    TimeSeriesSegment segment = TimeSeriesSegment.open(file);
+    assertEquals(3, segment.getBlockCount());
+    ColumnarTimeSeries read = segment.readBlock(0);
+    assertArrayEquals(series.getTimestamps(), read.getTimestamps());
+    assertEquals("SAMPLE", read.getType(1));
+    assertTrue(read.hasAggregateStatistics(0));
+    assertFalse(read.hasAggregateStatistics(1));
+    assertEquals(MINUTE - 10, read.getSampleTimes()[0]);
+    assertEquals(2.0, read.getSampleValues()[0], 0);
+    assertEquals(5, read.getCounts()[0]);
+    assertEquals(MINUTE - 30, read.getMaxTimes()[0]);
+    assertEquals(0.25, read.getStdDevs()[0], 0);
+
+    read = segment.readBlock(1);
+    assertEquals(0, read.size());
+    assertEquals("host2", read.getMetadata().getEntityName());
+    // The empty series covers no period.
+    assertNull(segment.read("host2", "cpu_percent", Long.MIN_VALUE,
+        Long.MAX_VALUE));
+
+    // Appended without its statistics, and read once with the first block.
+    assertFalse(segment.readBlock(2).hasAggregateStatistics(0));
+    assertEquals(2,
+        segment.read("host1", "cpu_percent", 0, 3 * MINUTE).size());
+  }
+
+  @Test
+  public void testIndexAndRanges() throws IOException {
+    TimeSeriesSegmentWriter writer = new TimeSeriesSegmentWriter(file);
+    // Two days of a metric, appended a day at a time, the second day
+    // overlapping the first by an hour.
+    for (int day = 0; day < 2; day++) {
+      for (String host : new String[] { "host1", "host2" }) {
+        writer.append(day == 0 ?
+            regular(host, "cpu_percent", 0, 1440) :
+            regular(host, "cpu_percent", 1380, 1500));
+      }
+    }
+    writer.append(regular("host1", "load_1", 0, 10));
+    writer.close();
+
+    TimeSeriesSegment segment = TimeSeriesSegment.open(file);
+    assertEquals(Sets.newHashSet("host1", "host2"),
+        segment.getEntityNames());
+    assertEquals(Sets.newHashSet("cpu_percent", "load_1"),
+        segment.getMetricNames("host1"));
+    assertTrue(segment.getMetricNames("host3").isEmpty());
+    assertNull(segment.read("host3", "cpu_percent", 0, Long.MAX_VALUE));
+    assertNull(segment.read("host1", "cpu_percent", 3000 * MINUTE,
+        Long.MAX_VALUE));
+
+    ColumnarTimeSeries all = segment.read("host2", "cpu_percent", 0,
+        Long.MAX_VALUE);
+    assertEquals(2880, all.size());
+    for (int i = 0; i < all.size(); i++) {
+      assertEquals(i * MINUTE, all.getTimestamp(i));
+      assertEquals(i % 97, all.getValue(i), 0);
+    }
+
+    ColumnarTimeSeries range = segment.read("host1", "cpu_percent",
+        1400 * MINUTE, 1500 * MINUTE);
+    assertEquals(101, range.size());
+    assertEquals(1400 * MINUTE, range.getTimestamp(0));
+    assertEquals(1500 * MINUTE, range.getTimestamp(100));
+  }
+
+  private static ColumnarTimeSeries regular(String entity, String metric,
+                                            int fromMinute, int minutes) {
+    long[] timestamps = new long[minutes];
+    double[] values = new double[minutes];
+    for (int i = 0; i < minutes; i++) {
+      timestamps[i] = (fromMinute + i) * MINUTE;
+      values[i] = (fromMinute + i) % 97;
+    }
+    return newSeries(entity, metric, timestamps, values,
+        new String[] { "SAMPLE" });
+  }
+
+  @Test
+  public void testAppendResponsesAndCompression() throws IOException {
+    List<ApiTimeSeries> series = Lists.newArrayList();
+    for (int h = 0; h < 10; h++) {
+      ApiTimeSeriesMetadata metadata = new ApiTimeSeriesMetadata();
+      metadata.setEntityName("host" + h);
+      metadata.setMetricName("cpu_percent");
+      List<ApiTimeSeriesData> data = Lists.newArrayList();
+      for (int i = 0; i < 10000; i++) {
+        ApiTimeSeriesData point = new ApiTimeSeriesData();
+        point.setTimestamp(new Date(i * MINUTE));
+        point.setValue(i / 60 % 4 * 12.5);
+        point.setType("SAMPLE");
+        data.add(point);
+      }
+      series.add(new ApiTimeSeries(metadata, data));
+    }
+    ApiTimeSeriesResponseList responses = new ApiTimeSeriesResponseList();
+    responses.setResponses(Lists.newArrayList(
+        new ApiTimeSeriesResponse(series, null, "q")));
+
+    TimeSeriesSegmentWriter writer = new TimeSeriesSegmentWriter(file);
+    writer.append(responses);
+    writer.close();
+    // Regular timestamps and repeated values take a couple of bits a point.
+    assertTrue(file.length() < 10 * 10000);
+
+    TimeSeriesSegment segment = TimeSeriesSegment.open(file);
+    assertEquals(10, segment.getEntityNames().size());
+    double expected = 0;
+    for (int i = 0; i < 10000; i++) {
+      expected += i / 60 % 4 * 12.5;
+    }
+    final double[] sum = { 0 };
+    int count = segment.scan("host3", "cpu_percent", 0, Long.MAX_VALUE,
+        new TimeSeriesSegment.PointVisitor() {
+          @Override
+          public void visit(long timestamp, double value, String type) {
+            sum[0] += value;
+          }
+        });
+    assertEquals(10000, count);
+    assertEquals(expected, sum[0], 0);
+  }
+
+  @Test
+  public void testIncompleteBlockIgnored() throws IOException {
+    TimeSeriesSegmentWriter writer = new TimeSeriesSegmentWriter(file);
+    writer.append(regular("host1", "cpu_percent", 0, 100));
+    writer.append(regular("host1", "cpu_percent", 100, 100));
+    writer.close();
+
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    raf.setLength(raf.length() - 5);
+    raf.close();
+    TimeSeriesSegment segment = TimeSeriesSegment.open(file);
+    assertEquals(100, segment.read("host1", "cpu_percent", 0,
+        Long.MAX_VALUE).size());
+  }
+
+  @Test
+  public void testIncompleteBlockTruncatedOnAppend() throws IOException {
+    TimeSeriesSegmentWriter writer = new TimeSeriesSegmentWriter(file);
+    writer.append(regular("host1", "cpu_percent", 0, 100));
+    writer.append(regular("host1", "cpu_percent", 100, 100));
+    writer.close();
+    long complete = file.length();
+
+    // A crash in the middle of the third block.
+    writer = new TimeSeriesSegmentWriter(file);
+    writer.append(regular("host1", "cpu_percent", 200, 100));
+    writer.close();
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    raf.setLength(complete + (raf.length() - complete) / 2);
+    raf.close();
+
+    writer = new TimeSeriesSegmentWriter(file);
+    assertEquals(complete, file.length());
+    writer.append(regular("host1", "cpu_percent", 300, 100));
+    writer.append(regular("host2", "cpu_percent", 0, 100));
+    writer.close();
+    TimeSeriesSegment segment = TimeSeriesSegment.open(file);
+    assertEquals(Sets.newHashSet("host1", "host2"),
+        segment.getEntityNames());
+    ColumnarTimeSeries series =
+        segment.read("host1", "cpu_percent", 0, Long.MAX_VALUE);
+    assertEquals(300, series.size());
+    assertEquals(199 * MINUTE, series.getTimestamp(199));
+    assertEquals(300 * MINUTE, series.getTimestamp(200));
+  }
+
+  @Test
+  public void testIncompleteHeaderRewritten() throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    raf.writeInt(TimeSeriesSegment.MAGIC);
+    raf.close();
+    TimeSeriesSegmentWriter writer = new TimeSeriesSegmentWriter(file);
+    writer.append(regular("host1", "cpu_percent", 0, 100));
+    writer.close();
+    assertEquals(100, TimeSeriesSegment.open(file).read("host1",
+        "cpu_percent", 0, Long.MAX_VALUE).size());
+
+    raf = new RandomAccessFile(file, "rw");
+    raf.setLength(0);
+    raf.writeInt(0x12345678);
+    raf.close();
+    try {
+      new TimeSeriesSegmentWriter(file);
+      fail();
+    } catch (IOException e) {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,244 @@
+// Licensed to Cloudera, Inc. under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  Cloudera, Inc. licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.cloudera.api;
+
+import com.cloudera.api.model.ApiTimeSeries;
+import com.cloudera.api.model.ApiTimeSeriesData;
+import com.cloudera.api.model.ApiTimeSeriesMetadata;
+import com.cloudera.api.model.ApiTimeSeriesRequest;
+import com.cloudera.api.model.ApiTimeSeriesResponse;
+import com.cloudera.api.model.ApiTimeSeriesResponseList;
+import com.cloudera.api.v11.TimeSeriesResourceV11;
+import com.google.common.collect.Lists;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TimeSeriesTailerTest {
+
+  private static final ApiObjectMapper MAPPER = new ApiObjectMapper();
+  /** Collection frequency of the metrics served. */
+  private static final long FREQUENCY = 100;
+
+  private ScheduledExecutorService scheduler;
+  private TimeSeriesTailer tailer;
+  private final AtomicInteger requests = new AtomicInteger();
+  /** The periods queried, in milliseconds. */
+  private final List<Long> spans =
+      Collections.synchronizedList(Lists.<Long>newArrayList());
+  /** When "stopped" statements stop having points. */
+  private static volatile long stopTime;
+
+  @Rule
+  public final TestApiServer server = new TestApiServer(new HttpHandler() {
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      requests.incrementAndGet();
+      ApiTimeSeriesRequest request = MAPPER.readValue(
+          exchange.getRequestBody(), ApiTimeSeriesRequest.class);
+      spans.add(ApiUtils.newDateFromString(request.getTo()).getTime() -
+          ApiUtils.newDateFromString(request.getFrom()).getTime());
+      byte[] body = MAPPER.writeValueAsBytes(query(request));
+      exchange.getResponseHeaders().add("Content-Type", "application/json");
+      exchange.sendResponseHeaders(
+          request.getQuery().contains("bad") ? 400 : 200, body.length);
+      exchange.getResponseBody().write(body);
+      exchange.close();
+    }
+  });
+
+  @Before
+  public void setUp() {
+    scheduler = Executors.newSingleThreadScheduledExecutor();
+    TimeSeriesResourceV11 timeSeries = server.newClientBuilder()
+        .build()
+        .getRootV11()
+        .getTimeSeriesResource();
+    tailer = new TimeSeriesTailer(timeSeries, MAPPER, scheduler)
+        .setInitialWindow(1, TimeUnit.SECONDS)
+        .setIntervalBounds(FREQUENCY, 800, TimeUnit.MILLISECONDS);
+  }
+
+  @After
+  public void tearDown() {
+    scheduler.shutdownNow();
+  }
+
+  /**
+   * Serves, for each statement, a series with a point every FREQUENCY
+   * milliseconds over [from, to], or none for "empty" statements, or none
+   * after stopTime for "stopped" statements.
+   */
+  private static ApiTimeSeriesResponseList query(ApiTimeSeriesRequest request) {
+    long from = ApiUtils.newDateFromString(request.getFrom()).getTime();
+    long to = ApiUtils.newDateFromString(request.getTo()).getTime();
+    List<ApiTimeSeriesResponse> responses = Lists.newArrayList();
+    for (String statement : TimeSeriesBatcher.split(request.getQuery())) {
+      ApiTimeSeriesMetadata metadata = new ApiTimeSeriesMetadata();
+      metadata.setEntityName(statement);
+      metadata.setMetricName("metric");
+      metadata.setMetricCollectionFrequencyMs(FREQUENCY);
+      List<ApiTimeSeriesData> data = Lists.newArrayList();
+      if (!statement.contains("empty")) {
+        long end = statement.contains("stopped") ? Math.min(to, stopTime) : to;
+        for (long t = (from + FREQUENCY - 1) / FREQUENCY * FREQUENCY;
+             t <= end; t += FREQUENCY) {
+          ApiTimeSeriesData point = new ApiTimeSeriesData();
+          point.setTimestamp(new Date(t));
+          point.setValue(t);
+          data.add(point);
+        }
+      }
+      List<ApiTimeSeries> series = Lists.newArrayList(
+          new ApiTimeSeries(metadata, data));
+      responses.add(new ApiTimeSeriesResponse(series, null, statement));
+    }
+    return new ApiTimeSeriesResponseList(responses, null);
+  }
+
+  /** Records what a subscription receives. */
+  private static class Recorder implements TimeSeriesTailer.Listener {
+    final List<Long> times =
+        Collections.synchronizedList(Lists.<Long>newArrayList());
+    final AtomicInteger errors = new AtomicInteger();
+
+    @Override
+    public void onData(TimeSeriesTailer.Subscription subscription,
+                       List<ApiTimeSeries> timeSeries) {
+      for (ApiTimeSeries series : timeSeries) {
+        assertEquals(subscription.getQuery(),
+            series.getMetadata().getEntityName());
+        for (ApiTimeSeriesData point : series.getData()) {
+          times.add(point.getTimestamp().getTime());
+        }
+      }
+    }
+
+    @Override
+    public void onError(TimeSeriesTailer.Subscription subscription,
+                        Throwable error) {
+      errors.incrementAndGet();
+    }
+  }
+
+  @Test
+  public void testTail() throws Exception {
+    long start = System.currentTimeMillis();
+    List<Recorder> recorders = Lists.newArrayList();
+    List<TimeSeriesTailer.Subscription> subscriptions = Lists.newArrayList();
+    for (int i = 0; i < 200; i++) {
+      Recorder recorder = new Recorder();
+      recorders.add(recorder);
+      subscriptions.add(tailer.subscribe("select s" + i % 20, recorder));
+    }
+    Thread.sleep(1500);
+    for (TimeSeriesTailer.Subscription subscription : subscriptions) {
+      subscription.cancel();
+    }
+    long end = System.currentTimeMillis();
+
+    for (Recorder recorder : recorders) {
+      List<Long> times = Lists.newArrayList(recorder.times);
+      assertTrue(times.size() > 10);
+      assertTrue(times.get(0) >= start - 1000 - FREQUENCY);
+      for (int i = 1; i < times.size(); i++) {
+        // No point twice, none missed.
+        assertEquals(times.get(i - 1) + FREQUENCY, (long) times.get(i));
+      }
+      assertTrue(times.get(times.size() - 1) > end - 1000);
+      assertEquals(0, recorder.errors.get());
+    }
+    // Far fewer requests than subscriptions times polls.
+    assertTrue(String.valueOf(requests.get()), requests.get() < 40);
+  }
+
+  @Test
+  public void testBackOff() throws Exception {
+    Recorder recorder = new Recorder();
+    TimeSeriesTailer.Subscription subscription =
+        tailer.subscribe("select empty", recorder);
+    Thread.sleep(1000);
+    subscription.cancel();
+    assertTrue(recorder.times.isEmpty());
+    assertEquals(800, subscription.getInterval());
+  }
+
+  @Test
+  public void testStoppedSeries() throws Exception {
+    stopTime = System.currentTimeMillis() + 200;
+    Recorder stopped = new Recorder();
+    Recorder live = new Recorder();
+    TimeSeriesTailer.Subscription stoppedSubscription =
+        tailer.subscribe("select stopped", stopped);
+    TimeSeriesTailer.Subscription liveSubscription =
+        tailer.subscribe("select live", live);
+    // Past the longest period a poll goes back, 1.6 seconds.
+    Thread.sleep(2200);
+    spans.clear();
+    Thread.sleep(800);
+    stoppedSubscription.cancel();
+    liveSubscription.cancel();
+
+    assertTrue(stopped.times.get(stopped.times.size() - 1) <= stopTime);
+    assertTrue(live.times.size() > 20);
+    assertTrue(spans.size() > 3);
+    // The stopped series no longer makes each poll go back 1.6 seconds.
+    for (long span : Lists.newArrayList(spans)) {
+      assertTrue(String.valueOf(span), span < 1200);
+    }
+  }
+
+  @Test
+  public void testErrorsAndCancel() throws Exception {
+    Recorder bad = new Recorder();
+    Recorder good = new Recorder();
+    TimeSeriesTailer.Subscription badSubscription =
+        tailer.subscribe("bad", bad);
+    TimeSeriesTailer.Subscription goodSubscription =
+        tailer.subscribe("select good", good);
+    Thread.sleep(1000);
+    assertTrue(bad.errors.get() > 1);
+    assertTrue(bad.times.isEmpty());
+    assertTrue(good.times.size() > 10);
+    assertEquals(0, good.errors.get());
+
+    badSubscription.cancel();
+    goodSubscription.cancel();
+    Thread.sleep(2 * FREQUENCY);
+    int count = good.times.size();
+    int requestCount = requests.get();
+    Thread.sleep(3 * FREQUENCY);
+    assertEquals(count, good.times.size());
+    assertEquals(requestCount, requests.get());
+  }
+}
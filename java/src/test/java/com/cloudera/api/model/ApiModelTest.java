@@ -382,6 +382,26 @@ public class ApiModelTest {
     }
   }
 
+  @Test
+  public void testCompactJson() throws Exception {
+    ApiHost host = new ApiHost();
+    host.setHostId("myHostId");
+    host.setHostname("myHostname");
+    host.setRoleRefs(Lists.newArrayList(
+        new ApiRoleRef("cluster1", "hdfs1", "datanode1")));
+    ApiHostList hosts = new ApiHostList(Lists.newArrayList(host));
+
+    String indented = objectToJson(hosts);
+    String compact = new ApiObjectMapper(false).writeValueAsString(hosts);
+    assertTrue(indented.contains("\n"));
+    assertFalse(compact.contains("\n"));
+    assertTrue(compact.length() < indented.length());
+
+    ApiObjectMapper mapper = new ApiObjectMapper();
+    assertEquals(mapper.readValue(indented, Map.class),
+        mapper.readValue(compact, Map.class));
+  }
+
   @Test
   public void testActivity() throws Exception {
     ApiActivity activity = new ApiActivity("activityId",